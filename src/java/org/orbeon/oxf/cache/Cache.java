@@ -31,5 +31,6 @@ public interface Cache {
     Iterator iterateCacheKeys(PropertyContext propertyContext);
     Iterator iterateCacheObjects(PropertyContext propertyContext);
     void setMaxSize(PropertyContext propertyContext, int maxSize);
+    void setMaxWeight(PropertyContext propertyContext, long maxWeight);
     CacheStatistics getStatistics(PropertyContext propertyContext);
 }
@@ -25,6 +25,16 @@ public interface CacheStatistics {
      */
     public int getCurrentSize();
 
+    /**
+     * Maximum approximate size in bytes of the objects in cache, 0 if not limited
+     */
+    public long getMaxWeight();
+
+    /**
+     * Approximate size in bytes of the objects in cache at this time
+     */
+    public long getCurrentWeight();
+
     /**
      * Number of successful cache read
      */
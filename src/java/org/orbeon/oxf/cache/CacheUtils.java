@@ -14,7 +14,12 @@
 package org.orbeon.oxf.cache;
 
 import org.apache.commons.lang.StringUtils;
+import org.dom4j.Node;
 import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.xml.TransformerUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.om.VirtualNode;
+import org.orbeon.saxon.tinytree.TinyDocumentImpl;
 
 import java.util.Date;
 import java.util.Iterator;
@@ -24,6 +29,10 @@ public class CacheUtils {
 
     final private static int INDENTATION = 4;
 
+    // Size assumed for objects of unknown type
+    final private static long DEFAULT_OBJECT_SIZE = 1024;
+    final private static long STRING_SIZE = 40;
+
     public static String validityToString(Object validity) {
         return validityToString(validity, 0);
     }
@@ -56,4 +65,56 @@ public class CacheUtils {
         else
             return clazz.getName();
     }
+
+    /**
+     * Whether the given validity is lower or equal than the validity of a cache entry, i.e. whether the cache entry
+     * can be used.
+     *
+     * @param left      requested validity
+     * @param right     validity of the cache entry
+     * @return          true iif the cache entry is valid
+     */
+    public static boolean validityLowerOrEqual(Object left, Object right) {
+        if (left instanceof List && right instanceof List) {
+            List leftList = (List) left;
+            List rightList = (List) right;
+            if (leftList.size() != rightList.size())
+                return false;
+            for (Iterator leftIterator = leftList.iterator(), rightIterator = rightList.iterator();leftIterator.hasNext();) {
+                Object leftObject = leftIterator.next();
+                Object rightObject = rightIterator.next();
+                if (!validityLowerOrEqual(leftObject, rightObject))
+                    return false;
+            }
+            return true;
+        } else if (left instanceof Long && right instanceof Long) {
+            return (Long) left <= (Long) right;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Return the approximate size in memory of a cached object. This knows about objects implementing Sizeable,
+     * dom4j nodes and TinyTree documents.
+     *
+     * @param object    cached object
+     * @return          approximate size in bytes
+     */
+    public static long getApproximateSize(Object object) {
+        if (object instanceof Sizeable) {
+            return ((Sizeable) object).getApproximateSize();
+        } else if (object instanceof Node) {
+            return Dom4jUtils.getApproximateSize((Node) object);
+        } else if (object instanceof TinyDocumentImpl) {
+            return TransformerUtils.getApproximateSize((TinyDocumentImpl) object);
+        } else if (object instanceof VirtualNode && ((VirtualNode) object).getUnderlyingNode() instanceof Node) {
+            // Wrapped dom4j node
+            return Dom4jUtils.getApproximateSize((Node) ((VirtualNode) object).getUnderlyingNode());
+        } else if (object instanceof String) {
+            return STRING_SIZE + ((String) object).length() * 2;
+        } else {
+            return DEFAULT_OBJECT_SIZE;
+        }
+    }
 }
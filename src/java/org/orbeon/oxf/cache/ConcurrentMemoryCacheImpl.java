@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.apache.commons.collections.Transformer;
+import org.apache.commons.collections.iterators.TransformIterator;
+import org.orbeon.oxf.util.PropertyContext;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache implementation for highly concurrent access.
+ *
+ * o lookups go through a ConcurrentHashMap and don't take any lock
+ * o entries are partitioned into segments by key hash, and updates only lock the segment of the key
+ * o eviction uses the CLOCK algorithm within a segment instead of a global LRU list: a hit just sets the entry's
+ *   reference bit, and the clock hand gives referenced entries a second chance before evicting them
+ *
+ * The number of entries is bounded by maxSize, and their total weight by maxWeight, like with MemoryCacheImpl, but the
+ * entry evicted is an approximation of the least recently used entry.
+ */
+public class ConcurrentMemoryCacheImpl implements Cache {
+
+    private static final int MAX_SEGMENTS = 16;
+    // Don't create more segments than can hold this number of entries on average, to keep CLOCK close to LRU
+    private static final int MIN_ENTRIES_PER_SEGMENT = 16;
+
+    private final String cacheName;
+    private volatile int maxSize;
+    private volatile long maxWeight;
+
+    private final String statisticsContextKey;
+
+    private final ConcurrentHashMap<CacheKey, Entry> keyToEntryMap;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final AtomicInteger currentSize = new AtomicInteger();
+    private final AtomicLong currentWeight = new AtomicLong();
+
+    public ConcurrentMemoryCacheImpl(String cacheName, int maxSize) {
+        this.cacheName = cacheName;
+        this.maxSize = maxSize;
+
+        this.statisticsContextKey = "concurrent-memory-cache-statistics." + cacheName;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * MIN_ENTRIES_PER_SEGMENT <= maxSize)
+            segmentCount *= 2;
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment();
+        this.segmentMask = segmentCount - 1;
+
+        this.keyToEntryMap = new ConcurrentHashMap<CacheKey, Entry>(Math.max(16, maxSize * 4 / 3 + 1), 0.75f, segmentCount);
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    private class ConcurrentMemoryCacheStatistics implements CacheStatistics {
+
+        private int hitsCount;
+        private int missCount;
+        private int addCount;
+        private int expirationCount;
+
+        public int getMaxSize() { return maxSize; }
+        public int getCurrentSize() { return currentSize.get(); }
+        public long getMaxWeight() { return maxWeight; }
+        public long getCurrentWeight() { return currentWeight.get(); }
+
+        public int getHitCount() { return hitsCount; }
+        public int getMissCount() { return missCount; }
+        public int getAddCount() { return addCount; }
+        public int getExpirationCount() { return expirationCount; }
+
+        public void incrementHitsCount() { hitsCount++; }
+        public void incrementMissCount() { missCount++; }
+        public void incrementAddCount() { addCount++; }
+        public void incrementExpirationCount() { expirationCount++; }
+    }
+
+    /**
+     * Cache entry. The index is only accessed under the segment lock, while the reference bit is also set by lookups.
+     */
+    private static class Entry {
+        public final CacheKey key;
+        public final Object validity;
+        public final Object cacheable;
+        // Guarded by the lock of the segment
+        public long weight;
+
+        // New entries start unreferenced so that a new entry only survives a turn of the clock hand if it is used
+        public volatile boolean referenced;
+        public int index;
+
+        private Entry(CacheKey key, Object validity, Object cacheable, long weight) {
+            this.key = key;
+            this.validity = validity;
+            this.cacheable = cacheable;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Segment of the cache. All the entries of a segment are kept in a list, on which the clock hand moves.
+     */
+    private static class Segment {
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private int hand;
+
+        public void addEntry(Entry entry) {
+            entry.index = entries.size();
+            entries.add(entry);
+        }
+
+        public void replaceEntry(Entry existingEntry, Entry newEntry) {
+            newEntry.referenced = true;
+            newEntry.index = existingEntry.index;
+            entries.set(newEntry.index, newEntry);
+        }
+
+        public void removeEntry(Entry entry) {
+            // Move the last entry into the hole so that removal is O(1)
+            final Entry lastEntry = entries.remove(entries.size() - 1);
+            if (lastEntry != entry) {
+                lastEntry.index = entry.index;
+                entries.set(entry.index, lastEntry);
+            }
+            if (hand >= entries.size())
+                hand = 0;
+        }
+
+        public Entry findVictim(Entry excludedEntry) {
+            if (entries.size() == 0 || entries.size() == 1 && entries.get(0) == excludedEntry)
+                return null;
+            // This terminates at the latest during the second turn, as the first turn clears all the reference bits
+            while (true) {
+                final Entry candidate = entries.get(hand);
+                hand = (hand + 1) % entries.size();
+                if (candidate == excludedEntry)
+                    continue;
+                if (candidate.referenced)
+                    candidate.referenced = false;
+                else
+                    return candidate;
+            }
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        public void clear() {
+            entries.clear();
+            hand = 0;
+        }
+    }
+
+    private int segmentIndex(CacheKey key) {
+        // Spread the hash code bits so that keys with poor hash codes still use all the segments
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & segmentMask;
+    }
+
+    public void add(PropertyContext propertyContext, CacheKey key, Object validity, Object cacheable) {
+        if (key == null || validity == null || maxSize == 0) return;
+        final ConcurrentMemoryCacheStatistics statistics = (propertyContext != null) ? (ConcurrentMemoryCacheStatistics) getStatistics(propertyContext) : null;
+        if (statistics != null)
+            statistics.incrementAddCount();
+
+        // Weights are only needed with a max weight, as computing them may have to visit a large object
+        final long maxWeight = this.maxWeight;
+        final long weight = (maxWeight > 0) ? CacheUtils.getApproximateSize(cacheable) : 0;
+        if (maxWeight > 0 && weight > maxWeight) {
+            // Object can never fit: don't cache it, and don't keep an older version either
+            remove(propertyContext, key);
+            return;
+        }
+
+        final int segmentIndex = segmentIndex(key);
+        final Segment segment = segments[segmentIndex];
+        final Entry newEntry = new Entry(key, validity, cacheable, weight);
+        synchronized (segment) {
+            // The max weight may have been set since the weight was skipped
+            if (maxWeight == 0 && this.maxWeight > 0)
+                newEntry.weight = CacheUtils.getApproximateSize(cacheable);
+
+            final Entry existingEntry = keyToEntryMap.put(key, newEntry);
+            if (existingEntry == null) {
+                segment.addEntry(newEntry);
+                currentSize.incrementAndGet();
+                currentWeight.addAndGet(newEntry.weight);
+            } else {
+                // Update validity and mark as recently used
+                segment.replaceEntry(existingEntry, newEntry);
+                currentWeight.addAndGet(newEntry.weight - existingEntry.weight);
+            }
+        }
+
+        // Evict starting with the segment of the new entry so that the number of entries per segment stays balanced
+        evictExcessEntries(propertyContext, segmentIndex, newEntry, statistics);
+    }
+
+    private boolean isOverLimits() {
+        return currentSize.get() > maxSize || (maxWeight > 0 && currentWeight.get() > maxWeight);
+    }
+
+    private void evictExcessEntries(PropertyContext propertyContext, int startSegmentIndex, Entry newEntry, ConcurrentMemoryCacheStatistics statistics) {
+        int segmentIndex = startSegmentIndex;
+        int segmentsWithoutVictim = 0;
+        while (isOverLimits() && segmentsWithoutVictim < segments.length) {
+            final Segment segment = segments[segmentIndex];
+            final Entry victim;
+            synchronized (segment) {
+                // Never evict the entry just added
+                victim = segment.findVictim(newEntry);
+                if (victim != null) {
+                    segment.removeEntry(victim);
+                    keyToEntryMap.remove(victim.key);
+                    currentSize.decrementAndGet();
+                    currentWeight.addAndGet(-victim.weight);
+                }
+            }
+
+            if (victim != null) {
+                segmentsWithoutVictim = 0;
+
+                // Notify object outside of the lock
+                expire(propertyContext, victim.cacheable);
+
+                if (statistics != null)
+                    statistics.incrementExpirationCount();
+            } else {
+                // Nothing to evict in this segment, try the next one
+                segmentsWithoutVictim++;
+                segmentIndex = (segmentIndex + 1) & segmentMask;
+            }
+        }
+    }
+
+    public void remove(PropertyContext propertyContext, CacheKey key) {
+        final Segment segment = segments[segmentIndex(key)];
+        final Entry entry;
+        synchronized (segment) {
+            entry = keyToEntryMap.remove(key);
+            if (entry != null) {
+                segment.removeEntry(entry);
+                currentSize.decrementAndGet();
+                currentWeight.addAndGet(-entry.weight);
+            }
+        }
+
+        // Notify object
+        if (entry != null)
+            expire(propertyContext, entry.cacheable);
+    }
+
+    private void expire(PropertyContext propertyContext, Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).evict(propertyContext);
+        }
+    }
+
+    public int removeAll(PropertyContext propertyContext) {
+        int removedCount = 0;
+        for (final Segment segment: segments) {
+            final List<Entry> removedEntries;
+            synchronized (segment) {
+                removedEntries = new ArrayList<Entry>(segment.entries);
+                for (final Entry entry: removedEntries) {
+                    keyToEntryMap.remove(entry.key);
+                    currentWeight.addAndGet(-entry.weight);
+                }
+                segment.clear();
+                currentSize.addAndGet(-removedEntries.size());
+            }
+
+            // Notify objects
+            for (final Entry entry: removedEntries)
+                expire(propertyContext, entry.cacheable);
+
+            removedCount += removedEntries.size();
+        }
+        return removedCount;
+    }
+
+    public Object findValid(PropertyContext propertyContext, CacheKey key, Object validity) {
+
+        final Entry entry = keyToEntryMap.get(key);
+        if (entry != null && CacheUtils.validityLowerOrEqual(validity, entry.validity)) {
+            // Mark as recently used and return. Only write if needed, as this is shared between threads.
+            if (propertyContext != null)
+                ((ConcurrentMemoryCacheStatistics) getStatistics(propertyContext)).incrementHitsCount();
+            if (!entry.referenced)
+                entry.referenced = true;
+            return entry.cacheable;
+        } else {
+            // Not latest validity
+            if (propertyContext != null)
+                ((ConcurrentMemoryCacheStatistics) getStatistics(propertyContext)).incrementMissCount();
+            return null;
+        }
+    }
+
+    public void setMaxSize(PropertyContext propertyContext, int maxSize) {
+        if (maxSize != this.maxSize) {
+            this.maxSize = maxSize;
+            // Decrease size if necessary
+            evictExcessEntries(propertyContext, 0, null, null);
+        }
+    }
+
+    public void setMaxWeight(PropertyContext propertyContext, long maxWeight) {
+        if (maxWeight != this.maxWeight) {
+            final boolean computeWeights = this.maxWeight == 0 && maxWeight > 0;
+            this.maxWeight = maxWeight;
+            if (computeWeights) {
+                // Weights were not computed without max weight. Entries added from now on compute their weight.
+                for (final Segment segment: segments) {
+                    synchronized (segment) {
+                        for (final Entry entry: segment.entries) {
+                            final long weight = CacheUtils.getApproximateSize(entry.cacheable);
+                            currentWeight.addAndGet(weight - entry.weight);
+                            entry.weight = weight;
+                        }
+                    }
+                }
+            }
+            // Decrease weight if necessary
+            evictExcessEntries(propertyContext, 0, null, null);
+        }
+    }
+
+    public Iterator iterateCacheKeys(PropertyContext propertyContext) {
+        return keyToEntryMap.keySet().iterator();
+    }
+
+    public Iterator iterateCacheObjects(PropertyContext propertyContext) {
+        return new TransformIterator(keyToEntryMap.values().iterator(), new Transformer() {
+            public Object transform(Object o) {
+                return ((Entry) o).cacheable;
+            }
+        });
+    }
+
+    public CacheStatistics getStatistics(PropertyContext propertyContext) {
+        // Statistics are per context, and a context is not shared between threads
+        ConcurrentMemoryCacheStatistics statistics = (ConcurrentMemoryCacheStatistics) propertyContext.getAttribute(statisticsContextKey);
+        if (statistics == null) {
+            statistics = new ConcurrentMemoryCacheStatistics();
+            propertyContext.setAttribute(statisticsContextKey, statistics);
+        }
+
+        return statistics;
+    }
+}
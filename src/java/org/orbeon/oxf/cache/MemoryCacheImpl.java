@@ -19,7 +19,6 @@ import org.orbeon.oxf.util.PropertyContext;
 
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,12 +30,15 @@ public class MemoryCacheImpl implements Cache {
 
     private final String cacheName;
     private int maxSize;
+    // Read outside of the lock to decide whether to compute weights
+    private volatile long maxWeight;
 
     private final String statisticsContextKey;
 
     private Map<CacheKey, CacheEntry> keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
     private CacheLinkedList linkedList = new CacheLinkedList();
     private int currentSize;
+    private long currentWeight;
 
     public MemoryCacheImpl(String cacheName, int maxSize) {
         this.cacheName = cacheName;
@@ -58,6 +60,8 @@ public class MemoryCacheImpl implements Cache {
 
         public int getMaxSize() { return maxSize; }
         public int getCurrentSize() { return currentSize; }
+        public long getMaxWeight() { return maxWeight; }
+        public long getCurrentWeight() { return currentWeight; }
 
         public int getHitCount() { return hitsCount; }
         public int getMissCount() { return missCount; }
@@ -70,11 +74,25 @@ public class MemoryCacheImpl implements Cache {
         public void incrementExpirationCount() { expirationCount++; }
     }
 
-    public synchronized void add(PropertyContext propertyContext, CacheKey key, Object validity, Object cacheable) {
+    public void add(PropertyContext propertyContext, CacheKey key, Object validity, Object cacheable) {
         if (key == null || validity == null || maxSize == 0) return;
+        // Weights are only needed with a max weight. Compute the weight outside of the lock, as this may have to visit
+        // a large object.
+        final long weight = (maxWeight > 0) ? CacheUtils.getApproximateSize(cacheable) : -1;
+        add(propertyContext, key, validity, cacheable, weight);
+    }
+
+    private synchronized void add(PropertyContext propertyContext, CacheKey key, Object validity, Object cacheable, long approximateWeight) {
+        // The max weight may have been set since the weight was skipped
+        final long weight = (approximateWeight >= 0) ? approximateWeight : (maxWeight > 0) ? CacheUtils.getApproximateSize(cacheable) : 0;
         final MemoryCacheStatistics statistics = (propertyContext != null) ? (MemoryCacheStatistics) getStatistics(propertyContext) : null;
         if (statistics != null)
             statistics.incrementAddCount();
+        if (maxWeight > 0 && weight > maxWeight) {
+            // Object can never fit: don't cache it, and don't keep an older version either
+            remove(propertyContext, key);
+            return;
+        }
         CacheEntry entry = keyToEntryMap.get(key);
         if (entry == null) {
             // No existing entry found
@@ -86,6 +104,7 @@ public class MemoryCacheImpl implements Cache {
 
                 keyToEntryMap.remove(entry.key);
                 linkedList.removeLast();
+                currentWeight -= entry.weight;
 
                 if (statistics != null)
                     statistics.incrementExpirationCount();
@@ -96,15 +115,26 @@ public class MemoryCacheImpl implements Cache {
             entry.key = key;
             entry.validity = validity;
             entry.cacheable = cacheable;
+            entry.weight = weight;
+            currentWeight += weight;
             keyToEntryMap.put(key, entry);
             entry.listEntry = linkedList.addFirst(entry);
         } else {
             // Update validity and move to the front
             entry.validity = validity;
             entry.cacheable = cacheable;
+            currentWeight += weight - entry.weight;
+            entry.weight = weight;
             linkedList.remove(entry.listEntry);
             entry.listEntry = linkedList.addFirst(entry);
         }
+
+        // Decrease weight if necessary. The new entry is first in the list, so it is not removed.
+        while (maxWeight > 0 && currentWeight > maxWeight) {
+            remove(propertyContext, ((CacheEntry) linkedList.getLast()).key);
+            if (statistics != null)
+                statistics.incrementExpirationCount();
+        }
     }
 
     public synchronized void remove(PropertyContext propertyContext, CacheKey key) {
@@ -117,6 +147,7 @@ public class MemoryCacheImpl implements Cache {
             keyToEntryMap.remove(key);
             linkedList.remove(entry.listEntry);
             currentSize--;
+            currentWeight -= entry.weight;
         }
     }
 
@@ -137,13 +168,14 @@ public class MemoryCacheImpl implements Cache {
         keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
         linkedList = new CacheLinkedList();
         currentSize = 0;
+        currentWeight = 0;
         return previousSize;
     }
 
     public synchronized Object findValid(PropertyContext propertyContext, CacheKey key, Object validity) {
 
         final CacheEntry entry = keyToEntryMap.get(key);
-        if (entry != null && lowerOrEqual(validity, entry.validity)) {
+        if (entry != null && CacheUtils.validityLowerOrEqual(validity, entry.validity)) {
             // Place in first position and return
             if (propertyContext != null)
                 ((MemoryCacheStatistics) getStatistics(propertyContext)).incrementHitsCount();
@@ -169,6 +201,23 @@ public class MemoryCacheImpl implements Cache {
         }
     }
 
+    public synchronized void setMaxWeight(PropertyContext propertyContext, long maxWeight) {
+        if (maxWeight != this.maxWeight) {
+            if (this.maxWeight == 0 && maxWeight > 0) {
+                // Weights were not computed without max weight
+                for (final CacheEntry entry: keyToEntryMap.values()) {
+                    final long weight = CacheUtils.getApproximateSize(entry.cacheable);
+                    currentWeight += weight - entry.weight;
+                    entry.weight = weight;
+                }
+            }
+            // Decrease weight if necessary
+            while (maxWeight > 0 && currentWeight > maxWeight)
+                remove(propertyContext, ((CacheEntry) linkedList.getLast()).key);
+            this.maxWeight = maxWeight;
+        }
+    }
+
     public Iterator iterateCacheKeys(PropertyContext propertyContext) {
         return keyToEntryMap.keySet().iterator();
     }
@@ -190,24 +239,4 @@ public class MemoryCacheImpl implements Cache {
 
         return statistics;
     }
-
-    private boolean lowerOrEqual(Object left, Object right) {
-        if (left instanceof List && right instanceof List) {
-            List leftList = (List) left;
-            List rightList = (List) right;
-            if (leftList.size() != rightList.size())
-                return false;
-            for (Iterator leftIterator = leftList.iterator(), rightIterator = rightList.iterator();leftIterator.hasNext();) {
-                Object leftObject = leftIterator.next();
-                Object rightObject = rightIterator.next();
-                if (!lowerOrEqual(leftObject, rightObject))
-                    return false;
-            }
-            return true;
-        } else if (left instanceof Long && right instanceof Long) {
-            return (Long) left <= (Long) right;
-        } else {
-            return false;
-        }
-    }
 }
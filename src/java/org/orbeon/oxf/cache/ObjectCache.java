@@ -13,10 +13,13 @@
  */
 package org.orbeon.oxf.cache;
 
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
 
-import java.util.HashMap;
+import java.io.File;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Factory for ObjectCache instances.
@@ -28,11 +31,24 @@ public class ObjectCache {
 
     private static final String CACHE_PROPERTY_NAME_PREFIX = "oxf.";
     private static final String CACHE_PROPERTY_NAME_SIZE_SUFFIX = ".size";
+    private static final String CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX = ".max-weight";
+    private static final String CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX = ".implementation";
+    private static final String CACHE_PROPERTY_NAME_SECOND_LEVEL_SIZE_SUFFIX = ".second-level.size";
+    private static final String CACHE_PROPERTY_NAME_SECOND_LEVEL_DIRECTORY_SUFFIX = ".second-level.directory";
 
-    private static final Map<String, Cache> namedObjectCaches = new HashMap<String, Cache>();
+    public static final String MEMORY_IMPLEMENTATION = "memory";
+    public static final String CONCURRENT_IMPLEMENTATION = "concurrent";
+    private static final String DEFAULT_IMPLEMENTATION = MEMORY_IMPLEMENTATION;
+
+    // Lookups don't lock, as caches are requested very often and by all threads
+    private static final Map<String, Cache> namedObjectCaches = new ConcurrentHashMap<String, Cache>();
+
+    // Main cache used while properties are loading, as loading properties itself uses the main cache
+    private static final Cache bootstrapMainCache = new MemoryCacheImpl(DEFAULT_CACHE_NAME, DEFAULT_SIZE);
+    private static volatile Cache mainCache;
 
     static {
-        namedObjectCaches.put(DEFAULT_CACHE_NAME, new MemoryCacheImpl(DEFAULT_CACHE_NAME, DEFAULT_SIZE));
+        namedObjectCaches.put(DEFAULT_CACHE_NAME, bootstrapMainCache);
     }
 
     private ObjectCache() {}
@@ -43,34 +59,96 @@ public class ObjectCache {
      * @return instance of cache
      */
     public static Cache instance() {
-        return namedObjectCaches.get(DEFAULT_CACHE_NAME);
+        final Cache cache = mainCache;
+        return (cache != null) ? cache : initMainCache();
+    }
+
+    private synchronized static Cache initMainCache() {
+        if (mainCache == null) {
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+            if (propertySet == null) {
+                // Properties are not available yet
+                return bootstrapMainCache;
+            }
+            final String implementation = getImplementation(propertySet, DEFAULT_CACHE_NAME);
+            final Cache firstLevelCache = MEMORY_IMPLEMENTATION.equals(implementation)
+                    ? bootstrapMainCache
+                    : createCache(DEFAULT_CACHE_NAME, DEFAULT_SIZE, implementation);
+            final Cache cache = addSecondLevel(propertySet, firstLevelCache);
+            namedObjectCaches.put(DEFAULT_CACHE_NAME, cache);
+            mainCache = cache;
+        }
+        return mainCache;
     }
 
     /**
      * Get the instance of the object cache specified.
      *
+     * The size of the cache is read from the oxf.[cacheName].size property, the maximum approximate size in bytes of
+     * cached objects from oxf.[cacheName].max-weight (0 or missing for no limit), and the implementation from the
+     * oxf.[cacheName].implementation property, which can be "memory" (the default) or "concurrent".
+     *
+     * If oxf.[cacheName].second-level.size is set to a number of bytes, SAXStore objects evicted from the cache are
+     * kept in serialized form outside of the Java heap, in a memory-mapped file in oxf.[cacheName].second-level.directory
+     * if set, in a direct buffer otherwise.
+     *
      * @param cacheName     name of the cache
      * @param defaultSize   default size if size is not found in properties
      * @return              instance of cache
      */
-    public synchronized static Cache instance(String cacheName, int defaultSize) {
+    public static Cache instance(String cacheName, int defaultSize) {
+        final Cache cache = namedObjectCaches.get(cacheName);
+        return (cache != null) ? cache : createNamedCache(cacheName, defaultSize);
+    }
+
+    private synchronized static Cache createNamedCache(String cacheName, int defaultSize) {
         Cache cache = namedObjectCaches.get(cacheName);
         if (cache == null) {
+            final PropertySet propertySet = Properties.instance().getPropertySet();
             final String propertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX;
-            final Integer size = Properties.instance().getPropertySet().getInteger(propertyName, defaultSize);
-            cache = new MemoryCacheImpl(cacheName, size);
+            final Integer size = propertySet.getInteger(propertyName, defaultSize);
+            cache = addSecondLevel(propertySet, createCache(cacheName, size, getImplementation(propertySet, cacheName)));
+            final Integer maxWeight = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX, 0);
+            cache.setMaxWeight(null, maxWeight);
             namedObjectCaches.put(cacheName, cache);
         }
         return cache;
     }
 
+    private static String getImplementation(PropertySet propertySet, String cacheName) {
+        final String propertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX;
+        return propertySet.getString(propertyName, DEFAULT_IMPLEMENTATION);
+    }
+
+    private static Cache createCache(String cacheName, int size, String implementation) {
+        if (MEMORY_IMPLEMENTATION.equals(implementation))
+            return new MemoryCacheImpl(cacheName, size);
+        else if (CONCURRENT_IMPLEMENTATION.equals(implementation))
+            return new ConcurrentMemoryCacheImpl(cacheName, size);
+        else
+            throw new OXFException("Invalid cache implementation for cache " + cacheName + ": " + implementation);
+    }
+
+    private static Cache addSecondLevel(PropertySet propertySet, Cache cache) {
+        final String cacheName = cache.getCacheName();
+        final Integer secondLevelSize = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SECOND_LEVEL_SIZE_SUFFIX, 0);
+        if (secondLevelSize <= 0)
+            return cache;
+
+        final String directory = propertySet.getString(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SECOND_LEVEL_DIRECTORY_SUFFIX);
+        final OffHeapStore store = (directory != null)
+                ? OffHeapStore.createMapped(new File(directory), secondLevelSize)
+                : OffHeapStore.createDirect(secondLevelSize);
+        return new TieredCacheImpl(cache, store);
+    }
+
     /**
      * Get the instance of the object cache specified if it exists.
      *
      * @param cacheName     name of the cache
      * @return              instance of cache, null if did not exist
      */
-    public synchronized static Cache instanceIfExists(String cacheName) {
-        return (namedObjectCaches == null) ? null : namedObjectCaches.get(cacheName);
+    public static Cache instanceIfExists(String cacheName) {
+        return namedObjectCaches.get(cacheName);
     }
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.common.OXFException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Store of serialized objects outside of the Java heap, either in a direct buffer or in a memory-mapped file.
+ *
+ * The buffer is used as a ring: new objects are written after the last one, and when the end of the buffer is reached
+ * writing starts again at the beginning, overwriting the oldest objects. So the store behaves as a FIFO.
+ */
+public class OffHeapStore {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    // Entries in the order they were written, which is also the order of their offsets within a turn of the ring
+    private final LinkedHashMap<CacheKey, StoreEntry> entries = new LinkedHashMap<CacheKey, StoreEntry>();
+    private int writePosition;
+    private long usedBytes;
+
+    private static class StoreEntry {
+        public final Object validity;
+        public final int offset;
+        public final int length;
+
+        private StoreEntry(Object validity, int offset, int length) {
+            this.validity = validity;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public static class StoredObject {
+        public final Object validity;
+        public final byte[] bytes;
+
+        private StoredObject(Object validity, byte[] bytes) {
+            this.validity = validity;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Create a store in a direct buffer.
+     *
+     * @param capacity  capacity in bytes
+     * @return          store
+     */
+    public static OffHeapStore createDirect(int capacity) {
+        return new OffHeapStore(ByteBuffer.allocateDirect(capacity));
+    }
+
+    /**
+     * Create a store in a memory-mapped temporary file.
+     *
+     * @param directory directory in which to create the file
+     * @param capacity  capacity in bytes
+     * @return          store
+     */
+    public static OffHeapStore createMapped(File directory, int capacity) {
+        try {
+            final File file = File.createTempFile("orbeon-cache", ".tmp", directory);
+            file.deleteOnExit();
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(capacity);
+                // The mapping remains valid after the channel is closed
+                return new OffHeapStore(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            throw new OXFException(e);
+        }
+    }
+
+    private OffHeapStore(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    /**
+     * Store serialized bytes for the given key, replacing any existing bytes for that key.
+     *
+     * @param key       cache key
+     * @param validity  validity of the object
+     * @param bytes     serialized object
+     * @return          true iif the bytes were stored, false if they don't fit in the store
+     */
+    public synchronized boolean put(CacheKey key, Object validity, byte[] bytes) {
+        remove(key);
+        final int length = bytes.length;
+        if (length > capacity)
+            return false;
+
+        if (writePosition + length > capacity) {
+            // Not enough space until the end of the buffer: discard the entries there, which are the oldest, and wrap
+            for (final Iterator<StoreEntry> i = entries.values().iterator(); i.hasNext();) {
+                final StoreEntry entry = i.next();
+                if (entry.offset < writePosition)
+                    break;
+                i.remove();
+                usedBytes -= entry.length;
+            }
+            writePosition = 0;
+        }
+
+        // Discard the oldest entries overlapping the area to write
+        for (final Iterator<StoreEntry> i = entries.values().iterator(); i.hasNext();) {
+            final StoreEntry entry = i.next();
+            if (entry.offset >= writePosition + length || entry.offset + entry.length <= writePosition)
+                break;
+            i.remove();
+            usedBytes -= entry.length;
+        }
+
+        final ByteBuffer destination = buffer.duplicate();
+        destination.position(writePosition);
+        destination.put(bytes);
+
+        entries.put(key, new StoreEntry(validity, writePosition, length));
+        writePosition += length;
+        usedBytes += length;
+        return true;
+    }
+
+    /**
+     * Find serialized bytes for the given key if they are valid.
+     *
+     * @param key       cache key
+     * @param validity  requested validity
+     * @return          stored object, null if not found or not valid
+     */
+    public synchronized StoredObject find(CacheKey key, Object validity) {
+        final StoreEntry entry = entries.get(key);
+        if (entry == null || !CacheUtils.validityLowerOrEqual(validity, entry.validity))
+            return null;
+
+        final byte[] bytes = new byte[entry.length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(entry.offset);
+        source.get(bytes);
+        return new StoredObject(entry.validity, bytes);
+    }
+
+    public synchronized void remove(CacheKey key) {
+        final StoreEntry entry = entries.remove(key);
+        if (entry != null)
+            usedBytes -= entry.length;
+    }
+
+    public synchronized int removeAll() {
+        final int previousSize = entries.size();
+        entries.clear();
+        writePosition = 0;
+        usedBytes = 0;
+        return previousSize;
+    }
+
+    public synchronized int getCurrentSize() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.common.OXFException;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesce concurrent computations of the same cached object.
+ *
+ * The first thread to join a flight for a given key and validity becomes its leader and computes the object. Threads
+ * joining while the computation is in progress wait for the leader to complete the flight and share its result, or
+ * its exception.
+ *
+ * Usage:
+ *
+ * <pre>
+ * final SingleFlight.Flight flight = singleFlight.join(key, validity);
+ * if (flight != null && !flight.isLeader()) {
+ *     if (flight.await(timeout))
+ *         return flight.getResult();
+ *     // else compute without coalescing
+ * }
+ * try {
+ *     final Object result = compute();
+ *     if (flight != null) flight.complete(result);
+ *     return result;
+ * } catch (RuntimeException e) {
+ *     if (flight != null) flight.fail(e);
+ *     throw e;
+ * }
+ * </pre>
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<Object, Flight> flights = new ConcurrentHashMap<Object, Flight>();
+
+    public class Flight {
+
+        private final Object flightKey;
+        private final Thread leaderThread = Thread.currentThread();
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private Object result;
+        private Throwable throwable;
+
+        private Flight(Object flightKey) {
+            this.flightKey = flightKey;
+        }
+
+        public boolean isLeader() {
+            return Thread.currentThread() == leaderThread;
+        }
+
+        /**
+         * Wait for the leader to complete the flight.
+         *
+         * @param timeout   maximum time to wait in milliseconds
+         * @return          true iif the flight completed before the timeout
+         */
+        public boolean await(long timeout) {
+            try {
+                return latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Return the result of a completed flight, or throw the exception with which the leader failed.
+         */
+        public Object getResult() {
+            if (throwable instanceof RuntimeException)
+                throw (RuntimeException) throwable;
+            else if (throwable instanceof Error)
+                throw (Error) throwable;
+            else if (throwable != null)
+                throw new OXFException(throwable);
+            else
+                return result;
+        }
+
+        public void complete(Object result) {
+            this.result = result;
+            land();
+        }
+
+        public void fail(Throwable throwable) {
+            this.throwable = throwable;
+            land();
+        }
+
+        private void land() {
+            // Threads joining from now on start a new flight, as they may have to see a newer object
+            flights.remove(flightKey, this);
+            // This publishes result and throwable to the waiting threads
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Join the flight for the given key and validity, starting it if there is no flight in progress.
+     *
+     * @param key       cache key
+     * @param validity  validity
+     * @return          flight, or null if the current thread is already leading a flight for the same key and
+     *                  validity, in which case the caller must not coalesce
+     */
+    public Flight join(CacheKey key, Object validity) {
+        final Object flightKey = Arrays.asList(key, validity);
+        final Flight newFlight = new Flight(flightKey);
+        final Flight existingFlight = flights.putIfAbsent(flightKey, newFlight);
+        if (existingFlight == null)
+            return newFlight;
+        else if (existingFlight.isLeader())
+            return null;
+        else
+            return existingFlight;
+    }
+
+    public int getFlightCount() {
+        return flights.size();
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.apache.commons.collections.Transformer;
+import org.apache.commons.collections.iterators.TransformIterator;
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.util.PropertyContext;
+import org.orbeon.oxf.xml.SAXStore;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache with a second level for SAXStore objects.
+ *
+ * When the first level cache evicts a SAXStore, the SAXStore is serialized into an OffHeapStore instead of being
+ * discarded. When the first level cache doesn't have a valid object, the second level is checked, and if a valid
+ * SAXStore is found there it is deserialized and promoted back to the first level.
+ *
+ * Other types of objects are only kept in the first level.
+ *
+ * Eviction happens while the first level holds its lock, so evicted SAXStore objects are only collected then, and they
+ * are serialized once the call to the first level has returned.
+ */
+public class TieredCacheImpl implements Cache {
+
+    private static final Logger logger = LoggerFactory.createLogger(TieredCacheImpl.class);
+
+    private final Cache firstLevelCache;
+    private final OffHeapStore secondLevelStore;
+
+    private final String statisticsContextKey;
+
+    // Set while removing entries, as removed entries must not be moved to the second level
+    private final ThreadLocal<Boolean> isRemoving = new ThreadLocal<Boolean>();
+    // Key being added, as the version being replaced must not be moved to the second level
+    private final ThreadLocal<CacheKey> addedKey = new ThreadLocal<CacheKey>();
+    // Entries evicted by the current thread, to move to the second level
+    private final ThreadLocal<List<SpillableEntry>> evictedEntries = new ThreadLocal<List<SpillableEntry>>();
+
+    public TieredCacheImpl(Cache firstLevelCache, OffHeapStore secondLevelStore) {
+        this.firstLevelCache = firstLevelCache;
+        this.secondLevelStore = secondLevelStore;
+
+        this.statisticsContextKey = "tiered-cache-statistics." + firstLevelCache.getCacheName();
+    }
+
+    public String getCacheName() {
+        return firstLevelCache.getCacheName();
+    }
+
+    /**
+     * Statistics of the first level, where hits in the second level count as hits instead of misses.
+     */
+    private class TieredCacheStatistics implements CacheStatistics {
+
+        private final PropertyContext propertyContext;
+        private final AtomicInteger secondLevelHitsCount = new AtomicInteger();
+
+        private TieredCacheStatistics(PropertyContext propertyContext) {
+            this.propertyContext = propertyContext;
+        }
+
+        private CacheStatistics getFirstLevelStatistics() {
+            return firstLevelCache.getStatistics(propertyContext);
+        }
+
+        public int getMaxSize() { return getFirstLevelStatistics().getMaxSize(); }
+        public int getCurrentSize() { return getFirstLevelStatistics().getCurrentSize() + secondLevelStore.getCurrentSize(); }
+        public long getMaxWeight() { return getFirstLevelStatistics().getMaxWeight(); }
+        public long getCurrentWeight() { return getFirstLevelStatistics().getCurrentWeight(); }
+
+        public int getHitCount() { return getFirstLevelStatistics().getHitCount() + secondLevelHitsCount.get(); }
+        public int getMissCount() { return getFirstLevelStatistics().getMissCount() - secondLevelHitsCount.get(); }
+        public int getAddCount() { return getFirstLevelStatistics().getAddCount(); }
+        public int getExpirationCount() { return getFirstLevelStatistics().getExpirationCount(); }
+
+        public void incrementSecondLevelHitsCount() { secondLevelHitsCount.incrementAndGet(); }
+    }
+
+    /**
+     * Wrapper for SAXStore objects in the first level, which moves the SAXStore to the second level upon eviction.
+     */
+    private class SpillableEntry implements Cacheable, Sizeable {
+
+        public final CacheKey key;
+        public final Object validity;
+        public final SAXStore saxStore;
+
+        private SpillableEntry(CacheKey key, Object validity, SAXStore saxStore) {
+            this.key = key;
+            this.validity = validity;
+            this.saxStore = saxStore;
+        }
+
+        public void evict(PropertyContext propertyContext) {
+            if (isRemoving.get() == null && !key.equals(addedKey.get())) {
+                List<SpillableEntry> entries = evictedEntries.get();
+                if (entries == null) {
+                    entries = new ArrayList<SpillableEntry>();
+                    evictedEntries.set(entries);
+                }
+                entries.add(this);
+            }
+        }
+
+        public long getApproximateSize() {
+            return saxStore.getApproximateSize();
+        }
+    }
+
+    /**
+     * Move the entries evicted by the current thread to the second level. This must be called once the first level has
+     * returned.
+     */
+    private void spillEvictedEntries() {
+        final List<SpillableEntry> entries = evictedEntries.get();
+        if (entries != null) {
+            evictedEntries.remove();
+            for (final SpillableEntry entry: entries)
+                spill(entry.key, entry.validity, entry.saxStore);
+        }
+    }
+
+    private void spill(CacheKey key, Object validity, SAXStore saxStore) {
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+            saxStore.writeExternal(objectOutputStream);
+            objectOutputStream.close();
+
+            if (!secondLevelStore.put(key, validity, byteArrayOutputStream.toByteArray()) && logger.isDebugEnabled())
+                logger.debug("SAXStore too large for second level of cache " + getCacheName() + ": " + key);
+        } catch (Exception e) {
+            // Not all SAXStore objects can be serialized, e.g. very long strings. Just let them go.
+            if (logger.isDebugEnabled())
+                logger.debug("Unable to move SAXStore to second level of cache " + getCacheName() + ": " + key, e);
+        }
+    }
+
+    private SAXStore restore(byte[] bytes) {
+        try {
+            return new SAXStore(new ObjectInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            // Can't happen as we read from memory and the header was written by ObjectOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void add(PropertyContext propertyContext, CacheKey key, Object validity, Object object) {
+        if (key == null || validity == null) return;
+        // The new object replaces the one in the second level if any
+        secondLevelStore.remove(key);
+        addedKey.set(key);
+        try {
+            firstLevelCache.add(propertyContext, key, validity,
+                    (object instanceof SAXStore) ? new SpillableEntry(key, validity, (SAXStore) object) : object);
+        } finally {
+            addedKey.remove();
+            spillEvictedEntries();
+        }
+    }
+
+    public void remove(PropertyContext propertyContext, CacheKey key) {
+        isRemoving.set(Boolean.TRUE);
+        try {
+            firstLevelCache.remove(propertyContext, key);
+        } finally {
+            isRemoving.remove();
+        }
+        secondLevelStore.remove(key);
+    }
+
+    public int removeAll(PropertyContext propertyContext) {
+        final int firstLevelCount;
+        isRemoving.set(Boolean.TRUE);
+        try {
+            firstLevelCount = firstLevelCache.removeAll(propertyContext);
+        } finally {
+            isRemoving.remove();
+        }
+        return firstLevelCount + secondLevelStore.removeAll();
+    }
+
+    public Object findValid(PropertyContext propertyContext, CacheKey key, Object validity) {
+        final Object firstLevelObject = firstLevelCache.findValid(propertyContext, key, validity);
+        if (firstLevelObject != null)
+            return unwrap(firstLevelObject);
+
+        final OffHeapStore.StoredObject storedObject = secondLevelStore.find(key, validity);
+        if (storedObject == null)
+            return null;
+
+        // Promote to the first level
+        final SAXStore saxStore = restore(storedObject.bytes);
+        add(propertyContext, key, storedObject.validity, saxStore);
+        if (propertyContext != null)
+            ((TieredCacheStatistics) getStatistics(propertyContext)).incrementSecondLevelHitsCount();
+
+        return saxStore;
+    }
+
+    private static Object unwrap(Object object) {
+        return (object instanceof SpillableEntry) ? ((SpillableEntry) object).saxStore : object;
+    }
+
+    public Iterator iterateCacheKeys(PropertyContext propertyContext) {
+        return firstLevelCache.iterateCacheKeys(propertyContext);
+    }
+
+    public Iterator iterateCacheObjects(PropertyContext propertyContext) {
+        return new TransformIterator(firstLevelCache.iterateCacheObjects(propertyContext), new Transformer() {
+            public Object transform(Object o) {
+                return unwrap(o);
+            }
+        });
+    }
+
+    public void setMaxSize(PropertyContext propertyContext, int maxSize) {
+        try {
+            firstLevelCache.setMaxSize(propertyContext, maxSize);
+        } finally {
+            spillEvictedEntries();
+        }
+    }
+
+    public void setMaxWeight(PropertyContext propertyContext, long maxWeight) {
+        try {
+            firstLevelCache.setMaxWeight(propertyContext, maxWeight);
+        } finally {
+            spillEvictedEntries();
+        }
+    }
+
+    public CacheStatistics getStatistics(PropertyContext propertyContext) {
+        TieredCacheStatistics statistics = (TieredCacheStatistics) propertyContext.getAttribute(statisticsContextKey);
+        if (statistics == null) {
+            statistics = new TieredCacheStatistics(propertyContext);
+            propertyContext.setAttribute(statisticsContextKey, statistics);
+        }
+
+        return statistics;
+    }
+}
@@ -48,6 +48,7 @@ public class InitUtils {
 
 
     private static final String CACHE_SIZE_PROPERTY = "oxf.cache.size";
+    private static final String CACHE_MAX_WEIGHT_PROPERTY = "oxf.cache.max-weight";
 
     private static final String CACHE_DISPLAY_STATISTICS_PROPERTY = "oxf.cache.display-statistics";
     private static final String DEFAULT_CACHE_DISPLAY_STATISTICS = "cache.main";
@@ -84,6 +85,9 @@ public class InitUtils {
             final Integer cacheMaxSize = Properties.instance().getPropertySet().getInteger(CACHE_SIZE_PROPERTY);
             if (cacheMaxSize != null)
                 ObjectCache.instance().setMaxSize(pipelineContext, cacheMaxSize);
+            final Integer cacheMaxWeight = Properties.instance().getPropertySet().getInteger(CACHE_MAX_WEIGHT_PROPERTY);
+            if (cacheMaxWeight != null)
+                ObjectCache.instance().setMaxWeight(pipelineContext, cacheMaxWeight);
 
             // Start execution
             processor.reset(pipelineContext);
@@ -159,6 +163,12 @@ public class InitUtils {
             sb.append(Integer.toString(statistics.getExpirationCount()));
             sb.append(", success rate: ");
             sb.append(successRate);
+            sb.append(", weight: ");
+            sb.append(Long.toString(statistics.getCurrentWeight()));
+            if (statistics.getMaxWeight() > 0) {
+                sb.append("/");
+                sb.append(Long.toString(statistics.getMaxWeight()));
+            }
         }
     }
 
@@ -17,7 +17,10 @@ import org.dom4j.Document;
 import org.orbeon.oxf.common.Version;
 import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.XPathCache;
+import org.orbeon.oxf.xforms.XFormsProperties;
 import org.orbeon.oxf.xforms.XFormsUtils;
+import org.orbeon.oxf.xforms.state.DynamicState;
 import org.orbeon.saxon.om.NodeInfo;
 import org.orbeon.saxon.sxpath.XPathEvaluator;
 
@@ -101,6 +104,11 @@ public class StaticExternalContext {
         return XFormsUtils.decodeXML(getStaticContext().getPipelineContext(), encodedXML);
     }
 
+    public static Document decodeDynamicState(String encodedDynamicState) {
+        final byte[] bytes = XFormsUtils.decodeBytes(getStaticContext().getPipelineContext(), encodedDynamicState, XFormsProperties.getXFormsPassword());
+        return DynamicState.decode(XPathCache.getGlobalConfiguration(), bytes).toXML();
+    }
+
     public static boolean isPE() {
         return Version.isPE();
     }
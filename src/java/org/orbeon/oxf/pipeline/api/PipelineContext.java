@@ -100,6 +100,9 @@ public class PipelineContext implements PropertyContext {
         void add(final TraceInfo tinf);
     }
 
+    // Attributes not copied to the context of a branch running on another thread
+    private static final Set<String> BRANCH_LOCAL_ATTRIBUTES = new HashSet<String>(Arrays.asList(DATASOURCE_CONTEXT, SQL_PROCESSOR_CONTEXT));
+
     private Map<Object, Object> attributes = new HashMap<Object, Object>();
 
     private List<ContextListener> listeners;
@@ -139,6 +142,29 @@ public class PipelineContext implements PropertyContext {
         }
     }
 
+    /**
+     * Create a context for a branch of a pipeline execution which runs on another thread, e.g. an iteration of a
+     * parallel p:for-each. The attributes of the parent context are copied when this context is created, except for
+     * attributes which own resources such as JDBC connections: the branch gets its own, which are released when this
+     * context is destroyed. This context must be destroyed when the branch is done.
+     *
+     * @param parentContext parent context
+     */
+    public PipelineContext(PipelineContext parentContext) {
+        // Trace implementations are not expected to be called from several threads
+        this.trace = null;
+        synchronized (parentContext) {
+            for (final Map.Entry<Object, Object> entry: parentContext.attributes.entrySet()) {
+                if (!BRANCH_LOCAL_ATTRIBUTES.contains(entry.getKey()))
+                    attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // Processors of the branch push and pop their parents independently
+        final Stack parents = (Stack) attributes.get(PARENT_PROCESSORS);
+        if (parents != null)
+            attributes.put(PARENT_PROCESSORS, parents.clone());
+    }
+
     public Trace getTrace() {
         return trace;
     }
@@ -159,7 +185,7 @@ public class PipelineContext implements PropertyContext {
      * @param key the attribute key
      * @return the attribute value, null if there is no attribute with the given key
      */
-    public Object getAttribute(Object key) {
+    public synchronized Object getAttribute(Object key) {
         return attributes.get(key);
     }
 
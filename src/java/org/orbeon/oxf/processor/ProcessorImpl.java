@@ -59,6 +59,11 @@ public abstract class ProcessorImpl implements Processor {
     public static final String PROCESSOR_VALIDATION_FLAG = "oxf.validation.processor";
     public static final String USER_VALIDATION_FLAG = "oxf.validation.user";
     public static final String SAX_INSPECTION_FLAG = "oxf.sax.inspection";
+    public static final String CACHE_COALESCING_TIMEOUT_PROPERTY = "oxf.cache.coalescing-timeout";
+    private static final int DEFAULT_CACHE_COALESCING_TIMEOUT = 30000;
+
+    // Threads reading the same cacheable input at the same time share the object read by the first thread
+    private static final SingleFlight CACHE_INPUT_SINGLE_FLIGHT = new SingleFlight();
 
     private static final List<ProcessorInput> EMPTY_INPUT_LIST = Collections.emptyList();
 
@@ -542,28 +547,70 @@ public abstract class ProcessorImpl implements Processor {
                 }
             }
 
-            // Result was not found in cache, read result
+            // Result was not found in cache. If another thread is already reading the same input, wait for its result
+            // instead of reading the input again.
+            final long coalescingTimeout = getCacheCoalescingTimeout();
+            final SingleFlight.Flight flight = (keyValidity != null && coalescingTimeout > 0)
+                    ? CACHE_INPUT_SINGLE_FLIGHT.join(keyValidity.key, keyValidity.validity) : null;
+            if (flight != null && !flight.isLeader()) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Cache " + debugInfo + ": source cacheable and being read for key '" + keyValidity.key + "'. WAITING.");
+                if (flight.await(coalescingTimeout)) {
+                    final Object inputObject = flight.getResult();
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cache " + debugInfo + ": source cacheable and read for key '" + keyValidity.key + "'. SHARED object: " + inputObject);
+                    reader.foundInCache();
+                    return inputObject;
+                } else {
+                    // Don't wait any longer and read the input in this thread as well
+                    logger.info("Cache " + debugInfo + ": timeout waiting for input to be read for key '" + keyValidity.key + "'.");
+                }
+            }
+            final SingleFlight.Flight ledFlight = (flight != null && flight.isLeader()) ? flight : null;
+            if (ledFlight != null) {
+                // Another thread may have stored the object between the cache check above and the start of this flight
+                final Object inputObject = cache.findValid(context, keyValidity.key, keyValidity.validity);
+                if (inputObject != null) {
+                    ledFlight.complete(inputObject);
+                    reader.foundInCache();
+                    return inputObject;
+                }
+            }
 
 //            final long startTime = System.nanoTime();
 
-            if (logger.isDebugEnabled())
-                logger.debug("Cache " + debugInfo + ": READING.");
-            final Object result = reader.read(context, input);
+            final Object result;
+            try {
+                if (logger.isDebugEnabled())
+                    logger.debug("Cache " + debugInfo + ": READING.");
+                result = reader.read(context, input);
 
-            // Cache new result if possible, asking again for KeyValidity if needed
-            if (keyValidity == null)
-                keyValidity = getInputKeyValidity(context, input);
+                // Cache new result if possible, asking again for KeyValidity if needed
+                if (keyValidity == null)
+                    keyValidity = getInputKeyValidity(context, input);
 
-            if (keyValidity != null) {
-                if (logger.isDebugEnabled())
-                    logger.debug("Cache " + debugInfo + ": source cacheable for key '" + keyValidity.key + "'. STORING object:" + result);
-                cache.add(context, keyValidity.key, keyValidity.validity, result);
+                if (keyValidity != null) {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cache " + debugInfo + ": source cacheable for key '" + keyValidity.key + "'. STORING object:" + result);
+                    cache.add(context, keyValidity.key, keyValidity.validity, result);
 
-//                System.out.println("Cache cost: " + (System.nanoTime() - startTime));
+//                    System.out.println("Cache cost: " + (System.nanoTime() - startTime));
 
-                reader.storedInCache();
+                    reader.storedInCache();
+                }
+            } catch (RuntimeException e) {
+                if (ledFlight != null)
+                    ledFlight.fail(e);
+                throw e;
+            } catch (Error e) {
+                if (ledFlight != null)
+                    ledFlight.fail(e);
+                throw e;
             }
 
+            if (ledFlight != null)
+                ledFlight.complete(result);
+
             return result;
         } else {
             if (logger.isDebugEnabled())
@@ -573,6 +620,12 @@ public abstract class ProcessorImpl implements Processor {
         }
     }
 
+    private static long getCacheCoalescingTimeout() {
+        // The PropertySet can be null during properties initialization
+        final PropertySet propertySet = Properties.instance().getPropertySet();
+        return (propertySet == null) ? 0 : propertySet.getInteger(CACHE_COALESCING_TIMEOUT_PROPERTY, DEFAULT_CACHE_COALESCING_TIMEOUT);
+    }
+
     protected Object getCachedInputAsObject(PipelineContext pipelineContext, ProcessorInput processorInput) {
         // Get associated output
         final ProcessorOutput output = processorInput.getOutput();
@@ -49,6 +49,9 @@ public class AggregatorProcessor extends ProcessorImpl {
         ProcessorOutput output = new CacheableTransformerOutputImpl(getClass(), name) {
             public void readImpl(PipelineContext context, ContentHandler contentHandler) {
 
+                // Start reading independent inputs concurrently, if any
+                ConcurrentBranchProcessor.prefetchInputs(context, AggregatorProcessor.this);
+
                 try {
                     // Read config
                     final Element config = readCacheInputAsDOM4J(context, INPUT_CONFIG).getRootElement();
@@ -100,6 +103,8 @@ public class AggregatorProcessor extends ProcessorImpl {
                     contentHandler.endDocument();
                 } catch (SAXException e) {
                     throw new OXFException(e);
+                } finally {
+                    ConcurrentBranchProcessor.joinInputs(context, AggregatorProcessor.this);
                 }
             }
 
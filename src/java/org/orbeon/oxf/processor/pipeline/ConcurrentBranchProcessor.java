@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.cache.OutputCacheKey;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.processor.ProcessorInput;
+import org.orbeon.oxf.processor.ProcessorInputOutputInfo;
+import org.orbeon.oxf.processor.ProcessorOutput;
+import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.xml.SAXStore;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This internal processor sits between an independent branch of a pipeline and the processor reading it, typically an
+ * aggregator or the XInclude processor. When the reading processor calls prefetchInputs(), the branch is read into a
+ * SAXStore on another thread, with its own PipelineContext, so that several branches run concurrently. The SAXStore
+ * is then replayed when the reading processor reads the input.
+ *
+ * If the branch has not started running on another thread by the time it is read, it is read directly on the current
+ * thread instead. This way, a reader never waits for a branch which is still in the queue of the executor.
+ *
+ * The reading processor must call joinInputs() when it is done, whether it succeeded or not, so that no branch keeps
+ * running after the reader has returned.
+ */
+public class ConcurrentBranchProcessor extends ProcessorImpl {
+
+    public static final String THREADS_PROPERTY = "oxf.pipeline.concurrent-branches.threads";
+
+    private static ExecutorService executor;
+
+    public ConcurrentBranchProcessor() {
+        addInputInfo(new ProcessorInputOutputInfo(INPUT_DATA));
+        addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+    }
+
+    /**
+     * Start reading concurrently the inputs of the given processor which are connected to a ConcurrentBranchProcessor.
+     * Nothing is done if the processor has a single input besides its config.
+     *
+     * @param context   current context
+     * @param processor processor about to read its inputs
+     */
+    public static void prefetchInputs(PipelineContext context, ProcessorImpl processor) {
+        int inputCount = 0;
+        for (final List<ProcessorInput> inputs: processor.getConnectedInputs().values()) {
+            for (final ProcessorInput input: inputs) {
+                if (!input.getName().equals(INPUT_CONFIG))
+                    inputCount++;
+            }
+        }
+        if (inputCount < 2)
+            return;
+
+        for (final List<ProcessorInput> inputs: processor.getConnectedInputs().values()) {
+            for (final ProcessorInput input: inputs) {
+                final ProcessorOutput output = input.getOutput();
+                if (output instanceof ConcurrentBranchOutput)
+                    ((ConcurrentBranchOutput) output).prefetch(context);
+            }
+        }
+    }
+
+    /**
+     * Cancel the branches of the given processor which have not started yet, and wait for the others to complete.
+     * This must be called in a finally block after prefetchInputs(). The result of branches which were not read is
+     * ignored.
+     *
+     * @param context   current context
+     * @param processor processor which has read its inputs
+     */
+    public static void joinInputs(PipelineContext context, ProcessorImpl processor) {
+        for (final List<ProcessorInput> inputs: processor.getConnectedInputs().values()) {
+            for (final ProcessorInput input: inputs) {
+                final ProcessorOutput output = input.getOutput();
+                if (output instanceof ConcurrentBranchOutput)
+                    ((ConcurrentBranchOutput) output).join(context);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+            final int threads = (propertySet != null)
+                    ? propertySet.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())
+                    : Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Pipeline branch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    public ProcessorOutput createOutput(String name) {
+        final ProcessorOutput output = new ConcurrentBranchOutput(getClass(), name);
+        addOutput(name, output);
+        return output;
+    }
+
+    public class ConcurrentBranchOutput extends ProcessorImpl.ProcessorOutputImpl {
+
+        private ConcurrentBranchOutput(Class clazz, String name) {
+            super(clazz, name);
+        }
+
+        private void prefetch(PipelineContext context) {
+            final State state = (State) getState(context);
+            if (state.future == null) {
+                // Create context here, as it copies the attributes of the current context, including the processor stack
+                final PipelineContext branchContext = new PipelineContext(context);
+                final AtomicBoolean claimed = state.claimed;
+                state.branchContext = branchContext;
+                state.future = getExecutor().submit(new Callable<SAXStore>() {
+                    public SAXStore call() {
+                        // The reader destroys the branch context if it has claimed the branch
+                        if (!claimed.compareAndSet(false, true))
+                            return null;
+                        boolean success = false;
+                        try {
+                            final SAXStore saxStore = new SAXStore();
+                            readInputAsSAX(branchContext, getInputByName(INPUT_DATA), saxStore);
+                            success = true;
+                            return saxStore;
+                        } finally {
+                            branchContext.destroy(success);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void join(PipelineContext context) {
+            final State state = (State) getState(context);
+            if (state.future != null) {
+                setState(context, new State());
+                if (state.claimed.compareAndSet(false, true)) {
+                    // Branch not started: don't run it
+                    state.future.cancel(false);
+                    state.branchContext.destroy(false);
+                } else {
+                    // Branch running or done: wait for it, ignoring its result
+                    boolean interrupted = false;
+                    while (true) {
+                        try {
+                            state.future.get();
+                            break;
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        } catch (ExecutionException e) {
+                            break;
+                        }
+                    }
+                    if (interrupted)
+                        Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void readImpl(PipelineContext context, ContentHandler contentHandler) {
+            final State state = (State) getState(context);
+            if (state.claimed.compareAndSet(false, true)) {
+                // Branch not started: read it here
+                setState(context, new State());
+                if (state.future != null) {
+                    state.future.cancel(false);
+                    state.branchContext.destroy(false);
+                }
+                readInputAsSAX(context, getInputByName(INPUT_DATA), contentHandler);
+            } else {
+                // Wait for branch to complete
+                try {
+                    final SAXStore saxStore = state.future.get();
+                    setState(context, new State());
+                    saxStore.replay(contentHandler);
+                } catch (InterruptedException e) {
+                    throw new OXFException(e);
+                } catch (ExecutionException e) {
+                    setState(context, new State());
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    else if (cause instanceof Error)
+                        throw (Error) cause;
+                    else
+                        throw new OXFException(cause);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            }
+        }
+
+        public OutputCacheKey getKeyImpl(PipelineContext context) {
+            return getInputKey(context, getInputByName(INPUT_DATA));
+        }
+
+        public Object getValidityImpl(PipelineContext context) {
+            return getInputValidity(context, getInputByName(INPUT_DATA));
+        }
+    }
+
+    public void reset(PipelineContext context) {
+        setState(context, new State());
+    }
+
+    private static class State {
+        public final AtomicBoolean claimed = new AtomicBoolean();
+        public Future<SAXStore> future;
+        public PipelineContext branchContext;
+    }
+}
@@ -27,6 +27,7 @@ import org.orbeon.oxf.processor.generator.URLGenerator;
 import org.orbeon.oxf.processor.pipeline.ast.*;
 import org.orbeon.oxf.processor.pipeline.foreach.AbstractForEachProcessor;
 import org.orbeon.oxf.processor.transformer.XPathProcessor;
+import org.orbeon.oxf.processor.xinclude.XIncludeProcessor;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.PipelineUtils;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
@@ -52,6 +53,12 @@ public class PipelineBlock {
     private Set inputIdAlreadyConnected = new HashSet();
     // Set of processors we create in the class for connection purposes
     private Set createdProcessors = new HashSet();
+    // Set of (String outputId) which can be read concurrently by aggregators and XInclude
+    private Set<String> concurrentOutputIds = Collections.emptySet();
+
+    public void setConcurrentOutputIds(Set<String> concurrentOutputIds) {
+        this.concurrentOutputIds = concurrentOutputIds;
+    }
 
     public void declareOutput(Node node, String id, ProcessorOutput output) {
         if (idToOutputMap.containsKey(id)) {
@@ -83,7 +90,21 @@ public class PipelineBlock {
                 throw new ValidationException("Reference to undeclared output id \"" + referencedId + "\"", locationData);
             final ProcessorOutput referencedOutput = (ProcessorOutput) idToOutputMap.get(referencedId);
 
-            if (!isFromInnerforEach && referencedOutput.getInput() == null) {
+            if (!isFromInnerforEach && referencedOutput.getInput() == null && concurrentOutputIds.contains(referencedId)
+                    && (processor instanceof AggregatorProcessor || processor instanceof XIncludeProcessor)
+                    && !inputName.equals(ProcessorImpl.INPUT_CONFIG)) {
+                // Output is virgin and independent: connect it through a processor reading it concurrently
+                final ConcurrentBranchProcessor concurrentBranch = new ConcurrentBranchProcessor();
+                createdProcessors.add(concurrentBranch);
+
+                final ProcessorInput concurrentBranchInput = concurrentBranch.createInput(ProcessorImpl.INPUT_DATA);
+                concurrentBranchInput.setOutput(referencedOutput);
+                referencedOutput.setInput(concurrentBranchInput);
+
+                final ProcessorOutput concurrentBranchOutput = concurrentBranch.createOutput(ProcessorImpl.OUTPUT_DATA);
+                concurrentBranchOutput.setInput(processorInput);
+                processorInput.setOutput(concurrentBranchOutput);
+            } else if (!isFromInnerforEach && referencedOutput.getInput() == null) {
                 // Output is virgin: just connect it to this processor
                 processorInput.setOutput(referencedOutput);
                 referencedOutput.setInput(processorInput);
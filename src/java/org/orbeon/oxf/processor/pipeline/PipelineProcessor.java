@@ -161,6 +161,8 @@ public class PipelineProcessor extends ProcessorImpl implements Debuggable {
         // Create new configuration object
         PipelineConfig config = new PipelineConfig();
         PipelineBlock block = new PipelineBlock();
+        if (astPipeline.isConcurrentBranches())
+            block.setConcurrentOutputIds(astPipeline.getIndependentOutputIds());
 
         // Create socket info for each param
         for (Iterator i = astPipeline.getParams().iterator(); i.hasNext();) {
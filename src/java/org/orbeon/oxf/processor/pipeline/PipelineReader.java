@@ -100,6 +100,7 @@ public class PipelineReader extends ProcessorImpl {
         pipeline = new ASTPipeline();
         pipeline.setValidity(getInputValidity(context, getInputByName("pipeline")));
         pipeline.setNode(configElement);
+        pipeline.setConcurrentBranches("true".equals(configElement.attributeValue("concurrent-branches")));
         pipeline.getParams().addAll(params);
         pipeline.getStatements().addAll(readStatements(configElement));
     }
@@ -206,6 +207,9 @@ public class PipelineReader extends ProcessorImpl {
                     forEach.setOutputSchemaHref(element.attributeValue("output-schema-href"));
                     forEach.setOutputSchemaUri(element.attributeValue("output-schema-uri"));
                     forEach.setOutputDebug(element.attributeValue("output-debug"));
+                    forEach.setStreaming("true".equals(element.attributeValue("streaming")));
+                    forEach.setParallel("true".equals(element.attributeValue("parallel")));
+                    forEach.setMaxParallelism(element.attributeValue("max-parallelism"));
                     forEach.getStatements().addAll(readStatements(element));
                 }
             }
@@ -29,6 +29,9 @@ public class ASTForEach extends ASTStatement {
     private String outputSchemaHref;
     private String outputSchemaUri;
     private String outputDebug;
+    private boolean streaming;
+    private boolean parallel;
+    private String maxParallelism;
     private List<ASTStatement> statements = new ArrayList<ASTStatement>();
 
     public ASTHref getHref() {
@@ -119,6 +122,30 @@ public class ASTForEach extends ASTStatement {
         this.outputDebug = outputDebug;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public String getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public void setMaxParallelism(String maxParallelism) {
+        this.maxParallelism = maxParallelism;
+    }
+
     public List<ASTStatement> getStatements() {
         return statements;
     }
@@ -13,14 +13,14 @@
  */
 package org.orbeon.oxf.processor.pipeline.ast;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 public class ASTPipeline extends ASTNodeContainer {
 
     private List<ASTParam> params = new ArrayList<ASTParam>();
     private List<ASTStatement> statements = new ArrayList<ASTStatement>();
     private Object validity;
+    private boolean concurrentBranches;
 
     public List<ASTParam> getParams() {
         return params;
@@ -47,6 +47,87 @@ public class ASTPipeline extends ASTNodeContainer {
         this.validity = validity;
     }
 
+    public boolean isConcurrentBranches() {
+        return concurrentBranches;
+    }
+
+    public void setConcurrentBranches(boolean concurrentBranches) {
+        this.concurrentBranches = concurrentBranches;
+    }
+
+    /**
+     * Return the ids of the outputs which can be read independently from the rest of the pipeline, and so
+     * concurrently with each other.
+     *
+     * An output is independent if it is the only output of a &lt;p:processor>, if it is referenced exactly once, and
+     * if the inputs of that processor only reference inline documents, URLs, or other independent outputs. Outputs
+     * depending on pipeline inputs, or referenced from &lt;p:choose> or &lt;p:for-each>, are not independent.
+     */
+    public Set<String> getIndependentOutputIds() {
+
+        // Count references to each id, and find the processor producing each id
+        final Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+        final Map<String, ASTProcessorCall> producers = new HashMap<String, ASTProcessorCall>();
+        for (final ASTStatement statement: statements) {
+            if (statement instanceof ASTProcessorCall) {
+                final ASTProcessorCall processorCall = (ASTProcessorCall) statement;
+                for (final String id: getReferencedIds(processorCall))
+                    addReference(referenceCounts, id, 1);
+                if (processorCall.getOutputs().size() == 1) {
+                    final ASTOutput output = (ASTOutput) processorCall.getOutputs().get(0);
+                    if (output.getId() != null && output.getRef() == null)
+                        producers.put(output.getId(), processorCall);
+                }
+            } else {
+                for (final Object id: statement.getIdInfo().getInputRefs())
+                    addReference(referenceCounts, (String) id, 2);
+            }
+        }
+
+        final Map<String, Boolean> independent = new HashMap<String, Boolean>();
+        final Set<String> result = new HashSet<String>();
+        for (final String id: producers.keySet()) {
+            if (isIndependent(id, referenceCounts, producers, independent))
+                result.add(id);
+        }
+        return result;
+    }
+
+    private static boolean isIndependent(String id, Map<String, Integer> referenceCounts,
+                                         Map<String, ASTProcessorCall> producers, Map<String, Boolean> independent) {
+        final Boolean known = independent.get(id);
+        if (known != null)
+            return known;
+
+        final ASTProcessorCall producer = producers.get(id);
+        boolean result = producer != null && Integer.valueOf(1).equals(referenceCounts.get(id));
+        if (result) {
+            for (final String referencedId: getReferencedIds(producer)) {
+                if (!isIndependent(referencedId, referenceCounts, producers, independent)) {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        independent.put(id, result);
+        return result;
+    }
+
+    private static List<String> getReferencedIds(ASTProcessorCall processorCall) {
+        final List<String> result = new ArrayList<String>();
+        processorCall.walk(new ASTSimpleHandler() {
+            public void hrefId(ASTHrefId hrefId) {
+                result.add(hrefId.getId());
+            }
+        });
+        return result;
+    }
+
+    private static void addReference(Map<String, Integer> referenceCounts, String id, int count) {
+        final Integer currentCount = referenceCounts.get(id);
+        referenceCounts.put(id, (currentCount == null) ? count : currentCount + count);
+    }
+
     public void walk(ASTHandler handler) {
         if (handler.startPipeline(this))
             walkChildren(handler);
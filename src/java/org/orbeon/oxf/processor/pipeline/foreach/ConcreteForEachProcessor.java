@@ -26,9 +26,13 @@ import org.orbeon.oxf.processor.generator.DOMGenerator;
 import org.orbeon.oxf.processor.pipeline.PipelineProcessor;
 import org.orbeon.oxf.processor.pipeline.TeeProcessor;
 import org.orbeon.oxf.processor.pipeline.ast.*;
+import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.PooledXPathExpression;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.EmbeddedDocumentContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.StreamingSelector;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
 import org.orbeon.saxon.om.DocumentInfo;
@@ -38,6 +42,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConcreteForEachProcessor extends ProcessorImpl {
 
@@ -49,6 +56,19 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     private String rootQName;
     private String rootNamespaceURI;
 
+    // Steps of the select expression, as namespace URI and local name, when streaming
+    private List<String[]> streamingSteps;
+
+    // Maximum number of iterations running at the same time, 1 if iterations are not parallel
+    private final int maxParallelism;
+    // Names of inputs forwarded to the iteration block
+    private final List<String> forwardedInputNames = new ArrayList<String>();
+
+    public static final String THREADS_PROPERTY = "oxf.pipeline.for-each.threads";
+
+    // Threads shared by all the parallel p:for-each
+    private static ExecutorService executor;
+
     public ConcreteForEachProcessor(ASTForEach forEachAST, Object validity) {
         final String[] refsWithNoId = getRefsWithNoId(forEachAST);
         final String idOrRef = forEachAST.getId() != null ? forEachAST.getId() : forEachAST.getRef();
@@ -81,6 +101,7 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
             if (!refsWithNoId[i].equals(AbstractForEachProcessor.FOR_EACH_CURRENT_INPUT)) {
                 final ProcessorInput pipelineInput = forEachBlockProcessor.createInput(refsWithNoId[i]);
                 pipelineInput.setOutput(new ForwardingProcessorOutput(refsWithNoId[i]));
+                forwardedInputNames.add(refsWithNoId[i]);
             }
         }
 
@@ -111,6 +132,25 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                 rootLocalName = rootQName.substring(columnPosition + 1);
             }
         }
+        if (forEachAST.isParallel()) {
+            if (forEachAST.isStreaming())
+                throw new ValidationException("p:for-each cannot be both streaming and parallel", forEachAST.getLocationData());
+            try {
+                maxParallelism = (forEachAST.getMaxParallelism() != null)
+                        ? Integer.parseInt(forEachAST.getMaxParallelism()) : Runtime.getRuntime().availableProcessors();
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Invalid max-parallelism attribute: " + forEachAST.getMaxParallelism(), forEachAST.getLocationData());
+            }
+            if (maxParallelism < 1)
+                throw new ValidationException("Invalid max-parallelism attribute: " + forEachAST.getMaxParallelism(), forEachAST.getLocationData());
+        } else {
+            maxParallelism = 1;
+        }
+        if (forEachAST.isStreaming()) {
+            streamingSteps = StreamingSelector.getSteps(select, namespaceContext);
+            if (streamingSteps == null)
+                throw new ValidationException("Streaming p:for-each requires a select expression of the form /a/b/c, found: " + select, forEachAST.getLocationData());
+        }
     }
 
     public ProcessorOutput createOutput(final String name) {
@@ -124,33 +164,11 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                     contentHandler.startElement(rootNamespaceURI, rootLocalName, rootQName, new AttributesImpl());
 
                     // Read n times from iterationOutput
-                    PooledXPathExpression expression = null;
-                    int iterationCount = 0;
-                    try {
-                        expression = createExpression(pipelineContext);
-
-                        for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                            final Element currentElement = (Element) i.next();
-
-                            // Create DOMGenerator
-                            final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                            final DOMGenerator domGenerator = new DOMGenerator
-                                    (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                            domGenerator.createOutput(OUTPUT_DATA);
-                            state.domGenerator = domGenerator;
-
-                            // Run iteration
-                            forEachBlockProcessor.reset(pipelineContext);
-                            iterationOutput.read(pipelineContext, new EmbeddedDocumentContentHandler(contentHandler));
+                    final int iterationCount = iterate(pipelineContext, state, contentHandler, new IterationBlock() {
+                        public void run(PipelineContext iterationContext, ContentHandler iterationContentHandler) {
+                            iterationOutput.read(iterationContext, new EmbeddedDocumentContentHandler(iterationContentHandler));
                         }
-                    } catch (XPathException e) {
-                        throw new OXFException(e);
-                    } finally {
-                        // Clear state to allow gc as the state might be referenced for a while
-                        if (state != null) state.domGenerator = null;
-                        // Return expression
-                        if (expression != null) expression.returnToPool();
-                    }
+                    });
 
                     // Notify input Tee processors that we are done
                     commitInputs(pipelineContext, iterationCount);
@@ -253,37 +271,246 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         final State state = (State) getState(pipelineContext);
 
         // Read n times from iterationOutput
-        PooledXPathExpression expression = null;
-        int iterationCount = 0;
-        try {
-            expression = createExpression(pipelineContext);
+        final int iterationCount = iterate(pipelineContext, state, null, new IterationBlock() {
+            public void run(PipelineContext iterationContext, ContentHandler iterationContentHandler) {
+                forEachBlockProcessor.start(iterationContext);
+            }
+        });
 
-            for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                final Element currentElement = (Element) i.next();
+        // Notify input Tee processors that we are done
+        commitInputs(pipelineContext, iterationCount);
+    }
 
-                // Create DOMGenerator
-                final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                final DOMGenerator domGenerator = new DOMGenerator
-                        (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                domGenerator.createOutput(OUTPUT_DATA);
-                state.domGenerator = domGenerator;
+    /**
+     * Run the iteration block once, with the given context.
+     */
+    private interface IterationBlock {
+        void run(PipelineContext iterationContext, ContentHandler iterationContentHandler);
+    }
 
-                // Run iteration
-                forEachBlockProcessor.reset(pipelineContext);
-                forEachBlockProcessor.start(pipelineContext);
+    /**
+     * Run the iteration for each element selected, after making the element available on the "$current" input.
+     *
+     * @param pipelineContext   current context
+     * @param state             current state
+     * @param contentHandler    receives the output of the iterations, null if none
+     * @param iteration         runs the iteration block
+     * @return                  number of iterations
+     */
+    private int iterate(PipelineContext pipelineContext, State state, ContentHandler contentHandler, IterationBlock iteration) {
+        if (streamingSteps != null) {
+            // Read the input as SAX and run each iteration as soon as its element is complete
+            final StreamingContentHandler streamingContentHandler = new StreamingContentHandler(pipelineContext, state, contentHandler, iteration);
+            try {
+                readInputAsSAX(pipelineContext, AbstractForEachProcessor.FOR_EACH_DATA_INPUT, streamingContentHandler);
+            } finally {
+                // Clear state to allow gc as the state might be referenced for a while
+                if (state != null) state.saxStore = null;
+            }
+            return streamingContentHandler.iterationCount;
+        } else {
+            PooledXPathExpression expression = null;
+            int iterationCount = 0;
+            try {
+                expression = createExpression(pipelineContext);
+
+                if (maxParallelism > 1) {
+                    final List<Element> elements = new ArrayList<Element>();
+                    for (Iterator i = new ElementIterator(expression); i.hasNext();)
+                        elements.add((Element) i.next());
+                    iterateInParallel(pipelineContext, elements, contentHandler, iteration);
+                    iterationCount = elements.size();
+                } else {
+                    for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
+                        final Element currentElement = (Element) i.next();
+                        state.domGenerator = createDOMGenerator(currentElement);
+
+                        // Run iteration
+                        forEachBlockProcessor.reset(pipelineContext);
+                        iteration.run(pipelineContext, contentHandler);
+                    }
+                }
+            } catch (XPathException e) {
+                throw new OXFException(e);
+            } finally {
+                // Clear state to allow gc as the state might be referenced for a while
+                if (state != null) state.domGenerator = null;
+                // Return expression
+                if (expression != null) expression.returnToPool();
             }
+            return iterationCount;
+        }
+    }
 
-        } catch (XPathException e) {
-            throw new OXFException(e);
+    private static DOMGenerator createDOMGenerator(Element currentElement) {
+        final String systemId = Dom4jUtils.makeSystemId(currentElement);
+        final DOMGenerator domGenerator = new DOMGenerator
+                (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
+        domGenerator.createOutput(OUTPUT_DATA);
+        return domGenerator;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+            final int threads = (propertySet != null)
+                    ? propertySet.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())
+                    : Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "p:for-each iteration");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Run the iterations on the current thread and on threads of the shared executor, each iteration with its own
+     * PipelineContext, and send the output of the iterations in document order.
+     *
+     * Iterations are claimed in order by the current thread and by at most maxParallelism - 1 workers. The current
+     * thread only waits for iterations which a worker has already started, so a nested parallel p:for-each never waits
+     * for a worker still in the queue of the executor.
+     *
+     * The other inputs of p:for-each are read once on the current thread and replayed to each iteration, so that
+     * processors outside of p:for-each don't run concurrently, and Tee processors are read as usual.
+     */
+    private void iterateInParallel(final PipelineContext pipelineContext, final List<Element> elements, ContentHandler contentHandler, final IterationBlock iteration) {
+
+        if (elements.size() == 0)
+            return;
+
+        // Read other inputs
+        final Map<String, SAXStore> forwardedInputs = new HashMap<String, SAXStore>();
+        for (final String inputName: forwardedInputNames) {
+            final SAXStore saxStore = new SAXStore();
+            readInputAsSAX(pipelineContext, inputName, saxStore);
+            forwardedInputs.put(inputName, saxStore);
+        }
+
+        final SAXStore[] iterationOutputs = new SAXStore[elements.size()];
+        final Throwable[] iterationErrors = new Throwable[elements.size()];
+        final AtomicInteger nextIteration = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(elements.size());
+
+        final Runnable worker = new Runnable() {
+            public void run() {
+                for (int index = nextIteration.getAndIncrement(); index < elements.size(); index = nextIteration.getAndIncrement()) {
+                    try {
+                        // Don't start iterations after an error
+                        if (!failed.get())
+                            iterationOutputs[index] = runIteration(pipelineContext, elements.get(index), forwardedInputs, iteration);
+                    } catch (Throwable t) {
+                        iterationErrors[index] = t;
+                        failed.set(true);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        // Start workers, and run iterations on the current thread as well
+        final int workerCount = Math.min(maxParallelism, elements.size()) - 1;
+        for (int i = 0; i < workerCount; i++)
+            getExecutor().execute(worker);
+        worker.run();
+
+        // Wait for the iterations claimed by workers, as the current context must not be destroyed while they run
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        // Report the first error in document order
+        for (final Throwable t: iterationErrors) {
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            else if (t instanceof Error)
+                throw (Error) t;
+            else if (t != null)
+                throw new OXFException(t);
+        }
+
+        // Output in document order
+        if (contentHandler != null) {
+            try {
+                for (final SAXStore iterationOutput: iterationOutputs)
+                    iterationOutput.replay(contentHandler);
+            } catch (SAXException e) {
+                throw new OXFException(e);
+            }
+        }
+    }
+
+    private SAXStore runIteration(PipelineContext pipelineContext, Element currentElement, Map<String, SAXStore> forwardedInputs, IterationBlock iteration) {
+        final PipelineContext iterationContext = new PipelineContext(pipelineContext);
+        boolean success = false;
+        try {
+            // State of this iteration
+            final State iterationState = new State();
+            iterationState.domGenerator = createDOMGenerator(currentElement);
+            iterationState.forwardedInputs = forwardedInputs;
+            setState(iterationContext, iterationState);
+
+            // Run iteration
+            final SAXStore iterationOutput = new SAXStore();
+            forEachBlockProcessor.reset(iterationContext);
+            iteration.run(iterationContext, iterationOutput);
+            success = true;
+            return iterationOutput;
         } finally {
-            // Clear state to allow gc as the state might be referenced for a while
-            if (state != null) state.domGenerator = null;
-            // Return expression
-            if (expression != null) expression.returnToPool();
+            iterationContext.destroy(success);
         }
+    }
 
-        // Notify input Tee processors that we are done
-        commitInputs(pipelineContext, iterationCount);
+    /**
+     * Receive the "$data" input and store each selected element into a SAXStore, running the iteration at the end of
+     * the element. Only one element is in memory at a time.
+     */
+    private class StreamingContentHandler extends StreamingSelector {
+
+        private final PipelineContext pipelineContext;
+        private final State state;
+        private final ContentHandler contentHandler;
+        private final IterationBlock iteration;
+
+        private final SAXStore saxStore = new SAXStore();
+
+        public int iterationCount;
+
+        public StreamingContentHandler(PipelineContext pipelineContext, State state, ContentHandler contentHandler, IterationBlock iteration) {
+            super(streamingSteps);
+            this.pipelineContext = pipelineContext;
+            this.state = state;
+            this.contentHandler = contentHandler;
+            this.iteration = iteration;
+        }
+
+        protected ContentHandler startItem() {
+            return saxStore;
+        }
+
+        protected void endItem() {
+            // Run iteration
+            state.saxStore = saxStore;
+            forEachBlockProcessor.reset(pipelineContext);
+            iteration.run(pipelineContext, contentHandler);
+            iterationCount++;
+
+            saxStore.clear();
+        }
     }
 
     /**
@@ -318,8 +545,18 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
 
         protected void readImpl(PipelineContext pipelineContext, ContentHandler contentHandler) {
-            // Delegate to the p:for-each input
-            ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), contentHandler);
+            final State state = (State) getState(pipelineContext);
+            if (state.forwardedInputs != null) {
+                // Input already read for parallel iterations
+                try {
+                    state.forwardedInputs.get(getName()).replay(contentHandler);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            } else {
+                // Delegate to the p:for-each input
+                ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), contentHandler);
+            }
         }
 
         protected OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
@@ -334,7 +571,7 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     }
 
     /**
-     * Reads from the DOM generator stored in state.
+     * Reads from the DOM generator or SAXStore stored in state.
      */
     private class IterationProcessorOutput extends ProcessorOutputImpl {
 
@@ -344,17 +581,26 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
 
         protected void readImpl(PipelineContext pipelineContext, ContentHandler contentHandler) {
             final State state = (State) getState(pipelineContext);
-            state.domGenerator.getOutputByName(OUTPUT_DATA).read(pipelineContext, contentHandler);
+            if (state.saxStore != null) {
+                try {
+                    state.saxStore.replay(contentHandler);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            } else {
+                state.domGenerator.getOutputByName(OUTPUT_DATA).read(pipelineContext, contentHandler);
+            }
         }
 
         protected OutputCacheKey getKeyImpl(PipelineContext context) {
             final State state = (State) getState(context);
-            return ((CacheableInputOutput) state.domGenerator.getOutputByName(OUTPUT_DATA)).getKey(context);
+            // NOTE: A streamed element is not cacheable
+            return (state.saxStore != null) ? null : ((CacheableInputOutput) state.domGenerator.getOutputByName(OUTPUT_DATA)).getKey(context);
         }
 
         protected Object getValidityImpl(PipelineContext context) {
             final State state = (State) getState(context);
-            return ((CacheableInputOutput) state.domGenerator.getOutputByName(OUTPUT_DATA)).getValidity(context);
+            return (state.saxStore != null) ? null : ((CacheableInputOutput) state.domGenerator.getOutputByName(OUTPUT_DATA)).getValidity(context);
         }
     }
 
@@ -363,6 +609,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
      */
     private static class State {
         DOMGenerator domGenerator;
+        SAXStore saxStore;
+        Map<String, SAXStore> forwardedInputs;
     }
 
     public void reset(PipelineContext pipelineContext) {
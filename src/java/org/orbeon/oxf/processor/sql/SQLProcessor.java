@@ -38,7 +38,6 @@ import java.util.*;
  * <p/>
  * TODO:
  * <p/>
- * o batch for mass updates when supported
  * o esql:use-limit-clause, esql:skip-rows, esql:max-rows
  * <p/>
  * o The position() and last() functions are not implemented within
@@ -118,15 +117,17 @@ public class SQLProcessor extends ProcessorImpl {
     }
 
     private static class Config {
-        public Config(SAXStore configInput, boolean useXPathExpressions, List xpathExpressions) {
+        public Config(SAXStore configInput, boolean useXPathExpressions, List xpathExpressions, boolean streaming) {
             this.configInput = configInput;
             this.useXPathExpressions = useXPathExpressions;
             this.xpathExpressions = xpathExpressions;
+            this.streaming = streaming;
         }
 
         public SAXStore configInput;
         public boolean useXPathExpressions;
         public List xpathExpressions;
+        public boolean streaming;
     }
 
     protected void execute(final PipelineContext context, ContentHandler contentHandler) {
@@ -143,14 +144,31 @@ public class SQLProcessor extends ProcessorImpl {
                     // NOTE: For now, just match <sql:param select="/*" type="xs:base64Binary"/>
                     List xpathExpressions = new ArrayList();
                     boolean useXPathExpressions = false;
+                    List selectElements = new ArrayList();
+                    Element streamingForEach = null;
                     for (Iterator i = XPathUtils.selectIterator(configDocument, "//*[namespace-uri() = '" + SQL_NAMESPACE_URI + "' and @select]"); i.hasNext();) {
                         Element element = (Element) i.next();
                         useXPathExpressions = true;
+                        selectElements.add(element);
                         String typeAttribute = element.attributeValue("type");
                         if ("xs:base64Binary".equals(typeAttribute)) {
                             String selectAttribute = element.attributeValue("select");
                             xpathExpressions.add(selectAttribute);
                         }
+                        if ("for-each".equals(element.getName()) && "true".equals(element.attributeValue("streaming"))) {
+                            if (streamingForEach != null)
+                                throw new ValidationException("At most one streaming sql:for-each is allowed", (LocationData) element.getData());
+                            streamingForEach = element;
+                        }
+                    }
+
+                    // A streaming sql:for-each reads the data input, so all the other expressions must be within it
+                    if (streamingForEach != null) {
+                        for (Iterator i = selectElements.iterator(); i.hasNext();) {
+                            Element element = (Element) i.next();
+                            if (element != streamingForEach && !isDescendant(element, streamingForEach))
+                                throw new ValidationException("All XPath expressions must be within the streaming sql:for-each", (LocationData) element.getData());
+                        }
                     }
 
                     // Normalize spaces. What this does is to coalesce adjacent text nodes, and to remove
@@ -204,7 +222,7 @@ public class SQLProcessor extends ProcessorImpl {
                         saxw.setContentHandler(store);
                         saxw.write(configDocument);
                         // Return the normalized document
-                        return new Config(store, useXPathExpressions, xpathExpressions);
+                        return new Config(store, useXPathExpressions, xpathExpressions, streamingForEach != null);
                     } catch (SAXException e) {
                         throw new OXFException(e);
                     }
@@ -214,6 +232,7 @@ public class SQLProcessor extends ProcessorImpl {
             // Either read the whole input as a DOM, or try to serialize
             Node data = null;
             XPathContentHandler xpathContentHandler = null;
+            SQLProcessorInterpreterContext.StreamingInput streamingInput = null;
 
             // Check if the data input is connected
             boolean hasDataInput = getConnectedInputs().get(INPUT_DATA) != null;
@@ -222,6 +241,14 @@ public class SQLProcessor extends ProcessorImpl {
             if (!hasDataInput || !config.useXPathExpressions) {
                 // Just use an empty document
                 data = NULL_DOCUMENT;
+            } else if (config.streaming) {
+                // The data input is read by the streaming sql:for-each, which contains all the XPath expressions
+                data = NULL_DOCUMENT;
+                streamingInput = new SQLProcessorInterpreterContext.StreamingInput() {
+                    public void read(ContentHandler contentHandler) {
+                        readInputAsSAX(context, INPUT_DATA, contentHandler);
+                    }
+                };
             } else {
                 // There is a data input connected and there are some XPath epxressions operating on it
                 boolean useXPathContentHandler = false;
@@ -265,7 +292,7 @@ public class SQLProcessor extends ProcessorImpl {
             }
 
             // Replay the config SAX store through the interpreter
-            config.configInput.replay(new RootInterpreter(context, getPropertySet(), data, datasource, xpathContentHandler, contentHandler));
+            config.configInput.replay(new RootInterpreter(context, getPropertySet(), data, datasource, xpathContentHandler, streamingInput, contentHandler));
         } catch (OXFException e) {
             throw e;
         } catch (Exception e) {
@@ -273,17 +300,27 @@ public class SQLProcessor extends ProcessorImpl {
         }
     }
 
+    private static boolean isDescendant(Element element, Element ancestor) {
+        for (Element parent = element.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent == ancestor)
+                return true;
+        }
+        return false;
+    }
+
     private static class RootInterpreter extends InterpreterContentHandler {
         private SQLProcessorInterpreterContext interpreterContext;
         private NamespaceSupport namespaceSupport = new NamespaceSupport();
 
-        public RootInterpreter(PipelineContext context, PropertySet propertySet, Node input, Datasource datasource, XPathContentHandler xpathContentHandler, ContentHandler output) {
+        public RootInterpreter(PipelineContext context, PropertySet propertySet, Node input, Datasource datasource, XPathContentHandler xpathContentHandler,
+                               SQLProcessorInterpreterContext.StreamingInput streamingInput, ContentHandler output) {
             super(null, false);
             interpreterContext = new SQLProcessorInterpreterContext(propertySet);
             interpreterContext.setPipelineContext(context);
             interpreterContext.setInput(input);
             interpreterContext.setDatasource(datasource);
             interpreterContext.setXPathContentHandler(xpathContentHandler);
+            interpreterContext.setStreamingInput(streamingInput);
             interpreterContext.setOutput(new DeferredContentHandlerImpl(output));
             interpreterContext.setNamespaceSupport(namespaceSupport);
             addElementHandler(new ConfigInterpreter(interpreterContext), SQL_NAMESPACE_URI, "config");
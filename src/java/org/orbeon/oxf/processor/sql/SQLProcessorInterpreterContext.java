@@ -27,6 +27,7 @@ import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.xml.DeferredContentHandler;
 import org.orbeon.oxf.xml.XPathContentHandler;
 import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.helpers.NamespaceSupport;
 
@@ -53,6 +54,7 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
     private PipelineContext pipelineContext;
     private Node input;
     private XPathContentHandler xpathContentHandler;
+    private StreamingInput streamingInput;
     private DeferredContentHandler output;
     private NamespaceSupport namespaceSupport;
 
@@ -76,6 +78,7 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         public boolean gotResults;
         public int rowPosition;
         public int updateCount;
+        public List<Integer> batchUpdateCounts;
 
         public int columnIndex;
         public String columnName;
@@ -371,6 +374,20 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         this.xpathContentHandler = xpathContentHandler;
     }
 
+    public StreamingInput getStreamingInput() {
+        return streamingInput;
+    }
+
+    /**
+     * Set the reader of the data input used by a streaming sql:for-each. In that case, the input document set with
+     * setInput() is empty.
+     *
+     * @param streamingInput  StreamingInput object or null
+     */
+    public void setStreamingInput(StreamingInput streamingInput) {
+        this.streamingInput = streamingInput;
+    }
+
     public DeferredContentHandler getOutput() {
         return output;
     }
@@ -409,6 +426,16 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         executionContext.updateCount = updateCount;
     }
 
+    public List<Integer> getBatchUpdateCounts() {
+        final ExecutionContext executionContext = getExecutionContext(0);
+        return executionContext.batchUpdateCounts;
+    }
+
+    public void setBatchUpdateCounts(List<Integer> batchUpdateCounts) {
+        final ExecutionContext executionContext = getExecutionContext(0);
+        executionContext.batchUpdateCounts = batchUpdateCounts;
+    }
+
     public int getRowPosition() {
         final ExecutionContext executionContext = getExecutionContext(0);
         return executionContext.rowPosition;
@@ -473,4 +500,11 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         // Map datasource names to delegates
         public Map delegates = new HashMap();
     }
+
+    /**
+     * Read the data input as SAX.
+     */
+    public interface StreamingInput {
+        void read(ContentHandler contentHandler);
+    }
 }
@@ -13,6 +13,7 @@
  */
 package org.orbeon.oxf.processor.sql.interpreters;
 
+import org.jaxen.Function;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
@@ -22,6 +23,9 @@ import org.xml.sax.SAXException;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -40,6 +44,30 @@ public class ExecuteInterpreter extends SQLProcessor.InterpreterContentHandler {
         // Push context
         final SQLProcessorInterpreterContext interpreterContext = getInterpreterContext();
         interpreterContext.pushContext();
+
+        // Scope sql:update-count() and sql:batch-update-counts() functions
+        final Map functions = new HashMap();
+        functions.put("{" + SQLProcessor.SQL_NAMESPACE_URI + "}" + "update-count", new Function() {
+            public Object call(org.jaxen.Context context, List args) {
+                return new Integer(interpreterContext.getUpdateCount());
+            }
+        });
+        functions.put("{" + SQLProcessor.SQL_NAMESPACE_URI + "}" + "batch-update-counts", new Function() {
+            public Object call(org.jaxen.Context context, List args) {
+                // Space-separated list of update counts, one per batch
+                final StringBuilder sb = new StringBuilder();
+                final List<Integer> batchUpdateCounts = interpreterContext.getBatchUpdateCounts();
+                if (batchUpdateCounts != null) {
+                    for (final Integer batchUpdateCount: batchUpdateCounts) {
+                        if (sb.length() > 0)
+                            sb.append(' ');
+                        sb.append(batchUpdateCount);
+                    }
+                }
+                return sb.toString();
+            }
+        });
+        interpreterContext.pushFunctions(functions);
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {
@@ -53,7 +81,8 @@ public class ExecuteInterpreter extends SQLProcessor.InterpreterContentHandler {
                 throw new ValidationException(e, new LocationData(getDocumentLocator()));
             }
         }
-        // Pop context
+        // Pop functions and context
+        interpreterContext.popFunctions();
         interpreterContext.popContext();
     }
 }
\ No newline at end of file
@@ -15,10 +15,15 @@ package org.orbeon.oxf.processor.sql.interpreters;
 
 import org.dom4j.Node;
 import org.jaxen.Function;
+import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.xml.StreamingSelector;
 import org.orbeon.oxf.xml.XPathUtils;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler;
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
 import java.util.HashMap;
@@ -43,6 +48,7 @@ public class ForEachInterpreter extends SQLProcessor.InterpreterContentHandler {
 
         // Get attributes
         final String select = attributes.getValue("select");
+        final boolean streaming = "true".equals(attributes.getValue("streaming"));
 
         // Scope functions
         final Node[] currentNode = new Node[1];
@@ -67,6 +73,11 @@ public class ForEachInterpreter extends SQLProcessor.InterpreterContentHandler {
         final SQLProcessorInterpreterContext interpreterContext = getInterpreterContext();
         interpreterContext.pushFunctions(functions);
         try {
+            if (streaming) {
+                streamingIterate(select, currentNode, currentPosition);
+                return;
+            }
+
             // Iterate through the result set
             int nodeCount = 1;
 
@@ -84,6 +95,49 @@ public class ForEachInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
     }
 
+    /**
+     * Iterate over the elements selected by a path of the form /a/b/c while reading the data input. Each element is
+     * built as a separate document, so only one element of the data input is in memory at a time.
+     */
+    private void streamingIterate(String select, final Node[] currentNode, final int[] currentPosition) throws SAXException {
+        final SQLProcessorInterpreterContext interpreterContext = getInterpreterContext();
+        final LocationData locationData = new LocationData(getDocumentLocator());
+
+        final List<String[]> steps = StreamingSelector.getSteps(select, interpreterContext.getPrefixesMap());
+        if (steps == null)
+            throw new ValidationException("Streaming sql:for-each requires a select expression of the form /a/b/c, found: " + select, locationData);
+
+        // The data input can be read only once
+        final SQLProcessorInterpreterContext.StreamingInput streamingInput = interpreterContext.getStreamingInput();
+        if (streamingInput == null)
+            throw new ValidationException("Streaming sql:for-each can only be executed once, and requires the data input to be connected", locationData);
+        interpreterContext.setStreamingInput(null);
+
+        streamingInput.read(new StreamingSelector(steps) {
+
+            // Builder of the current selected element
+            private LocationSAXContentHandler item;
+            private int nodeCount = 1;
+
+            protected ContentHandler startItem() {
+                item = new LocationSAXContentHandler();
+                return item;
+            }
+
+            protected void endItem() throws SAXException {
+                // Run one iteration
+                currentNode[0] = item.getDocument().getRootElement();
+                item = null;
+
+                currentPosition[0] = nodeCount++;
+
+                interpreterContext.pushCurrentNode(currentNode[0]);
+                repeatBody();
+                interpreterContext.popCurrentNode();
+            }
+        });
+    }
+
     public void end(String uri, String localname, String qName) throws SAXException {
     }
 }
@@ -60,6 +60,8 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
     private boolean hasReplaceOrSeparator;
     private Iterator nodeIterator;
     private String debugString;
+    private int batchSize;
+    private boolean generatedKeys;
 
     public QueryInterpreter(SQLProcessorInterpreterContext interpreterContext, int type) {
         super(interpreterContext, false);
@@ -156,26 +158,52 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
         // Get debug attribute
         debugString = attributes.getValue("debug");
+        // Get batch-size attribute
+        final String batchSizeString = attributes.getValue("batch-size");
+        if (batchSizeString != null) {
+            if (type != UPDATE)
+                throw new ValidationException("batch-size attribute is valid only on update element", new LocationData(getDocumentLocator()));
+            try {
+                batchSize = Integer.parseInt(batchSizeString);
+            } catch (NumberFormatException e) {
+                batchSize = 0;
+            }
+            if (batchSize < 1)
+                throw new ValidationException("Invalid batch-size attribute: " + batchSizeString, new LocationData(getDocumentLocator()));
+        } else {
+            batchSize = 0;
+        }
+        // Get generated-keys attribute
+        generatedKeys = "true".equals(attributes.getValue("generated-keys"));
+        if (generatedKeys && type != UPDATE)
+            throw new ValidationException("generated-keys attribute is valid only on update element", new LocationData(getDocumentLocator()));
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {
         // Validate query
         if (query == null)
             throw new ValidationException("Missing query", new LocationData(getDocumentLocator()));
+        if (batchSize > 0 && hasReplaceOrSeparator)
+            throw new ValidationException("batch-size attribute cannot be used with replaced parameters or separators", new LocationData(getDocumentLocator()));
         // Execute query
         try {
+            // Only ask for generated keys if the driver supports it
+            final boolean returnGeneratedKeys = generatedKeys && supportsGetGeneratedKeys();
+
             // Create a single PreparedStatement if the query is not modified at each iteration
             PreparedStatement stmt = null;
             if (!hasReplaceOrSeparator) {
                 final String queryString = query.toString();
-                if (type != CALL) {
-                    // TODO: see how we can support this: Statement.RETURN_GENERATED_KEYS (won't work with hsqldb)
-                    stmt = getInterpreterContext().getConnection().prepareStatement(queryString);
-                } else
+                if (type != CALL)
+                    stmt = prepareStatement(queryString, returnGeneratedKeys);
+                else
                     stmt = getInterpreterContext().getConnection().prepareCall(queryString);
                 getInterpreterContext().setStatementString(queryString);
             }
             getInterpreterContext().setStatement(stmt);
+            int totalUpdateCount = 0;
+            int batchedCount = 0;
+            final List<Integer> batchUpdateCounts = (batchSize > 0) ? new ArrayList<Integer>() : null;
             int nodeCount = 1;
             // Iterate through all source nodes (only one if "select" attribute is missing)
             for (Iterator j = (nodeIterator != null) ? nodeIterator : Collections.singletonList(getInterpreterContext().getCurrentNode()).iterator(); j.hasNext(); nodeCount++) {
@@ -325,7 +353,7 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                         if (stmt != null) {
                             stmt.close();
                         }
-                        stmt = getInterpreterContext().getConnection().prepareStatement(replacedQueryString);
+                        stmt = prepareStatement(replacedQueryString, returnGeneratedKeys);
                         getInterpreterContext().setStatement(stmt);
                         getInterpreterContext().setStatementString(replacedQueryString);
                     }
@@ -600,13 +628,29 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                     final boolean hasResultSet = stmt.execute();
                     ResultSetInterpreter.setResultSetInfo(getInterpreterContext(), stmt, hasResultSet);
                 } else if (type == UPDATE) {
-                    // We know there is only a possible update count
-                    final int updateCount = stmt.executeUpdate();
-                    getInterpreterContext().setUpdateCount(updateCount);//FIXME: should add?
-                    if (updateCount > 0)
-                    	ResultSetInterpreter.setGeneratedKeysResultSetInfo(getInterpreterContext(), stmt);
+                    if (batchSize > 0) {
+                        // Add to batch, and execute batch once full
+                        stmt.addBatch();
+                        if (++batchedCount == batchSize) {
+                            totalUpdateCount += executeBatch(stmt, batchUpdateCounts);
+                            batchedCount = 0;
+                        }
+                    } else {
+                        // We know there is only a possible update count
+                        totalUpdateCount += stmt.executeUpdate();
+                    }
                 }
             }
+            if (type == UPDATE) {
+                // Execute last partial batch
+                if (batchedCount > 0)
+                    totalUpdateCount += executeBatch(stmt, batchUpdateCounts);
+                getInterpreterContext().setUpdateCount(totalUpdateCount);
+                getInterpreterContext().setBatchUpdateCounts(batchUpdateCounts);
+                // Make keys generated by the last statement or batch available to sql:result-set
+                if (returnGeneratedKeys && stmt != null)
+                    ResultSetInterpreter.setGeneratedKeysResultSetInfo(getInterpreterContext(), stmt);
+            }
         } catch (Exception e) {
             // FIXME: should store exception so that it can be retrieved
             // Actually, we'll need a global exception mechanism for pipelines, so this may end up being done
@@ -619,6 +663,43 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
     }
 
+    private PreparedStatement prepareStatement(String queryString, boolean returnGeneratedKeys) throws SQLException {
+        final Connection connection = getInterpreterContext().getConnection();
+        return returnGeneratedKeys
+                ? connection.prepareStatement(queryString, Statement.RETURN_GENERATED_KEYS)
+                : connection.prepareStatement(queryString);
+    }
+
+    private boolean supportsGetGeneratedKeys() throws SQLException {
+        final boolean supported = getInterpreterContext().getConnection().getMetaData().supportsGetGeneratedKeys();
+        if (!supported)
+            SQLProcessor.logger.warn("JDBC driver does not support generated keys, ignoring generated-keys attribute");
+        return supported;
+    }
+
+    /**
+     * Execute the current batch and remember its update count.
+     *
+     * @param stmt              statement with batched commands
+     * @param batchUpdateCounts update counts of previous batches, -1 for batches with unknown update count
+     * @return                  update count of this batch, 0 if unknown
+     */
+    private int executeBatch(PreparedStatement stmt, List<Integer> batchUpdateCounts) throws SQLException {
+        if (SQLProcessor.logger.isDebugEnabled())
+            SQLProcessor.logger.debug("Executing batch for statement: " + getInterpreterContext().getStatementString());
+        final int[] updateCounts = stmt.executeBatch();
+        int batchUpdateCount = 0;
+        boolean isKnown = true;
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] >= 0)
+                batchUpdateCount += updateCounts[i];
+            else
+                isKnown = false; // Statement.SUCCESS_NO_INFO
+        }
+        batchUpdateCounts.add(isKnown ? batchUpdateCount : -1);
+        return batchUpdateCount;
+    }
+
     private static class QueryParameter {
         private String direction;
         private String type;
@@ -100,7 +100,9 @@ public class ResultSetInterpreter extends SQLProcessor.InterpreterContentHandler
         if (!hasResultSet) {
             // There is no more result set, we can close everything
             final int updateCount = stmt.getUpdateCount();
-            interpreterContext.setUpdateCount(updateCount);//FIXME: should add?
+            // Keep update count set by sql:update, e.g. after reading generated keys
+            if (updateCount != -1)
+                interpreterContext.setUpdateCount(updateCount);
             closeStatement(interpreterContext, stmt);
 
             if (SQLProcessor.logger.isDebugEnabled())
@@ -123,20 +125,20 @@ public class ResultSetInterpreter extends SQLProcessor.InterpreterContentHandler
     }
 
     public static boolean setGeneratedKeysResultSetInfo(SQLProcessorInterpreterContext interpreterContext, PreparedStatement stmt) throws SQLException {
-        // TODO: temporarily disabled as Oracle doesn't like it as is
-        /*
-            final ResultSet resultSet = stmt.getGeneratedKeys();
-            
-            final boolean hasNext = resultSet.next();
-            interpreterContext.setEmptyResultSet(!hasNext);
-            interpreterContext.setResultSet(resultSet);
-            interpreterContext.setGotResults(hasNext || interpreterContext.isGotResults());
+        // NOTE: Only called when generated keys are explicitly requested, as not all drivers support this
+        final ResultSet resultSet = stmt.getGeneratedKeys();
+        if (resultSet == null)
+            return false;
 
-            if (SQLProcessor.logger.isDebugEnabled())
-                SQLProcessor.logger.debug("GeneratedKeysResultSet info: more result set, hasNext = " + hasNext);
-        */
-		
-		return true;
+        final boolean hasNext = resultSet.next();
+        interpreterContext.setEmptyResultSet(!hasNext);
+        interpreterContext.setResultSet(resultSet);
+        interpreterContext.setGotResults(hasNext || interpreterContext.isGotResults());
+
+        if (SQLProcessor.logger.isDebugEnabled())
+            SQLProcessor.logger.debug("GeneratedKeysResultSet info: more result set, hasNext = " + hasNext);
+
+        return true;
     }
     
     public static void closeStatement(SQLProcessorInterpreterContext interpreterContext, PreparedStatement stmt) throws SQLException {
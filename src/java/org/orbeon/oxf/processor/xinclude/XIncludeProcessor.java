@@ -18,6 +18,7 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.*;
+import org.orbeon.oxf.processor.pipeline.ConcurrentBranchProcessor;
 import org.orbeon.oxf.processor.transformer.TransformerURIResolver;
 import org.orbeon.oxf.xml.*;
 import org.orbeon.oxf.xml.dom4j.LocationData;
@@ -72,39 +73,47 @@ public class XIncludeProcessor extends ProcessorImpl {
                  * stylesheet has returned.
                  */
 //                        final ContentHandler debugContentHandler = new SAXLoggerProcessor.DebugContentHandler(contentHandler);
-                final TransformerURIResolver uriResolver = new TransformerURIResolver(XIncludeProcessor.this, pipelineContext, INPUT_CONFIG, false);
 
-                // Try to cache URI references
-                // NOTE: Always be careful not to cache refs to TransformerURIResolver. We seem to be fine here.
-                final boolean[] wasRead = { false };
-                readCacheInputAsObject(pipelineContext, getInputByName(INPUT_CONFIG), new CacheableInputReader() {
-                    public Object read(PipelineContext context, ProcessorInput input) {
-                        final URIReferences uriReferences = new URIReferences();
+                // Start reading independent inputs concurrently, if any
+                ConcurrentBranchProcessor.prefetchInputs(pipelineContext, XIncludeProcessor.this);
+
+                try {
+                    final TransformerURIResolver uriResolver = new TransformerURIResolver(XIncludeProcessor.this, pipelineContext, INPUT_CONFIG, false);
+
+                    // Try to cache URI references
+                    // NOTE: Always be careful not to cache refs to TransformerURIResolver. We seem to be fine here.
+                    final boolean[] wasRead = { false };
+                    readCacheInputAsObject(pipelineContext, getInputByName(INPUT_CONFIG), new CacheableInputReader() {
+                        public Object read(PipelineContext context, ProcessorInput input) {
+                            final URIReferences uriReferences = new URIReferences();
+
+                            final SAXStore saxStore = new SAXStore();
+                            // TODO: Should be smarter and only buffer when we find a read of input:* (maybe pipeline API should do this automatically)
+                            readInputAsSAX(pipelineContext, INPUT_CONFIG, saxStore);
+                            try {
+                                saxStore.replay(new XIncludeContentHandler(pipelineContext, contentHandler, uriReferences, uriResolver));
+                            } catch (SAXException e) {
+                                throw new OXFException(e);
+                            }
+
+                            wasRead[0] = true;
+                            return uriReferences;
+                        }
+                    });
 
+                    // Read if not already read
+                    if (!wasRead[0]) {
                         final SAXStore saxStore = new SAXStore();
                         // TODO: Should be smarter and only buffer when we find a read of input:* (maybe pipeline API should do this automatically)
                         readInputAsSAX(pipelineContext, INPUT_CONFIG, saxStore);
                         try {
-                            saxStore.replay(new XIncludeContentHandler(pipelineContext, contentHandler, uriReferences, uriResolver));
+                            saxStore.replay(new XIncludeContentHandler(pipelineContext, contentHandler, null, uriResolver));
                         } catch (SAXException e) {
                             throw new OXFException(e);
                         }
-
-                        wasRead[0] = true;
-                        return uriReferences;
-                    }
-                });
-
-                // Read if not already read
-                if (!wasRead[0]) {
-                    final SAXStore saxStore = new SAXStore();
-                    // TODO: Should be smarter and only buffer when we find a read of input:* (maybe pipeline API should do this automatically)
-                    readInputAsSAX(pipelineContext, INPUT_CONFIG, saxStore);
-                    try {
-                        saxStore.replay(new XIncludeContentHandler(pipelineContext, contentHandler, null, uriResolver));
-                    } catch (SAXException e) {
-                        throw new OXFException(e);
                     }
+                } finally {
+                    ConcurrentBranchProcessor.joinInputs(pipelineContext, XIncludeProcessor.this);
                 }
             }
         };
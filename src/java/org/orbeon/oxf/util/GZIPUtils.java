@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import org.orbeon.oxf.common.OXFException;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * In-memory GZIP compression and decompression of byte arrays.
+ *
+ * Deflaters and inflaters are expensive to create and hold native memory until they are ended, so they are reused
+ * through per-thread pools instead of being created for each call. The streams of java.util.zip don't allow this, so
+ * the GZIP header and trailer are handled here.
+ */
+public class GZIPUtils {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+
+    // Header flags
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // Maximum compression ratio of deflate, used to check the uncompressed size found in the trailer
+    private static final int MAX_RATIO = 1032;
+
+    private static final byte[] HEADER = {
+            (byte) GZIP_MAGIC,
+            (byte) (GZIP_MAGIC >> 8),
+            Deflater.DEFLATED,
+            0,
+            0,
+            0,
+            0,
+            0,
+            0,
+            0
+    };
+
+    private static final ThreadLocalObjectPool<Deflater> DEFLATER_POOL = new ThreadLocalObjectPool<Deflater>() {
+        protected Deflater makeObject() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        protected void passivateObject(Deflater deflater) {
+            deflater.reset();
+        }
+
+        protected void destroyObject(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final ThreadLocalObjectPool<Inflater> INFLATER_POOL = new ThreadLocalObjectPool<Inflater>() {
+        protected Inflater makeObject() {
+            return new Inflater(true);
+        }
+
+        protected void passivateObject(Inflater inflater) {
+            inflater.reset();
+        }
+
+        protected void destroyObject(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    /**
+     * Compress bytes in the GZIP format.
+     *
+     * @param bytes     bytes to compress
+     * @return          compressed bytes
+     */
+    public static byte[] gzip(byte[] bytes) {
+        final Deflater deflater = DEFLATER_POOL.borrowObject();
+        final byte[] result;
+        try {
+            result = deflate(deflater, bytes);
+        } catch (RuntimeException e) {
+            DEFLATER_POOL.invalidateObject(deflater);
+            throw e;
+        }
+        DEFLATER_POOL.returnObject(deflater);
+        return result;
+    }
+
+    /**
+     * Decompress bytes in the GZIP format.
+     *
+     * @param gzipBytes compressed bytes
+     * @return          decompressed bytes
+     */
+    public static byte[] gunzip(byte[] gzipBytes) {
+        final Inflater inflater = INFLATER_POOL.borrowObject();
+        final byte[] result;
+        try {
+            result = inflate(inflater, gzipBytes);
+        } catch (RuntimeException e) {
+            INFLATER_POOL.invalidateObject(inflater);
+            throw e;
+        }
+        INFLATER_POOL.returnObject(inflater);
+        return result;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] bytes) {
+        // Compressed data is rarely larger than this, and the buffer grows otherwise
+        byte[] buffer = new byte[HEADER_SIZE + bytes.length / 2 + 64 + TRAILER_SIZE];
+        System.arraycopy(HEADER, 0, buffer, 0, HEADER_SIZE);
+        int length = HEADER_SIZE;
+
+        deflater.setInput(bytes);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length == buffer.length - TRAILER_SIZE)
+                buffer = grow(buffer);
+            length += deflater.deflate(buffer, length, buffer.length - TRAILER_SIZE - length);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        writeInt((int) crc.getValue(), buffer, length);
+        writeInt(bytes.length, buffer, length + 4);
+        length += TRAILER_SIZE;
+
+        return (length == buffer.length) ? buffer : copyOf(buffer, length);
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] gzipBytes) {
+        final int dataStart = readHeader(gzipBytes);
+        if (gzipBytes.length - dataStart < TRAILER_SIZE)
+            throw new OXFException("Unexpected end of GZIP data.");
+
+        // Use the size found in the trailer if it is plausible, as it is only known modulo 2^32
+        final int expectedSize = readInt(gzipBytes, gzipBytes.length - 4);
+        final boolean isPlausibleSize = expectedSize >= 0 && expectedSize / MAX_RATIO <= gzipBytes.length;
+        byte[] buffer = new byte[isPlausibleSize ? expectedSize : gzipBytes.length * 4];
+        int length = 0;
+
+        inflater.setInput(gzipBytes, dataStart, gzipBytes.length - dataStart);
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length)
+                    buffer = grow(buffer);
+                final int count = inflater.inflate(buffer, length, buffer.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new OXFException("Unexpected end of GZIP data.");
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new OXFException(e);
+        }
+
+        // Check trailer, which follows the compressed data
+        final int trailerStart = gzipBytes.length - inflater.getRemaining();
+        if (gzipBytes.length - trailerStart < TRAILER_SIZE)
+            throw new OXFException("Unexpected end of GZIP data.");
+        final CRC32 crc = new CRC32();
+        crc.update(buffer, 0, length);
+        if (readInt(gzipBytes, trailerStart) != (int) crc.getValue() || readInt(gzipBytes, trailerStart + 4) != length)
+            throw new OXFException("Corrupt GZIP trailer.");
+
+        return (length == buffer.length) ? buffer : copyOf(buffer, length);
+    }
+
+    private static int readHeader(byte[] gzipBytes) {
+        if (gzipBytes.length < HEADER_SIZE || readShort(gzipBytes, 0) != GZIP_MAGIC || gzipBytes[2] != Deflater.DEFLATED)
+            throw new OXFException("Not in GZIP format.");
+
+        final int flags = gzipBytes[3] & 0xff;
+        int position = HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            if (position + 2 > gzipBytes.length)
+                throw new OXFException("Unexpected end of GZIP data.");
+            position += 2 + readShort(gzipBytes, position);
+        }
+        if ((flags & FNAME) != 0)
+            position = skipZeroTerminated(gzipBytes, position);
+        if ((flags & FCOMMENT) != 0)
+            position = skipZeroTerminated(gzipBytes, position);
+        if ((flags & FHCRC) != 0)
+            position += 2;
+
+        if (position > gzipBytes.length)
+            throw new OXFException("Unexpected end of GZIP data.");
+        return position;
+    }
+
+    private static int skipZeroTerminated(byte[] bytes, int position) {
+        while (position < bytes.length && bytes[position] != 0)
+            position++;
+        return position + 1;
+    }
+
+    private static byte[] grow(byte[] buffer) {
+        return copyOf(buffer, Math.max(buffer.length * 2, 1024));
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length) {
+        final byte[] result = new byte[length];
+        System.arraycopy(bytes, 0, result, 0, Math.min(bytes.length, length));
+        return result;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | (readShort(bytes, offset + 2) << 16);
+    }
+
+    private static void writeInt(int i, byte[] bytes, int offset) {
+        bytes[offset] = (byte) i;
+        bytes[offset + 1] = (byte) (i >> 8);
+        bytes[offset + 2] = (byte) (i >> 16);
+        bytes[offset + 3] = (byte) (i >> 24);
+    }
+}
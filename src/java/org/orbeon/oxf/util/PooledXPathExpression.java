@@ -13,7 +13,6 @@
  */
 package org.orbeon.oxf.util;
 
-import org.apache.commons.pool.ObjectPool;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.xforms.XFormsUtils;
 import org.orbeon.saxon.expr.Expression;
@@ -36,38 +35,64 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Compiled XPath expression with the dynamic context of one evaluation.
+ *
+ * The compiled expression and variable declarations are immutable and shared between threads. The context item,
+ * position and variable values are specific to each instance, so an instance must not be used by more than one thread
+ * at a time. Use newEvaluation() to evaluate a shared expression.
+ */
 public class PooledXPathExpression {
 
-    private XPathExpression  expression;
-    private ObjectPool pool;
-    private Map<String, XPathVariable> variables;
+    private final XPathExpression expression;
+    private final Map<String, XPathVariable> variables;
+
+    // Whether the expression was compiled by XPathWarmUp and hasn't been used yet
+    private volatile boolean isUnusedWarmUp;
 
     // Dynamic context
     private Map<String, ValueRepresentation> variableToValueMap;
     private Item contextItem;
     private int contextPosition;
 
-    public PooledXPathExpression(XPathExpression expression, ObjectPool pool, Map<String, XPathVariable> variables) {
+    public PooledXPathExpression(XPathExpression expression, Map<String, XPathVariable> variables) {
         this.expression = expression;
-        this.pool = pool;
         this.variables = variables;
     }
 
     /**
-     * This *must* be called in a finally block to return the expression to the pool.
+     * Return a new object to evaluate the same compiled expression with its own dynamic context.
+     */
+    public PooledXPathExpression newEvaluation() {
+        return new PooledXPathExpression(expression, variables);
+    }
+
+    void setWarmUp() {
+        isUnusedWarmUp = true;
+    }
+
+    boolean isUnusedWarmUp() {
+        return isUnusedWarmUp;
+    }
+
+    /**
+     * Mark the expression as used.
+     *
+     * @return  true if this is the first use
+     */
+    synchronized boolean setUsed() {
+        if (!isUnusedWarmUp)
+            return false;
+        isUnusedWarmUp = false;
+        return true;
+    }
+
+    /**
+     * Release the references to the dynamic context. This should be called in a finally block after use.
      */
     public void returnToPool() {
-        try {
-            // Free up dynamic context references
-            variableToValueMap = null;
-            contextItem = null;
-
-            // Return object to pool
-            if (pool != null) // may be null for testing
-                pool.returnObject(this);
-        } catch (Exception e) {
-            throw new OXFException(e);
-        }
+        variableToValueMap = null;
+        contextItem = null;
     }
 
     public Expression getExpression() {
@@ -308,13 +333,4 @@ public class PooledXPathExpression {
         // them. Conversely, if there are undeclared variables, we let the XPath engine complain about that.
         this.variableToValueMap = variableToValueMap;
     }
-
-    public void destroy() {
-        expression = null;
-        pool = null;
-        variables = null;
-
-        variableToValueMap = null;
-        contextItem = null;
-    }
 }
\ No newline at end of file
@@ -13,9 +13,6 @@
  */
 package org.orbeon.oxf.util;
 
-import org.orbeon.oxf.cache.Cache;
-import org.orbeon.oxf.cache.InternalCacheKey;
-import org.orbeon.oxf.cache.ObjectCache;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.saxon.om.FastStringBuffer;
 
@@ -32,9 +29,9 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.MessageDigest;
 import java.security.spec.InvalidKeySpecException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SecureUtils {
 
@@ -51,51 +48,60 @@ public class SecureUtils {
     private static final PBEParameterSpec pbeParamSpec = new PBEParameterSpec(salt, count);
     private static final String CIPHER_TYPE = "PBEWithMD5AndDES";
 
-    private static Map<String, Cipher> passwordToEncryptionCipher = new HashMap<String, Cipher>();
-    private static Map<String, Cipher> passwordToDecryptionCipher = new HashMap<String, Cipher>();
+    // Secret keys are expensive to derive from passwords
+    private static final Map<String, SecretKey> passwordToSecretKey = new ConcurrentHashMap<String, SecretKey>();
 
+    // Ciphers are not thread-safe, so encrypt() and decrypt() use per-thread ciphers instead of sharing them
+    private static final ConcurrentHashMap<String, ThreadLocalObjectPool<Cipher>> passwordToEncryptionCipherPool = new ConcurrentHashMap<String, ThreadLocalObjectPool<Cipher>>();
+    private static final ConcurrentHashMap<String, ThreadLocalObjectPool<Cipher>> passwordToDecryptionCipherPool = new ConcurrentHashMap<String, ThreadLocalObjectPool<Cipher>>();
+
+    /**
+     * Return a new encrypting cipher. The cipher must not be used by more than one thread at a time.
+     *
+     * @param password          encryption password
+     * @param cacheCipher       whether to reuse the secret key derived from the password
+     * @return                  cipher
+     */
     public static Cipher getEncryptingCipher(String password, boolean cacheCipher) {
+        return createCipher(Cipher.ENCRYPT_MODE, password, cacheCipher);
+    }
+
+    /**
+     * Return a new decrypting cipher. The cipher must not be used by more than one thread at a time.
+     *
+     * @param password          encryption password
+     * @param cacheCipher       whether to reuse the secret key derived from the password
+     * @return                  cipher
+     */
+    public static Cipher getDecryptingCipher(String password, boolean cacheCipher) {
+        return createCipher(Cipher.DECRYPT_MODE, password, cacheCipher);
+    }
+
+    private static Cipher createCipher(int mode, String password, boolean cacheKey) {
         try {
-            Cipher cipher;
-            if (cacheCipher) {
-                synchronized(passwordToEncryptionCipher) {
-                    cipher = passwordToEncryptionCipher.get(password);
-                    if (cipher == null) {
-                        cipher = Cipher.getInstance(CIPHER_TYPE);
-                        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(password), pbeParamSpec);
-                        passwordToEncryptionCipher.put(password, cipher);
-                    }
-                }
-            } else {
-                cipher = Cipher.getInstance(CIPHER_TYPE);
-                cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(password), pbeParamSpec);
-            }
+            final Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
+            cipher.init(mode, cacheKey ? getCachedSecretKey(password) : getSecretKey(password), pbeParamSpec);
             return cipher;
         } catch (Exception e) {
             throw new OXFException(e);
         }
     }
 
-    public static Cipher getDecryptingCipher(String password, boolean cacheCipher) {
-        try {
-            Cipher cipher;
-            if (cacheCipher) {
-                synchronized(passwordToDecryptionCipher) {
-                    cipher = passwordToDecryptionCipher.get(password);
-                    if (cipher == null) {
-                        cipher = Cipher.getInstance(CIPHER_TYPE);
-                        cipher.init(Cipher.DECRYPT_MODE, getSecretKey(password), pbeParamSpec);
-                        passwordToDecryptionCipher.put(password, cipher);
-                    }
+    private static ThreadLocalObjectPool<Cipher> getCipherPool(final int mode, final String password) {
+        final ConcurrentHashMap<String, ThreadLocalObjectPool<Cipher>> pools = (mode == Cipher.ENCRYPT_MODE) ? passwordToEncryptionCipherPool : passwordToDecryptionCipherPool;
+        ThreadLocalObjectPool<Cipher> pool = pools.get(password);
+        if (pool == null) {
+            // Two threads may create a pool for the same password, but only one is kept
+            pool = new ThreadLocalObjectPool<Cipher>() {
+                protected Cipher makeObject() {
+                    return createCipher(mode, password, true);
                 }
-            } else {
-                cipher = Cipher.getInstance(CIPHER_TYPE);
-                cipher.init(Cipher.DECRYPT_MODE, getSecretKey(password), pbeParamSpec);
-            }
-            return cipher;
-        } catch (Exception e) {
-            throw new OXFException(e);
+            };
+            final ThreadLocalObjectPool<Cipher> existingPool = pools.putIfAbsent(password, pool);
+            if (existingPool != null)
+                pool = existingPool;
         }
+        return pool;
     }
 
     public static String generateRandomPassword() {
@@ -131,22 +137,19 @@ public class SecureUtils {
      */
     public static String encrypt(PropertyContext propertyContext, String password, byte[] bytes) {
         try {
-            // Find cipher in cache
-            final Cache cache = ObjectCache.instance();
-            final Long validity = (long) 0;
-            final InternalCacheKey key = new InternalCacheKey("Encryption cipher", password);
-            Cipher cipher = (Cipher) cache.findValid(propertyContext, key, validity);
-            if (cipher == null) {
-                cipher = Cipher.getInstance(CIPHER_TYPE);
-                cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(password), pbeParamSpec);
-                cache.add(propertyContext, key, validity, cipher);
-            }
-            // Encode with cipher
-            // TODO: should probably use pool of cyphers instead of synchronization, which can cause contention here.
-            synchronized(cipher) {
-                // Encode without putting line breaks between lines
-                return Base64.encode(cipher.doFinal(bytes), false);
+            final ThreadLocalObjectPool<Cipher> pool = getCipherPool(Cipher.ENCRYPT_MODE, password);
+            final Cipher cipher = pool.borrowObject();
+            final byte[] encryptedBytes;
+            try {
+                // doFinal() resets the cipher to its initial state, so it can be reused
+                encryptedBytes = cipher.doFinal(bytes);
+            } catch (Exception e) {
+                pool.invalidateObject(cipher);
+                throw e;
             }
+            pool.returnObject(cipher);
+            // Encode without putting line breaks between lines
+            return Base64.encode(encryptedBytes, false);
         } catch (Exception e) {
             throw new OXFException(e);
         }
@@ -178,23 +181,32 @@ public class SecureUtils {
      */
     public static byte[] decrypt(PropertyContext propertyContext, String password, String text) {
         try {
-            Cache cache = ObjectCache.instance();
-            Long validity = (long) 0;
-            InternalCacheKey key = new InternalCacheKey("Decryption cipher", password);
-                Cipher cipher = (Cipher) cache.findValid(propertyContext, key, validity);
-            if (cipher == null) {
-                cipher = Cipher.getInstance(CIPHER_TYPE);
-                cipher.init(Cipher.DECRYPT_MODE, getSecretKey(password), pbeParamSpec);
-                cache.add(propertyContext, key, validity, cipher);
-            }
-            synchronized(cipher) {
-                return cipher.doFinal(Base64.decode(text));
+            final ThreadLocalObjectPool<Cipher> pool = getCipherPool(Cipher.DECRYPT_MODE, password);
+            final byte[] encryptedBytes = Base64.decode(text);
+            final Cipher cipher = pool.borrowObject();
+            final byte[] decryptedBytes;
+            try {
+                decryptedBytes = cipher.doFinal(encryptedBytes);
+            } catch (Exception e) {
+                pool.invalidateObject(cipher);
+                throw e;
             }
+            pool.returnObject(cipher);
+            return decryptedBytes;
         } catch (Exception e) {
             throw new OXFException(e);
         }
     }
 
+    private static SecretKey getCachedSecretKey(String password) {
+        SecretKey secretKey = passwordToSecretKey.get(password);
+        if (secretKey == null) {
+            secretKey = getSecretKey(password);
+            passwordToSecretKey.put(password, secretKey);
+        }
+        return secretKey;
+    }
+
     private static SecretKey getSecretKey(String password) {
         try {
             PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray());
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+/**
+ * Pool keeping at most one idle object per thread, for objects which are expensive to create and not thread-safe,
+ * such as Deflater, Inflater or Cipher.
+ *
+ * Borrowing and returning never synchronize between threads. The number of pooled objects is bounded by the number of
+ * threads using the pool. An object borrowed while the thread's object is already borrowed (reentrant use) is created
+ * for the occasion, and destroyed when returned.
+ *
+ * Callers must either return or invalidate each borrowed object, typically:
+ *
+ *   final T object = pool.borrowObject();
+ *   try {
+ *       ...
+ *   } catch (RuntimeException e) {
+ *       pool.invalidateObject(object);
+ *       throw e;
+ *   }
+ *   pool.returnObject(object);
+ */
+public abstract class ThreadLocalObjectPool<T> {
+
+    private final ThreadLocal<T> idleObject = new ThreadLocal<T>();
+
+    /**
+     * Create a new object, ready to use.
+     */
+    protected abstract T makeObject();
+
+    /**
+     * Bring a used object back to its initial state before it is kept for reuse.
+     */
+    protected void passivateObject(T object) {
+    }
+
+    /**
+     * Release the resources held by an object which won't be used anymore.
+     */
+    protected void destroyObject(T object) {
+    }
+
+    public T borrowObject() {
+        final T object = idleObject.get();
+        if (object != null) {
+            idleObject.set(null);
+            return object;
+        } else {
+            return makeObject();
+        }
+    }
+
+    public void returnObject(T object) {
+        try {
+            passivateObject(object);
+        } catch (RuntimeException e) {
+            destroyObject(object);
+            throw e;
+        }
+        if (idleObject.get() == null)
+            idleObject.set(object);
+        else
+            destroyObject(object);
+    }
+
+    /**
+     * Discard a borrowed object which may be in an inconsistent state, e.g. after an exception.
+     */
+    public void invalidateObject(T object) {
+        destroyObject(object);
+    }
+}
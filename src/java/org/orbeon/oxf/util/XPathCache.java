@@ -13,14 +13,13 @@
  */
 package org.orbeon.oxf.util;
 
-import org.apache.commons.pool.ObjectPool;
-import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.log4j.Logger;
 import org.orbeon.oxf.cache.Cache;
-import org.orbeon.oxf.cache.InternalCacheKey;
+import org.orbeon.oxf.cache.CacheKey;
 import org.orbeon.oxf.cache.ObjectCache;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.xml.NamespaceMapping;
 import org.orbeon.oxf.xml.XPathCacheStaticContext;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.oxf.xml.dom4j.LocationData;
@@ -48,8 +47,10 @@ import java.util.*;
 /**
  * Use the object cache to cache XPath expressions, which are costly to parse.
  *
- * It is mandatory to call returnToPool() on the returned PooledXPathExpression after use. It is
- * good to do this within a finally() block enclosing the use of the expression.
+ * A compiled expression is immutable and shared by all threads. Each call to getXPathExpression() returns a new
+ * PooledXPathExpression holding the dynamic context of one evaluation (context item, position and variable values).
+ * Calling returnToPool() on it after use releases these references early. It is good to do this within a finally()
+ * block enclosing the use of the expression.
  */
 public class XPathCache {
 
@@ -74,8 +75,6 @@ public class XPathCache {
 
     public static final String XPATH_CACHE_CONFIGURATION_PROPERTY = "orbeon.cache.xpath.configuration";
 
-    private static final boolean DEBUG_TEST_KEY_OPTIMIZATION = false;
-
     private static final Logger logger = LoggerFactory.createLogger(XPathCache.class);
 
     public static class XPathContext {
@@ -302,15 +301,11 @@ public class XPathCache {
      * @throws Exception        if the expression is not correct
      */
     public static void checkXPathExpression(Configuration configuration, String xpathString, Map<String, String> prefixToURIMap, FunctionLibrary functionLibrary) throws Exception {
-        new XPathCachePoolableObjetFactory(null, configuration, xpathString, prefixToURIMap, null, functionLibrary, null, false, true, null).makeObject();
+        compileExpression(configuration, xpathString, prefixToURIMap, null, functionLibrary, null, false, true);
     }
 
     public static Expression createExpression(Configuration configuration, String xpathString, Map<String, String> prefixToURIMap, FunctionLibrary functionLibrary) {
-        try {
-            return ((PooledXPathExpression) new XPathCachePoolableObjetFactory(null, configuration, xpathString, prefixToURIMap, null, functionLibrary, null, false, true, null).makeObject()).getExpression();
-        } catch (Exception e) {
-            throw new OXFException(e);
-        }
+        return compileExpression(configuration, xpathString, prefixToURIMap, null, functionLibrary, null, false, true).getExpression();
     }
 
     private static PooledXPathExpression getXPathExpression(PropertyContext propertyContext, Configuration configuration,
@@ -326,80 +321,34 @@ public class XPathCache {
 
         try {
 
-            // Find pool from cache
+            // Find expression in cache
             final Long validity = (long) 0;
             final Cache cache = ObjectCache.instance(XPATH_CACHE_NAME, XPATH_CACHE_DEFAULT_SIZE);
-            final StringBuilder cacheKeyString = new StringBuilder(xpathString);
-            {
-                if (functionLibrary != null) {// This is ok
-                    cacheKeyString.append('|');
-                    cacheKeyString.append(Integer.toString(functionLibrary.hashCode()));
-                }
-            }
-            {
-                // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
-                // to use it as part of the cache key.
-
-                // TODO: PERF: It turns out that this takes a lot of time. Now that the namespace information is computed statically, we can do better.
-                if (DEBUG_TEST_KEY_OPTIMIZATION) {
-                    // PERF TEST ONLY
-                    cacheKeyString.append("|DUMMYNSVAR|");
-                } else {
-
-                    if (prefixToURIMap != null) {
-                        final Map<String, String> sortedMap = (prefixToURIMap instanceof TreeMap) ? prefixToURIMap : new TreeMap<String, String>(prefixToURIMap);// this should make sure we always get the keys in the same order
-                        for (Map.Entry<String,String> currentEntry: sortedMap.entrySet()) {
-                            cacheKeyString.append('|');
-                            cacheKeyString.append(currentEntry.getKey());
-                            cacheKeyString.append('=');
-                            cacheKeyString.append(currentEntry.getValue());
-                        }
-                    }
-
-                }
-            }
-            if (DEBUG_TEST_KEY_OPTIMIZATION) {
-                // PERF TEST ONLY
-                // NOP
-            } else {
-
-                if (variableToValueMap != null && variableToValueMap.size() > 0) {
-                    // There are some variables in scope. They must be part of the key
-                    // TODO: Put this in static state as this can be determined statically once and for all
-                    for (final String variableName: variableToValueMap.keySet()) {
-                        cacheKeyString.append('|');
-                        cacheKeyString.append(variableName);
-                    }
-                }
-            }
-            {
-                // Add this to the key as evaluating "name" as XPath or as AVT is very different!
-                cacheKeyString.append('|');
-                cacheKeyString.append(Boolean.toString(isAvt));
-            }
-
-            // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
-
             final Set<String> variableNames = (variableToValueMap != null) ? variableToValueMap.keySet() : null;
-            final PooledXPathExpression pooledXPathExpression;
+            final PooledXPathExpression compiledExpression;
             if (testNoCache) {
                 // For testing only: don't get expression from cache
-                final Object o = new XPathCachePoolableObjetFactory(null, configuration, xpathString, prefixToURIMap, variableNames, functionLibrary, baseURI, isAvt, false, locationData).makeObject();
-                pooledXPathExpression = (PooledXPathExpression) o;
+                compiledExpression = compileExpression(configuration, xpathString, prefixToURIMap, variableNames, functionLibrary, baseURI, isAvt, false);
             } else {
-                // Get or create pool
-                final InternalCacheKey cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString());
-                ObjectPool pool = (ObjectPool) cache.findValid(propertyContext, cacheKey, validity);
-                if (pool == null) {
-                    pool = createXPathPool(configuration, xpathString, prefixToURIMap, variableNames, functionLibrary, baseURI, isAvt, locationData);
-                    cache.add(propertyContext, cacheKey, validity, pool);
+                // Get or create compiled expression
+                // NOTE: The lookup key refers to the maps passed, which is fine as it is not kept
+                final XPathCacheKey cacheKey = new XPathCacheKey(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
+                final PooledXPathExpression cachedExpression = (PooledXPathExpression) cache.findValid(propertyContext, cacheKey, validity);
+                if (cachedExpression != null) {
+                    compiledExpression = cachedExpression;
+                    if (compiledExpression.isUnusedWarmUp() && compiledExpression.setUsed())
+                        XPathWarmUp.warmUpExpressionUsed(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
+                } else {
+                    // Two threads may compile the same expression concurrently, which is harmless
+                    compiledExpression = compileExpression(configuration, xpathString, prefixToURIMap, variableNames, functionLibrary, baseURI, isAvt, false);
+                    cache.add(propertyContext, cacheKey.toStoredKey(), validity, compiledExpression);
+                    XPathWarmUp.expressionCompiled(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
                 }
-
-                // Get object from pool
-                final Object o = pool.borrowObject();
-                pooledXPathExpression = (PooledXPathExpression) o;
             }
 
+            // The compiled expression is shared, so evaluate with a new dynamic context
+            final PooledXPathExpression pooledXPathExpression = compiledExpression.newEvaluation();
+
             // Set context items and position
             pooledXPathExpression.setContextItems(contextItems, contextPosition);
 
@@ -412,134 +361,169 @@ public class XPathCache {
         }
     }
 
-    private static ValidationException handleXPathException(Exception e, String xpathString, String description, LocationData locationData) {
-        final ValidationException validationException = ValidationException.wrapException(e, new ExtendedLocationData(locationData, description,
-                "expression", xpathString));
-
-        // Details of ExtendedLocationData passed are discarded by the constructor for ExtendedLocationData above,
-        // so we need to explicitly add them.
-        if (locationData instanceof ExtendedLocationData)
-            validationException.addLocationData(locationData);
-
-        return validationException;
-    }
-
-    private static ObjectPool createXPathPool(Configuration xpathConfiguration,
-                                              String xpathString,
-                                              Map<String, String> prefixToURIMap,
-                                              Set<String> variableNames,
-                                              FunctionLibrary functionLibrary,
-                                              String baseURI,
-                                              boolean isAvt,
-                                              LocationData locationData) {
-        try {
-            // TODO: pool should have at least one hard reference
-            final SoftReferenceObjectPool pool = new SoftReferenceObjectPool();
-            pool.setFactory(new XPathCachePoolableObjetFactory(pool, xpathConfiguration, xpathString,
-                    prefixToURIMap, variableNames, functionLibrary, baseURI, isAvt, false, locationData));
-
-            return pool;
-        } catch (Exception e) {
-            throw new OXFException(e);
-        }
-    }
+    /**
+     * Key of a compiled expression in the cache.
+     *
+     * NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so it is part of the key.
+     * The names of the variables in scope are part of the key too, and evaluating "name" as XPath or as AVT is very
+     * different.
+     *
+     * Lookups don't copy anything: the key refers to the namespace mapping and variable names passed, and hashing
+     * doesn't depend on their iteration order. Namespace mappings from the static state are NamespaceMapping objects
+     * with a precomputed hash code, shared between elements with the same namespace context.
+     *
+     * TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
+     */
+    private static class XPathCacheKey extends CacheKey {
 
-    private static class XPathCachePoolableObjetFactory implements PoolableObjectFactory {
-        private final ObjectPool pool;
-        private Configuration xpathConfiguration;
         private final String xpathString;
         private final Map<String, String> prefixToURIMap;
         private final Set<String> variableNames;
         // NOTE: storing the FunctionLibrary in cache is ok if it doesn't hold dynamic references (case of global XFormsFunctionLibrary)
         private final FunctionLibrary functionLibrary;
-        private final String baseURI;
         private final boolean isAvt;
-        private final boolean allowAllVariables;
-        private final LocationData locationData;
-
-        public XPathCachePoolableObjetFactory(ObjectPool pool,
-                                          Configuration xpathConfiguration,
-                                          String xpathString,
-                                          Map<String, String> prefixToURIMap,
-                                          Set<String> variableNames,
-                                          FunctionLibrary functionLibrary,
-                                          String baseURI,
-                                          boolean isAvt,
-                                          boolean allowAllVariables,
-                                          LocationData locationData) {
-            this.pool = pool;
-
-            this.xpathConfiguration = (xpathConfiguration != null) ? xpathConfiguration : XPathCache.getGlobalConfiguration();
+        private final int hash;
+
+        public XPathCacheKey(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames, FunctionLibrary functionLibrary, boolean isAvt) {
+            setClazz(XPathCacheKey.class);
 
             this.xpathString = xpathString;
-            this.prefixToURIMap = prefixToURIMap;
-            this.variableNames = variableNames;
+            this.prefixToURIMap = (prefixToURIMap != null && prefixToURIMap.size() > 0) ? prefixToURIMap : null;
+            this.variableNames = (variableNames != null && variableNames.size() > 0) ? variableNames : null;
             this.functionLibrary = functionLibrary;
-            this.baseURI = baseURI;
             this.isAvt = isAvt;
-            this.allowAllVariables = allowAllVariables;
-            this.locationData = locationData;
+
+            int hash = xpathString.hashCode();
+            hash = 31 * hash + (this.prefixToURIMap != null ? this.prefixToURIMap.hashCode() : 0);
+            hash = 31 * hash + (this.variableNames != null ? this.variableNames.hashCode() : 0);
+            hash = 31 * hash + (functionLibrary != null ? functionLibrary.hashCode() : 0);
+            hash = 31 * hash + (isAvt ? 1 : 0);
+            this.hash = hash;
         }
 
-        public void activateObject(Object o) throws Exception {
+        /**
+         * Return an equal key which doesn't refer to mutable maps or sets, to store in the cache.
+         */
+        public XPathCacheKey toStoredKey() {
+            final Map<String, String> storedPrefixToURIMap = (prefixToURIMap == null || prefixToURIMap instanceof NamespaceMapping)
+                    ? prefixToURIMap : new NamespaceMapping(prefixToURIMap);
+            final Set<String> storedVariableNames = (variableNames != null) ? Collections.unmodifiableSet(new HashSet<String>(variableNames)) : null;
+            return new XPathCacheKey(xpathString, storedPrefixToURIMap, storedVariableNames, functionLibrary, isAvt);
         }
 
-        public void destroyObject(Object o) throws Exception {
-            if (o instanceof PooledXPathExpression) {
-                PooledXPathExpression xp = (PooledXPathExpression) o;
-                xp.destroy();
-            } else
-                throw new OXFException(o.toString() + " is not a PooledXPathExpression");
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof XPathCacheKey))
+                return false;
+            final XPathCacheKey other = (XPathCacheKey) o;
+            return hash == other.hash
+                    && isAvt == other.isAvt
+                    && functionLibrary == other.functionLibrary
+                    && xpathString.equals(other.xpathString)
+                    && (prefixToURIMap == null ? other.prefixToURIMap == null : prefixToURIMap.equals(other.prefixToURIMap))
+                    && (variableNames == null ? other.variableNames == null : variableNames.equals(other.variableNames));
         }
 
-        /**
-         * Create and compile an XPath expression object.
-         */
-        public Object makeObject() throws Exception {
-            if (logger.isDebugEnabled())
-                logger.debug("makeObject(" + xpathString + ")");
+        @Override
+        public int hashCode() {
+            return hash;
+        }
 
-            // Create context
-            final IndependentContext independentContext = new XPathCacheStaticContext(xpathConfiguration, allowAllVariables);
+        @Override
+        public String toString() {
+            return "XPathCacheKey[expression: " + xpathString + ", avt: " + isAvt + "]";
+        }
+    }
 
-            // Set the base URI if specified
-            if (baseURI != null)
-                independentContext.setBaseURI(baseURI);
+    /**
+     * Register a function library under a name, so that expressions using it can be recorded in the warm-up manifest
+     * and compiled when warming up. See XPathWarmUp.
+     */
+    public static void registerFunctionLibrary(String name, FunctionLibrary functionLibrary) {
+        XPathWarmUp.registerFunctionLibrary(name, functionLibrary);
+    }
 
-            // Declare namespaces
-            if (prefixToURIMap != null) {
-                for (final String prefix: prefixToURIMap.keySet()) {
-                    independentContext.declareNamespace(prefix, prefixToURIMap.get(prefix));
-                }
-            }
+    /**
+     * Compile an expression into the cache, unless it is already there.
+     *
+     * @return  true if the expression was compiled
+     */
+    static boolean warmUpExpression(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames, FunctionLibrary functionLibrary, boolean isAvt) {
+        final Long validity = (long) 0;
+        final Cache cache = ObjectCache.instance(XPATH_CACHE_NAME, XPATH_CACHE_DEFAULT_SIZE);
+        final XPathCacheKey cacheKey = new XPathCacheKey(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
+        if (cache.findValid(null, cacheKey, validity) != null)
+            return false;
+
+        final PooledXPathExpression compiledExpression = compileExpression(null, xpathString, prefixToURIMap, variableNames, functionLibrary, null, isAvt, false);
+        compiledExpression.setWarmUp();
+        cache.add(null, cacheKey.toStoredKey(), validity, compiledExpression);
+        return true;
+    }
 
-            // Declare variables (we don't use the values here, just the names)
-            final Map<String, XPathVariable> variables = new HashMap<String, XPathVariable>();
-            if (variableNames != null) {
-                for (final String name: variableNames) {
-                    final XPathVariable variable = independentContext.declareVariable("", name);
-                    variables.put(name, variable);
-                }
-            }
+    private static ValidationException handleXPathException(Exception e, String xpathString, String description, LocationData locationData) {
+        final ValidationException validationException = ValidationException.wrapException(e, new ExtendedLocationData(locationData, description,
+                "expression", xpathString));
 
-            // Add function library
-            if (functionLibrary != null) {
-                ((FunctionLibraryList) independentContext.getFunctionLibrary()).libraryList.add(0, functionLibrary);
-            }
+        // Details of ExtendedLocationData passed are discarded by the constructor for ExtendedLocationData above,
+        // so we need to explicitly add them.
+        if (locationData instanceof ExtendedLocationData)
+            validationException.addLocationData(locationData);
 
-            return createPoolableXPathExpression(pool, independentContext, xpathString, variables, isAvt);
+        return validationException;
+    }
+
+    /**
+     * Create and compile an XPath expression object.
+     */
+    private static PooledXPathExpression compileExpression(Configuration xpathConfiguration,
+                                                          String xpathString,
+                                                          Map<String, String> prefixToURIMap,
+                                                          Set<String> variableNames,
+                                                          FunctionLibrary functionLibrary,
+                                                          String baseURI,
+                                                          boolean isAvt,
+                                                          boolean allowAllVariables) {
+        if (logger.isDebugEnabled())
+            logger.debug("compileExpression(" + xpathString + ")");
+
+        // Create context
+        final IndependentContext independentContext = new XPathCacheStaticContext(
+                (xpathConfiguration != null) ? xpathConfiguration : XPathCache.getGlobalConfiguration(), allowAllVariables);
+
+        // Set the base URI if specified
+        if (baseURI != null)
+            independentContext.setBaseURI(baseURI);
+
+        // Declare namespaces
+        if (prefixToURIMap != null) {
+            for (final String prefix: prefixToURIMap.keySet()) {
+                independentContext.declareNamespace(prefix, prefixToURIMap.get(prefix));
+            }
         }
 
-        public void passivateObject(Object o) throws Exception {
+        // Declare variables (we don't use the values here, just the names)
+        final Map<String, XPathVariable> variables = new HashMap<String, XPathVariable>();
+        if (variableNames != null) {
+            for (final String name: variableNames) {
+                final XPathVariable variable = independentContext.declareVariable("", name);
+                variables.put(name, variable);
+            }
         }
 
-        public boolean validateObject(Object o) {
-            return true;
+        // Add function library
+        // NOTE: storing the FunctionLibrary in cache is ok if it doesn't hold dynamic references (case of global XFormsFunctionLibrary)
+        if (functionLibrary != null) {
+            ((FunctionLibraryList) independentContext.getFunctionLibrary()).libraryList.add(0, functionLibrary);
         }
+
+        return createXPathExpression(independentContext, xpathString, variables, isAvt);
     }
 
-    public static PooledXPathExpression createPoolableXPathExpression(ObjectPool pool, IndependentContext independentContext,
-                                                                      String xpathString, Map<String, XPathVariable> variables, boolean isAvt) {
+    public static PooledXPathExpression createXPathExpression(IndependentContext independentContext, String xpathString,
+                                                              Map<String, XPathVariable> variables, boolean isAvt) {
         // Create and compile the expression
         try {
             final XPathExpression expression;
@@ -554,7 +538,7 @@ public class XPathCache {
                 expression = evaluator.createExpression(xpathString);
 
             }
-            return new PooledXPathExpression(expression, pool, variables);
+            return new PooledXPathExpression(expression, variables);
         } catch (Throwable t) {
             throw new OXFException(t);
         }
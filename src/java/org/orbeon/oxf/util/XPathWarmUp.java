@@ -0,0 +1,442 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import org.apache.log4j.Logger;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.XMLWriter;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.xml.NamespaceMapping;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.functions.FunctionLibrary;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warm-up of the XPath cache from a manifest of the expressions compiled in previous runs.
+ *
+ * o when the manifest property is set, the expressions compiled by XPathCache are recorded, and the manifest file is
+ *   rewritten periodically by a background thread
+ * o the manifest is loaded upon the first expression compiled by XPathCache once properties are available, and its
+ *   expressions are then compiled into the XPath cache by a pool of background threads
+ * o expressions use function libraries by name: only expressions with no function library or with a library
+ *   registered with registerFunctionLibrary() are recorded, and they are compiled once the manifest is loaded and
+ *   their library is registered, in either order
+ *
+ * The manifest keeps the most recently used expressions, up to a maximum number, so that expressions which are no
+ * longer used are eventually dropped.
+ *
+ * Warm-up coverage is the proportion of expressions first needed after the warm-up which were compiled by the warm-up
+ * rather than upon use.
+ */
+public class XPathWarmUp {
+
+    private static final Logger logger = LoggerFactory.createLogger(XPathWarmUp.class);
+
+    public static final String MANIFEST_PROPERTY = "oxf.xpath.warm-up.manifest";
+    public static final String THREADS_PROPERTY = "oxf.xpath.warm-up.threads";
+    public static final String MAX_EXPRESSIONS_PROPERTY = "oxf.xpath.warm-up.max-expressions";
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_MAX_EXPRESSIONS = 500;
+    private static final long WRITE_INTERVAL = 60 * 1000;
+
+    // Name used in the manifest for expressions without function library
+    private static final String NO_LIBRARY = "";
+
+    private static volatile boolean isInitialized;
+    private static volatile boolean isEnabled;
+    private static File manifestFile;
+    private static int threadCount;
+    private static Manifest manifest;
+    private static Thread writerThread;
+
+    private static final Map<FunctionLibrary, String> libraryNames = new ConcurrentHashMap<FunctionLibrary, String>();
+    // Entries loaded from the manifest and waiting for their function library, guarded by class lock
+    private static final Map<String, List<ManifestEntry>> pendingEntries = new HashMap<String, List<ManifestEntry>>();
+    private static volatile boolean isDirty;
+
+    // Statistics
+    private static final AtomicInteger warmUpCompiledCount = new AtomicInteger();
+    private static final AtomicInteger warmUpFailedCount = new AtomicInteger();
+    private static final AtomicInteger warmUpHitCount = new AtomicInteger();
+    private static final AtomicInteger compiledUponUseCount = new AtomicInteger();
+    private static final AtomicInteger warmUpTime = new AtomicInteger();
+
+    static class ManifestEntry {
+        public final String xpathString;
+        public final Map<String, String> prefixToURIMap;
+        public final Set<String> variableNames;
+        public final String libraryName;
+        public final boolean isAvt;
+
+        public ManifestEntry(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames, String libraryName, boolean isAvt) {
+            this.xpathString = xpathString;
+            this.prefixToURIMap = (prefixToURIMap instanceof NamespaceMapping) ? prefixToURIMap
+                    : new NamespaceMapping(prefixToURIMap != null ? prefixToURIMap : Collections.<String, String>emptyMap());
+            this.variableNames = Collections.unmodifiableSet(variableNames != null ? new TreeSet<String>(variableNames) : new TreeSet<String>());
+            this.libraryName = libraryName;
+            this.isAvt = isAvt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ManifestEntry))
+                return false;
+            final ManifestEntry other = (ManifestEntry) o;
+            return isAvt == other.isAvt && xpathString.equals(other.xpathString) && libraryName.equals(other.libraryName)
+                    && prefixToURIMap.equals(other.prefixToURIMap) && variableNames.equals(other.variableNames);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = xpathString.hashCode();
+            hash = 31 * hash + prefixToURIMap.hashCode();
+            hash = 31 * hash + variableNames.hashCode();
+            hash = 31 * hash + libraryName.hashCode();
+            return 31 * hash + (isAvt ? 1 : 0);
+        }
+    }
+
+    /**
+     * Expressions of the manifest, from the least to the most recently used, up to a maximum number.
+     */
+    static class Manifest {
+
+        private final int maxExpressions;
+        private final Map<ManifestEntry, ManifestEntry> entries;
+
+        public Manifest(final int maxExpressions) {
+            this.maxExpressions = maxExpressions;
+            this.entries = new LinkedHashMap<ManifestEntry, ManifestEntry>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<ManifestEntry, ManifestEntry> eldest) {
+                    return size() > maxExpressions;
+                }
+            };
+        }
+
+        /**
+         * Add an expression, or mark it as most recently used if already present, evicting the least recently used
+         * expression if needed.
+         */
+        public synchronized void use(ManifestEntry entry) {
+            if (maxExpressions > 0)
+                entries.put(entry, entry);
+        }
+
+        public synchronized List<ManifestEntry> getEntries() {
+            return new ArrayList<ManifestEntry>(entries.keySet());
+        }
+    }
+
+    /**
+     * Register a function library under a name, so that expressions using it can be recorded, and compile the
+     * expressions of the manifest which use it.
+     *
+     * @param name              name of the library in the manifest
+     * @param functionLibrary   function library
+     */
+    public static void registerFunctionLibrary(String name, FunctionLibrary functionLibrary) {
+        // NOTE: This is usually called from a static initializer, before properties are available, so the manifest is
+        // not loaded here
+        final List<ManifestEntry> entriesToCompile;
+        synchronized (XPathWarmUp.class) {
+            libraryNames.put(functionLibrary, name);
+            entriesToCompile = pendingEntries.remove(name);
+        }
+        if (entriesToCompile != null)
+            compile(name, functionLibrary, entriesToCompile);
+    }
+
+    /**
+     * Called by XPathCache when it compiles an expression upon use.
+     */
+    static void expressionCompiled(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames,
+                                   FunctionLibrary functionLibrary, boolean isAvt) {
+        initializeIfNeeded();
+        if (!isEnabled)
+            return;
+
+        compiledUponUseCount.incrementAndGet();
+
+        use(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
+    }
+
+    /**
+     * Called by XPathCache when an expression compiled by the warm-up is used for the first time.
+     */
+    static void warmUpExpressionUsed(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames,
+                                     FunctionLibrary functionLibrary, boolean isAvt) {
+        warmUpHitCount.incrementAndGet();
+        if (isEnabled)
+            use(xpathString, prefixToURIMap, variableNames, functionLibrary, isAvt);
+    }
+
+    private static void use(String xpathString, Map<String, String> prefixToURIMap, Set<String> variableNames,
+                            FunctionLibrary functionLibrary, boolean isAvt) {
+        final String libraryName = (functionLibrary != null) ? libraryNames.get(functionLibrary) : NO_LIBRARY;
+        if (libraryName != null) {
+            manifest.use(new ManifestEntry(xpathString, prefixToURIMap, variableNames, libraryName, isAvt));
+            isDirty = true;
+        }
+    }
+
+    public static int getWarmUpCompiledCount() {
+        return warmUpCompiledCount.get();
+    }
+
+    public static int getWarmUpFailedCount() {
+        return warmUpFailedCount.get();
+    }
+
+    /**
+     * Return the total time in ms spent compiling expressions by the warm-up threads.
+     */
+    public static int getWarmUpTime() {
+        return warmUpTime.get();
+    }
+
+    /**
+     * Return the proportion of expressions first needed after the warm-up which were compiled by the warm-up.
+     *
+     * @return  coverage between 0 and 1, or -1 if no expression was needed yet
+     */
+    public static double getCoverage() {
+        final int hitCount = warmUpHitCount.get();
+        final int total = hitCount + compiledUponUseCount.get();
+        return (total == 0) ? -1 : (double) hitCount / total;
+    }
+
+    private static void initializeIfNeeded() {
+        if (!isInitialized) {
+            synchronized (XPathWarmUp.class) {
+                if (!isInitialized)
+                    initialize();
+            }
+        }
+    }
+
+    private static void initialize() {
+        // Properties are not available yet: try again upon next call
+        final PropertySet propertySet = org.orbeon.oxf.properties.Properties.instance().getPropertySet();
+        if (propertySet == null)
+            return;
+
+        final String manifestPath = propertySet.getString(MANIFEST_PROPERTY, "").trim();
+        if (manifestPath.length() == 0) {
+            isInitialized = true;
+            return;
+        }
+
+        initialize(new File(manifestPath), Math.max(1, propertySet.getInteger(THREADS_PROPERTY, DEFAULT_THREADS)),
+                propertySet.getInteger(MAX_EXPRESSIONS_PROPERTY, DEFAULT_MAX_EXPRESSIONS));
+    }
+
+    /**
+     * Load the manifest and start compiling its expressions.
+     */
+    static synchronized void initialize(File manifestFile, int threadCount, int maxExpressions) {
+        XPathWarmUp.manifestFile = manifestFile;
+        XPathWarmUp.threadCount = threadCount;
+        manifest = new Manifest(maxExpressions);
+
+        // Load manifest, keeping its most recently used entries so they are written again
+        if (manifestFile.exists()) {
+            try {
+                for (final ManifestEntry entry: readManifest(manifestFile))
+                    manifest.use(entry);
+                for (final ManifestEntry entry: manifest.getEntries()) {
+                    List<ManifestEntry> libraryEntries = pendingEntries.get(entry.libraryName);
+                    if (libraryEntries == null) {
+                        libraryEntries = new ArrayList<ManifestEntry>();
+                        pendingEntries.put(entry.libraryName, libraryEntries);
+                    }
+                    libraryEntries.add(entry);
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to read XPath warm-up manifest " + manifestFile + ", ignoring it", e);
+            }
+        }
+
+        writerThread = new Thread("XPath warm-up manifest writer") {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(WRITE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (isDirty) {
+                        isDirty = false;
+                        writeManifest(XPathWarmUp.manifestFile, manifest.getEntries());
+                    }
+                }
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        isEnabled = true;
+        isInitialized = true;
+
+        // Expressions without library can be compiled right away, as well as those using libraries already registered
+        final List<ManifestEntry> noLibraryEntries = pendingEntries.remove(NO_LIBRARY);
+        if (noLibraryEntries != null)
+            compile(NO_LIBRARY, null, noLibraryEntries);
+        for (final Map.Entry<FunctionLibrary, String> libraryEntry: libraryNames.entrySet()) {
+            final List<ManifestEntry> libraryEntries = pendingEntries.remove(libraryEntry.getValue());
+            if (libraryEntries != null)
+                compile(libraryEntry.getValue(), libraryEntry.getKey(), libraryEntries);
+        }
+    }
+
+    /**
+     * Return the number of manifest entries waiting for the given function library to be registered.
+     */
+    static synchronized int getPendingCount(String libraryName) {
+        final List<ManifestEntry> libraryEntries = pendingEntries.get(libraryName);
+        return (libraryEntries != null) ? libraryEntries.size() : 0;
+    }
+
+    /**
+     * Forget the manifest and the registered function libraries (for testing).
+     */
+    static synchronized void reset() {
+        if (writerThread != null) {
+            writerThread.interrupt();
+            writerThread = null;
+        }
+        isInitialized = false;
+        isEnabled = false;
+        manifest = null;
+        libraryNames.clear();
+        pendingEntries.clear();
+    }
+
+    private static void compile(final String libraryName, final FunctionLibrary functionLibrary, final List<ManifestEntry> entriesToCompile) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "XPath warm-up");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        final long startTime = System.currentTimeMillis();
+        final AtomicInteger remainingCount = new AtomicInteger(entriesToCompile.size());
+        final AtomicInteger compiledCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        for (final ManifestEntry entry: entriesToCompile) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    final long entryStartTime = System.currentTimeMillis();
+                    try {
+                        if (XPathCache.warmUpExpression(entry.xpathString, entry.prefixToURIMap, entry.variableNames, functionLibrary, entry.isAvt))
+                            compiledCount.incrementAndGet();
+                    } catch (Exception e) {
+                        // Expressions may become invalid, e.g. after a change to a function library
+                        failedCount.incrementAndGet();
+                        if (logger.isDebugEnabled())
+                            logger.debug("Unable to compile XPath expression during warm-up: " + entry.xpathString, e);
+                    }
+                    warmUpTime.addAndGet((int) (System.currentTimeMillis() - entryStartTime));
+
+                    if (remainingCount.decrementAndGet() == 0) {
+                        warmUpCompiledCount.addAndGet(compiledCount.get());
+                        warmUpFailedCount.addAndGet(failedCount.get());
+                        logger.info("XPath warm-up completed for function library '" + libraryName + "': "
+                                + compiledCount.get() + " compiled, " + failedCount.get() + " failed, out of "
+                                + entriesToCompile.size() + " expressions in " + (System.currentTimeMillis() - startTime) + " ms");
+                    }
+                }
+            });
+        }
+        // Threads terminate once all the expressions are compiled
+        executor.shutdown();
+    }
+
+    static List<ManifestEntry> readManifest(File file) throws Exception {
+        final List<ManifestEntry> result = new ArrayList<ManifestEntry>();
+        final InputStream inputStream = new FileInputStream(file);
+        try {
+            final Document document = Dom4jUtils.readDom4j(inputStream, file.toURI().toString(), false, false);
+            for (final Element expressionElement: Dom4jUtils.elements(document.getRootElement(), "expression")) {
+                final Map<String, String> prefixToURIMap = new HashMap<String, String>();
+                for (final Element namespaceElement: Dom4jUtils.elements(expressionElement, "namespace"))
+                    prefixToURIMap.put(namespaceElement.attributeValue("prefix"), namespaceElement.attributeValue("uri"));
+                final Set<String> variableNames = new HashSet<String>();
+                for (final Element variableElement: Dom4jUtils.elements(expressionElement, "variable"))
+                    variableNames.add(variableElement.attributeValue("name"));
+
+                final String libraryName = expressionElement.attributeValue("library");
+                result.add(new ManifestEntry(expressionElement.elementText("xpath"), prefixToURIMap, variableNames,
+                        (libraryName != null) ? libraryName : NO_LIBRARY, "true".equals(expressionElement.attributeValue("avt"))));
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result;
+    }
+
+    static void writeManifest(File file, List<ManifestEntry> entries) {
+        final Document document = DocumentHelper.createDocument();
+        final Element rootElement = document.addElement("expressions");
+        for (final ManifestEntry entry: entries) {
+            final Element expressionElement = rootElement.addElement("expression");
+            expressionElement.addAttribute("library", entry.libraryName);
+            expressionElement.addAttribute("avt", Boolean.toString(entry.isAvt));
+            for (final Map.Entry<String, String> namespace: entry.prefixToURIMap.entrySet()) {
+                final Element namespaceElement = expressionElement.addElement("namespace");
+                namespaceElement.addAttribute("prefix", namespace.getKey());
+                namespaceElement.addAttribute("uri", namespace.getValue());
+            }
+            for (final String variableName: entry.variableNames)
+                expressionElement.addElement("variable").addAttribute("name", variableName);
+            expressionElement.addElement("xpath").setText(entry.xpathString);
+        }
+
+        // Write to a temporary file first so that the manifest is never partially written
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            final OutputStream outputStream = new FileOutputStream(temporaryFile);
+            try {
+                new XMLWriter(outputStream, new OutputFormat("", false, "utf-8")).write(document);
+            } finally {
+                outputStream.close();
+            }
+            if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file)))
+                throw new IOException("Unable to rename " + temporaryFile + " to " + file);
+
+            if (logger.isDebugEnabled()) {
+                final double coverage = getCoverage();
+                logger.debug("Wrote XPath warm-up manifest with " + rootElement.elements().size() + " expressions"
+                        + (coverage >= 0 ? ", warm-up coverage: " + Math.round(coverage * 100) + "%" : ""));
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write XPath warm-up manifest " + file, e);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.orbeon.oxf.resources.ResourceManager;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.StringBuilderWriter;
 import org.orbeon.oxf.util.task.TaskScheduler;
+import org.orbeon.oxf.xforms.state.XFormsPersistentApplicationStateStore;
 import org.orbeon.oxf.xml.XMLUtils;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 
@@ -230,6 +231,7 @@ public class ProcessorService {
         try {
             TaskScheduler.getInstance().cancelAll(false);
             TaskScheduler.shutdown();
+            XFormsPersistentApplicationStateStore.shutdown();
             initialized = false;
         } catch (NoClassDefFoundError error) {
             // Ignore error: this can happen if using JDK 1.3 (scheduling classed not available)
@@ -355,13 +355,9 @@ public class ControlTree implements ExternalCopyable {
             throw new OXFException(e);
         }
 
-        // Clone children if any
+        // Copy list of children if any, as controls are copied separately if they change
         if (children != null) {
-            cloned.children = new ArrayList<XFormsControl>(children.size());
-            for (XFormsControl currentControl: children) {
-                final XFormsControl currentClone = (XFormsControl) currentControl.getBackCopy(propertyContext);
-                cloned.children.add(currentClone);
-            }
+            cloned.children = new ArrayList<XFormsControl>(children);
         }
 
         // NOTE: The cloned tree does not make use of this so we clear it
@@ -399,9 +395,11 @@ public class ControlTree implements ExternalCopyable {
         // Index this control
         iterationControlIndex.indexControl(repeatIterationControl);
 
-        // Create the subtree
-        containingDocument.getControls().visitControlElementsHandleRepeat(propertyContext, repeatControl, iterationIndex,
-                new CreateControlsListener(propertyContext, iterationControlIndex, repeatIterationControl, null));
+        // Create the subtree unless the iteration is a placeholder
+        if (repeatIterationControl.isMaterialized()) {
+            containingDocument.getControls().visitControlElementsHandleRepeat(propertyContext, repeatControl, iterationIndex,
+                    new CreateControlsListener(propertyContext, iterationControlIndex, repeatIterationControl, null));
+        }
 
         // Update main index before dispatching, so that events can access newly created controls
         controlIndex.addAll(iterationControlIndex);
@@ -409,6 +407,32 @@ public class ControlTree implements ExternalCopyable {
         return repeatIterationControl;
     }
 
+    /**
+     * Create the controls of an existing placeholder repeat iteration.
+     *
+     * WARNING: The binding context of the iteration must be up to date before calling.
+     *
+     * @param propertyContext       current context
+     * @param containingDocument    containing document
+     * @param repeatIteration       placeholder iteration
+     */
+    public void materializeRepeatIterationTree(PropertyContext propertyContext, XFormsContainingDocument containingDocument,
+                                               XFormsRepeatIterationControl repeatIteration) {
+
+        assert !repeatIteration.isMaterialized();
+
+        // Create new index for the controls created in the iteration
+        final ControlIndex iterationControlIndex = new ControlIndex(containingDocument.getStaticState().isNoscript());
+
+        // Create the subtree
+        repeatIteration.setMaterialized(propertyContext, true);
+        containingDocument.getControls().visitControlElementsHandleRepeat(propertyContext, (XFormsRepeatControl) repeatIteration.getParent(),
+                repeatIteration.getIterationIndex(), new CreateControlsListener(propertyContext, iterationControlIndex, repeatIteration, null));
+
+        // Update main index before dispatching, so that events can access newly created controls
+        controlIndex.addAll(iterationControlIndex);
+    }
+
     public void initializeRepeatIterationTree(PropertyContext propertyContext, XFormsRepeatIterationControl repeatIteration) {
 
         // Gather all control ids and controls
@@ -494,7 +518,7 @@ public class ControlTree implements ExternalCopyable {
 
         final Map<String, Integer> repeatIdToIndex = new LinkedHashMap<String, Integer>();
 
-        visitControlsFollowRepeats(new XFormsControls.XFormsControlVisitorAdapter() {
+        visitControlsFollowRepeats(this.children, true, new XFormsControls.XFormsControlVisitorAdapter() {
             public boolean startVisitControl(XFormsControl control) {
                 if (control instanceof XFormsRepeatControl && control.isRelevant()) {
                     // Found xforms:repeat
@@ -620,12 +644,20 @@ public class ControlTree implements ExternalCopyable {
      * Visit all the XFormsControl elements by following the current repeat indexes.
      */
     private void visitControlsFollowRepeats(XFormsControls.XFormsControlVisitorListener xformsControlVisitorListener) {
-        visitControlsFollowRepeats(this.children, xformsControlVisitorListener);
+        visitControlsFollowRepeats(this.children, false, xformsControlVisitorListener);
     }
 
-    private void visitControlsFollowRepeats(List<XFormsControl> children, XFormsControls.XFormsControlVisitorListener xformsControlVisitorListener) {
+    /**
+     * Visit controls, following only the current iteration of repeats.
+     *
+     * @param children                      controls to visit
+     * @param isInitial                     whether to visit controls as they were when the initial tree was frozen
+     * @param xformsControlVisitorListener  listener
+     */
+    private void visitControlsFollowRepeats(List<XFormsControl> children, boolean isInitial, XFormsControls.XFormsControlVisitorListener xformsControlVisitorListener) {
         if (children != null && children.size() > 0) {
-            for (XFormsControl currentControl: children) {
+            for (XFormsControl child: children) {
+                final XFormsControl currentControl = isInitial ? child.getInitialControl() : child;
                 xformsControlVisitorListener.startVisitControl(currentControl);
                 {
                     if (currentControl instanceof XFormsRepeatControl) {
@@ -636,11 +668,11 @@ public class ControlTree implements ExternalCopyable {
                         if (currentRepeatIndex > 0) {
                             final List<XFormsControl> newChildren = currentRepeatControl.getChildren();
                             if (newChildren != null && newChildren.size() > 0)
-                                visitControlsFollowRepeats(Collections.singletonList(newChildren.get(currentRepeatIndex - 1)), xformsControlVisitorListener);
+                                visitControlsFollowRepeats(Collections.singletonList(newChildren.get(currentRepeatIndex - 1)), isInitial, xformsControlVisitorListener);
                         }
                     } else if (currentControl instanceof XFormsContainerControl) {
                         // Handle container control children
-                        visitControlsFollowRepeats(((XFormsContainerControl) currentControl).getChildren(), xformsControlVisitorListener);
+                        visitControlsFollowRepeats(((XFormsContainerControl) currentControl).getChildren(), isInitial, xformsControlVisitorListener);
                     }
                 }
                 xformsControlVisitorListener.endVisitControl(currentControl);
@@ -772,9 +804,9 @@ public class ControlTree implements ExternalCopyable {
 
             // If needed, deserialize control state
             if (serializedControls != null) {
-                final Element element = (Element) serializedControls.get(effectiveControlId);
-                if (element != null)
-                    control.deserializeLocal(element);
+                final Map<String, String> nameValues = (Map<String, String>) serializedControls.get(effectiveControlId);
+                if (nameValues != null)
+                    control.deserializeLocal(nameValues);
             }
 
             // Set current binding for control element
@@ -838,7 +870,8 @@ public class ControlTree implements ExternalCopyable {
             // NOTE: We don't dispatch events to repeat iterations
             controlIndex.indexControl(repeatIterationControl);
 
-            return true;
+            // Don't create the controls of placeholder iterations
+            return repeatIterationControl.isMaterialized();
         }
 
         public boolean pushBinding(PropertyContext propertyContext, XFormsContextStack currentContextStack, Element currentControlElement,
@@ -930,7 +963,7 @@ public class ControlTree implements ExternalCopyable {
 
             // Notify the control that some of its aspects (value, label, etc.) might have changed
             // NOTE: existing repeat iterations are marked dirty below in startRepeatIteration()
-            control.markDirty(xpathDependencies);
+            control.markDirty(propertyContext, xpathDependencies);
 
             return control;
         }
@@ -963,12 +996,13 @@ public class ControlTree implements ExternalCopyable {
             final boolean isExistingIteration = !newIterationsSet.contains(effectiveIterationId);
             if (isExistingIteration) {
                 // Notify the control that some of its aspects (value, label, etc.) might have changed
-                repeatIterationControl.markDirty(xpathDependencies);
+                repeatIterationControl.markDirty(propertyContext, xpathDependencies);
                 // NOTE: We don't need to call repeatIterationControl.setBindingContext() because XFormsRepeatControl.updateIterations() does it already
             }
 
-            // Allow recursing into this iteration only if it is not a newly created iteration
-            return isExistingIteration;
+            // Allow recursing into this iteration only if it is not a newly created or materialized iteration, and
+            // if it is not a placeholder
+            return isExistingIteration && repeatIterationControl.isMaterialized();
         }
 
         public boolean pushBinding(PropertyContext propertyContext, XFormsContextStack currentContextStack, Element currentControlElement,
@@ -23,6 +23,8 @@ import org.orbeon.saxon.dom4j.NodeWrapper;
 import org.orbeon.saxon.om.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Instances of this class are used to annotate XForms instance nodes with MIPs and other information.
@@ -31,70 +33,94 @@ import java.util.*;
  * Annotations are now done lazily when needed in order to reduce the number of objects created. This has a positive
  * impact on memory usage and garbage collection. This is also why most methods in this class are static.
  *
+ * Boolean MIPs are packed into a single int. Nodes which only have boolean MIPs and a type, which is the vast majority,
+ * point to a shared, immutable instance for that combination of flags and type, so that e.g. 100,000 read-only nodes
+ * don't require 100,000 objects. A node gets its own mutable instance only when it has location data, custom MIPs or
+ * validation errors. Types are interned through the shared instances.
+ *
  * @noinspection PointlessBooleanExpression
  */
 public class InstanceData {
 
-    private LocationData locationData;
+    // Bits of the boolean MIPs
+    private static final int RELEVANT = 1;
+    private static final int READONLY = 2;
+    private static final int REQUIRED = 4;
+    private static final int VALUE_VALID = 8;
+    private static final int CONSTRAINT = 16;// TODO: we don't really need separate constraint information: valueValid is enough!
+
+    private static final int VALID = VALUE_VALID | CONSTRAINT;
 
     // All MIP default values
     private static final boolean DEFAULT_RELEVANT = true;
     private static final boolean DEFAULT_READONLY = false;
     private static final boolean DEFAULT_REQUIRED = false;
     private static final boolean DEFAULT_VALID = true;
-    
+
+    private static final int DEFAULT_FLAGS = RELEVANT | VALID;
+
     private static final String DEFAULT_CUSTOM = null;
 
-    // All MIPs with their default values
-    private boolean relevant = DEFAULT_RELEVANT;
-    protected boolean readonly = DEFAULT_READONLY;
-    private boolean required = DEFAULT_REQUIRED;
+    // Shared instances by flags, without type and with type
+    private static final InstanceData[] SHARED_NO_TYPE = new InstanceData[32];
+    private static final List<ConcurrentMap<String, InstanceData>> SHARED_WITH_TYPE = new ArrayList<ConcurrentMap<String, InstanceData>>(32);
+    static {
+        for (int flags = 0; flags < 32; flags++) {
+            SHARED_NO_TYPE[flags] = new InstanceData(null, true, flags, null);
+            SHARED_WITH_TYPE.add(new ConcurrentHashMap<String, InstanceData>());
+        }
+    }
+
+    // Default for non-mutable nodes is to be read-only
+    private static final InstanceData READONLY_LOCAL_INSTANCE_DATA = getShared(DEFAULT_FLAGS | READONLY, null);
 
+    private final LocationData locationData;
+    private final boolean isShared;
+
+    // All MIPs with their default values
+    private int flags;
     private String type;
-    private boolean valueValid = DEFAULT_VALID;
-    private boolean constraint = DEFAULT_VALID;// TODO: we don't really need separate constraint information: valueValid is enough!
 
+    // Only on non-shared instances
     private String invalidBindIds;
     private List<String> schemaErrors;
 
     // Custom MIPs
     private Map<String, String> customMips = null;
 
-    private static InstanceData READONLY_LOCAL_INSTANCE_DATA = new InstanceData() {
-        {
-            // Default for non-mutable nodes is to be read-only
-            this.readonly = true;
-        }
-    };
-
-    private InstanceData() {
-    }
-
-    private InstanceData(LocationData locationData) {
+    private InstanceData(LocationData locationData, boolean isShared, int flags, String type) {
         this.locationData = locationData;
+        this.isShared = isShared;
+        this.flags = flags;
+        this.type = type;
     }
 
     public LocationData getLocationData() {
         return locationData;
     }
 
+    private boolean is(int flag) {
+        return (flags & flag) != 0;
+    }
+
     public static void setCustom(NodeInfo nodeInfo, String name, String value) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        if (existingInstanceData == null) {
-            if (value == DEFAULT_CUSTOM) {
+        final Node node = getNodeForUpdate(nodeInfo);
+        if (value == DEFAULT_CUSTOM) {
+            final InstanceData existingInstanceData = getLocalInstanceData(node);
+            if (existingInstanceData == null || existingInstanceData.isShared) {
                 // Not changing from the default so don't even create object
                 return;
             } else {
-                // Changing from the default
-                final InstanceData newInstanceData = createNewInstanceData(nodeInfo);
-                if (newInstanceData.customMips == null)
-                    newInstanceData.customMips = new HashMap<String, String>();
-                newInstanceData.customMips.put(name, value);
+                if (existingInstanceData.customMips == null)
+                    existingInstanceData.customMips = new HashMap<String, String>();
+                existingInstanceData.customMips.put(name, value);
             }
         } else {
-            if (existingInstanceData.customMips == null)
-                existingInstanceData.customMips = new HashMap<String, String>();
-            existingInstanceData.customMips.put(name, value);
+            // Changing from the default
+            final InstanceData instanceData = getOrCreatePrivateInstanceData(node);
+            if (instanceData.customMips == null)
+                instanceData.customMips = new HashMap<String, String>();
+            instanceData.customMips.put(name, value);
         }
     }
 
@@ -118,19 +144,7 @@ public class InstanceData {
     }
 
     public static void setRelevant(NodeInfo nodeInfo, boolean relevant) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        if (existingInstanceData == null) {
-            if (relevant == DEFAULT_RELEVANT) {
-                // Not changing from the default so don't even create object
-                return;
-            } else {
-                // Changing from the default
-                final InstanceData newInstanceData = createNewInstanceData(nodeInfo);
-                newInstanceData.relevant = relevant;
-            }
-        } else {
-            existingInstanceData.relevant = relevant;
-        }
+        setFlag(getNodeForUpdate(nodeInfo), RELEVANT, relevant);
     }
 
     public static boolean getInheritedRelevant(NodeInfo nodeInfo) {
@@ -147,7 +161,7 @@ public class InstanceData {
         // Iterate this node and its parents. The node is non-relevant if it or any ancestor is non-relevant.
         for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
             final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentRelevant = (currentInstanceData == null) ? DEFAULT_RELEVANT : currentInstanceData.relevant;
+            final boolean currentRelevant = (currentInstanceData == null) ? DEFAULT_RELEVANT : currentInstanceData.is(RELEVANT);
             if (!currentRelevant)
                 return false;
         }
@@ -155,45 +169,21 @@ public class InstanceData {
     }
 
     public static void setRequired(NodeInfo nodeInfo, boolean required) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        if (existingInstanceData == null) {
-            if (required == DEFAULT_REQUIRED) {
-                // Not changing from the default so don't even create object
-                return;
-            } else {
-                // Changing from the default
-                final InstanceData newInstanceData = createNewInstanceData(nodeInfo);
-                newInstanceData.required = required;
-            }
-        } else {
-            existingInstanceData.required = required;
-        }
+        setFlag(getNodeForUpdate(nodeInfo), REQUIRED, required);
     }
 
     public static boolean getRequired(NodeInfo nodeInfo) {
         final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);
-        return (existingInstanceData == null) ? DEFAULT_REQUIRED : existingInstanceData.required;
+        return (existingInstanceData == null) ? DEFAULT_REQUIRED : existingInstanceData.is(REQUIRED);
     }
 
     public static boolean getRequired(Node node) {
         final InstanceData existingInstanceData = getLocalInstanceData(node);
-        return (existingInstanceData == null) ? DEFAULT_REQUIRED : existingInstanceData.required;
+        return (existingInstanceData == null) ? DEFAULT_REQUIRED : existingInstanceData.is(REQUIRED);
     }
 
     public static void setReadonly(NodeInfo nodeInfo, boolean readonly) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        if (existingInstanceData == null) {
-            if (readonly == DEFAULT_READONLY) {
-                // Not changing from the default so don't even create object
-                return;
-            } else {
-                // Changing from the default
-                final InstanceData newInstanceData = createNewInstanceData(nodeInfo);
-                newInstanceData.readonly = readonly;
-            }
-        } else {
-            existingInstanceData.readonly = readonly;
-        }
+        setFlag(getNodeForUpdate(nodeInfo), READONLY, readonly);
     }
 
     public static boolean getInheritedReadonly(NodeInfo nodeInfo) {
@@ -210,7 +200,7 @@ public class InstanceData {
         // Iterate this node and its parents. The node is readonly if it or any ancestor is readonly.
         for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
             final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentReadonly = (currentInstanceData == null) ? DEFAULT_READONLY : currentInstanceData.readonly;
+            final boolean currentReadonly = (currentInstanceData == null) ? DEFAULT_READONLY : currentInstanceData.is(READONLY);
             if (currentReadonly)
                 return true;
         }
@@ -219,20 +209,26 @@ public class InstanceData {
 
     public static boolean getValid(NodeInfo nodeInfo) {
         final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);
-        return (existingInstanceData == null) ? DEFAULT_VALID : existingInstanceData.constraint && existingInstanceData.valueValid;
+        return (existingInstanceData == null) ? DEFAULT_VALID : (existingInstanceData.flags & VALID) == VALID;
     }
 
     public static boolean getValid(Node node) {
         final InstanceData existingInstanceData = getLocalInstanceData(node);
-        return (existingInstanceData == null) ? DEFAULT_VALID : existingInstanceData.constraint && existingInstanceData.valueValid;
+        return (existingInstanceData == null) ? DEFAULT_VALID : (existingInstanceData.flags & VALID) == VALID;
     }
 
     public static void setType(NodeInfo nodeInfo, String type) {
-        getOrCreateInstanceData(nodeInfo).type = type;
+        setType(getNodeForUpdate(nodeInfo), type);
     }
 
     public static void setType(Node node, String type) {
-        getOrCreateInstanceData(node).type = type;
+        final InstanceData existingInstanceData = getLocalInstanceData(node);
+        if (existingInstanceData == null || existingInstanceData.isShared) {
+            final int flags = (existingInstanceData == null) ? DEFAULT_FLAGS : existingInstanceData.flags;
+            setState(node, flags, type);
+        } else {
+            existingInstanceData.type = internType(type);
+        }
     }
 
     public static String getType(NodeInfo nodeInfo) {
@@ -311,11 +307,17 @@ public class InstanceData {
 
     public static void addSchemaError(Node node, final String schemaError, final String stringValue, String modelBindId) {
 
+        if (schemaError == null && modelBindId == null) {
+            // Only remember that the value is invalid
+            setFlag(node, VALUE_VALID, false);
+            return;
+        }
+
         // Get or create InstanceData
-        final InstanceData instanceData = getOrCreateInstanceData(node);
+        final InstanceData instanceData = getOrCreatePrivateInstanceData(node);
 
         // Remember that the value is invalid
-        instanceData.valueValid = false;
+        instanceData.flags &= ~VALUE_VALID;
 
         // Add schema errors if provided
         if (schemaError != null) {
@@ -346,61 +348,134 @@ public class InstanceData {
     }
 
     public static void updateValueValid(NodeInfo nodeInfo, boolean valueValid, String modelBindId) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        if (existingInstanceData == null) {
-            if (valueValid == DEFAULT_VALID) {
-                // Not changing from the default so don't even create object
-                return;
+        final Node node = getNodeForUpdate(nodeInfo);
+        // Never go back from default
+        if (valueValid != DEFAULT_VALID) {
+            if (modelBindId == null) {
+                setFlag(node, VALUE_VALID, valueValid);
             } else {
-                // Changing from the default
-                final InstanceData newInstanceData = createNewInstanceData(nodeInfo);
-                newInstanceData.valueValid = valueValid;
-
-                if (modelBindId != null)
-                    newInstanceData.invalidBindIds = (newInstanceData.invalidBindIds == null) ? modelBindId : newInstanceData.invalidBindIds + " " + modelBindId;
-            }
-        } else {
-            // Never go back from default
-            if (valueValid != DEFAULT_VALID) {
-                existingInstanceData.valueValid = valueValid;
-
-                if (modelBindId != null)
-                    existingInstanceData.invalidBindIds = (existingInstanceData.invalidBindIds == null) ? modelBindId : existingInstanceData.invalidBindIds + " " + modelBindId;
+                final InstanceData instanceData = getOrCreatePrivateInstanceData(node);
+                instanceData.flags &= ~VALUE_VALID;
+                instanceData.invalidBindIds = (instanceData.invalidBindIds == null) ? modelBindId : instanceData.invalidBindIds + " " + modelBindId;
             }
         }
     }
 
     public static void clearValidationState(NodeInfo nodeInfo) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);// not really an update since for read-only nothing changes
-        if (existingInstanceData != null) {
+        if (!(nodeInfo instanceof NodeWrapper))
+            return;// not really an update since for read-only nothing changes
+
+        final Node node = XFormsUtils.getNodeFromNodeInfo(nodeInfo, "");
+        final InstanceData existingInstanceData = getLocalInstanceData(node);
+        if (existingInstanceData == null) {
+            return;
+        } else if (existingInstanceData.isShared) {
+            setState(node, existingInstanceData.flags | VALID, null);
+        } else {
             // Clear everything related to validity (except required)
-            existingInstanceData.valueValid = DEFAULT_VALID;
-            existingInstanceData.constraint = DEFAULT_VALID;
+            existingInstanceData.flags |= VALID;
             existingInstanceData.type = null;
             existingInstanceData.invalidBindIds = null;
-            if (existingInstanceData.schemaErrors != null)
-                existingInstanceData.schemaErrors.clear();
+            existingInstanceData.schemaErrors = null;
         }
     }
 
     public static void clearOtherState(NodeInfo nodeInfo) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);// not really an update since for read-only nothing changes
-        if (existingInstanceData != null) {
+        if (!(nodeInfo instanceof NodeWrapper))
+            return;// not really an update since for read-only nothing changes
 
-            existingInstanceData.relevant = DEFAULT_RELEVANT;
-            existingInstanceData.readonly = DEFAULT_READONLY;
-            existingInstanceData.required = DEFAULT_REQUIRED;
+        final Node node = XFormsUtils.getNodeFromNodeInfo(nodeInfo, "");
+        final InstanceData existingInstanceData = getLocalInstanceData(node);
+        if (existingInstanceData == null) {
+            return;
+        } else {
+            final int flags = (existingInstanceData.flags | RELEVANT) & ~(READONLY | REQUIRED);
+            if (existingInstanceData.isShared)
+                setState(node, flags, existingInstanceData.type);
+            else
+                existingInstanceData.flags = flags;
         }
     }
 
-    private static InstanceData getOrCreateInstanceData(NodeInfo nodeInfo) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, true);
-        return (existingInstanceData != null) ? existingInstanceData : createNewInstanceData(nodeInfo);
+    /**
+     * Set or clear a boolean MIP on the given node, creating or switching the node's shared instance if needed.
+     */
+    private static void setFlag(Node node, int flag, boolean value) {
+        final InstanceData existingInstanceData = getLocalInstanceData(node);
+        final int currentFlags = (existingInstanceData == null) ? DEFAULT_FLAGS : existingInstanceData.flags;
+        final int newFlags = value ? currentFlags | flag : currentFlags & ~flag;
+        if (existingInstanceData == null || existingInstanceData.isShared) {
+            // Not changing from the current state so don't even look for another object
+            if (newFlags != currentFlags)
+                setState(node, newFlags, (existingInstanceData == null) ? null : existingInstanceData.type);
+        } else {
+            existingInstanceData.flags = newFlags;
+        }
     }
 
-    private static InstanceData getOrCreateInstanceData(Node node) {
+    /**
+     * Set the state of a node which doesn't have its own instance.
+     */
+    private static void setState(Node node, int flags, String type) {
+        final Object existingData = getData(node);
+        if (existingData instanceof LocationData) {
+            // Location data is specific to the node
+            final InstanceData instanceData = new InstanceData((LocationData) existingData, false, flags, internType(type));
+            setData(node, instanceData);
+        } else if (flags == DEFAULT_FLAGS && type == null) {
+            // Back to the default
+            if (existingData != null)
+                setData(node, null);
+        } else {
+            setData(node, getShared(flags, type));
+        }
+    }
+
+    private static InstanceData getShared(int flags, String type) {
+        if (type == null) {
+            return SHARED_NO_TYPE[flags];
+        } else {
+            final ConcurrentMap<String, InstanceData> sharedForFlags = SHARED_WITH_TYPE.get(flags);
+            final InstanceData existingInstanceData = sharedForFlags.get(type);
+            if (existingInstanceData != null) {
+                return existingInstanceData;
+            } else {
+                final InstanceData newInstanceData = new InstanceData(null, true, flags, type);
+                final InstanceData otherInstanceData = sharedForFlags.putIfAbsent(type, newInstanceData);
+                return (otherInstanceData != null) ? otherInstanceData : newInstanceData;
+            }
+        }
+    }
+
+    private static String internType(String type) {
+        return (type == null) ? null : getShared(DEFAULT_FLAGS, type).type;
+    }
+
+    private static Node getNodeForUpdate(NodeInfo nodeInfo) {
+        if (nodeInfo instanceof NodeWrapper) {
+            return XFormsUtils.getNodeFromNodeInfo(nodeInfo, "");
+        } else if (nodeInfo != null) {
+            throw new OXFException("Cannot update MIP information on non-NodeWrapper NodeInfo.");
+        } else {
+            throw new OXFException("Null NodeInfo found.");
+        }
+    }
+
+    /**
+     * Return the node's own instance, creating it from its current shared state if needed.
+     */
+    private static InstanceData getOrCreatePrivateInstanceData(Node node) {
         final InstanceData existingInstanceData = getLocalInstanceData(node);
-        return (existingInstanceData != null) ? existingInstanceData : createNewInstanceData(node);
+        if (existingInstanceData != null && !existingInstanceData.isShared) {
+            return existingInstanceData;
+        } else {
+            final int flags = (existingInstanceData == null) ? DEFAULT_FLAGS : existingInstanceData.flags;
+            final String type = (existingInstanceData == null) ? null : existingInstanceData.type;
+            final Object existingData = getData(node);
+            final InstanceData newInstanceData = new InstanceData((existingData instanceof LocationData) ? (LocationData) existingData : null, false, flags, type);
+            setData(node, newInstanceData);
+            return newInstanceData;
+        }
     }
 
     private static InstanceData getLocalInstanceData(Node node, boolean forUpdate) {
@@ -420,26 +495,41 @@ public class InstanceData {
     }
 
     private static InstanceData getLocalInstanceData(Node node) {
+        // Make sure we return InstanceData and not something else
+        final Object instanceData = getData(node);
+        if (instanceData instanceof InstanceData)
+            return (InstanceData) instanceData;
+        else
+            return null;
+    }
 
+    private static Object getData(Node node) {
         // Find data annotation on node
-        final Object instanceData;
         if (node instanceof Element) {
-             instanceData = ((Element) node).getData();
+            return ((Element) node).getData();
         } else if (node instanceof Attribute) {
-            instanceData = ((Attribute) node).getData();
+            return ((Attribute) node).getData();
         } else if (node instanceof Document) {
             // We can't store data on the Document object. Use root element instead.
-            instanceData = ((Document) node).getRootElement().getData();
+            return ((Document) node).getRootElement().getData();
         } else {
             // TODO: other node types once we update to handling text nodes correctly. But it looks like Text does not support data.
             return null;
         }
+    }
 
-        // Make sure we return InstanceData and not something else
-        if (instanceData instanceof InstanceData)
-            return (InstanceData) instanceData;
-        else
-            return null;
+    private static void setData(Node node, Object data) {
+        if (node instanceof Element) {
+            ((Element) node).setData(data);
+        } else if (node instanceof Attribute) {
+            ((Attribute) node).setData(data);
+        } else if (node instanceof Document) {
+            // We can't store data on the Document object. Use root element instead.
+            ((Document) node).getRootElement().setData(data);
+        } else {
+            // TODO: other node types once we update to handling text nodes correctly. But it looks like Text does not support data.
+            throw new OXFException("Cannot create InstanceData on node type: " + node.getNodeTypeName());
+        }
     }
 
     public static void remove(Node node) {
@@ -471,45 +561,4 @@ public class InstanceData {
             // TODO: other node types once we update to handling text nodes correctly. But it looks like Text does not support data.
         }
     }
-
-    private static InstanceData createNewInstanceData(NodeInfo nodeInfo) {
-        if (nodeInfo instanceof NodeWrapper) {
-            return createNewInstanceData(XFormsUtils.getNodeFromNodeInfo(nodeInfo, ""));
-        } else {
-            throw new OXFException("Cannot create InstanceData on non-NodeWrapper NodeInfo.");
-        }
-    }
-
-    private static InstanceData createNewInstanceData(Node node) {
-        final InstanceData instanceData;
-        if (node instanceof Element) {
-            final Element element = (Element) node;
-            instanceData = InstanceData.newInstanceData(element.getData());
-            element.setData(instanceData);
-        } else if (node instanceof Attribute) {
-            final Attribute attribute = (Attribute) node;
-            instanceData = InstanceData.newInstanceData(attribute.getData());
-            attribute.setData(instanceData);
-        } else if (node instanceof Document) {
-            // We can't store data on the Document object. Use root element instead.
-            final Element element = ((Document) node).getRootElement();
-            instanceData = InstanceData.newInstanceData(element.getData());
-            element.setData(instanceData);
-        } else {
-            // TODO: other node types once we update to handling text nodes correctly. But it looks like Text does not support data.
-            throw new OXFException("Cannot create InstanceData on node type: " + node.getNodeTypeName());
-        }
-        return instanceData;
-    }
-
-    private static InstanceData newInstanceData(Object existingData) {
-        if (existingData instanceof LocationData) {
-            return new InstanceData((LocationData) existingData);
-        } else if (existingData instanceof InstanceData) {
-            return new InstanceData(((InstanceData) existingData).getLocationData());
-        } else {
-            return new InstanceData(null);
-        }
-    }
 }
-
@@ -286,6 +286,7 @@ public class XFormsConstants {
     public static final QName XXFORMS_CONTEXT_QNAME = new QName("context", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_REPEAT_INDEXES_QNAME = new QName("repeat-indexes", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_DND_QNAME = new QName("dnd", XXFORMS_NAMESPACE);
+    public static final QName XXFORMS_ITERATION_WINDOW_QNAME = new QName("iteration-window", XXFORMS_NAMESPACE);
 
     public static final QName XXFORMS_UPDATE_QNAME = new QName("update", XXFORMS_NAMESPACE);
     public static final String XFORMS_FULL_UPDATE = "full";
@@ -34,6 +34,8 @@ import org.orbeon.oxf.xforms.event.*;
 import org.orbeon.oxf.xforms.event.events.*;
 import org.orbeon.oxf.xforms.processor.XFormsServer;
 import org.orbeon.oxf.xforms.processor.XFormsURIResolver;
+import org.orbeon.oxf.xforms.state.DynamicState;
+import org.orbeon.oxf.xforms.state.DynamicStateOutput;
 import org.orbeon.oxf.xforms.state.XFormsState;
 import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager;
 import org.orbeon.oxf.xforms.submission.XFormsModelSubmission;
@@ -96,6 +98,10 @@ public class XFormsContainingDocument extends XBLContainer {
 
     // Global XForms function library
     private static XFormsFunctionLibrary functionLibrary = new XFormsFunctionLibrary();
+    static {
+        // Expressions using the library can be compiled ahead of use
+        XPathCache.registerFunctionLibrary("xforms", functionLibrary);
+    }
 
     // Object pool this object must be returned to, if any
     private ObjectPool sourceObjectPool;
@@ -804,7 +810,7 @@ public class XFormsContainingDocument extends XBLContainer {
                 // Mark the control as dirty, because we may have done a rebuild/recalculate earlier, and this means
                 // the MIPs need to be re-evaluated before being checked below
                 // NOTE: This is almost certainly wrong now (2010-04-08)
-                xformsControl.markDirty(xpathDependencies);
+                xformsControl.markDirty(pipelineContext, xpathDependencies);
             }
 
             if (!handleGoingOnline) {
@@ -1170,32 +1176,28 @@ public class XFormsContainingDocument extends XBLContainer {
      * @return                      encoded dynamic state
      */
     public String createEncodedDynamicState(PropertyContext propertyContext, boolean isForceEncryption) {
-        return XFormsUtils.encodeXML(propertyContext, createDynamicStateDocument(),
-            (isForceEncryption || XFormsProperties.isClientStateHandling(this)) ? XFormsProperties.getXFormsPassword() : null, false);
+        return XFormsUtils.encodeBytes(propertyContext, createDynamicStateBytes(),
+            (isForceEncryption || XFormsProperties.isClientStateHandling(this)) ? XFormsProperties.getXFormsPassword() : null);
     }
 
-    private Document createDynamicStateDocument() {
+    private byte[] createDynamicStateBytes() {
 
-        final Document dynamicStateDocument;
+        final DynamicStateOutput out = new DynamicStateOutput();
         indentedLogger.startHandleOperation("", "encoding state");
         {
-            dynamicStateDocument = Dom4jUtils.createDocument();
-            final Element dynamicStateElement = dynamicStateDocument.addElement("dynamic-state");
             // Add UUID
-            dynamicStateElement.addAttribute("uuid", uuid);
+            out.writeName(uuid);
 
             // Serialize instances
-            {
-                final Element instancesElement = dynamicStateElement.addElement("instances");
-                serializeInstances(instancesElement);
-            }
+            serializeInstances(out);
+            out.writeBoolean(false);
 
             // Serialize controls
-            xformsControls.serializeControls(dynamicStateElement);
+            xformsControls.serializeControls(out);
         }
-        indentedLogger.endHandleOperation();
+        indentedLogger.endHandleOperation("bytes", Integer.toString(out.size()));
 
-        return dynamicStateDocument;
+        return out.toByteArray();
     }
 
 
@@ -1207,18 +1209,17 @@ public class XFormsContainingDocument extends XBLContainer {
      */
     private void restoreDynamicState(PipelineContext pipelineContext, String encodedDynamicState) {
 
-        // Get dynamic state document
-        final Document dynamicStateDocument = XFormsUtils.decodeXML(pipelineContext, encodedDynamicState);
+        final DynamicState dynamicState = DynamicState.decode(xformsStaticState.getXPathConfiguration(),
+                XFormsUtils.decodeBytes(pipelineContext, encodedDynamicState, XFormsProperties.getXFormsPassword()));
 
         // Restore UUID
-        this.uuid = dynamicStateDocument.getRootElement().attributeValue("uuid");
+        this.uuid = dynamicState.getUUID();
         indentedLogger.logDebug("initialization", "restoring UUID", "uuid", this.uuid);
 
         // Restore models state
         {
             // Store instances state in PipelineContext for use down the line
-            final Element instancesElement = dynamicStateDocument.getRootElement().element("instances");
-            pipelineContext.setAttribute(XFORMS_DYNAMIC_STATE_RESTORE_INSTANCES, instancesElement);
+            pipelineContext.setAttribute(XFORMS_DYNAMIC_STATE_RESTORE_INSTANCES, dynamicState.getInstances());
 
             // Create XForms controls and models
             createControlsAndModels(pipelineContext);
@@ -1230,8 +1231,7 @@ public class XFormsContainingDocument extends XBLContainer {
         // Restore controls state
         {
             // Store serialized control state for retrieval later
-            final Map serializedControlStateMap = xformsControls.getSerializedControlStateMap(dynamicStateDocument.getRootElement());
-            pipelineContext.setAttribute(XFORMS_DYNAMIC_STATE_RESTORE_CONTROLS, serializedControlStateMap);
+            pipelineContext.setAttribute(XFORMS_DYNAMIC_STATE_RESTORE_CONTROLS, dynamicState.getSerializedControlStateMap());
 
             xformsControls.initializeState(pipelineContext);
 
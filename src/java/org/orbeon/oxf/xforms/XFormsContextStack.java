@@ -193,6 +193,25 @@ public class XFormsContextStack {
         return variableInfos;
     }
 
+    /**
+     * Return a copy of the content of the stack, which can be restored with restoreState().
+     *
+     * @return  content of the stack
+     */
+    public List<BindingContext> getState() {
+        return new ArrayList<BindingContext>(contextStack);
+    }
+
+    /**
+     * Restore the content of the stack as returned by getState().
+     *
+     * @param state content of the stack
+     */
+    public void restoreState(List<BindingContext> state) {
+        contextStack.clear();
+        contextStack.addAll(state);
+    }
+
     /**
      * Set the binding context to the current control.
      *
@@ -14,6 +14,7 @@
 package org.orbeon.oxf.xforms;
 
 import org.apache.log4j.Logger;
+import org.dom4j.Attribute;
 import org.dom4j.Element;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.util.IndentedLogger;
@@ -28,16 +29,15 @@ import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl;
 import org.orbeon.oxf.xforms.control.controls.XFormsRepeatIterationControl;
 import org.orbeon.oxf.xforms.control.controls.XXFormsVariableControl;
 import org.orbeon.oxf.xforms.itemset.Itemset;
+import org.orbeon.oxf.xforms.state.DynamicStateInput;
+import org.orbeon.oxf.xforms.state.DynamicStateOutput;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.oxf.xforms.xbl.XBLContainer;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.om.Item;
 import org.orbeon.saxon.om.NodeInfo;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Represents all this XForms containing document controls and the context in which they operate.
@@ -52,6 +52,10 @@ public class XFormsControls implements XFormsObjectResolver {
     private ControlTree initialControlTree;
     private ControlTree currentControlTree;
 
+    // Controls which have a copy of their initial state, or whose local state has changed while the initial tree was
+    // not frozen yet
+    private List<XFormsControl> changedControls = new ArrayList<XFormsControl>();
+
     private boolean dirtySinceLastRequest;
 
     // Whether we currently require a UI refresh
@@ -153,12 +157,11 @@ public class XFormsControls implements XFormsObjectResolver {
                 initialControlTree = currentControlTree;
 
                 // Need to make sure that current == initial within controls
-                visitAllControls(new XFormsControls.XFormsControlVisitorAdapter() {
-                    public boolean startVisitControl(XFormsControl control) {
-                        control.resetLocal();
-                        return true;
-                    }
-                });
+                // NOTE: Only changed controls can have a different initial state
+                for (final XFormsControl control: changedControls) {
+                    control.resetInitialState();
+                }
+                changedControls.clear();
 
             } else {
                 // Create new controls tree
@@ -181,44 +184,68 @@ public class XFormsControls implements XFormsObjectResolver {
      * Serialize controls into the dynamic state. Only the information that cannot be rebuilt from the instances is
      * serialized.
      *
-     * @param dynamicStateElement
+     * @param out   dynamic state output
      */
-    public void serializeControls(Element dynamicStateElement) {
-        final Element controlsElement = Dom4jUtils.createElement("controls");
+    public void serializeControls(final DynamicStateOutput out) {
         visitAllControls(new XFormsControls.XFormsControlVisitorAdapter() {
             public boolean startVisitControl(XFormsControl control) {
                 if (control.isRelevant()) { // don't serialize anything for non-relevant controls
-                    final Map nameValues = control.serializeLocal();
+                    final Map<String, String> nameValues = control.serializeLocal();
                     if (nameValues != null) {
-                        final Element controlElement = controlsElement.addElement("control");
-                        controlElement.addAttribute("effective-id", control.getEffectiveId());
-                        for (Object o: nameValues.entrySet()) {
-                            final Map.Entry currentEntry = (Map.Entry) o;
-                            controlElement.addAttribute((String) currentEntry.getKey(), (String) currentEntry.getValue());
+                        out.writeBoolean(true);
+                        out.writeName(control.getEffectiveId());
+                        out.writeVarInt(nameValues.size());
+                        for (final Map.Entry<String, String> currentEntry: nameValues.entrySet()) {
+                            out.writeName(currentEntry.getKey());
+                            out.writeName(currentEntry.getValue());
                         }
                     }
                 }
                 return true;
             }
         });
-        // Only add the element if necessary
-        if (controlsElement.hasContent())
-            dynamicStateElement.add(controlsElement);
+        out.writeBoolean(false);
     }
 
     /**
      * Get serialized control state as a Map. Only the information that cannot be rebuilt from the instances is
      * deserialized.
      *
+     * @param   in  dynamic state input
+     * @return  Map<String effectiveId, Map<String name, String value>>
+     */
+    public static Map<String, Map<String, String>> getSerializedControlStateMap(DynamicStateInput in) {
+        final Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+        while (in.readBoolean()) {
+            final String effectiveId = in.readName();
+            final int size = in.readVarInt();
+            final Map<String, String> nameValues = new HashMap<String, String>(size * 2);
+            for (int i = 0; i < size; i++) {
+                final String name = in.readName();
+                nameValues.put(name, in.readName());
+            }
+            result.put(effectiveId, nameValues);
+        }
+        return result;
+    }
+
+    /**
+     * Get serialized control state as a Map from dynamic state in the XML format used by previous versions.
+     *
      * @param   dynamicStateElement
-     * @return  Map<String effectiveId, Element serializedState>
+     * @return  Map<String effectiveId, Map<String name, String value>>
      */
-    public Map<String, Element> getSerializedControlStateMap(Element dynamicStateElement) {
-        final Map<String, Element> result = new HashMap<String, Element>();
+    public static Map<String, Map<String, String>> getSerializedControlStateMap(Element dynamicStateElement) {
+        final Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
         final Element controlsElement = dynamicStateElement.element("controls");
         if (controlsElement != null) {
             for (Element currentControlElement : Dom4jUtils.elements(controlsElement, "control")) {
-                result.put(currentControlElement.attributeValue("effective-id"), currentControlElement);
+                final Map<String, String> nameValues = new HashMap<String, String>();
+                for (final Object o: currentControlElement.attributes()) {
+                    final Attribute currentAttribute = (Attribute) o;
+                    nameValues.put(currentAttribute.getName(), currentAttribute.getValue());
+                }
+                result.put(currentControlElement.attributeValue("effective-id"), nameValues);
             }
         }
         return result;
@@ -261,6 +288,24 @@ public class XFormsControls implements XFormsObjectResolver {
         return repeatIterationControl;
     }
 
+    /**
+     * Create the controls of an existing placeholder repeat iteration in the current tree of controls.
+     *
+     * @param propertyContext   current context
+     * @param repeatIteration   placeholder iteration
+     */
+    public void materializeRepeatIteration(PropertyContext propertyContext, XFormsRepeatIterationControl repeatIteration) {
+
+        if (initialControlTree == currentControlTree && containingDocument.isHandleDifferences())
+            throw new OXFException("Cannot call materializeRepeatIteration() when initialControlTree == currentControlTree");
+
+        indentedLogger.startHandleOperation("controls", "materializing iteration");
+        {
+            currentControlTree.materializeRepeatIterationTree(propertyContext, containingDocument, repeatIteration);
+        }
+        indentedLogger.endHandleOperation();
+    }
+
     /**
      * Get the ControlTree computed in the initialize() method.
      */
@@ -276,13 +321,17 @@ public class XFormsControls implements XFormsObjectResolver {
     }
 
     /**
-     * Clone the current controls tree if:
+     * Freeze the initial controls tree if:
      *
-     * 1. it hasn't yet been cloned
+     * 1. it hasn't yet been frozen
      * 2. we are not during the XForms engine initialization
      *
      * The rationale for #2 is that there is no controls comparison needed during initialization. Only during further
      * client requests do the controls need to be compared.
+     *
+     * Freezing only copies the list of top-level controls. Controls are then copied one by one, before they first
+     * change (see XFormsControl.saveInitialState()), and XFormsControl.getInitialControl() returns the control as it
+     * was when the tree was frozen.
      */
     public void cloneInitialStateIfNeeded(PropertyContext propertyContext) {
         if (initialControlTree == currentControlTree && containingDocument.isHandleDifferences()) {
@@ -291,11 +340,61 @@ public class XFormsControls implements XFormsObjectResolver {
                 // NOTE: We clone "back", that is the new tree is used as the "initial" tree. This is done so that
                 // if we started working with controls in the initial tree, we can keep using those references safely.
                 initialControlTree = (ControlTree) currentControlTree.getBackCopy(propertyContext);
+
+                // Copy controls whose local state has already changed
+                final List<XFormsControl> locallyChangedControls = changedControls;
+                changedControls = new ArrayList<XFormsControl>();
+                for (final XFormsControl control: locallyChangedControls) {
+                    control.saveInitialState(propertyContext);
+                }
             }
             indentedLogger.endHandleOperation();
         }
     }
 
+    /**
+     * Whether the initial controls tree is frozen, in which case controls must be copied before they change.
+     */
+    public boolean isInitialStateFrozen() {
+        return initialControlTree != currentControlTree;
+    }
+
+    /**
+     * Remember a control which has a copy of its initial state or a changed local state, so that it can be reset at
+     * the start of the next request.
+     *
+     * @param control   changed control
+     */
+    public void addChangedControl(XFormsControl control) {
+        changedControls.add(control);
+    }
+
+    /**
+     * Return the controls which have changed since the start of the request, as well as all their ancestors. A control
+     * which is not in this set is the same object in the initial and current trees, and so are all its descendants.
+     *
+     * @param additionalEffectiveIds    effective ids of other controls to consider changed, or null
+     * @return                          set of controls
+     */
+    public Set<XFormsControl> getChangedControlsAndAncestors(Collection<String> additionalEffectiveIds) {
+        final Set<XFormsControl> result = new HashSet<XFormsControl>();
+        for (final XFormsControl control: changedControls)
+            addWithAncestors(result, control);
+        if (additionalEffectiveIds != null) {
+            for (final String effectiveId: additionalEffectiveIds) {
+                final Object object = getObjectByEffectiveId(effectiveId);
+                if (object instanceof XFormsControl)
+                    addWithAncestors(result, (XFormsControl) object);
+            }
+        }
+        return result;
+    }
+
+    private static void addWithAncestors(Set<XFormsControl> result, XFormsControl control) {
+        // Stop at the first ancestor already present, as its own ancestors are present too
+        for (XFormsControl current = control; current != null && result.add(current); current = current.getParent());
+    }
+
     /**
      * Get object with the effective id specified.
      *
@@ -26,6 +26,8 @@ import org.orbeon.oxf.xforms.event.XFormsEvents;
 import org.orbeon.oxf.xforms.event.events.XFormsBindingExceptionEvent;
 import org.orbeon.oxf.xforms.event.events.XFormsDeleteEvent;
 import org.orbeon.oxf.xforms.event.events.XFormsInsertEvent;
+import org.orbeon.oxf.xforms.state.DynamicStateInput;
+import org.orbeon.oxf.xforms.state.DynamicStateOutput;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.oxf.xforms.xbl.XBLContainer;
 import org.orbeon.oxf.xml.TransformerUtils;
@@ -78,6 +80,11 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
      */
     private boolean replaced;
 
+    // How the instance document is written to the dynamic state
+    private static final int NO_DOCUMENT = 0;
+    private static final int DOM4J_DOCUMENT = 1;
+    private static final int SERIALIZED_DOCUMENT = 2;
+
     /**
      * Create an XFormsInstance from a container element. The container contains meta-informationa about the instance,
      * such as id, username, URI, etc.
@@ -89,6 +96,8 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
      * The instance document may not have been set after this is completed, in case the Element did not contained a
      * serialized document.
      *
+     * This is only used to restore dynamic state in the XML format used by previous versions.
+     *
      * @param containerElement  container element
      */
     public XFormsInstance(Configuration configuration, Element containerElement) {
@@ -143,6 +152,47 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
         this.documentInfo = documentInfo;
     }
 
+    /**
+     * Create an XFormsInstance from the dynamic state, as written by writeExternal().
+     *
+     * The instance document may not have been set after this is completed, in case the instance document was not
+     * serialized.
+     *
+     * @param configuration     XPath configuration
+     * @param in                dynamic state input
+     */
+    public XFormsInstance(Configuration configuration, DynamicStateInput in) {
+
+        this.instanceStaticId = in.readName();
+        this.modelEffectiveId = in.readName();
+        this.sourceURI = in.readString();
+        this.requestBodyHash = in.readString();
+        this.username = in.readString();
+        this.password = in.readString();
+        this.domain = in.readString();
+        this.validation = in.readName();
+        this.timeToLive = in.readVarLong() - 1;
+
+        this.readonly = in.readBoolean();
+        this.cache = in.readBoolean();
+        this.handleXInclude = in.readBoolean();
+        this.exposeXPathTypes = in.readBoolean();
+        this.replaced = in.readBoolean();
+
+        final int documentType = in.readVarInt();
+        if (documentType == DOM4J_DOCUMENT) {
+            final Document document = (Document) Dom4jUtils.normalizeTextNodes(in.readDocument());
+            this.documentInfo = exposeXPathTypes
+                    ? new TypedDocumentWrapper(document, null, configuration)
+                    : new DocumentWrapper(document, null, configuration);
+        } else if (documentType == SERIALIZED_DOCUMENT) {
+            this.documentInfo = TransformerUtils.stringToTinyTree(configuration, in.readString(), false);
+        } else {
+            // Instance document is not available, defer to later initialization
+            this.documentInfo = null;
+        }
+    }
+
     public XFormsInstance(Configuration configuration, String modelEffectiveId, String instanceStaticId, Document instanceDocument,
                           String instanceSourceURI, String requestBodyHash, String username, String password, String domain,
                           boolean cache, long timeToLive, String validation, boolean handleXInclude, boolean exposeXPathTypes) {
@@ -186,7 +236,8 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
     }
 
     /**
-     * Serialize the instance into a containing Element with meta-information.
+     * Serialize the instance into a containing Element with meta-information, in the XML format used by previous
+     * versions. This is only used to show the dynamic state as XML, e.g. for tests and debugging.
      *
      * @param serializeInstance     whether the instance document must be serialized
      * @return                      containing Element
@@ -225,7 +276,7 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
         if (replaced)
             instanceElement.addAttribute("replaced", "true");
 
-        if (serializeInstance) {
+        if (serializeInstance && documentInfo != null) {
             final String instanceString;
             if (getDocument() != null) {
                 // This is probably more optimal than going through NodeInfo. Furthermore, there may be an issue with
@@ -240,6 +291,43 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
         return instanceElement;
     }
 
+    /**
+     * Serialize the instance with meta-information into the dynamic state.
+     *
+     * @param out                   dynamic state output
+     * @param serializeInstance     whether the instance document must be serialized
+     */
+    public void writeExternal(DynamicStateOutput out, boolean serializeInstance) {
+
+        out.writeName(instanceStaticId);
+        out.writeName(modelEffectiveId);
+        out.writeString(sourceURI);
+        out.writeString(requestBodyHash);
+        out.writeString(username);
+        out.writeString(password);
+        out.writeString(domain);
+        out.writeName(validation);
+        out.writeVarLong(timeToLive + 1);
+
+        out.writeBoolean(readonly);
+        out.writeBoolean(cache);
+        out.writeBoolean(handleXInclude);
+        out.writeBoolean(exposeXPathTypes);
+        out.writeBoolean(replaced);
+
+        if (!serializeInstance) {
+            out.writeVarInt(NO_DOCUMENT);
+        } else if (getDocument() != null) {
+            // Write the dom4j tree directly, so that it doesn't need to be parsed again
+            out.writeVarInt(DOM4J_DOCUMENT);
+            out.writeDocument(getDocument());
+        } else {
+            // DocumentInfo wraps a TinyTree
+            out.writeVarInt(SERIALIZED_DOCUMENT);
+            out.writeString(TransformerUtils.tinyTreeToString(getDocumentInfo()));
+        }
+    }
+
     /**
      * Return the model that contains this instance.
      *
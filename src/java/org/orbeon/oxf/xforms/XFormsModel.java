@@ -27,6 +27,7 @@ import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.oxf.xforms.event.*;
 import org.orbeon.oxf.xforms.event.events.*;
 import org.orbeon.oxf.xforms.function.xxforms.XXFormsExtractDocument;
+import org.orbeon.oxf.xforms.state.DynamicStateOutput;
 import org.orbeon.oxf.xforms.submission.BaseSubmission;
 import org.orbeon.oxf.xforms.submission.OptimizedSubmission;
 import org.orbeon.oxf.xforms.submission.XFormsModelSubmission;
@@ -408,11 +409,12 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
     }
 
     /**
-     * Serialize this model's instances.
+     * Serialize this model's instances. Each instance is preceded by true, and the caller writes false after the last
+     * instance.
      *
-     * @param instancesElement  container element for serialized instances
+     * @param out   dynamic state output
      */
-    public void serializeInstances(Element instancesElement) {
+    public void serializeInstances(DynamicStateOutput out) {
         for (final XFormsInstance currentInstance: instances) {
 
             // TODO: can we avoid storing the instance in the dynamic state if it has not changed from static state?
@@ -422,7 +424,8 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
                 // Serialize full instance of instance metadata (latter if instance is cached)
                 // If it is readonly, not replaced, and inline, then don't even add information to the dynamic state
 
-                instancesElement.add(currentInstance.createContainerElement(!currentInstance.isCache()));
+                out.writeBoolean(true);
+                currentInstance.writeExternal(out, !currentInstance.isCache());
 
                 indentedLogger.logDebug("serialize", currentInstance.isCache() ? "storing instance metadata to dynamic state" : "storing full instance to dynamic state",
                     "model effective id", effectiveId, "instance static id", currentInstance.getId());
@@ -435,26 +438,22 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
     }
 
     /**
-     * Restore all the instances serialized as children of the given container element.
+     * Restore all the instances of this model restored from the dynamic state.
      *
      * @param propertyContext   current context
      */
     private void restoreInstances(PropertyContext propertyContext) {
 
-        // Find serialized instances from context
-        final Element instancesElement = (Element) propertyContext.getAttribute(XBLContainer.XFORMS_DYNAMIC_STATE_RESTORE_INSTANCES);
+        // Find restored instances from context
+        final List<XFormsInstance> restoredInstances = (List<XFormsInstance>) propertyContext.getAttribute(XBLContainer.XFORMS_DYNAMIC_STATE_RESTORE_INSTANCES);
 
         // Get instances from dynamic state first
-        if (instancesElement != null) {
-            for (Element currentInstanceElement: Dom4jUtils.elements(instancesElement)) {
+        if (restoredInstances != null) {
+            for (final XFormsInstance newInstance: restoredInstances) {
                 // Check that the instance belongs to this model
-                final String currentModelEffectiveId = currentInstanceElement.attributeValue("model-id");
-                if (effectiveId.equals(currentModelEffectiveId)) {
-                    // Create and set instance document on current model
-                    final XFormsInstance newInstance = new XFormsInstance(containingDocument.getStaticState().getXPathConfiguration(), currentInstanceElement);
-                    final boolean isReadonlyHint = XFormsInstance.isReadonlyHint(currentInstanceElement);
+                if (effectiveId.equals(newInstance.getEffectiveModelId())) {
                     // NOTE: Here instance must contain document
-                    setInstanceLoadFromCacheIfNecessary(propertyContext, isReadonlyHint, newInstance, null);
+                    setInstanceLoadFromCacheIfNecessary(propertyContext, newInstance.isReadOnly(), newInstance, null);
                     indentedLogger.logDebug("restore", "restoring instance from dynamic state", "model effective id", effectiveId, "instance static id", newInstance.getId());
                 }
             }
@@ -19,6 +19,7 @@ import org.dom4j.Namespace;
 import org.dom4j.QName;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.PropertyContext;
 import org.orbeon.oxf.util.XPathCache;
@@ -53,6 +54,7 @@ import org.orbeon.saxon.value.SequenceExtent;
 import org.orbeon.saxon.value.StringValue;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represent a given model's binds.
@@ -70,15 +72,21 @@ public class XFormsModelBinds {
     private List<Bind> topLevelBinds = new ArrayList<Bind>();
     private Map<String, Bind> singleNodeContextBinds = new HashMap<String, Bind>();
     private Map<Item, List<BindIteration>> iterationsForContextNodeInfo = new HashMap<Item, List<BindIteration>>();
+    private Map<String, List<Bind>> bindsForStaticId = new HashMap<String, List<Bind>>();
     private List<Bind> offlineBinds = new ArrayList<Bind>();
     private Map<String, String> variableNamesToIds = new HashMap<String, String>();
 
     private XFormsModelSchemaValidator xformsValidator;         // validator for standard XForms schema types
 
     private boolean isFirstCalculate;                           // whether this is the first recalculate for the associated XForms model
+    private boolean mustEvaluateAllBinds = true;                // whether all binds must be evaluated, e.g. after a rebuild
 
     private static final Set<String> BUILTIN_XFORMS_SCHEMA_TYPES = new HashSet<String>();
 
+    // Threads used for parallel evaluation of binds, shared by all models
+    private static ExecutorService bindEvaluationThreadPool;
+    private static final int MIN_BIND_NODES_PER_THREAD = 50;
+
     static {
         BUILTIN_XFORMS_SCHEMA_TYPES.add("dayTimeDuration");
         BUILTIN_XFORMS_SCHEMA_TYPES.add("yearMonthDuration");
@@ -127,8 +135,10 @@ public class XFormsModelBinds {
         topLevelBinds.clear();
         singleNodeContextBinds.clear();
         iterationsForContextNodeInfo.clear();
+        bindsForStaticId.clear();
         offlineBinds.clear();
         variableNamesToIds.clear();
+        mustEvaluateAllBinds = true;
 
         // Iterate through all top-level bind elements
         for (final Element currentBindElement: bindElements) {
@@ -159,6 +169,9 @@ public class XFormsModelBinds {
             // Reset context stack just to re-evaluate the variables
             model.getContextStack().resetBindingContext(propertyContext, model);
 
+            // Figure out which binds must be evaluated, null meaning all of them
+            final Set<String> bindsToEvaluate = getBindsToEvaluate();
+
             if (isFirstCalculate) {
                 // Handle default values
                 iterateBinds(propertyContext, new BindRunner() {
@@ -171,16 +184,26 @@ public class XFormsModelBinds {
             }
 
             // Handle calculations
-            // NOTE: we do not correctly handle computational dependencies, but it doesn't hurt
-            // to evaluate "calculate" binds before the other binds.
-            iterateBinds(propertyContext, new BindRunner() {
+            final BindRunner calculateBindRunner = new BindRunner() {
                 public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position) {
                     handleCalculateBind(propertyContext, bind, nodeset, position);
                 }
-            });
+            };
+            if (staticModel.bindDependencies != null) {
+                // Evaluate calculate binds in dependency order
+                for (final String bindId: staticModel.bindDependencies.getCalculateOrder()) {
+                    if (bindsToEvaluate == null || bindsToEvaluate.contains(bindId))
+                        iterateBinds(propertyContext, bindId, calculateBindRunner);
+                }
+            } else {
+                // NOTE: we do not correctly handle computational dependencies, but it doesn't hurt
+                // to evaluate "calculate" binds before the other binds.
+                iterateBinds(propertyContext, calculateBindRunner);
+            }
 
             // Update computed expression binds if requested (done here according to XForms 1.1)
-            applyComputedExpressionBinds(propertyContext);
+            applyComputedExpressionBinds(propertyContext, bindsToEvaluate);
+            bindsEvaluationDone();
         }
 
         if (indentedLogger.isDebugEnabled())
@@ -193,6 +216,11 @@ public class XFormsModelBinds {
      * @param propertyContext   current PropertyContext
      */
     public void applyComputedExpressionBinds(final PropertyContext propertyContext) {
+        applyComputedExpressionBinds(propertyContext, getBindsToEvaluate());
+        bindsEvaluationDone();
+    }
+
+    private void applyComputedExpressionBinds(final PropertyContext propertyContext, final Set<String> bindsToEvaluate) {
 
         // Reset context stack just to re-evaluate the variables
         model.getContextStack().resetBindingContext(propertyContext, model);
@@ -200,26 +228,79 @@ public class XFormsModelBinds {
         // Clear state
         final List<XFormsInstance> instances = model.getInstances();
         if (instances != null) {
-            for (final XFormsInstance instance: instances) {
-                // Only clear instances that are impacted by xf:bind/(@ref|@nodeset), assuming we were able to figure out the dependencies
-                // The reason is that clearing this state can take quite some time
-                if (containingDocument.getXPathDependencies().requireBindCalculation(staticModel, instance.getPrefixedId())) {
-                    XFormsUtils.iterateInstanceData(instance, new XFormsUtils.InstanceWalker() {
-                        public void walk(NodeInfo nodeInfo) {
-                            InstanceData.clearOtherState(nodeInfo);
-                        }
-                    }, true);
+            if (bindsToEvaluate == null) {
+                for (final XFormsInstance instance: instances) {
+                    // Only clear instances that are impacted by xf:bind/(@ref|@nodeset), assuming we were able to figure out the dependencies
+                    // The reason is that clearing this state can take quite some time
+                    if (containingDocument.getXPathDependencies().requireBindCalculation(staticModel, instance.getPrefixedId())) {
+                        XFormsUtils.iterateInstanceData(instance, new XFormsUtils.InstanceWalker() {
+                            public void walk(NodeInfo nodeInfo) {
+                                InstanceData.clearOtherState(nodeInfo);
+                            }
+                        }, true);
+                    }
                 }
+
+                handleComputedExpressionBinds(propertyContext, null);
+            } else if (bindsToEvaluate.size() > 0) {
+                // Only evaluate affected binds, in document order. Nodesets haven't changed since the last evaluation,
+                // so MIPs of other binds are still current and state must not be cleared.
+                handleComputedExpressionBinds(propertyContext, bindsToEvaluate);
             }
+        }
+    }
 
+    private void handleComputedExpressionBinds(PropertyContext propertyContext, final Set<String> bindsToEvaluate) {
+        final int threads = XFormsProperties.getBindEvaluationThreads(containingDocument);
+        if (threads <= 1) {
             iterateBinds(propertyContext, new BindRunner() {
                 public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position) {
-                    handleComputedExpressionBind(propertyContext, bind, nodeset, position);
+                    if (bindsToEvaluate == null || bindsToEvaluate.contains(bind.getId()))
+                        handleComputedExpressionBind(propertyContext, bind, nodeset, position);
+                }
+            });
+        } else {
+            // Evaluate MIPs in parallel, then update nodes in document order so that the last bind wins as usual
+            final List<BindNode> bindNodes = getBindNodes(propertyContext, bindsToEvaluate, false);
+            evaluateInParallel(propertyContext, bindNodes, threads, new BindNodeEvaluator() {
+                public void evaluate(PropertyContext propertyContext, BindNode bindNode, XFormsFunction.Context functionContext) {
+                    evaluateComputedExpressionBind(propertyContext, bindNode, functionContext);
                 }
             });
+            for (final BindNode bindNode: bindNodes) {
+                if (bindNode.isEvaluated) {
+                    final NodeInfo currentNodeInfo = (NodeInfo) bindNode.nodeset.get(bindNode.position - 1);
+                    setRequiredMIP(currentNodeInfo, bindNode.required);
+                    setRelevantMIP(currentNodeInfo, bindNode.relevant);
+                    setReadonlyMIP(bindNode.bind, currentNodeInfo, bindNode.readonly);
+                    if (bindNode.customMips != null) {
+                        for (final String propertyName: bindNode.bind.getCustomMips().keySet())
+                            InstanceData.setCustom(currentNodeInfo, propertyName, bindNode.customMips.get(propertyName));
+                    }
+                } else {
+                    // Evaluate again so that errors are reported as usual
+                    handleComputedExpressionBind(propertyContext, bindNode.bind, bindNode.nodeset, bindNode.position);
+                }
+            }
         }
     }
 
+    /**
+     * Require all binds to be evaluated upon the next recalculate, instead of only the binds affected by changes.
+     */
+    public void requireAllBindsEvaluation() {
+        mustEvaluateAllBinds = true;
+    }
+
+    private Set<String> getBindsToEvaluate() {
+        return mustEvaluateAllBinds ? null : containingDocument.getXPathDependencies().requireBindsEvaluation(staticModel);
+    }
+
+    private void bindsEvaluationDone() {
+        mustEvaluateAllBinds = false;
+        containingDocument.getXPathDependencies().bindsEvaluationDone(staticModel);
+    }
+
     /**
      * Apply validation binds
      *
@@ -232,11 +313,134 @@ public class XFormsModelBinds {
         model.getContextStack().resetBindingContext(propertyContext, model);
 
         // Handle validation
+        final int threads = XFormsProperties.getBindEvaluationThreads(containingDocument);
+        if (threads <= 1) {
+            iterateBinds(propertyContext, new BindRunner() {
+                public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position) {
+                    handleValidationBind(propertyContext, bind, nodeset, position, invalidInstances, null);
+                }
+            });
+        } else {
+            // Evaluate constraints in parallel, then validate in document order
+            // NOTE: Constraints are evaluated even on nodes which turn out to have an invalid type or to be required and
+            // empty. If that causes an error, the constraint is simply not used.
+            final List<BindNode> bindNodes = getBindNodes(propertyContext, null, true);
+            evaluateInParallel(propertyContext, bindNodes, threads, new BindNodeEvaluator() {
+                public void evaluate(PropertyContext propertyContext, BindNode bindNode, XFormsFunction.Context functionContext) {
+                    final Bind bind = bindNode.bind;
+                    if (bind.getConstraint() != null)
+                        bindNode.constraint = evaluateBooleanExpression1(propertyContext, bindNode.nodeset, bindNode.position, bind, bind.getConstraint(), bindNode.variables, functionContext);
+                }
+            });
+            for (final BindNode bindNode: bindNodes) {
+                handleValidationBind(propertyContext, bindNode.bind, bindNode.nodeset, bindNode.position, invalidInstances, bindNode.constraint);
+            }
+        }
+    }
+
+    /**
+     * Return the nodes of all the binds, or of the given binds only, in document order, with the variables in scope.
+     */
+    private List<BindNode> getBindNodes(PropertyContext propertyContext, final Set<String> bindsToEvaluate, final boolean isValidation) {
+        final List<BindNode> bindNodes = new ArrayList<BindNode>();
         iterateBinds(propertyContext, new BindRunner() {
             public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position) {
-                handleValidationBind(propertyContext, bind, nodeset, position, invalidInstances);
+                if (bindsToEvaluate == null || bindsToEvaluate.contains(bind.getId())) {
+                    // Get variables on this thread, as this requires the context stack
+                    // NOTE: Validation only needs variables for constraints
+                    final NodeInfo currentNodeInfo = (NodeInfo) nodeset.get(position - 1);
+                    final boolean needsVariables = !isValidation || bind.getConstraint() != null;
+                    bindNodes.add(new BindNode(bind, nodeset, position, needsVariables ? getVariables(currentNodeInfo) : null));
+                }
             }
         });
+        return bindNodes;
+    }
+
+    /**
+     * Evaluate the given bind nodes with several threads, including the current thread.
+     *
+     * Evaluation only reads instances: it must not update instances or InstanceData. A bind node whose evaluation
+     * fails is left as not evaluated, so that the caller can evaluate it again sequentially, which dispatches
+     * xforms-compute-exception as usual.
+     *
+     * Each worker thread uses its own copy of the PipelineContext and its own function context, as caches keep per
+     * context statistics and the function context is not thread-safe.
+     */
+    private void evaluateInParallel(final PropertyContext propertyContext, final List<BindNode> bindNodes, int threads, final BindNodeEvaluator evaluator) {
+
+        final int partitions = Math.max(1, Math.min(threads, bindNodes.size() / MIN_BIND_NODES_PER_THREAD));
+        final List<Future<?>> futures = new ArrayList<Future<?>>(partitions - 1);
+        try {
+            for (int partition = partitions - 1; partition >= 0; partition--) {
+                final List<BindNode> partitionNodes
+                        = bindNodes.subList(bindNodes.size() * partition / partitions, bindNodes.size() * (partition + 1) / partitions);
+                if (partition > 0) {
+                    // Create contexts on this thread, as the PipelineContext is copied
+                    final PipelineContext workerContext = (propertyContext instanceof PipelineContext)
+                            ? new PipelineContext((PipelineContext) propertyContext) : new PipelineContext();
+                    // TODO: when binds are able to receive events, source should be bind id
+                    final XFormsFunction.Context workerFunctionContext = new XFormsFunction.Context(model, model.getContextStack());
+                    workerFunctionContext.setSourceEffectiveId(model.getEffectiveId());
+                    workerFunctionContext.setModel(model);
+
+                    futures.add(getBindEvaluationThreadPool().submit(new Runnable() {
+                        public void run() {
+                            try {
+                                evaluatePartition(workerContext, partitionNodes, evaluator, workerFunctionContext);
+                            } finally {
+                                workerContext.destroy(true);
+                            }
+                        }
+                    }));
+                } else {
+                    // TODO: when binds are able to receive events, source should be bind id
+                    final XFormsFunction.Context functionContext = model.getContextStack().getFunctionContext(model.getEffectiveId());
+                    try {
+                        evaluatePartition(propertyContext, partitionNodes, evaluator, functionContext);
+                    } finally {
+                        // Restore function context
+                        model.getContextStack().returnFunctionContext();
+                    }
+                }
+            }
+            for (final Future<?> future: futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            throw new OXFException(e.getCause());
+        } finally {
+            for (final Future<?> future: futures)
+                future.cancel(true);
+        }
+
+        if (indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("model", "evaluated binds in parallel", "nodes", Integer.toString(bindNodes.size()), "threads", Integer.toString(partitions));
+    }
+
+    private static void evaluatePartition(PropertyContext propertyContext, List<BindNode> partitionNodes, BindNodeEvaluator evaluator, XFormsFunction.Context functionContext) {
+        for (final BindNode bindNode: partitionNodes) {
+            try {
+                evaluator.evaluate(propertyContext, bindNode, functionContext);
+                bindNode.isEvaluated = true;
+            } catch (Exception e) {
+                // Leave for sequential evaluation
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getBindEvaluationThreadPool() {
+        if (bindEvaluationThreadPool == null) {
+            bindEvaluationThreadPool = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "XForms bind evaluation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return bindEvaluationThreadPool;
     }
 
     /**
@@ -600,6 +804,26 @@ public class XFormsModelBinds {
         }
     }
 
+    /**
+     * Iterate over all the bind objects for the given bind id and for each one do the callback.
+     *
+     * @param propertyContext   current context
+     * @param bindId            static id of the bind
+     * @param bindRunner        bind runner
+     */
+    private void iterateBinds(PropertyContext propertyContext, String bindId, BindRunner bindRunner) {
+        final List<Bind> binds = bindsForStaticId.get(bindId);
+        if (binds != null) {
+            for (final Bind currentBind: binds) {
+                try {
+                    currentBind.applyBind(propertyContext, bindRunner);
+                } catch (Exception e) {
+                    throw ValidationException.wrapException(e, new ExtendedLocationData(currentBind.getLocationData(), "evaluating XForms binds", currentBind.getBindElement()));
+                }
+            }
+        }
+    }
+
     private String evaluateXXFormsDefaultBind(final PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position) {
         // Handle xxforms:default MIP
         if (bind.getXXFormsDefault() != null) {
@@ -693,6 +917,25 @@ public class XFormsModelBinds {
         handleCustomMIPs(propertyContext, bind, nodeset, position, currentNodeInfo, currentVariables);
     }
 
+    private void evaluateComputedExpressionBind(PropertyContext propertyContext, BindNode bindNode, XFormsFunction.Context functionContext) {
+        final Bind bind = bindNode.bind;
+        if (bind.getRequired() != null)
+            bindNode.required = evaluateBooleanExpression1(propertyContext, bindNode.nodeset, bindNode.position, bind, bind.getRequired(), bindNode.variables, functionContext);
+        if (bind.getRelevant() != null)
+            bindNode.relevant = evaluateBooleanExpression1(propertyContext, bindNode.nodeset, bindNode.position, bind, bind.getRelevant(), bindNode.variables, functionContext);
+        if (bind.getReadonly() != null)
+            bindNode.readonly = evaluateBooleanExpression1(propertyContext, bindNode.nodeset, bindNode.position, bind, bind.getReadonly(), bindNode.variables, functionContext);
+
+        final Map<String, String> customMips = bind.getCustomMips();
+        if (customMips != null && customMips.size() > 0) {
+            bindNode.customMips = new HashMap<String, String>(customMips.size());
+            for (final Map.Entry<String, String> entry: customMips.entrySet()) {
+                bindNode.customMips.put(entry.getKey(),
+                        evaluateStringExpression(propertyContext, bindNode.nodeset, bindNode.position, bind, entry.getValue(), bindNode.variables, functionContext));
+            }
+        }
+    }
+
     private void handleCustomMIPs(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo, Map<String, ValueRepresentation> currentVariables) {
         final Map<String, String> customMips = bind.getCustomMips();
         if (customMips != null && customMips.size() > 0) {
@@ -726,7 +969,10 @@ public class XFormsModelBinds {
     }
 
     private void handleRequiredMIP(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo, Map<String, ValueRepresentation> currentVariables) {
-        final Boolean required = evaluateRequiredMIP(propertyContext, bind, nodeset, position, currentVariables);
+        setRequiredMIP(currentNodeInfo, evaluateRequiredMIP(propertyContext, bind, nodeset, position, currentVariables));
+    }
+
+    private static void setRequiredMIP(NodeInfo currentNodeInfo, Boolean required) {
         if (required != null) {
             // Update node with MIP value
             InstanceData.setRequired(currentNodeInfo, required);
@@ -752,7 +998,10 @@ public class XFormsModelBinds {
     }
 
     private void handleReadonlyMIP(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo, Map<String, ValueRepresentation> currentVariables) {
-        final Boolean readonly = evaluateReadonlyMIP(propertyContext, bind, nodeset, position, currentVariables);
+        setReadonlyMIP(bind, currentNodeInfo, evaluateReadonlyMIP(propertyContext, bind, nodeset, position, currentVariables));
+    }
+
+    private static void setReadonlyMIP(Bind bind, NodeInfo currentNodeInfo, Boolean readonly) {
         if (readonly != null) {
             // Mark node
             InstanceData.setReadonly(currentNodeInfo, readonly);
@@ -782,7 +1031,10 @@ public class XFormsModelBinds {
     }
 
     private void handleRelevantMIP(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo, Map<String, ValueRepresentation> currentVariables) {
-        final Boolean relevant = evaluateRelevantMIP(propertyContext, bind, nodeset, position, currentVariables);
+        setRelevantMIP(currentNodeInfo, evaluateRelevantMIP(propertyContext, bind, nodeset, position, currentVariables));
+    }
+
+    private static void setRelevantMIP(NodeInfo currentNodeInfo, Boolean relevant) {
         if (relevant != null) {
             // Mark node
             InstanceData.setRelevant(currentNodeInfo, relevant);
@@ -813,10 +1065,7 @@ public class XFormsModelBinds {
          // TODO: when binds are able to receive events, source should be bind id
         final XFormsFunction.Context functionContext = model.getContextStack().getFunctionContext(model.getEffectiveId());
 
-        final String result = XPathCache.evaluateAsString(propertyContext, nodeset, position, xpathExpression,
-                        container.getNamespaceMappings(bind.getBindElement()), currentVariables,
-                        XFormsContainingDocument.getFunctionLibrary(), functionContext,
-                        bind.getLocationData().getSystemID(), bind.getLocationData());
+        final String result = evaluateStringExpression(propertyContext, nodeset, position, bind, xpathExpression, currentVariables, functionContext);
 
         // Restore function context
         model.getContextStack().returnFunctionContext();
@@ -824,6 +1073,16 @@ public class XFormsModelBinds {
         return result;
     }
 
+    private String evaluateStringExpression(PropertyContext propertyContext, List<Item> nodeset, int position, Bind bind,
+                                            String xpathExpression, Map<String, ValueRepresentation> currentVariables,
+                                            XFormsFunction.Context functionContext) {
+
+        return XPathCache.evaluateAsString(propertyContext, nodeset, position, xpathExpression,
+                        container.getNamespaceMappings(bind.getBindElement()), currentVariables,
+                        XFormsContainingDocument.getFunctionLibrary(), functionContext,
+                        bind.getLocationData().getSystemID(), bind.getLocationData());
+    }
+
     private boolean evaluateBooleanExpression1(PropertyContext propertyContext, List<Item> nodeset, int position, Bind bind,
                                                String xpathExpression, Map<String, ValueRepresentation> currentVariables) {
 
@@ -831,10 +1090,7 @@ public class XFormsModelBinds {
         // TODO: when binds are able to receive events, source should be bind id
         final XFormsFunction.Context functionContext = model.getContextStack().getFunctionContext(model.getEffectiveId());
 
-        final String xpath = "boolean(" + xpathExpression + ")";
-        final boolean result = (Boolean) XPathCache.evaluateSingle(propertyContext,
-                nodeset, position, xpath, container.getNamespaceMappings(bind.getBindElement()), currentVariables,
-                XFormsContainingDocument.getFunctionLibrary(), functionContext, bind.getLocationData().getSystemID(), bind.getLocationData());
+        final boolean result = evaluateBooleanExpression1(propertyContext, nodeset, position, bind, xpathExpression, currentVariables, functionContext);
 
         // Restore function context
         model.getContextStack().returnFunctionContext();
@@ -842,13 +1098,23 @@ public class XFormsModelBinds {
         return result;
     }
 
+    private boolean evaluateBooleanExpression1(PropertyContext propertyContext, List<Item> nodeset, int position, Bind bind,
+                                               String xpathExpression, Map<String, ValueRepresentation> currentVariables,
+                                               XFormsFunction.Context functionContext) {
+
+        final String xpath = "boolean(" + xpathExpression + ")";
+        return (Boolean) XPathCache.evaluateSingle(propertyContext,
+                nodeset, position, xpath, container.getNamespaceMappings(bind.getBindElement()), currentVariables,
+                XFormsContainingDocument.getFunctionLibrary(), functionContext, bind.getLocationData().getSystemID(), bind.getLocationData());
+    }
+
 //    private boolean evaluateBooleanExpression2(PropertyContext propertyContext, Bind bind, String xpathExpression, List<Item> nodeset, int position, Map currentVariables) {
 //        return XPathCache.evaluateAsBoolean(propertyContext,
 //            nodeset, position, xpathExpression, containingDocument.getNamespaceMappings(bind.getBindElement()), currentVariables,
 //            XFormsContainingDocument.getFunctionLibrary(), model.getContextStack().getFunctionContext(), bind.getLocationData().getSystemID(), bind.getLocationData());
 //    }
 
-    private void handleValidationBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, Set<String> invalidInstances) {
+    private void handleValidationBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, Set<String> invalidInstances, Boolean evaluatedConstraint) {
 
         final NodeInfo currentNodeInfo = (NodeInfo) nodeset.get(position - 1);
         final Map<String, String> namespaceMap = container.getNamespaceMappings(bind.getBindElement());
@@ -1031,7 +1297,7 @@ public class XFormsModelBinds {
 
         // NOTE: We evaluate the constraint here, so that if the type is not respected the constraint is not evaluated.
         // This can also prevent XPath errors, e.g.: <xforms:bind nodeset="foobar" type="xs:integer" constraint=". > 10"/>
-        isValid &= handleConstraintMIP(propertyContext, bind, nodeset, position, currentNodeInfo);
+        isValid &= handleConstraintMIP(propertyContext, bind, nodeset, position, currentNodeInfo, evaluatedConstraint);
 
         // Remember invalid instances
         if (!isValid) {
@@ -1045,8 +1311,9 @@ public class XFormsModelBinds {
         return "".equals(value);
     }
 
-    private Boolean handleConstraintMIP(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo) {
-        final Boolean constraint = evaluateConstraintMIP(propertyContext, bind, nodeset, position, currentNodeInfo);
+    private Boolean handleConstraintMIP(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position, NodeInfo currentNodeInfo, Boolean evaluatedConstraint) {
+        // Use the constraint if already evaluated
+        final Boolean constraint = (evaluatedConstraint != null) ? evaluatedConstraint : evaluateConstraintMIP(propertyContext, bind, nodeset, position, currentNodeInfo);
         if (constraint != null) {
             // Update node with MIP value
             // TODO: why do we allow calling this with valid == true?
@@ -1109,6 +1376,34 @@ public class XFormsModelBinds {
         public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position);
     }
 
+    private static interface BindNodeEvaluator {
+        public void evaluate(PropertyContext propertyContext, BindNode bindNode, XFormsFunction.Context functionContext);
+    }
+
+    /**
+     * Node of a bind, with the MIP values evaluated for it in parallel.
+     */
+    private static class BindNode {
+        public final Bind bind;
+        public final List<Item> nodeset;
+        public final int position;
+        public final Map<String, ValueRepresentation> variables;
+
+        public boolean isEvaluated;
+        public Boolean required;
+        public Boolean relevant;
+        public Boolean readonly;
+        public Boolean constraint;
+        public Map<String, String> customMips;
+
+        private BindNode(Bind bind, List<Item> nodeset, int position, Map<String, ValueRepresentation> variables) {
+            this.bind = bind;
+            this.nodeset = nodeset;
+            this.position = position;
+            this.variables = variables;
+        }
+    }
+
     public class Bind {
 
         private Element bindElement;
@@ -1135,6 +1430,14 @@ public class XFormsModelBinds {
             // Remember custom MIPs
             customMips = staticModel.customMIPs.get(this.id);
 
+            // Remember all the bind objects for a given bind id
+            List<Bind> binds = bindsForStaticId.get(id);
+            if (binds == null) {
+                binds = new ArrayList<Bind>();
+                bindsForStaticId.put(id, binds);
+            }
+            binds.add(this);
+
             // Compute nodeset for this bind
             model.getContextStack().pushBinding(propertyContext, bindElement, model.getEffectiveId(), model.getResolutionScope());
             {
@@ -1206,6 +1509,17 @@ public class XFormsModelBinds {
             }
         }
 
+        /**
+         * Apply the bind runner to the nodes of this bind, without handling children binds.
+         */
+        public void applyBind(PropertyContext propertyContext, BindRunner bindRunner) {
+            if (nodeset != null) {
+                for (int index = 1; index <= nodeset.size(); index++) {
+                    bindRunner.applyBind(propertyContext, this, nodeset, index);
+                }
+            }
+        }
+
         public String getId() {
             return id;
         }
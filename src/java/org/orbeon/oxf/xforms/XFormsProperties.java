@@ -18,6 +18,7 @@ import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.util.Connection;
 import org.orbeon.saxon.om.FastStringBuffer;
 
+import java.io.File;
 import java.util.*;
 
 public class XFormsProperties {
@@ -123,6 +124,7 @@ public class XFormsProperties {
 
     private static final String ENCRYPT_ITEM_VALUES_PROPERTY = "encrypt-item-values";
     public static final String XPATH_ANALYSIS_PROPERTY = "xpath-analysis";
+    private static final String BIND_EVALUATION_THREADS_PROPERTY = "bind-evaluation-threads";
 
     public static class PropertyDefinition {
 
@@ -209,6 +211,7 @@ public class XFormsProperties {
             new PropertyDefinition(AJAX_UPDATE_FULL_THRESHOLD, 20, false),
             new PropertyDefinition(XFORMS11_SWITCH_PROPERTY, false, false), // false for now, but default should change at some point
             new PropertyDefinition(XPATH_ANALYSIS_PROPERTY, false, false),
+            new PropertyDefinition(BIND_EVALUATION_THREADS_PROPERTY, 1, false), // 1 means no parallel evaluation
 
             // Properties to propagate to the client
             new PropertyDefinition(NEW_XHTML_LAYOUT, false, true),
@@ -264,6 +267,25 @@ public class XFormsProperties {
     private static final String STORE_APPLICATION_URI_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.uri";
     private static final String STORE_APPLICATION_COLLECTION_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.collection";
 
+    private static final String STORE_APPLICATION_BACKEND_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.backend";
+    private static final String STORE_APPLICATION_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.directory";
+    private static final String STORE_APPLICATION_SYNC_INTERVAL_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.sync-interval";
+    private static final String STORE_APPLICATION_DATASOURCE_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.datasource";
+    private static final String STORE_APPLICATION_TABLE_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.table";
+
+    private static final String STORE_APPLICATION_WRITE_BEHIND_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.write-behind";
+    private static final String STORE_APPLICATION_WRITE_BEHIND_QUEUE_SIZE_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.application.write-behind.queue-size";
+
+    private static final String STORE_DELTA_INTERVAL_PROPERTY = XFORMS_PROPERTY_PREFIX + "store.delta-interval";
+
+    private static final String STORE_APPLICATION_BACKEND_DEFAULT = "exist";
+    private static final boolean STORE_APPLICATION_WRITE_BEHIND_DEFAULT = true;
+    private static final int STORE_APPLICATION_WRITE_BEHIND_QUEUE_SIZE_DEFAULT = 100;
+    private static final int STORE_APPLICATION_SYNC_INTERVAL_DEFAULT = 1000;
+    private static final String STORE_APPLICATION_DATASOURCE_DEFAULT = "jdbc/db";
+    private static final String STORE_APPLICATION_TABLE_DEFAULT = "orbeon_xforms_state";
+    private static final int STORE_DELTA_INTERVAL_DEFAULT = 0;
+
     private static final String STORE_APPLICATION_USERNAME_DEFAULT = "guest";
     private static final String STORE_APPLICATION_PASSWORD_DEFAULT = "";
     private static final String STORE_APPLICATION_URI_DEFAULT = "xmldb:exist:///";
@@ -374,6 +396,46 @@ public class XFormsProperties {
                 (STORE_APPLICATION_COLLECTION_PROPERTY, STORE_APPLICATION_COLLECTION_DEFAULT);
     }
 
+    public static String getStoreBackend() {
+        return Properties.instance().getPropertySet().getString
+                (STORE_APPLICATION_BACKEND_PROPERTY, STORE_APPLICATION_BACKEND_DEFAULT);
+    }
+
+    public static boolean isStoreWriteBehind() {
+        return Properties.instance().getPropertySet().getBoolean
+                (STORE_APPLICATION_WRITE_BEHIND_PROPERTY, STORE_APPLICATION_WRITE_BEHIND_DEFAULT);
+    }
+
+    public static int getStoreWriteBehindQueueSize() {
+        return Properties.instance().getPropertySet().getInteger
+                (STORE_APPLICATION_WRITE_BEHIND_QUEUE_SIZE_PROPERTY, STORE_APPLICATION_WRITE_BEHIND_QUEUE_SIZE_DEFAULT);
+    }
+
+    public static String getStoreDirectory() {
+        return Properties.instance().getPropertySet().getString
+                (STORE_APPLICATION_DIRECTORY_PROPERTY, new File(System.getProperty("java.io.tmpdir"), "orbeon-xforms-state").getPath());
+    }
+
+    public static int getStoreSyncInterval() {
+        return Properties.instance().getPropertySet().getInteger
+                (STORE_APPLICATION_SYNC_INTERVAL_PROPERTY, STORE_APPLICATION_SYNC_INTERVAL_DEFAULT);
+    }
+
+    public static String getStoreDatasource() {
+        return Properties.instance().getPropertySet().getString
+                (STORE_APPLICATION_DATASOURCE_PROPERTY, STORE_APPLICATION_DATASOURCE_DEFAULT);
+    }
+
+    public static String getStoreTable() {
+        return Properties.instance().getPropertySet().getString
+                (STORE_APPLICATION_TABLE_PROPERTY, STORE_APPLICATION_TABLE_DEFAULT);
+    }
+
+    public static int getStoreDeltaInterval() {
+        return Properties.instance().getPropertySet().getInteger
+                (STORE_DELTA_INTERVAL_PROPERTY, STORE_DELTA_INTERVAL_DEFAULT);
+    }
+
     public static boolean isHostLanguageAVTs() {
         return Properties.instance().getPropertySet().getBoolean
                 (HOST_LANGUAGE_AVTS_PROPERTY, HOST_LANGUAGE_AVTS_DEFAULT);
@@ -554,6 +616,10 @@ public class XFormsProperties {
         return getIntegerProperty(containingDocument, AJAX_UPDATE_FULL_THRESHOLD);
     }
 
+    public static int getBindEvaluationThreads(XFormsContainingDocument containingDocument) {
+        return getIntegerProperty(containingDocument, BIND_EVALUATION_THREADS_PROPERTY);
+    }
+
     public static boolean isXForms11Switch(XFormsContainingDocument containingDocument) {
         return getBooleanProperty(containingDocument, XFORMS11_SWITCH_PROPERTY);
     }
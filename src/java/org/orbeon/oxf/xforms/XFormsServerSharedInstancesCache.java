@@ -13,9 +13,7 @@
  */
 package org.orbeon.oxf.xforms;
 
-import org.orbeon.oxf.cache.Cache;
-import org.orbeon.oxf.cache.InternalCacheKey;
-import org.orbeon.oxf.cache.ObjectCache;
+import org.orbeon.oxf.cache.*;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.PropertyContext;
 
@@ -203,7 +201,7 @@ public class XFormsServerSharedInstancesCache {
             indentedLogger.logDebug(LOG_TYPE, "removed all instances", "count", Integer.toString(count));
     }
 
-    private static class SharedInstanceCacheEntry {
+    private static class SharedInstanceCacheEntry implements Sizeable {
         public ReadonlyXFormsInstance readonlyInstance;
         public long timestamp;
 
@@ -211,5 +209,9 @@ public class XFormsServerSharedInstancesCache {
             this.readonlyInstance = readonlyInstance;
             this.timestamp = timestamp;
         }
+
+        public long getApproximateSize() {
+            return CacheUtils.getApproximateSize(readonlyInstance.getDocumentInfo());
+        }
     }
 }
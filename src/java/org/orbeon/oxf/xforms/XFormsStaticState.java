@@ -545,6 +545,31 @@ public class XFormsStaticState {
         return uuid;
     }
 
+    // Rough size in bytes of the analysis of a single control
+    private static final int CONTROL_ANALYSIS_SIZE = 512;
+
+    /**
+     * Return the approximate size in memory of this static state, for caching purposes.
+     *
+     * @return approximate size in bytes
+     */
+    public long getApproximateSize() {
+        long size = 0;
+        if (encodedStaticState != null)
+            size += encodedStaticState.length() * 2;
+        if (staticStateDocument != null)
+            size += Dom4jUtils.getApproximateSize(staticStateDocument);
+        if (controlsDocument != null)
+            size += Dom4jUtils.getApproximateSize(controlsDocument);
+        if (xhtmlDocument != null)
+            size += xhtmlDocument.getApproximateSize();
+        for (final Model model: modelsByPrefixedId.values())
+            size += Dom4jUtils.getApproximateSize(model.document);
+        if (controlAnalysisMap != null)
+            size += controlAnalysisMap.size() * CONTROL_ANALYSIS_SIZE;
+        return size;
+    }
+
     /**
      * Get a serialized static state. If an encodedStaticState was provided during restoration, return that. Otherwise,
      * return a serialized static state computed from models, instances, and XHTML documents.
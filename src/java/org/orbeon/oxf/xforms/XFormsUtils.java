@@ -14,7 +14,6 @@
 package org.orbeon.oxf.xforms;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.log4j.Logger;
 import org.ccil.cowan.tagsoup.HTMLSchema;
 import org.dom4j.*;
@@ -63,10 +62,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.*;
-import java.util.zip.CRC32;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
 
 public class XFormsUtils {
 
@@ -131,9 +126,6 @@ public class XFormsUtils {
         return encodeXML(propertyContext, documentToEncode, XFormsProperties.getXFormsPassword(), encodeLocationData);
     }
 
-    // Use a Deflater pool as creating deflaters is expensive
-    private static final SoftReferenceObjectPool DEFLATER_POOL = new SoftReferenceObjectPool(new DeflaterPoolableObjectFactory());
-
     public static String encodeXML(PropertyContext propertyContext, Document documentToEncode, String encryptionPassword, boolean encodeLocationData) {
         //        XFormsServer.logger.debug("XForms - encoding XML.");
 
@@ -166,17 +158,15 @@ public class XFormsUtils {
     }
 
     public static String encodeBytes(PropertyContext propertyContext, byte[] bytesToEncode, String encryptionPassword) {
-        Deflater deflater = null;
+        return encodeBytes(propertyContext, bytesToEncode, encryptionPassword, XFormsProperties.isGZIPState());
+    }
+
+    public static String encodeBytes(PropertyContext propertyContext, byte[] bytesToEncode, String encryptionPassword, boolean isCompress) {
         try {
             // Compress if needed
             final byte[] gzipByteArray;
-            if (XFormsProperties.isGZIPState()) {
-                deflater = (Deflater) DEFLATER_POOL.borrowObject();
-                final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                final DeflaterGZIPOutputStream gzipOutputStream = new DeflaterGZIPOutputStream(deflater, byteArrayOutputStream, 1024);
-                gzipOutputStream.write(bytesToEncode);
-                gzipOutputStream.close();
-                gzipByteArray = byteArrayOutputStream.toByteArray();
+            if (isCompress) {
+                gzipByteArray = GZIPUtils.gzip(bytesToEncode);
             } else {
                 gzipByteArray = null;
             }
@@ -201,23 +191,8 @@ public class XFormsUtils {
                     return "X4" + Base64.encode(gzipByteArray, false);
                 }
             }
-        } catch (Throwable e) {
-            try {
-                if (deflater != null)
-                    DEFLATER_POOL.invalidateObject(deflater);
-            } catch (Exception e1) {
-                throw new OXFException(e1);
-            }
+        } catch (Exception e) {
             throw new OXFException(e);
-        } finally {
-            try {
-                if (deflater != null) {
-                    deflater.reset();
-                    DEFLATER_POOL.returnObject(deflater);
-                }
-            } catch (Exception e) {
-                throw new OXFException(e);
-            }
         }
     }
 
@@ -609,104 +584,6 @@ public class XFormsUtils {
         return valueRepresentation;
     }
 
-    private static class DeflaterPoolableObjectFactory implements PoolableObjectFactory {
-        public Object makeObject() throws Exception {
-            indentedLogger.logDebug("", "creating new Deflater");
-            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-        }
-
-        public void destroyObject(Object object) throws Exception {
-        }
-
-        public boolean validateObject(Object object) {
-            return true;
-        }
-
-        public void activateObject(Object object) throws Exception {
-        }
-
-        public void passivateObject(Object object) throws Exception {
-        }
-    }
-
-    private static class DeflaterGZIPOutputStream extends DeflaterOutputStream {
-        public DeflaterGZIPOutputStream(Deflater deflater, OutputStream out, int size) throws IOException {
-            super(out, deflater, size);
-            writeHeader();
-            crc.reset();
-        }
-
-        private boolean closed = false;
-        protected CRC32 crc = new CRC32();
-        private final static int GZIP_MAGIC = 0x8b1f;
-        private final static int TRAILER_SIZE = 8;
-
-        public synchronized void write(byte[] buf, int off, int len) throws IOException {
-            super.write(buf, off, len);
-            crc.update(buf, off, len);
-        }
-
-        public void finish() throws IOException {
-            if (!def.finished()) {
-                def.finish();
-                while (!def.finished()) {
-                    int len = def.deflate(buf, 0, buf.length);
-                    if (def.finished() && len <= buf.length - TRAILER_SIZE) {
-                        writeTrailer(buf, len);
-                        len = len + TRAILER_SIZE;
-                        out.write(buf, 0, len);
-                        return;
-                    }
-                    if (len > 0)
-                        out.write(buf, 0, len);
-                }
-                byte[] trailer = new byte[TRAILER_SIZE];
-                writeTrailer(trailer, 0);
-                out.write(trailer);
-            }
-        }
-
-        public void close() throws IOException {
-            if (!closed) {
-                finish();
-                out.close();
-                closed = true;
-            }
-        }
-
-        private final static byte[] header = {
-                (byte) GZIP_MAGIC,
-                (byte) (GZIP_MAGIC >> 8),
-                Deflater.DEFLATED,
-                0,
-                0,
-                0,
-                0,
-                0,
-                0,
-                0
-        };
-
-        private void writeHeader() throws IOException {
-            out.write(header);
-        }
-
-        private void writeTrailer(byte[] buf, int offset) {
-            writeInt((int) crc.getValue(), buf, offset);
-            writeInt(def.getTotalIn(), buf, offset + 4);
-        }
-
-        private void writeInt(int i, byte[] buf, int offset) {
-            writeShort(i & 0xffff, buf, offset);
-            writeShort((i >> 16) & 0xffff, buf, offset + 2);
-        }
-
-        private void writeShort(int s, byte[] buf, int offset) {
-            buf[offset] = (byte) (s & 0xff);
-            buf[offset + 1] = (byte) ((s >> 8) & 0xff);
-        }
-    }
-
     public static org.w3c.dom.Document decodeXMLAsDOM(PipelineContext pipelineContext, String encodedXML) {
         try {
             return TransformerUtils.dom4jToDomDocument(XFormsUtils.decodeXML(pipelineContext, encodedXML));
@@ -721,7 +598,10 @@ public class XFormsUtils {
 
     public static Document decodeXML(PropertyContext propertyContext, String encodedXML, String encryptionPassword) {
 
-        final byte[] bytes = decodeBytes(propertyContext, encodedXML, encryptionPassword);
+        return decodeXML(decodeBytes(propertyContext, encodedXML, encryptionPassword));
+    }
+
+    public static Document decodeXML(byte[] bytes) {
 
         // Deserialize bytes to SAXStore
         // TODO: This is not optimal
@@ -755,51 +635,42 @@ public class XFormsUtils {
 //    }
 
     public static byte[] decodeBytes(PropertyContext propertyContext, String encoded, String encryptionPassword) {
-        try {
-            // Get raw text
-            byte[] resultBytes;
-            {
-                final String prefix = encoded.substring(0, 2);
-                final String encodedString = encoded.substring(2);
-
-                final byte[] resultBytes1;
-                final byte[] gzipByteArray;
-                if (prefix.equals("X1")) {
-                    // Encryption + uncompressed
-                    resultBytes1 = SecureUtils.decrypt(propertyContext, encryptionPassword, encodedString);
-                    gzipByteArray = null;
-                } else if (prefix.equals("X2")) {
-                    // Encryption + compressed
-                    resultBytes1 = null;
-                    gzipByteArray = SecureUtils.decrypt(propertyContext, encryptionPassword, encodedString);
-                } else if (prefix.equals("X3")) {
-                    // No encryption + uncompressed
-                    resultBytes1 = Base64.decode(encodedString);
-                    gzipByteArray = null;
-                } else if (prefix.equals("X4")) {
-                    // No encryption + compressed
-                    resultBytes1 = null;
-                    gzipByteArray = Base64.decode(encodedString);
-                } else {
-                    throw new OXFException("Invalid prefix for encoded string: " + prefix);
-                }
+        // Get raw text
+        byte[] resultBytes;
+        {
+            final String prefix = encoded.substring(0, 2);
+            final String encodedString = encoded.substring(2);
 
-                // Decompress if needed
-                if (gzipByteArray != null) {
-                    final ByteArrayInputStream compressedData = new ByteArrayInputStream(gzipByteArray);
-                    final GZIPInputStream gzipInputStream = new GZIPInputStream(compressedData);
-                    final ByteArrayOutputStream binaryData = new ByteArrayOutputStream(1024);
-                    NetUtils.copyStream(gzipInputStream, binaryData);
-                    resultBytes = binaryData.toByteArray();
-                } else {
-                    resultBytes = resultBytes1;
-                }
+            final byte[] resultBytes1;
+            final byte[] gzipByteArray;
+            if (prefix.equals("X1")) {
+                // Encryption + uncompressed
+                resultBytes1 = SecureUtils.decrypt(propertyContext, encryptionPassword, encodedString);
+                gzipByteArray = null;
+            } else if (prefix.equals("X2")) {
+                // Encryption + compressed
+                resultBytes1 = null;
+                gzipByteArray = SecureUtils.decrypt(propertyContext, encryptionPassword, encodedString);
+            } else if (prefix.equals("X3")) {
+                // No encryption + uncompressed
+                resultBytes1 = Base64.decode(encodedString);
+                gzipByteArray = null;
+            } else if (prefix.equals("X4")) {
+                // No encryption + compressed
+                resultBytes1 = null;
+                gzipByteArray = Base64.decode(encodedString);
+            } else {
+                throw new OXFException("Invalid prefix for encoded string: " + prefix);
             }
-            return resultBytes;
 
-        } catch (IOException e) {
-            throw new OXFException(e);
+            // Decompress if needed
+            if (gzipByteArray != null) {
+                resultBytes = GZIPUtils.gunzip(gzipByteArray);
+            } else {
+                resultBytes = resultBytes1;
+            }
         }
+        return resultBytes;
     }
 
     public static String retrieveSrcValue(String src) throws IOException {
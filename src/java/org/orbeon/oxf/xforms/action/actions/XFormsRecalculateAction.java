@@ -48,6 +48,9 @@ public class XFormsRecalculateAction extends XFormsAction {
 
         // Because of inter-model dependencies, we consider for now that the action must force the operation
         model.getDeferredActionContext().recalculate = true;
+        // An explicit recalculate evaluates all binds, as not all their dependencies are known, e.g. on functions
+        if (model.getBinds() != null)
+            model.getBinds().requireAllBindsEvaluation();
         container.dispatchEvent(propertyContext, new XFormsRecalculateEvent(containingDocument, model));
     }
 }
@@ -18,6 +18,8 @@ import org.orbeon.oxf.xforms.XFormsModel;
 import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.saxon.om.NodeInfo;
 
+import java.util.Set;
+
 /**
  * This implementation of dependencies simply says that everything must be updated all the time.
  */
@@ -58,4 +60,13 @@ public class DumbXPathDependencies implements XPathDependencies {
         // Always update
         return true;
     }
+
+    public Set<String> requireBindsEvaluation(Model model) {
+        // Always update all binds
+        return null;
+    }
+
+    public void bindsEvaluationDone(Model model) {
+        // NOP
+    }
 }
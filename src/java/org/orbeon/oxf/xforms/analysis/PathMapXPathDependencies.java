@@ -36,6 +36,10 @@ public class PathMapXPathDependencies implements XPathDependencies {
     private final Map<String, Set<NodeInfo>> modifiedNodes = new HashMap<String, Set<NodeInfo>>();
     private final Set<String> structuralChanges = new HashSet<String>();
 
+    // Changes since the last evaluation of binds, which doesn't necessarily take place before each refresh
+    private final Map<String, Set<NodeInfo>> modifiedNodesForBinds = new HashMap<String, Set<NodeInfo>>();
+    private final Set<String> structuralChangesForBinds = new HashSet<String>();
+
     private boolean modifiedPathsSet;
     private Set<String> modifiedPaths = new HashSet<String>();
 
@@ -83,15 +87,28 @@ public class PathMapXPathDependencies implements XPathDependencies {
 
             nodeInfos.add(nodeInfo);
         }
+
+        if (!structuralChangesForBinds.contains(model.getPrefixedId())) {
+            Set<NodeInfo> nodeInfos = modifiedNodesForBinds.get(model.getPrefixedId());
+            if (nodeInfos == null) {
+                nodeInfos = new HashSet<NodeInfo>();
+                modifiedNodesForBinds.put(model.getPrefixedId(), nodeInfos);
+            }
+
+            nodeInfos.add(nodeInfo);
+        }
     }
 
     public void markStructuralChange(XFormsModel model) {
-        structuralChanges.add(model.getPrefixedId());
+        markStructuralChange(model.getPrefixedId());
     }
 
-    // For unit tests
+    // Public for unit tests
     public void markStructuralChange(String modelPrefixedId) {
         structuralChanges.add(modelPrefixedId);
+
+        structuralChangesForBinds.add(modelPrefixedId);
+        modifiedNodesForBinds.remove(modelPrefixedId);
     }
 
     public void refreshDone() {
@@ -257,4 +274,38 @@ public class PathMapXPathDependencies implements XPathDependencies {
     public boolean requireBindValidation(Model model, String instancePrefixedId) {
         return !model.figuredBindAnalysis || model.validationBindInstances.contains(instancePrefixedId);
     }
+
+    public Set<String> requireBindsEvaluation(Model model) {
+        if (model.bindDependencies == null || structuralChangesForBinds.contains(model.prefixedId)) {
+            // Dependencies are unknown or there was a structural change, evaluate all binds
+            return null;
+        } else {
+            final Set<NodeInfo> nodeInfos = modifiedNodesForBinds.get(model.prefixedId);
+            if (nodeInfos == null) {
+                // Nothing changed
+                return model.bindDependencies.getAffectedBinds(Collections.<String>emptySet());
+            } else {
+                final Set<String> paths = new HashSet<String>(nodeInfos.size());
+                for (final NodeInfo node: nodeInfos) {
+                    final XFormsInstance instance = containingDocument.getInstanceForNode(node);
+                    if (instance == null) {
+                        // Node is no longer in an instance
+                        return null;
+                    }
+                    paths.add(createNodePath(instance, node));
+                }
+                final Set<String> result = model.bindDependencies.getAffectedBinds(paths);
+
+                getLogger().logDebug("dependencies", "binds to evaluate", "model", model.prefixedId,
+                        "modified nodes", Integer.toString(nodeInfos.size()), "binds", Integer.toString(result.size()));
+
+                return result;
+            }
+        }
+    }
+
+    public void bindsEvaluationDone(Model model) {
+        modifiedNodesForBinds.remove(model.prefixedId);
+        structuralChangesForBinds.remove(model.prefixedId);
+    }
 }
@@ -96,6 +96,9 @@ public class XFormsAnnotatorContentHandler extends ForwardingContentHandler {
         public final Map<String, Map<String, String>> namespaceMappings;
         public final Map<String, SAXStore.Mark> marks = new HashMap<String, SAXStore.Mark>();
 
+        // Distinct namespace mappings, so that elements with the same namespace context share the same mapping
+        private final Map<NamespaceMapping, NamespaceMapping> distinctNamespaceMappings = new HashMap<NamespaceMapping, NamespaceMapping>();
+
         private Map<String, Set<String>> xblBindings;       // Map<String uri, <String localname>>
         private Map<String, String> automaticMappings;      // ns URI -> directory name
         private List<String> bindingIncludes;    // list of paths
@@ -112,6 +115,10 @@ public class XFormsAnnotatorContentHandler extends ForwardingContentHandler {
             this.namespaceMappings = namespaceMappings;
         }
 
+        public void addNamespaceMapping(String prefixedId, Map<String, String> mapping) {
+            namespaceMappings.put(prefixedId, NamespaceMapping.intern(distinctNamespaceMappings, mapping));
+        }
+
         public boolean hasTopLevelMarks() {
             for (final String prefixedId: marks.keySet()) {
                 if (prefixedId.equals(XFormsUtils.getStaticIdFromId(prefixedId)))
@@ -494,7 +501,7 @@ public class XFormsAnnotatorContentHandler extends ForwardingContentHandler {
         // Re-add standard "xml" prefix mapping
         // TODO: WHY?
         namespaces.put(XMLConstants.XML_PREFIX, XMLConstants.XML_URI);
-        metadata.namespaceMappings.put(id, namespaces);
+        metadata.addNamespaceMapping(id, namespaces);
     }
 
     protected void addMark(String id, SAXStore.Mark mark) {
@@ -18,6 +18,8 @@ import org.orbeon.oxf.xforms.XFormsModel;
 import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.saxon.om.NodeInfo;
 
+import java.util.Set;
+
 /**
  * Interface to dependencies implementation.
  */
@@ -30,4 +32,6 @@ public interface XPathDependencies {
     boolean requireLHHAUpdate(XFormsConstants.LHHA lhha, String controlPrefixedId);
     boolean requireBindCalculation(Model model, String instancePrefixedId);
     boolean requireBindValidation(Model model, String instancePrefixedId);
+    Set<String> requireBindsEvaluation(Model model);
+    void bindsEvaluationDone(Model model);
 }
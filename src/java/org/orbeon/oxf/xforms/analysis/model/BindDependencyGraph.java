@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Static dependency graph between the binds of a model, built from the XPath analysis of bind nodesets and MIPs.
+ *
+ * Each bind is a vertex. A bind depends on a calculate bind if one of its MIP expressions reads a node written by that
+ * calculate bind. The graph is used to:
+ *
+ * o order calculate binds so that a calculate is evaluated after the calculates it depends on
+ * o find the binds which must be evaluated again after some instance nodes have changed
+ *
+ * Paths are the ones produced by XPathAnalysis. A path is affected by a change to the same path or to a descendant
+ * path, since the string value of an element depends on its descendants.
+ *
+ * Instances are immutable once build() has been called, and can be shared between documents.
+ */
+public class BindDependencyGraph {
+
+    // Functions whose result depends on more than the instance nodes found by the XPath analysis: repeat indexes,
+    // current time, context and size of the bind nodeset, other models, request and session
+    private static final Pattern NON_ANALYZABLE_FUNCTIONS = Pattern.compile(
+            "(?<![\\w.:-])(?:"
+                + "(?:fn:)?(?:index|now|last|context|random|current-dateTime|current-date|current-time)"
+                + "|[\\w.-]+:(?:instance|index|context|get-request-[\\w-]+|get-session-attribute|get-scope-attribute|get-remote-user|is-user-in-role)"
+            + ")\\s*\\(");
+
+    private final Map<String, Vertex> vertices = new LinkedHashMap<String, Vertex>();
+    private List<String> calculateOrder;
+
+    /**
+     * Add a bind to the graph, in document order. Only binds with MIP expressions need to be added.
+     *
+     * @param bindId        static id of the bind
+     * @param boundPaths    paths of the nodes the bind applies to
+     * @param valuePaths        paths read by the MIP expressions of the bind
+     * @param hasCalculate      whether the bind has a calculate MIP
+     * @param isAlwaysEvaluated whether the MIP expressions depend on more than instance nodes of the model, e.g. on
+     *                          now() or index(), so that the bind must be evaluated upon each recalculate
+     */
+    public void addBind(String bindId, Set<String> boundPaths, Set<String> valuePaths, boolean hasCalculate, boolean isAlwaysEvaluated) {
+        assert calculateOrder == null;
+        vertices.put(bindId, new Vertex(bindId, boundPaths, valuePaths, hasCalculate, isAlwaysEvaluated));
+    }
+
+    /**
+     * Compute dependencies between binds and the calculate order.
+     *
+     * @return  false if there is a circular dependency between calculate binds
+     */
+    public boolean build() {
+        for (final Vertex vertex: vertices.values()) {
+            for (final Vertex other: vertices.values()) {
+                if (other != vertex) {
+                    if (vertex.hasCalculate && intersects(vertex.boundPaths, other.valuePaths))
+                        vertex.dependents.add(other);
+                    if (!Collections.disjoint(vertex.boundPaths, other.boundPaths))
+                        vertex.overlapping.add(other);
+                }
+            }
+        }
+
+        // Topological sort of calculate binds, keeping document order where there is no dependency
+        final List<String> result = new ArrayList<String>();
+        final Map<Vertex, Integer> remainingDependencies = new HashMap<Vertex, Integer>();
+        for (final Vertex vertex: vertices.values()) {
+            if (vertex.hasCalculate)
+                remainingDependencies.put(vertex, 0);
+        }
+        for (final Vertex vertex: remainingDependencies.keySet()) {
+            for (final Vertex dependent: vertex.dependents) {
+                if (dependent.hasCalculate)
+                    remainingDependencies.put(dependent, remainingDependencies.get(dependent) + 1);
+            }
+        }
+        while (result.size() < remainingDependencies.size()) {
+            Vertex next = null;
+            for (final Vertex vertex: vertices.values()) {
+                if (vertex.hasCalculate && !vertex.ordered && remainingDependencies.get(vertex) == 0) {
+                    next = vertex;
+                    break;
+                }
+            }
+            if (next == null) {
+                // Circular dependency
+                return false;
+            }
+            next.ordered = true;
+            result.add(next.bindId);
+            for (final Vertex dependent: next.dependents) {
+                if (dependent.hasCalculate)
+                    remainingDependencies.put(dependent, remainingDependencies.get(dependent) - 1);
+            }
+        }
+
+        calculateOrder = Collections.unmodifiableList(result);
+        return true;
+    }
+
+    /**
+     * Return the ids of the calculate binds, in an order such that each calculate bind comes after the calculate
+     * binds it depends on.
+     */
+    public List<String> getCalculateOrder() {
+        return calculateOrder;
+    }
+
+    /**
+     * Return the ids of the binds which must be evaluated again after changes to the given paths. This includes the
+     * binds which depend, directly or through calculate binds, on the changed paths or on binds which are always
+     * evaluated, as well as binds applying to the same nodes as those, as the last bind evaluated for a given node and
+     * MIP wins.
+     *
+     * @param modifiedPaths paths of the modified nodes
+     * @return              ids of affected binds
+     */
+    public Set<String> getAffectedBinds(Set<String> modifiedPaths) {
+        final Set<String> result = new HashSet<String>();
+        final List<Vertex> stack = new ArrayList<Vertex>();
+        for (final Vertex vertex: vertices.values()) {
+            if (vertex.isAlwaysEvaluated || vertex.valuePaths.isEmpty() || intersects(modifiedPaths, vertex.valuePaths)) {
+                // NOTE: A bind without value dependencies is cheap to evaluate and might use e.g. now()
+                result.add(vertex.bindId);
+                stack.add(vertex);
+            }
+        }
+        while (!stack.isEmpty()) {
+            final Vertex vertex = stack.remove(stack.size() - 1);
+            for (final Vertex other: vertex.dependents) {
+                if (result.add(other.bindId))
+                    stack.add(other);
+            }
+            for (final Vertex other: vertex.overlapping) {
+                if (result.add(other.bindId))
+                    stack.add(other);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the given MIP expression calls functions whose result doesn't only depend on the instance nodes of the
+     * model. Binds with such expressions must always be evaluated.
+     *
+     * This is a textual check which can find false positives, e.g. in string literals. They only cause a bind to be
+     * evaluated more often.
+     *
+     * @param expression    XPath expression
+     * @return              true if the expression calls such functions
+     */
+    public static boolean callsNonAnalyzableFunctions(String expression) {
+        return NON_ANALYZABLE_FUNCTIONS.matcher(expression).find();
+    }
+
+    /**
+     * Whether a change to any of the given paths affects any of the dependency paths.
+     */
+    private static boolean intersects(Set<String> changedPaths, Set<String> dependencyPaths) {
+        for (final String changedPath: changedPaths) {
+            if (dependencyPaths.contains(changedPath))
+                return true;
+            // Check ancestors of the changed path
+            for (int i = changedPath.lastIndexOf('/'); i > 0; i = changedPath.lastIndexOf('/', i - 1)) {
+                if (dependencyPaths.contains(changedPath.substring(0, i)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Vertex {
+        public final String bindId;
+        public final Set<String> boundPaths;
+        public final Set<String> valuePaths;
+        public final boolean hasCalculate;
+        public final boolean isAlwaysEvaluated;
+
+        public final List<Vertex> dependents = new ArrayList<Vertex>();
+        public final List<Vertex> overlapping = new ArrayList<Vertex>();
+        public boolean ordered;
+
+        private Vertex(String bindId, Set<String> boundPaths, Set<String> valuePaths, boolean hasCalculate, boolean isAlwaysEvaluated) {
+            this.bindId = bindId;
+            this.boundPaths = boundPaths;
+            this.valuePaths = valuePaths;
+            this.hasCalculate = hasCalculate;
+            this.isAlwaysEvaluated = isAlwaysEvaluated;
+        }
+    }
+}
@@ -52,6 +52,9 @@ public class Model {
     public final Set<String> bindInstances;
     public final Set<String> computedBindExpressionsInstances;
     public final Set<String> validationBindInstances;
+    public final BindDependencyGraph bindDependencies;      // null if dependencies between binds are unknown
+
+    private boolean figuredBindDependencies = true;
 
     public Model(XFormsStaticState staticState, XBLBindings.Scope scope, Document document) {
 
@@ -82,12 +85,14 @@ public class Model {
             bindInstances = new HashSet<String>();
             computedBindExpressionsInstances = new HashSet<String>();
             validationBindInstances = new HashSet<String>();
-            figuredBindAnalysis = analyzeBinds(bindElements) && staticState.isXPathAnalysis();
+            final BindDependencyGraph graph = new BindDependencyGraph();
+            figuredBindAnalysis = analyzeBinds(bindElements, graph) && staticState.isXPathAnalysis();
             if (!figuredBindAnalysis) {
                 bindInstances.clear();
                 computedBindExpressionsInstances.clear();
                 validationBindInstances.clear();
             }
+            bindDependencies = (figuredBindAnalysis && figuredBindDependencies && graph.build()) ? graph : null;
         } else {
             // Easy case to figure out
             bindIds = Collections.emptySet();
@@ -96,10 +101,11 @@ public class Model {
             bindInstances = Collections.emptySet();
             computedBindExpressionsInstances = Collections.emptySet();
             validationBindInstances = Collections.emptySet();
+            bindDependencies = null;
         }
     }
 
-    private boolean analyzeBinds(List<Element> bindElements) {
+    private boolean analyzeBinds(List<Element> bindElements, BindDependencyGraph graph) {
         final List<SimpleAnalysis> stack = new ArrayList<SimpleAnalysis>();
         stack.add(new SimpleAnalysis(staticState, scope, null, null, null, false) {
             @Override
@@ -122,10 +128,10 @@ public class Model {
                 }
             }
         });
-        return analyzeBinds(bindElements, stack);
+        return analyzeBinds(bindElements, stack, graph);
     }
 
-    private boolean analyzeBinds(List<Element> bindElements, List<SimpleAnalysis> stack) {
+    private boolean analyzeBinds(List<Element> bindElements, List<SimpleAnalysis> stack, BindDependencyGraph graph) {
         boolean result = true;
         for (final Element element: bindElements) {
             // Add id of this element
@@ -148,12 +154,7 @@ public class Model {
 
                 if (bindingExpression != null) {
                     // Analyze binding
-                    final SimpleAnalysis analysis = new SimpleAnalysis(staticState, scope, element, stack.get(stack.size() - 1), null, false) {
-                        @Override
-                        protected String getDefaultInstancePrefixedId() {
-                            return Model.this.defaultInstancePrefixedId;
-                        }
-                    };
+                    final BindAnalysis analysis = new BindAnalysis(element, stack.get(stack.size() - 1));
                     if (analysis.bindingAnalysis != null && analysis.bindingAnalysis.figuredOutDependencies) {
                         // Analysis succeeded
 
@@ -166,9 +167,13 @@ public class Model {
                         if (hasValidateBind(element))
                             validationBindInstances.addAll(returnableInstances);
 
+                        // Analyze MIPs to figure out dependencies between binds
+                        if (figuredBindDependencies)
+                            figuredBindDependencies = analysis.addToGraph(graph, staticId);
+
                         // Recurse to find nested bind elements
                         stack.add(analysis);
-                        result &= analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack);
+                        result &= analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack, graph);
                         stack.remove(stack.size() - 1);
                     } else {
                         // Analysis failed
@@ -176,12 +181,15 @@ public class Model {
                     }
                 } else {
                     // Just ignore this xforms:bind
+                    // The MIPs of this bind can't be analyzed, so dependencies between binds are unknown
+                    // TODO: binds without nodeset could use the parent analysis
+                    figuredBindDependencies = false;
                     // Recurse to find nested bind elements
-                    result &= analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack);
+                    result &= analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack, graph);
                 }
             } else {
                 // Recurse to find nested bind elements
-                analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack);
+                analyzeBinds(Dom4jUtils.elements(element, XFormsConstants.XFORMS_BIND_QNAME), stack, graph);
             }
         }
         return result;
@@ -240,4 +248,81 @@ public class Model {
     public static String buildCustomMIPName(String qualifiedName) {
         return qualifiedName.replace(':', '-');
     }
+
+    private static final QName[] XPATH_MIP_QNAMES = {
+            XFormsConstants.CALCULATE_QNAME,
+            XFormsConstants.RELEVANT_QNAME,
+            XFormsConstants.READONLY_QNAME,
+            XFormsConstants.REQUIRED_QNAME,
+            XFormsConstants.CONSTRAINT_QNAME,
+            XFormsConstants.XXFORMS_DEFAULT_QNAME
+    };
+
+    /**
+     * Analysis of an xforms:bind element.
+     */
+    private class BindAnalysis extends SimpleAnalysis {
+
+        public BindAnalysis(Element element, SimpleAnalysis parentAnalysis) {
+            super(Model.this.staticState, Model.this.scope, element, parentAnalysis, null, false);
+        }
+
+        @Override
+        protected String getDefaultInstancePrefixedId() {
+            return Model.this.defaultInstancePrefixedId;
+        }
+
+        /**
+         * Analyze the MIP expressions of this bind and add the bind to the dependency graph.
+         *
+         * @return  false if the dependencies of the MIP expressions could not be figured out
+         */
+        public boolean addToGraph(BindDependencyGraph graph, String staticId) {
+            final List<String> expressions = new ArrayList<String>();
+            for (final QName mipQName: XPATH_MIP_QNAMES) {
+                final String expression = element.attributeValue(mipQName);
+                if (expression != null)
+                    expressions.add(expression);
+            }
+            final Map<String, String> customMIPMapping = customMIPs.get(staticId);
+            if (customMIPMapping != null)
+                expressions.addAll(customMIPMapping.values());
+            if (expressions.isEmpty()) {
+                // Nothing to evaluate for this bind
+                return true;
+            }
+
+            final Set<String> valuePaths = new HashSet<String>();
+            boolean isAlwaysEvaluated = false;
+            for (final String expression: expressions) {
+                // TODO: handle model and bind variables
+                if (expression.indexOf('$') != -1)
+                    return false;
+
+                final XPathAnalysis mipAnalysis = analyzeXPath(staticState, bindingAnalysis, prefixedId, expression);
+                if (!mipAnalysis.figuredOutDependencies)
+                    return false;
+
+                valuePaths.addAll(mipAnalysis.dependentPaths);
+                valuePaths.addAll(mipAnalysis.returnablePaths);
+
+                // Function results and changes to instances of other models are not tracked for this model
+                if (BindDependencyGraph.callsNonAnalyzableFunctions(expression) || !isModelInstances(mipAnalysis.dependentInstances))
+                    isAlwaysEvaluated = true;
+            }
+
+            final boolean hasCalculate = element.attributeValue(XFormsConstants.CALCULATE_QNAME) != null;
+            graph.addBind(staticId, bindingAnalysis.returnablePaths, valuePaths, hasCalculate, isAlwaysEvaluated);
+            return true;
+        }
+
+        private boolean isModelInstances(Set<String> instancePrefixedIds) {
+            for (final String instancePrefixedId: instancePrefixedIds) {
+                if (!instancePrefixedId.startsWith(scope.getFullPrefix())
+                        || !instanceStaticIds.contains(instancePrefixedId.substring(scope.getFullPrefix().length())))
+                    return false;
+            }
+            return true;
+        }
+    }
 }
@@ -96,6 +96,10 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
     private XFormsControlLocal initialLocal;
     private XFormsControlLocal currentLocal;
 
+    // Copy of this control as it was when the initial tree of controls was frozen, if the control has changed since, or
+    // this control itself if it was created after that (see XFormsControls.cloneInitialStateIfNeeded())
+    private XFormsControl initialCopy;
+
     public static class XFormsControlLocal implements Cloneable {
         protected Object clone() {
             try {
@@ -116,6 +120,13 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
         this.id = (element != null) ? element.attributeValue("id") : null;
         this.prefixedId = XFormsUtils.getPrefixedId(effectiveId);
         this.effectiveId = effectiveId;
+
+        // A control created after the initial tree was frozen is not part of that tree, so it never needs a copy
+        final XFormsControls controls = (containingDocument != null) ? containingDocument.getControls() : null;
+        if (controls != null && controls.isInitialStateFrozen()) {
+            this.initialCopy = this;
+            controls.addChangedControl(this);
+        }
     }
 
     public final String getId() {
@@ -192,6 +203,9 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
         final boolean oldRelevant = this.relevant;
         final boolean newRelevant = computeRelevant();
 
+        if (oldRelevant != newRelevant)
+            saveInitialState(propertyContext);
+
         if (!oldRelevant && newRelevant) {
             // Control is created
             this.relevant = newRelevant;
@@ -519,6 +533,8 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
 
                 if (extensionAttributesValues == null)
                     extensionAttributesValues = new HashMap<QName, String>();
+                else if (!XFormsUtils.compareStrings(extensionAttributesValues.get(avtAttributeQName), resolvedValue))
+                    saveInitialState(propertyContext);
 
                 extensionAttributesValues.put(avtAttributeQName, resolvedValue);
             }
@@ -529,25 +545,32 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
      * Notify the control that some of its aspects (value, label, etc.) might have changed and require re-evaluation. It
      * is left to the control to figure out if this can be optimized.
      */
-    public final void markDirty(XPathDependencies xpathDependencies) {
-        markDirtyImpl(xpathDependencies);
+    public final void markDirty(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        markDirtyImpl(propertyContext, xpathDependencies);
     }
 
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
+    /**
+     * Mark aspects of the control dirty. Implementations must call saveInitialState() before changing anything.
+     */
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
 
         // Check LHHA
         for (final Map.Entry<XFormsConstants.LHHA, LHHA> entry: lhha.entrySet()) {
             final XFormsConstants.LHHA key = entry.getKey();
             final LHHA value = entry.getValue();
 
-            if (value != null && !value.isDirty() && xpathDependencies.requireLHHAUpdate(key, getPrefixedId()))
+            if (value != null && !value.isDirty() && xpathDependencies.requireLHHAUpdate(key, getPrefixedId())) {
+                saveInitialState(propertyContext);
                 value.markDirty();
+            }
         }
 
         // For now clear this all the time
         // TODO: dependencies
-        if (extensionAttributesValues != null)
+        if (extensionAttributesValues != null && extensionAttributesValues.size() > 0) {
+            saveInitialState(propertyContext);
             extensionAttributesValues.clear();
+        }
     }
 
     /**
@@ -915,16 +938,19 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
     /**
      * Deserialize this control's information which cannot be reconstructed from instances.
      *
-     * @param element containing attributes which can be used by the control
+     * @param nameValues    name/value pairs which can be used by the control, as returned by serializeLocal()
      */
-    public void deserializeLocal(Element element) {
+    public void deserializeLocal(Map<String, String> nameValues) {
         // NOP
     }
 
     /**
-     * Clone a control. It is important to understand why this is implemented: to create a copy of a tree of controls
-     * before updates that may change control bindings. Also, it is important to understand that we clone "back", that
-     * is the new clone will be used as the reference copy for the difference engine.
+     * Clone a control. It is important to understand why this is implemented: to keep a copy of the state of a control
+     * before updates that may change it. Also, it is important to understand that we clone "back", that is the new
+     * clone will be used as the reference copy for the difference engine.
+     *
+     * The copy is shallow with respect to the tree of controls: container controls copy their list of children, but
+     * not the children themselves, which are copied separately if they change.
      *
      * @return  new XFormsControl
      */
@@ -982,15 +1008,19 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
         this.initialLocal = this.currentLocal = local;
     }
 
-    protected XFormsControlLocal getLocalForUpdate() {
+    protected XFormsControlLocal getLocalForUpdate(PropertyContext propertyContext) {
         if (containingDocument.isHandleDifferences()) {
             // Happening during a client request where we need to handle diffs
             final XFormsControls controls =  containingDocument.getControls();
-            if (controls.getInitialControlTree() != controls.getCurrentControlTree()) {
+            if (controls.isInitialStateFrozen()) {
                 if (currentLocal != initialLocal)
                     throw new OXFException("currentLocal != initialLocal");
+                // Keep the current local state in the copy of the control
+                saveInitialState(propertyContext);
             } else if (initialLocal == currentLocal) {
                 currentLocal = (XFormsControlLocal) initialLocal.clone();
+                // The initial state will be copied if the tree is frozen, see XFormsControls.cloneInitialStateIfNeeded()
+                controls.addChangedControl(this);
             }
         } else {
             // Happening during initialization
@@ -1007,8 +1037,42 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
         return currentLocal;
     }
 
-    public void resetLocal() {
+    /**
+     * Return this control as it was when the initial tree of controls was frozen. This is the control itself if it
+     * hasn't changed since.
+     */
+    public XFormsControl getInitialControl() {
+        return (initialCopy != null) ? initialCopy : this;
+    }
+
+    /**
+     * Keep a copy of this control if the initial tree of controls is frozen and the control has not been copied yet.
+     * This must be called before changing anything compared by the difference engine.
+     *
+     * @param propertyContext   current context
+     */
+    public final void saveInitialState(PropertyContext propertyContext) {
+        if (initialCopy == null) {
+            final XFormsControls controls = containingDocument.getControls();
+            if (controls.isInitialStateFrozen()) {
+                // Copying evaluates lazy values, which uses the context stack possibly in use by the caller
+                final XFormsContextStack contextStack = getContextStack();
+                final List<XFormsContextStack.BindingContext> contextStackState = contextStack.getState();
+
+                initialCopy = (XFormsControl) getBackCopy(propertyContext);
+                controls.addChangedControl(this);
+
+                contextStack.restoreState(contextStackState);
+            }
+        }
+    }
+
+    /**
+     * Make the current state of the control its initial state.
+     */
+    public void resetInitialState() {
         initialLocal = currentLocal;
+        initialCopy = null;
     }
 
     /**
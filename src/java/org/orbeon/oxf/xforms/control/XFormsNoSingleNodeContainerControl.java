@@ -67,14 +67,9 @@ public abstract class XFormsNoSingleNodeContainerControl extends XFormsControl i
         // Clone this
         final XFormsNoSingleNodeContainerControl cloned = (XFormsNoSingleNodeContainerControl) super.getBackCopy(propertyContext);
 
-        // Clone children if any
+        // Copy list of children if any, as children are copied separately if they change
         if (children != null) {
-            cloned.children = new ArrayList<XFormsControl>(children.size());
-            for (final XFormsControl currentChildControl: children) {
-                final XFormsControl currentChildClone = (XFormsControl) currentChildControl.getBackCopy(propertyContext);
-                currentChildClone.setParent(cloned);
-                cloned.children.add(currentChildClone);
-            }
+            cloned.children = new ArrayList<XFormsControl>(children);
         }
 
         return cloned;
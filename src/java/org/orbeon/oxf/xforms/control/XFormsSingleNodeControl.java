@@ -65,7 +65,7 @@ public abstract class XFormsSingleNodeControl extends XFormsControl {
     protected void onCreate(PropertyContext propertyContext) {
         super.onCreate(propertyContext);
 
-        readBinding();
+        readBinding(propertyContext);
 
         wasReadonly = false;
         wasRequired = false;
@@ -75,13 +75,18 @@ public abstract class XFormsSingleNodeControl extends XFormsControl {
     @Override
     protected void onBindingUpdate(PropertyContext propertyContext, XFormsContextStack.BindingContext oldBinding, XFormsContextStack.BindingContext newBinding) {
         super.onBindingUpdate(propertyContext, oldBinding, newBinding);
-        readBinding();
+        readBinding(propertyContext);
     }
 
-    private void readBinding() {
+    private void readBinding(PropertyContext propertyContext) {
         // Set bound item, only considering actual bindings (with @bind, @ref or @nodeset)
-        if (bindingContext.isNewBind())
-            this.boundItem = bindingContext.getSingleItem();
+        if (bindingContext.isNewBind()) {
+            final Item newBoundItem = bindingContext.getSingleItem();
+            if (!XFormsUtils.compareItems(newBoundItem, this.boundItem)) {
+                saveInitialState(propertyContext);
+                this.boundItem = newBoundItem;
+            }
+        }
 
         // Get MIPs
         final Item currentItem = getBoundItem();
@@ -89,30 +94,44 @@ public abstract class XFormsSingleNodeControl extends XFormsControl {
             if (currentItem instanceof NodeInfo) {
                 // Control is bound to a node - get model item properties
                 final NodeInfo currentNodeInfo = (NodeInfo) currentItem;
-                this.readonly = InstanceData.getInheritedReadonly(currentNodeInfo);
-                this.required = InstanceData.getRequired(currentNodeInfo);
-                this.valid = InstanceData.getValid(currentNodeInfo);
-                this.type = InstanceData.getType(currentNodeInfo);
+                // Handle global read-only setting
+                final boolean newReadonly = InstanceData.getInheritedReadonly(currentNodeInfo) || XFormsProperties.isReadonly(containingDocument);
+                final boolean newRequired = InstanceData.getRequired(currentNodeInfo);
+                final boolean newValid = InstanceData.getValid(currentNodeInfo);
+                final String newType = InstanceData.getType(currentNodeInfo);
 
                 // Custom MIPs
                 final Map<String, String> tempCustomMIPs = InstanceData.getAllCustom(currentNodeInfo);
-                if (tempCustomMIPs != null)
-                    this.customMIPs = new HashMap<String, String>(tempCustomMIPs);
 
-                // Handle global read-only setting
-                if (XFormsProperties.isReadonly(containingDocument))
-                    this.readonly = true;
+                // Only change the control if needed, as the control must be copied first
+                if (newReadonly != this.readonly || newRequired != this.required || newValid != this.valid
+                        || !XFormsUtils.compareStrings(newType, this.type)
+                        || (tempCustomMIPs != null && !tempCustomMIPs.equals(this.customMIPs))) {
+
+                    saveInitialState(propertyContext);
+
+                    this.readonly = newReadonly;
+                    this.required = newRequired;
+                    this.valid = newValid;
+                    this.type = newType;
+
+                    if (tempCustomMIPs != null)
+                        this.customMIPs = new HashMap<String, String>(tempCustomMIPs);
+                }
             } else {
                 // Control is not bound to a node, MIPs get default values
-                setDefaultMIPs();
+                setDefaultMIPs(propertyContext);
             }
         } else {
             // Control is not bound to a node because it doesn't have a binding (group, trigger, dialog, etc. without @ref)
-            setDefaultMIPs();
+            setDefaultMIPs(propertyContext);
         }
     }
 
-    private void setDefaultMIPs() {
+    private void setDefaultMIPs(PropertyContext propertyContext) {
+        if (this.readonly || this.required || !this.valid || this.type != null || this.customMIPs != null || this.customMIPsAsString != null)
+            saveInitialState(propertyContext);
+
         this.readonly = false;
         this.required = false;
         this.valid = true;// by default, a control is not invalid
@@ -40,21 +40,21 @@ public abstract class XFormsValueContainerControl extends XFormsSingleNodeContai
     @Override
     protected void onCreate(PropertyContext propertyContext) {
         super.onCreate(propertyContext);
-        readBinding();
+        readBinding(propertyContext);
     }
 
     @Override
     protected void onBindingUpdate(PropertyContext propertyContext, XFormsContextStack.BindingContext oldBinding, XFormsContextStack.BindingContext newBinding) {
         super.onBindingUpdate(propertyContext, oldBinding, newBinding);
-        readBinding();
+        readBinding(propertyContext);
     }
 
-    private void readBinding() {
+    private void readBinding(PropertyContext propertyContext) {
         final Item boundItem = getBoundItem();
-        if (boundItem instanceof NodeInfo && !XFormsUtils.hasChildrenElements((NodeInfo) boundItem)) {
-            hasValue = true;
-        } else {
-            hasValue = false;
+        final boolean newHasValue = boundItem instanceof NodeInfo && !XFormsUtils.hasChildrenElements((NodeInfo) boundItem);
+        if (newHasValue != hasValue) {
+            saveInitialState(propertyContext);
+            hasValue = newHasValue;
         }
     }
 
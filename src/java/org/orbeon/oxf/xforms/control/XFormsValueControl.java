@@ -87,12 +87,13 @@ public abstract class XFormsValueControl extends XFormsSingleNodeControl {
     }
 
     @Override
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
-        super.markDirtyImpl(xpathDependencies);
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        super.markDirtyImpl(propertyContext, xpathDependencies);
 
         // Handle value update
         if (xpathDependencies.requireValueUpdate(getPrefixedId())) {
 
+            saveInitialState(propertyContext);
             value = null;
 
             isExternalValueEvaluated = false;
@@ -90,8 +90,9 @@ public class XFormsOutputControl extends XFormsValueControl {
     }
 
     @Override
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
-        super.markDirtyImpl(xpathDependencies);
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        super.markDirtyImpl(propertyContext, xpathDependencies);
+        saveInitialState(propertyContext);
         fileInfo.markDirty();
     }
 
@@ -242,14 +243,17 @@ public class XFormsOutputControl extends XFormsValueControl {
     }
 
     public void setMediatype(PropertyContext propertyContext, String mediatype) {
+        saveInitialState(propertyContext);
         fileInfo.setMediatype(propertyContext, mediatype);
     }
 
     public void setFilename(PropertyContext propertyContext, String filename) {
+        saveInitialState(propertyContext);
         fileInfo.setFilename(propertyContext, filename);
     }
 
     public void setSize(PropertyContext propertyContext, String size) {
+        saveInitialState(propertyContext);
         fileInfo.setSize(propertyContext, size);
     }
 
@@ -43,6 +43,10 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
     private int startIndex;
     private transient boolean restoredState;
 
+    // With xxforms:iteration-window, only the first materializedCount iterations have their controls created
+    private final int iterationWindow;
+    private int materializedCount;
+
     // TODO: this must be handled following the same pattern as usual refresh events
     private RefreshInfo refreshInfo;
 
@@ -66,6 +70,13 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         // Store initial repeat index information
         final String startIndexString = element.attributeValue("startindex");
         this.startIndex = (startIndexString != null) ? Integer.parseInt(startIndexString) : 1;
+
+        // Store iteration window information
+        // NOTE: In noscript mode, all the iterations are output so they must all be materialized
+        final String iterationWindowString = element.attributeValue(XFormsConstants.XXFORMS_ITERATION_WINDOW_QNAME);
+        this.iterationWindow = (iterationWindowString != null && !containingDocument.getStaticState().isNoscript())
+                ? Integer.parseInt(iterationWindowString) : 0;
+        this.materializedCount = getMaterializedCountForIndex(startIndex);
     }
     
     @Override
@@ -89,7 +100,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
 
         // Ensure that the initial state is set, either from default value, or for state deserialization.
         if (!restoredState) {
-            setIndexInternal(getStartIndex());
+            setIndexInternal(propertyContext, getStartIndex());
         } else {
             // NOTE: state deserialized -> state previously serialized -> control was relevant -> onCreate() called 
             restoredState = false;
@@ -114,7 +125,10 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         final int oldRepeatIndex = getIndex();// 1-based
 
         // Set index
-        setIndexInternal(index);
+        setIndexInternal(propertyContext, index);
+
+        // Create controls for iterations which come within the iteration window
+        materializeIterations(propertyContext);
 
         if (oldRepeatIndex != getIndex()) {
             // Dispatch custom event to notify that the repeat index has changed
@@ -127,8 +141,58 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         resolutionScopeContainer.setDeferredFlagsForSetindex();
     }
 
-    private void setIndexInternal(int index) {
-        final XFormsRepeatControlLocal local = (XFormsRepeatControlLocal) getLocalForUpdate();
+    /**
+     * Whether the iteration at the given position must have its controls created.
+     *
+     * @param iterationIndex    1-based iteration index
+     * @return                  true if the iteration is materialized
+     */
+    public boolean isMaterializedIteration(int iterationIndex) {
+        return iterationWindow <= 0 || iterationIndex <= materializedCount;
+    }
+
+    /**
+     * Return the number of leading iterations to materialize so that the window following the given index is
+     * materialized.
+     *
+     * The materialized iterations always form a prefix which never shrinks. This matches what the client can do with
+     * repeat templates, and ensures that an iteration shown on the client never has to be turned back into a
+     * placeholder.
+     */
+    private int getMaterializedCountForIndex(int index) {
+        return Math.max(iterationWindow, index + iterationWindow / 2);
+    }
+
+    private void materializeIterations(PropertyContext propertyContext) {
+        if (iterationWindow <= 0)
+            return;
+
+        final int newMaterializedCount = getMaterializedCountForIndex(getIndex());
+        if (newMaterializedCount > materializedCount) {
+
+            final XFormsControls controls = containingDocument.getControls();
+            controls.cloneInitialStateIfNeeded(propertyContext);
+
+            saveInitialState(propertyContext);
+            materializedCount = newMaterializedCount;
+
+            final List<XFormsControl> children = getChildren();
+            if (children != null) {
+                final ControlTree currentControlTree = controls.getCurrentControlTree();
+                for (int i = 0; i < children.size() && i < materializedCount; i++) {
+                    final XFormsRepeatIterationControl iteration = (XFormsRepeatIterationControl) children.get(i);
+                    if (!iteration.isMaterialized()) {
+                        controls.materializeRepeatIteration(propertyContext, iteration);
+                        // This evaluates all controls and then dispatches creation events
+                        currentControlTree.initializeRepeatIterationTree(propertyContext, iteration);
+                    }
+                }
+            }
+        }
+    }
+
+    private void setIndexInternal(PropertyContext propertyContext, int index) {
+        final XFormsRepeatControlLocal local = (XFormsRepeatControlLocal) getLocalForUpdate(propertyContext);
         local.index = ensureIndexBounds(index);
     }
 
@@ -339,15 +403,15 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
 
     /**
      * Update this repeat's iterations given the old and new node-sets, and a list of inserted nodes if any (used for
-     * index updates). This returns a list of entirely new repeat iterations added, if any. The repeat's index is
-     * adjusted.
+     * index updates). This returns a list of entirely new repeat iterations added, if any, followed by existing
+     * placeholder iterations which have just been materialized. The repeat's index is adjusted.
      *
      * NOTE: The new binding context must have been set on this control before calling.
      *
      * @param propertyContext       current context
      * @param oldRepeatNodeset      old node-set
      * @param insertedNodeInfos     nodes just inserted by xforms:insert if any, or null
-     * @return                      new iterations if any, or an empty list
+     * @return                      new or newly materialized iterations if any, or an empty list
      */
     public List<XFormsRepeatIterationControl> updateIterations(PropertyContext propertyContext, List<Item> oldRepeatNodeset,
                                                                List<Item> insertedNodeInfos) {
@@ -359,6 +423,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
 
         final XFormsControls controls = containingDocument.getControls();
         controls.cloneInitialStateIfNeeded(propertyContext);
+        saveInitialState(propertyContext);
 
         final boolean isInsert = insertedNodeInfos != null;
 
@@ -370,16 +435,21 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         final int oldRepeatIndex = getIndex();// 1-based
         boolean updated = false;
         final List<XFormsRepeatIterationControl> newIterations;
+        final List<XFormsRepeatIterationControl> materializedIterations = new ArrayList<XFormsRepeatIterationControl>();
         final List<Integer> movedIterationsOldPositions;
         final List<Integer> movedIterationsNewPositions;
 
         if (newRepeatNodeset != null && newRepeatNodeset.size() > 0) {
 
+            // Index node positions so that finding indexes below is linear in the size of the nodesets
+            final Map<Item, Integer> oldNodeIndexes = indexNodes(oldRepeatNodeset);
+            final Map<Item, Integer> newNodeIndexes = indexNodes(newRepeatNodeset);
+
             // For each new node, what its old index was, -1 if it was not there
-            final int[] oldIndexes = findNodeIndexes(newRepeatNodeset, oldRepeatNodeset);
+            final int[] oldIndexes = findNodeIndexes(newRepeatNodeset, oldRepeatNodeset, oldNodeIndexes);
 
             // For each old node, what its new index is, -1 if it is no longer there
-            final int[] newIndexes = findNodeIndexes(oldRepeatNodeset, newRepeatNodeset);
+            final int[] newIndexes = findNodeIndexes(oldRepeatNodeset, newRepeatNodeset, newNodeIndexes);
 
             // Remove control information for iterations that move or just disappear
             final List oldChildren = getChildren();
@@ -423,7 +493,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                 // We want to point to a new node (case of insert)
 
                 // First, try to point to the last inserted node if found
-                final int[] foobar = findNodeIndexes(insertedNodeInfos, newRepeatNodeset);
+                final int[] foobar = findNodeIndexes(insertedNodeInfos, newRepeatNodeset, newNodeIndexes);
 
                 for (int i = foobar.length - 1; i >= 0; i--) {
                     if (foobar[i] != -1) {
@@ -434,7 +504,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                                     "id", getEffectiveId(), "new index", Integer.toString(newRepeatIndex));
                         }
 
-                        setIndexInternal(newRepeatIndex);
+                        setIndexInternal(propertyContext, newRepeatIndex);
                         didSetIndex = true;
                         break;
                     }
@@ -457,7 +527,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                                    "new index", Integer.toString(newRepeatIndex));
                         }
 
-                        setIndexInternal(newRepeatIndex);
+                        setIndexInternal(propertyContext, newRepeatIndex);
                     }
                 } else if (oldRepeatIndex > 0 && oldRepeatIndex <= newIndexes.length) {
                     // The index was pointing to a node which has been removed
@@ -472,7 +542,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                                     "id", getEffectiveId(), "new index", Integer.toString(newRepeatNodeset.size()));
                         }
 
-                        setIndexInternal(newRepeatNodeset.size());
+                        setIndexInternal(propertyContext, newRepeatNodeset.size());
                     } else {
                         // "if the new size of the collection is equal to or greater than the index, the index is not
                         // changed"
@@ -481,7 +551,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                 } else {
                     // Old index was out of bounds?
 
-                    setIndexInternal(getStartIndex());
+                    setIndexInternal(propertyContext, getStartIndex());
 
                     if (isDebugEnabled) {
                         indentedLogger.logDebug("xforms:repeat", "resetting index",
@@ -490,6 +560,19 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                 }
             }
 
+            // Extend materialized iterations to the window following the new index, and to the new positions of
+            // materialized iterations (do this before creating new iterations so that they are materialized if needed)
+            if (iterationWindow > 0) {
+                int newMaterializedCount = Math.max(materializedCount, getMaterializedCountForIndex(getIndex()));
+                for (int i = oldIndexes.length - 1; i >= newMaterializedCount; i--) {
+                    if (oldIndexes[i] != -1 && ((XFormsRepeatIterationControl) oldChildren.get(oldIndexes[i])).isMaterialized()) {
+                        newMaterializedCount = i + 1;
+                        break;
+                    }
+                }
+                materializedCount = newMaterializedCount;
+            }
+
             // Iterate over new nodeset to move or add iterations
             final int newSize = newRepeatNodeset.size();
             final List<XFormsControl> newChildren = new ArrayList<XFormsControl>(newSize);
@@ -539,7 +622,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                         }
 
                         // Set new index
-                        existingIteration.setIterationIndex(repeatIndex);
+                        existingIteration.setIterationIndex(propertyContext, repeatIndex);
 
                         // Update binding context on iteration for consistency (since binding context on xf:repeat control was updated by caller)
 
@@ -564,6 +647,20 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
                         contextStack.popBinding();
                     }
 
+                    if (!existingIteration.isMaterialized() && isMaterializedIteration(repeatIndex)) {
+                        // Placeholder iteration has come within the materialized iterations
+
+                        if (isDebugEnabled) {
+                            indentedLogger.logDebug("xforms:repeat", "materializing iteration",
+                                   "id", getEffectiveId(), "index", Integer.toString(repeatIndex));
+                        }
+
+                        controls.materializeRepeatIteration(propertyContext, existingIteration);
+                        contextStack.setBinding(this);
+
+                        materializedIterations.add(existingIteration);
+                    }
+
                     // Add existing iteration
                     newChildren.add(existingIteration);
                 }
@@ -604,7 +701,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
             }
 
             setChildren(null);
-            setIndexInternal(0);
+            setIndexInternal(propertyContext, 0);
 
             newIterations = Collections.emptyList();
             movedIterationsOldPositions = Collections.emptyList();
@@ -626,7 +723,13 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
             refreshInfo = null;
         }
 
-        return newIterations;
+        if (materializedIterations.isEmpty()) {
+            return newIterations;
+        } else {
+            final List<XFormsRepeatIterationControl> result = new ArrayList<XFormsRepeatIterationControl>(newIterations);
+            result.addAll(materializedIterations);
+            return result;
+        }
     }
 
     public void dispatchRefreshEvents(PropertyContext propertyContext) {
@@ -658,7 +761,7 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         public int oldRepeatIndex;// 1-based
     }
 
-    private int indexOfItem(List<Item> sequence, Item otherItem) {
+    private static int indexOfItem(List<Item> sequence, Item otherItem) {
         int index = 0;
         for (final Item currentItem: sequence) {
             if (XFormsUtils.compareItems(currentItem, otherItem))
@@ -668,12 +771,43 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         return -1;
     }
 
-    private int[] findNodeIndexes(List<Item> nodeset1, List<Item> nodeset2) {
+    /**
+     * Map each node of the sequence to its first index in the sequence. Atomic values are not indexed, as they don't
+     * support equals() and hashCode() consistently with XFormsUtils.compareItems().
+     */
+    // NOTE: Method is package-private for RepeatNodeIndexBenchmark
+    static Map<Item, Integer> indexNodes(List<Item> sequence) {
+        final Map<Item, Integer> result = new HashMap<Item, Integer>(sequence.size() * 4 / 3 + 1);
+        int index = 0;
+        for (final Item currentItem: sequence) {
+            if (currentItem instanceof NodeInfo && !result.containsKey(currentItem))
+                result.put(currentItem, index);
+            index++;
+        }
+        return result;
+    }
+
+    /**
+     * For each item of nodeset1, find its index in nodeset2, or -1 if it is not there.
+     *
+     * @param nodeset1          items to look for
+     * @param nodeset2          items to search
+     * @param nodeset2Indexes   node indexes of nodeset2, as returned by indexNodes()
+     * @return                  indexes
+     */
+    // NOTE: Method is package-private for RepeatNodeIndexBenchmark
+    static int[] findNodeIndexes(List<Item> nodeset1, List<Item> nodeset2, Map<Item, Integer> nodeset2Indexes) {
         final int[] result = new int[nodeset1.size()];
 
         int index = 0;
         for (final Item currentItem: nodeset1) {
-            result[index] = indexOfItem(nodeset2, currentItem);
+            if (currentItem instanceof NodeInfo) {
+                // NodeInfo.equals() and hashCode() are based on node identity, like compareItems()
+                final Integer itemIndex = nodeset2Indexes.get(currentItem);
+                result[index] = (itemIndex != null) ? itemIndex : -1;
+            } else {
+                result[index] = indexOfItem(nodeset2, currentItem);
+            }
             index++;
         }
         return result;
@@ -682,16 +816,27 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
     @Override
     public Map<String, String> serializeLocal() {
         // Serialize index
-        return Collections.singletonMap("index", Integer.toString(getIndex()));
+        if (iterationWindow <= 0) {
+            return Collections.singletonMap("index", Integer.toString(getIndex()));
+        } else {
+            // Also serialize the number of materialized iterations, which is known by the client
+            final Map<String, String> result = new HashMap<String, String>(2);
+            result.put("index", Integer.toString(getIndex()));
+            result.put("materialized", Integer.toString(materializedCount));
+            return result;
+        }
     }
 
     @Override
-    public void deserializeLocal(Element element) {
+    public void deserializeLocal(Map<String, String> nameValues) {
         // Deserialize index
 
         // NOTE: Don't use setIndex() as we don't want to cause initialLocal != currentLocal
         final XFormsRepeatControlLocal local = (XFormsRepeatControlLocal) getCurrentLocal();
-        local.index = Integer.parseInt(element.attributeValue("index"));
+        local.index = Integer.parseInt(nameValues.get("index"));
+        final String materializedString = nameValues.get("materialized");
+        if (materializedString != null)
+            materializedCount = Integer.parseInt(materializedString);
 
         // Indicate that deserialized state must be used
         restoredState = true;
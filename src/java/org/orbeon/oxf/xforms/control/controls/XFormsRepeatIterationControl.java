@@ -38,17 +38,39 @@ import java.util.Set;
  */
 public class XFormsRepeatIterationControl extends XFormsSingleNodeContainerControl implements XFormsPseudoControl {
     private int iterationIndex;
+    private boolean materialized;
     public XFormsRepeatIterationControl(XBLContainer container, XFormsRepeatControl parent, int iterationIndex) {
         // NOTE: Associate this control with the repeat element. This is so that even targets get a proper id
         // NOTE: Effective id of an iteration is parentRepeatId·iteration
         super(container, parent, parent.getControlElement(), "xxforms-repeat-iteration", XFormsUtils.getIterationEffectiveId(parent.getEffectiveId(), iterationIndex));
         this.iterationIndex = iterationIndex;
+        this.materialized = parent.isMaterializedIteration(iterationIndex);
     }
 
     public int getIterationIndex() {
         return iterationIndex;
     }
 
+    /**
+     * Whether the controls of this iteration are created. With xxforms:iteration-window, iterations outside the window
+     * are placeholders without children, which are hidden on the client.
+     */
+    public boolean isMaterialized() {
+        return materialized;
+    }
+
+    public void setMaterialized(PropertyContext propertyContext, boolean materialized) {
+        saveInitialState(propertyContext);
+        this.materialized = materialized;
+    }
+
+    /**
+     * Whether the iteration is shown on the client.
+     */
+    private boolean isVisible() {
+        return materialized && isRelevant();
+    }
+
     /**
      * Set a new iteration index. This will cause the nested effective ids to update.
      *
@@ -56,8 +78,9 @@ public class XFormsRepeatIterationControl extends XFormsSingleNodeContainerContr
      *
      * @param iterationIndex    new iteration index
      */
-    public void setIterationIndex(int iterationIndex) {
+    public void setIterationIndex(PropertyContext propertyContext, int iterationIndex) {
         if (this.iterationIndex != iterationIndex) {
+            saveInitialState(propertyContext);
             this.iterationIndex = iterationIndex;
             updateEffectiveId();
         }
@@ -153,9 +176,11 @@ public class XFormsRepeatIterationControl extends XFormsSingleNodeContainerContr
 
         // NOTE: We output if we are NOT relevant as the client must mark non-relevant elements. Ideally, we should not
         // have non-relevant iterations actually present on the client.
-        return (otherSelect1Control == null && !isRelevant()
+        // NOTE: Placeholder iterations are output as non-relevant so that the client hides them.
+        return (otherSelect1Control == null && !isVisible()
                 //|| XFormsSingleNodeControl.isRelevant(xformsSingleNodeControl1) != XFormsSingleNodeControl.isRelevant(xformsSingleNodeControl2)) {
-                || otherSelect1Control != null && otherSelect1Control.isRelevant() != isRelevant());//TODO: not sure why the above alternative fails tests. Which is more correct?
+                || otherSelect1Control != null && (otherSelect1Control.isVisible() != isVisible()
+                        || otherSelect1Control.materialized != materialized));//TODO: not sure why the above alternative fails tests. Which is more correct?
     }
 
     @Override
@@ -171,7 +196,11 @@ public class XFormsRepeatIterationControl extends XFormsSingleNodeContainerContr
             // Relevance
             attributesImpl.addAttribute("", XFormsConstants.RELEVANT_ATTRIBUTE_NAME,
                     XFormsConstants.RELEVANT_ATTRIBUTE_NAME,
-                    ContentHandlerHelper.CDATA, Boolean.toString(isRelevant()));
+                    ContentHandlerHelper.CDATA, Boolean.toString(isVisible()));
+
+            // Tell the client that the elements of a placeholder iteration now hold actual controls
+            if (repeatIterationControl1 != null && !repeatIterationControl1.materialized && materialized)
+                attributesImpl.addAttribute("", "materialized", "materialized", ContentHandlerHelper.CDATA, "true");
 
             attributesImpl.addAttribute("", "iteration", "iteration", ContentHandlerHelper.CDATA, Integer.toString(getIterationIndex()));
             ch.element("xxf", XFormsConstants.XXFORMS_NAMESPACE_URI, "repeat-iteration", attributesImpl);
@@ -105,10 +105,13 @@ public class XFormsSelect1Control extends XFormsValueControl {
     }
 
     @Override
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
-        super.markDirtyImpl(xpathDependencies);
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        super.markDirtyImpl(propertyContext, xpathDependencies);
         // Force recalculation of items here
-        itemset = null;
+        if (itemset != null) {
+            saveInitialState(propertyContext);
+            itemset = null;
+        }
     }
 
     /**
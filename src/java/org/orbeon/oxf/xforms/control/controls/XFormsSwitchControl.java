@@ -60,7 +60,7 @@ public class XFormsSwitchControl extends XFormsValueContainerControl {
 
         // Ensure that the initial state is set, either from default value, or for state deserialization.
         if (!restoredState) {
-            final XFormsSwitchControlLocal local = (XFormsSwitchControlLocal) getLocalForUpdate();
+            final XFormsSwitchControlLocal local = (XFormsSwitchControlLocal) getLocalForUpdate(propertyContext);
             local.selectedCaseControlId = findDefaultSelectedCaseId();
         } else {
             // NOTE: state deserialized -> state previously serialized -> control was relevant -> onCreate() called
@@ -103,7 +103,7 @@ public class XFormsSwitchControl extends XFormsValueContainerControl {
         if (caseControlToSelect.getParent() != this)
             throw new OXFException("xforms:case is not child of current xforms:switch.");
 
-        final XFormsSwitchControlLocal localForUpdate = (XFormsSwitchControlLocal) getLocalForUpdate();
+        final XFormsSwitchControlLocal localForUpdate = (XFormsSwitchControlLocal) getLocalForUpdate(propertyContext);
 
         final XFormsCaseControl previouslySelectedCaseControl = getSelectedCase();
         final boolean isChanging = previouslySelectedCaseControl.getId() != caseControlToSelect.getId();
@@ -176,12 +176,10 @@ public class XFormsSwitchControl extends XFormsValueContainerControl {
 
         final XFormsSwitchControl cloned;
 
-        // We want the new one to point to the children of the cloned nodes, not the children
-
         // Get initial index as we copy "back" to an initial state
         final XFormsSwitchControlLocal initialLocal = (XFormsSwitchControlLocal) getInitialLocal();
 
-        // Clone this and children
+        // Clone this
         cloned = (XFormsSwitchControl) super.getBackCopy(propertyContext);
 
         // Update clone's selected case control to point to one of the cloned children
@@ -202,12 +200,12 @@ public class XFormsSwitchControl extends XFormsValueContainerControl {
     }
 
     @Override
-    public void deserializeLocal(Element element) {
+    public void deserializeLocal(Map<String, String> nameValues) {
         // Deserialize case id
         final XFormsSwitchControlLocal local = (XFormsSwitchControlLocal) getCurrentLocal();
 
         // NOTE: Don't use getLocalForUpdate() as we don't want to cause initialLocal != currentLocal
-        local.selectedCaseControlId = element.attributeValue("case-id");
+        local.selectedCaseControlId = nameValues.get("case-id");
 
         // Indicate that deserialized state must be used
         restoredState = true;
@@ -289,7 +287,8 @@ public class XFormsSwitchControl extends XFormsValueContainerControl {
     private String getOtherSelectedCaseEffectiveId(XFormsSwitchControl switchControl1) {
         if (switchControl1 != null && switchControl1.isRelevant()) {
             final String selectedCaseId = ((XFormsSwitchControlLocal) switchControl1.getInitialLocal()).selectedCaseControlId;
-            return XFormsUtils.getRelatedEffectiveId(switchControl1.getEffectiveId(), selectedCaseId);
+            // NOTE: Use this control's effective id, as the other control can since have moved to another iteration
+            return XFormsUtils.getRelatedEffectiveId(getEffectiveId(), selectedCaseId);
         } else {
             return null;
         }
@@ -72,8 +72,9 @@ public class XFormsUploadControl extends XFormsValueControl {
     }
 
     @Override
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
-        super.markDirtyImpl(xpathDependencies);
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        super.markDirtyImpl(propertyContext, xpathDependencies);
+        saveInitialState(propertyContext);
         fileInfo.markDirty();
     }
 
@@ -241,6 +242,7 @@ public class XFormsUploadControl extends XFormsValueControl {
             // When a value is set, make sure associated file information is cleared, because even though the control might
             // not be re-evaluated, a submission might attempt to access file name, etc. information for bound upload
             // controls. A little tricky: can we find a better solution?
+            saveInitialState(propertyContext);
             fileInfo.markDirty();
         } catch (Exception e) {
             throw new ValidationException(e, getLocationData());
@@ -264,14 +266,17 @@ public class XFormsUploadControl extends XFormsValueControl {
     }
 
     private void setMediatype(PropertyContext propertyContext, String mediatype) {
+        saveInitialState(propertyContext);
         fileInfo.setMediatype(propertyContext, mediatype);
     }
 
     private void setFilename(PropertyContext propertyContext, String filename) {
+        saveInitialState(propertyContext);
         fileInfo.setFilename(propertyContext, filename);
     }
 
     private void setSize(PropertyContext propertyContext, String size) {
+        saveInitialState(propertyContext);
         fileInfo.setSize(propertyContext, size);
     }
 
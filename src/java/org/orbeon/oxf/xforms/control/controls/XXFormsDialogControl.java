@@ -138,7 +138,7 @@ public class XXFormsDialogControl extends XFormsNoSingleNodeContainerControl {
         if (XFormsEvents.XXFORMS_DIALOG_CLOSE.equals(event.getName())) {
             // Close the dialog
 
-            final XXFormsDialogControlLocal localForUpdate = (XXFormsDialogControlLocal) getLocalForUpdate();
+            final XXFormsDialogControlLocal localForUpdate = (XXFormsDialogControlLocal) getLocalForUpdate(propertyContext);
             localForUpdate.visible = false;
             containingDocument.getControls().markDirtySinceLastRequest(false);
 
@@ -152,7 +152,7 @@ public class XXFormsDialogControl extends XFormsNoSingleNodeContainerControl {
 
             final XXFormsDialogOpenEvent dialogOpenEvent = (XXFormsDialogOpenEvent) event;
 
-            final XXFormsDialogControlLocal localForUpdate = (XXFormsDialogControlLocal) getLocalForUpdate();
+            final XXFormsDialogControlLocal localForUpdate = (XXFormsDialogControlLocal) getLocalForUpdate(propertyContext);
             localForUpdate.visible = true;
             localForUpdate.neighborControlId = dialogOpenEvent.getNeighbor();
             localForUpdate.constrainToViewport = dialogOpenEvent.isConstrainToViewport();
@@ -183,14 +183,14 @@ public class XXFormsDialogControl extends XFormsNoSingleNodeContainerControl {
     }
 
     @Override
-    public void deserializeLocal(Element element) {
+    public void deserializeLocal(Map<String, String> nameValues) {
         // Deserialize
 
         // NOTE: Don't use setSelectedCase() as we don't want to cause initialLocal != currentLocal
-        final String visibleString = element.attributeValue("visible");
+        final String visibleString = nameValues.get("visible");
         setLocal(new XXFormsDialogControlLocal("true".equals(visibleString),
-                "true".equals(element.attributeValue("constrain")),
-                element.attributeValue("neighbor")));
+                "true".equals(nameValues.get("constrain")),
+                nameValues.get("neighbor")));
     }
 
 //    public void updateContent(PropertyContext propertyContext, boolean isVisible) {
@@ -58,11 +58,12 @@ public class XXFormsVariableControl extends XFormsSingleNodeControl {
     }
 
     @Override
-    protected void markDirtyImpl(XPathDependencies xpathDependencies) {
-        super.markDirtyImpl(xpathDependencies);
+    protected void markDirtyImpl(PropertyContext propertyContext, XPathDependencies xpathDependencies) {
+        super.markDirtyImpl(propertyContext, xpathDependencies);
 
         // Handle value update
         if (xpathDependencies.requireValueUpdate(getPrefixedId())) {
+            saveInitialState(propertyContext);
             value = null;
             variable.markDirty();
         }
@@ -40,6 +40,7 @@ public class ControlsComparator {
     private final PipelineContext pipelineContext;
     private final XFormsContainingDocument containingDocument;
     private final Set<String> valueChangeControlIds;
+    private final Set<XFormsControl> changedControls;
     private final boolean isTestMode;
 
     public final boolean isSpanHTMLLayout;
@@ -52,12 +53,13 @@ public class ControlsComparator {
     private final int fullUpdateThreshold;
 
     public ControlsComparator(PipelineContext pipelineContext, ContentHandlerHelper ch, XFormsContainingDocument containingDocument,
-                              Set<String> valueChangeControlIds, boolean isTestMode) {
+                              Set<String> valueChangeControlIds, Set<XFormsControl> changedControls, boolean isTestMode) {
 
         this.pipelineContext = pipelineContext;
         this.ch = ch;
         this.containingDocument = containingDocument;
         this.valueChangeControlIds = valueChangeControlIds;
+        this.changedControls = changedControls;
         this.isTestMode = isTestMode;
 
         this.isSpanHTMLLayout = XFormsProperties.isSpanHTMLLayout(containingDocument);
@@ -87,9 +89,14 @@ public class ControlsComparator {
 
         while (leadingIterator.hasNext()) {
 
-            final XFormsControl control1 = (leftIterator == null) ? null : leftIterator.next();
+            // The initial tree only holds copies of the controls which have changed
+            final XFormsControl control1 = (leftIterator == null) ? null : leftIterator.next().getInitialControl();
             final XFormsControl control2 = (rightIterator == null) ? null : rightIterator.next();
 
+            // Skip subtrees without any changed control: nothing to output for them
+            if (changedControls != null && control1 == control2 && !changedControls.contains(control2))
+                continue;
+
             // Handle xxforms:update="full"
             final SAXStore.Mark mark = getUpdateFullMark(control2);
             final boolean isFullUpdateLevel = mark != null;
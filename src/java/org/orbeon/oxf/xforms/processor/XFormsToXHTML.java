@@ -16,6 +16,7 @@ package org.orbeon.oxf.xforms.processor;
 import org.apache.commons.pool.ObjectPool;
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
+import org.orbeon.oxf.cache.Sizeable;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
@@ -271,7 +272,7 @@ public class XFormsToXHTML extends ProcessorImpl {
     private static class Stage1CacheableState extends URIProcessorOutputImpl.URIReferences {}
 
     // What can be cached by the second stage: SAXStore and static state
-    private static class Stage2CacheableState extends URIProcessorOutputImpl.URIReferences {
+    private static class Stage2CacheableState extends URIProcessorOutputImpl.URIReferences implements Sizeable {
 
         private final SAXStore annotatedSAXStore;
         private final XFormsStaticState xformsStaticState;
@@ -288,6 +289,10 @@ public class XFormsToXHTML extends ProcessorImpl {
         public XFormsStaticState getXFormsEngineStaticState() {
             return xformsStaticState;
         }
+
+        public long getApproximateSize() {
+            return annotatedSAXStore.getApproximateSize() + xformsStaticState.getApproximateSize();
+        }
     }
 
     private void gatherInputDependencies(XFormsContainingDocument containingDocument, IndentedLogger indentedLogger, Stage1CacheableState stage1CacheableState) {
@@ -322,11 +322,23 @@ public class HandlerContext {
         return (repeatContextStack == null) ? 0 : repeatContextStack.size();
     }
 
+    public boolean isPlaceholder() {
+        if (repeatContextStack == null || repeatContextStack.size() == 0)
+            return false;
+        else
+            return (repeatContextStack.peek()).isPlaceholder();
+    }
+
     public void pushRepeatContext(boolean generateTemplate, int iteration, boolean repeatSelected) {
 
         final String currentIdPostfix = getIdPostfix();
         final String newIdPostfix;
-        if (generateTemplate) {
+        final boolean isPlaceholder = generateTemplate && isPlaceholder();
+        if (isPlaceholder) {
+            // Template within a placeholder iteration: output it as the first iteration, like the client does when
+            // copying the template of the enclosing repeat
+            newIdPostfix = currentIdPostfix + XFormsConstants.REPEAT_HIERARCHY_SEPARATOR_2 + 1;
+        } else if (generateTemplate) {
             // No postfix is added for templates
             newIdPostfix = "";
         } else {
@@ -338,7 +350,25 @@ public class HandlerContext {
 
         if (repeatContextStack == null)
             repeatContextStack = new Stack<RepeatContext>();
-        repeatContextStack.push(new RepeatContext(generateTemplate, iteration, newIdPostfix, repeatSelected));
+        repeatContextStack.push(new RepeatContext(generateTemplate, iteration, newIdPostfix, repeatSelected, isPlaceholder));
+    }
+
+    /**
+     * Push the context of a placeholder repeat iteration, i.e. an iteration without controls. The content is output
+     * like a template, but with the ids of the iteration.
+     *
+     * @param iteration     iteration index
+     */
+    public void pushPlaceholderRepeatContext(int iteration) {
+
+        final String currentIdPostfix = getIdPostfix();
+        final String newIdPostfix = (currentIdPostfix.length() == 0)
+                    ? "" + XFormsConstants.REPEAT_HIERARCHY_SEPARATOR_1 + iteration
+                    : currentIdPostfix + XFormsConstants.REPEAT_HIERARCHY_SEPARATOR_2 + iteration;
+
+        if (repeatContextStack == null)
+            repeatContextStack = new Stack<RepeatContext>();
+        repeatContextStack.push(new RepeatContext(true, iteration, newIdPostfix, false, true));
     }
 
     public void popRepeatContext() {
@@ -350,12 +380,14 @@ public class HandlerContext {
         private int iteration;
         private String idPostfix;
         private boolean repeatSelected;
+        private boolean placeholder;
 
-        public RepeatContext(boolean generateTemplate, int iteration, String idPostfix, boolean repeatSelected) {
+        public RepeatContext(boolean generateTemplate, int iteration, String idPostfix, boolean repeatSelected, boolean placeholder) {
             this.generateTemplate = generateTemplate;
             this.iteration = iteration;
             this.idPostfix = idPostfix;
             this.repeatSelected = repeatSelected;
+            this.placeholder = placeholder;
         }
 
         public boolean isGenerateTemplate() {
@@ -373,6 +405,10 @@ public class HandlerContext {
         public boolean isRepeatSelected() {
             return repeatSelected;
         }
+
+        public boolean isPlaceholder() {
+            return placeholder;
+        }
     }
 
     /**
@@ -90,8 +90,11 @@ public class XFormsRepeatHandler extends XFormsControlLifecyleHandler {
                 }
 
                 // Is the current iteration selected?
+                final XFormsRepeatIterationControl iterationControl = (XFormsRepeatIterationControl) repeatControl.getChildren().get(i - 1);
                 final boolean isCurrentIterationSelected = isRepeatSelected && i == currentRepeatIndex;
-                final boolean isCurrentIterationRelevant = ((XFormsRepeatIterationControl) repeatControl.getChildren().get(i - 1)).isRelevant();
+                final boolean isCurrentIterationMaterialized = iterationControl.isMaterialized();
+                // NOTE: Placeholder iterations are hidden
+                final boolean isCurrentIterationRelevant = isCurrentIterationMaterialized && iterationControl.isRelevant();
                 final int numberOfParentRepeats = handlerContext.countParentRepeats();
 
                 // Determine classes to add on root elements and around root characters
@@ -111,7 +114,10 @@ public class XFormsRepeatHandler extends XFormsControlLifecyleHandler {
                     outputInterceptor.setAddedClasses(addedClasses.toString());
 
                 // Apply the content of the body for this iteration
-                handlerContext.pushRepeatContext(false, i, isCurrentIterationSelected);
+                if (isCurrentIterationMaterialized)
+                    handlerContext.pushRepeatContext(false, i, isCurrentIterationSelected);
+                else
+                    handlerContext.pushPlaceholderRepeatContext(i);
                 try {
                     handlerContext.getController().repeatBody();
                 } catch (Exception e) {
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+
+import java.util.List;
+
+/**
+ * Backend able to persist several entries at once. WriteBehindStateStoreBackend uses this to write its batches with a
+ * single call to the backend.
+ */
+public interface BatchStateStoreBackend extends StateStoreBackend {
+
+    /**
+     * Persist entries, with the same semantic as storeEntry() for each entry. Either all the entries are persisted, or
+     * none is and an exception is thrown.
+     *
+     * @param pipelineContext   current context, or null
+     * @param storeEntries      entries to persist, with distinct keys
+     */
+    void storeEntries(PipelineContext pipelineContext, List<XFormsStateStore.StoreEntry> storeEntries);
+}
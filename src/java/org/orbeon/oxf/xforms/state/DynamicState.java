@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.xforms.XFormsControls;
+import org.orbeon.oxf.xforms.XFormsInstance;
+import org.orbeon.oxf.xforms.XFormsUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoded dynamic state of an XFormsContainingDocument.
+ *
+ * The dynamic state is written by XFormsContainingDocument in the binary format of DynamicStateOutput. The XML format
+ * used by previous versions can still be decoded.
+ */
+public class DynamicState {
+
+    private final String uuid;
+    private final List<XFormsInstance> instances;
+    private final Map<String, Map<String, String>> serializedControlStateMap;
+
+    private DynamicState(String uuid, List<XFormsInstance> instances, Map<String, Map<String, String>> serializedControlStateMap) {
+        this.uuid = uuid;
+        this.instances = instances;
+        this.serializedControlStateMap = serializedControlStateMap;
+    }
+
+    /**
+     * Decode the dynamic state in either format.
+     *
+     * @param configuration     XPath configuration for the instances
+     * @param bytes             decoded bytes, as returned by XFormsUtils.decodeBytes()
+     * @return                  dynamic state
+     */
+    public static DynamicState decode(Configuration configuration, byte[] bytes) {
+        final List<XFormsInstance> instances = new ArrayList<XFormsInstance>();
+        if (DynamicStateOutput.isDynamicState(bytes)) {
+            final DynamicStateInput in = new DynamicStateInput(bytes);
+
+            final String uuid = in.readName();
+            while (in.readBoolean())
+                instances.add(new XFormsInstance(configuration, in));
+
+            return new DynamicState(uuid, instances, XFormsControls.getSerializedControlStateMap(in));
+        } else {
+            // XML format used by previous versions
+            final Element dynamicStateElement = XFormsUtils.decodeXML(bytes).getRootElement();
+
+            final Element instancesElement = dynamicStateElement.element("instances");
+            if (instancesElement != null)
+                for (final Element currentInstanceElement: Dom4jUtils.elements(instancesElement))
+                    instances.add(new XFormsInstance(configuration, currentInstanceElement));
+
+            return new DynamicState(dynamicStateElement.attributeValue("uuid"), instances,
+                    XFormsControls.getSerializedControlStateMap(dynamicStateElement));
+        }
+    }
+
+    public String getUUID() {
+        return uuid;
+    }
+
+    public List<XFormsInstance> getInstances() {
+        return instances;
+    }
+
+    public Map<String, Map<String, String>> getSerializedControlStateMap() {
+        return serializedControlStateMap;
+    }
+
+    /**
+     * Return the dynamic state as a document in the XML format used by previous versions. This is only used to show
+     * the dynamic state as XML, e.g. for tests and debugging.
+     *
+     * @return  dynamic state document
+     */
+    public Document toXML() {
+        final Document dynamicStateDocument = Dom4jUtils.createDocument();
+        final Element dynamicStateElement = dynamicStateDocument.addElement("dynamic-state");
+        dynamicStateElement.addAttribute("uuid", uuid);
+
+        final Element instancesElement = dynamicStateElement.addElement("instances");
+        for (final XFormsInstance instance: instances)
+            instancesElement.add(instance.createContainerElement(true));
+
+        if (serializedControlStateMap.size() > 0) {
+            final Element controlsElement = dynamicStateElement.addElement("controls");
+            for (final Map.Entry<String, Map<String, String>> currentEntry: serializedControlStateMap.entrySet()) {
+                final Element controlElement = controlsElement.addElement("control");
+                controlElement.addAttribute("effective-id", currentEntry.getKey());
+                for (final Map.Entry<String, String> currentNameValue: currentEntry.getValue().entrySet())
+                    controlElement.addAttribute(currentNameValue.getKey(), currentNameValue.getValue());
+            }
+        }
+
+        return dynamicStateDocument;
+    }
+}
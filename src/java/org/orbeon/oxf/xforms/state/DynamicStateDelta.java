@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.orbeon.oxf.common.OXFException;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Delta between two serialized dynamic states, and representation of a delta as a store value.
+ *
+ * A delta is a sequence of instructions which rebuild the target from the base: copy a range of the base, or insert
+ * literal bytes. As the dynamic state is written in document order, a change to a few instance nodes or controls only
+ * produces a few instructions.
+ *
+ * In the store, a delta value refers to a full value, its base:
+ *
+ *   XD:[step]:[base key]:[encoded delta]
+ *
+ * where step is the number of deltas since the base was stored, and the encoded delta is encoded like a dynamic state.
+ */
+public class DynamicStateDelta {
+
+    private static final String VALUE_PREFIX = "XD:";
+
+    // Size of the blocks of the base which are indexed, and therefore minimum length of a copy
+    private static final int BLOCK_SIZE = 16;
+    private static final int HASH_MULTIPLIER = 31;
+    // Bound the work done for bases with many similar blocks
+    private static final int MAX_PROBES = 8;
+
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+
+    public final int step;
+    public final String baseKey;
+    public final String encodedDelta;
+
+    public DynamicStateDelta(int step, String baseKey, String encodedDelta) {
+        this.step = step;
+        this.baseKey = baseKey;
+        this.encodedDelta = encodedDelta;
+    }
+
+    /**
+     * Parse a store value.
+     *
+     * @param value     store value
+     * @return          delta, or null if the value is a full value
+     */
+    public static DynamicStateDelta fromValue(String value) {
+        if (!value.startsWith(VALUE_PREFIX))
+            return null;
+
+        final int stepEnd = value.indexOf(':', VALUE_PREFIX.length());
+        final int baseKeyEnd = (stepEnd != -1) ? value.indexOf(':', stepEnd + 1) : -1;
+        if (baseKeyEnd == -1)
+            throw new OXFException("Invalid dynamic state delta.");
+
+        return new DynamicStateDelta(Integer.parseInt(value.substring(VALUE_PREFIX.length(), stepEnd)),
+                value.substring(stepEnd + 1, baseKeyEnd), value.substring(baseKeyEnd + 1));
+    }
+
+    public String toValue() {
+        return VALUE_PREFIX + step + ':' + baseKey + ':' + encodedDelta;
+    }
+
+    /**
+     * Compute the delta which rebuilds target from base.
+     *
+     * @param base      base bytes
+     * @param target    target bytes
+     * @return          delta
+     */
+    public static byte[] createDelta(byte[] base, byte[] target) {
+
+        // Index the blocks of the base by hash, keeping the first block for a given hash
+        final int blockCount = base.length / BLOCK_SIZE;
+        int tableSize = 16;
+        while (tableSize < blockCount * 2)
+            tableSize *= 2;
+        final int tableMask = tableSize - 1;
+        final int[] table = new int[tableSize];
+        for (int i = 0; i < blockCount; i++) {
+            int slot = hash(base, i * BLOCK_SIZE) & tableMask;
+            int probes = 0;
+            while (table[slot] != 0 && probes++ < MAX_PROBES)
+                slot = (slot + 1) & tableMask;
+            // Store offset + 1 so that 0 means empty
+            if (table[slot] == 0)
+                table[slot] = i * BLOCK_SIZE + 1;
+        }
+
+        // Precompute HASH_MULTIPLIER ^ (BLOCK_SIZE - 1) to roll the hash
+        int power = 1;
+        for (int i = 0; i < BLOCK_SIZE - 1; i++)
+            power *= HASH_MULTIPLIER;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, target.length / 8));
+        writeVarInt(out, target.length);
+
+        int literalStart = 0;
+        int position = 0;
+        int hash = (target.length >= BLOCK_SIZE) ? hash(target, 0) : 0;
+        while (position + BLOCK_SIZE <= target.length) {
+
+            // Find a block of the base matching the block at the current position
+            int matchOffset = -1;
+            int slot = hash & tableMask;
+            for (int probes = 0; table[slot] != 0 && probes <= MAX_PROBES; probes++, slot = (slot + 1) & tableMask) {
+                final int offset = table[slot] - 1;
+                if (regionMatches(base, offset, target, position, BLOCK_SIZE)) {
+                    matchOffset = offset;
+                    break;
+                }
+            }
+
+            if (matchOffset != -1) {
+                // Extend the match backward over pending literal bytes, then forward
+                int start = position;
+                int baseStart = matchOffset;
+                while (start > literalStart && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+                    start--;
+                    baseStart--;
+                }
+                int end = position + BLOCK_SIZE;
+                int baseEnd = matchOffset + BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                    end++;
+                    baseEnd++;
+                }
+
+                writeInsert(out, target, literalStart, start);
+                writeVarInt(out, ((end - start) << 1) | COPY);
+                writeVarInt(out, baseStart);
+
+                literalStart = position = end;
+                if (position + BLOCK_SIZE <= target.length)
+                    hash = hash(target, position);
+            } else {
+                // Roll the hash to the next position
+                if (position + BLOCK_SIZE < target.length)
+                    hash = (hash - target[position] * power) * HASH_MULTIPLIER + target[position + BLOCK_SIZE];
+                position++;
+            }
+        }
+        writeInsert(out, target, literalStart, target.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from the base and a delta created by createDelta().
+     *
+     * @param base      base bytes
+     * @param delta     delta
+     * @return          target bytes
+     */
+    public static byte[] applyDelta(byte[] base, byte[] delta) {
+        final int[] position = new int[1];
+        final byte[] target = new byte[readVarInt(delta, position)];
+        int targetPosition = 0;
+        while (position[0] < delta.length) {
+            final int instruction = readVarInt(delta, position);
+            final int length = instruction >>> 1;
+            if (targetPosition + length > target.length)
+                throw new OXFException("Invalid dynamic state delta.");
+            if ((instruction & 1) == COPY) {
+                final int offset = readVarInt(delta, position);
+                if (offset + length > base.length)
+                    throw new OXFException("Invalid dynamic state delta.");
+                System.arraycopy(base, offset, target, targetPosition, length);
+            } else {
+                if (position[0] + length > delta.length)
+                    throw new OXFException("Invalid dynamic state delta.");
+                System.arraycopy(delta, position[0], target, targetPosition, length);
+                position[0] += length;
+            }
+            targetPosition += length;
+        }
+        if (targetPosition != target.length)
+            throw new OXFException("Invalid dynamic state delta.");
+        return target;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++)
+            hash = hash * HASH_MULTIPLIER + bytes[i];
+        return hash;
+    }
+
+    private static boolean regionMatches(byte[] bytes1, int offset1, byte[] bytes2, int offset2, int length) {
+        for (int i = 0; i < length; i++)
+            if (bytes1[offset1 + i] != bytes2[offset2 + i])
+                return false;
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] bytes, int start, int end) {
+        if (end > start) {
+            writeVarInt(out, ((end - start) << 1) | INSERT);
+            out.write(bytes, start, end - start);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] bytes, int[] position) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= bytes.length)
+                break;
+            final byte b = bytes[position[0]++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new OXFException("Invalid dynamic state delta.");
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.Branch;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.xml.dom4j.NonLazyUserDataDocumentFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for the binary format of the dynamic state written by DynamicStateOutput.
+ *
+ * Instances of this class are not thread-safe.
+ */
+public class DynamicStateInput {
+
+    private final byte[] buffer;
+    private int position;
+
+    private final List<String> strings = new ArrayList<String>();
+
+    public DynamicStateInput(byte[] bytes) {
+        if (!DynamicStateOutput.isDynamicState(bytes))
+            throw new OXFException("Invalid dynamic state.");
+
+        final int version = bytes[DynamicStateOutput.MAGIC.length];
+        if (version != DynamicStateOutput.VERSION)
+            throw new OXFException("Unsupported dynamic state version: " + version);
+
+        this.buffer = bytes;
+        this.position = DynamicStateOutput.MAGIC.length + 1;
+    }
+
+    public boolean readBoolean() {
+        checkAvailable(1);
+        return buffer[position++] != 0;
+    }
+
+    public int readVarInt() {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            checkAvailable(1);
+            final byte b = buffer[position++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new OXFException("Invalid varint in dynamic state at position: " + position);
+    }
+
+    public long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkAvailable(1);
+            final byte b = buffer[position++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new OXFException("Invalid varint in dynamic state at position: " + position);
+    }
+
+    /**
+     * Read a string written with DynamicStateOutput.writeName().
+     */
+    public String readName() {
+        final int reference = readVarInt();
+        if (reference == DynamicStateOutput.NULL_STRING) {
+            return null;
+        } else if (reference == DynamicStateOutput.NEW_STRING) {
+            final String value = readChars();
+            strings.add(value);
+            return value;
+        } else {
+            final int index = reference - DynamicStateOutput.STRING_REFERENCE;
+            if (index >= strings.size())
+                throw new OXFException("Invalid string reference in dynamic state: " + index);
+            return strings.get(index);
+        }
+    }
+
+    /**
+     * Read a string written with DynamicStateOutput.writeString().
+     */
+    public String readString() {
+        final int reference = readVarInt();
+        if (reference == DynamicStateOutput.NULL_STRING)
+            return null;
+        else if (reference == DynamicStateOutput.NEW_STRING)
+            return readChars();
+        else
+            throw new OXFException("Invalid string in dynamic state at position: " + position);
+    }
+
+    private String readChars() {
+        final int length = readVarInt();
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            checkAvailable(1);
+            final int b = buffer[position++] & 0xFF;
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                checkAvailable(1);
+                chars[i] = (char) (((b & 0x1F) << 6) | (buffer[position++] & 0x3F));
+            } else {
+                checkAvailable(2);
+                chars[i] = (char) (((b & 0x0F) << 12) | ((buffer[position++] & 0x3F) << 6) | (buffer[position++] & 0x3F));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Read a document written with DynamicStateOutput.writeDocument().
+     *
+     * @return  dom4j document
+     */
+    public Document readDocument() {
+        final NonLazyUserDataDocumentFactory factory = NonLazyUserDataDocumentFactory.getInstance14();
+        final Document document = factory.createDocument();
+        readContent(factory, document);
+        return document;
+    }
+
+    private void readContent(NonLazyUserDataDocumentFactory factory, Branch parent) {
+        while (true) {
+            final int nodeType = readVarInt();
+            switch (nodeType) {
+                case DynamicStateOutput.END:
+                    return;
+                case DynamicStateOutput.ELEMENT: {
+                    final Element element = factory.createElement(readQName(factory));
+                    final int attributeCount = readVarInt();
+                    for (int i = 0; i < attributeCount; i++) {
+                        final QName attributeQName = readQName(factory);
+                        element.add(factory.createAttribute(element, attributeQName, readString()));
+                    }
+                    parent.add(element);
+                    readContent(factory, element);
+                    break;
+                }
+                case DynamicStateOutput.TEXT:
+                    // Only elements contain text
+                    ((Element) parent).add(factory.createText(readString()));
+                    break;
+                case DynamicStateOutput.COMMENT:
+                    parent.add(factory.createComment(readString()));
+                    break;
+                case DynamicStateOutput.PROCESSING_INSTRUCTION: {
+                    final String target = readName();
+                    parent.add(factory.createProcessingInstruction(target, readString()));
+                    break;
+                }
+                case DynamicStateOutput.NAMESPACE: {
+                    final String prefix = readName();
+                    ((Element) parent).add(factory.createNamespace(prefix, readName()));
+                    break;
+                }
+                default:
+                    throw new OXFException("Invalid node type in dynamic state: " + nodeType);
+            }
+        }
+    }
+
+    private QName readQName(NonLazyUserDataDocumentFactory factory) {
+        final String name = readName();
+        final String prefix = readName();
+        final String uri = readName();
+        return factory.createQName(name, prefix, uri);
+    }
+
+    private void checkAvailable(int length) {
+        if (position + length > buffer.length)
+            throw new OXFException("Unexpected end of dynamic state.");
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer for the binary format of the dynamic state.
+ *
+ * o the output starts with a magic number followed by the format version
+ * o integers are written as unsigned varints
+ * o strings written with writeName() are interned: the first occurrence is written in full and later occurrences are
+ *   written as an index into the table of strings seen so far
+ * o dom4j documents are written node by node, so that they can be rebuilt without parsing
+ *
+ * Instances of this class are not thread-safe.
+ */
+public class DynamicStateOutput {
+
+    public static final byte[] MAGIC = { 'X', 'D', 'S' };
+    public static final int VERSION = 1;
+
+    // Node types
+    static final int END = 0;
+    static final int ELEMENT = 1;
+    static final int TEXT = 2;
+    static final int COMMENT = 3;
+    static final int PROCESSING_INSTRUCTION = 4;
+    static final int NAMESPACE = 5;
+
+    // String references: null, new string, or index in the string table + STRING_REFERENCE
+    static final int NULL_STRING = 0;
+    static final int NEW_STRING = 1;
+    static final int STRING_REFERENCE = 2;
+
+    private byte[] buffer;
+    private int size;
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    public DynamicStateOutput() {
+        this(1024);
+    }
+
+    public DynamicStateOutput(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+        buffer[size++] = MAGIC[0];
+        buffer[size++] = MAGIC[1];
+        buffer[size++] = MAGIC[2];
+        buffer[size++] = (byte) VERSION;
+    }
+
+    /**
+     * Whether the given bytes start with the magic number of this format.
+     */
+    public static boolean isDynamicState(byte[] bytes) {
+        return bytes.length > MAGIC.length && bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1] && bytes[2] == MAGIC[2];
+    }
+
+    public void writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) (value ? 1 : 0);
+    }
+
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Write a string which is likely to occur multiple times, e.g. an element name or a control id.
+     */
+    public void writeName(String value) {
+        if (value == null) {
+            writeVarInt(NULL_STRING);
+        } else {
+            final Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + STRING_REFERENCE);
+            } else {
+                strings.put(value, strings.size());
+                writeVarInt(NEW_STRING);
+                writeChars(value);
+            }
+        }
+    }
+
+    /**
+     * Write a string which is not interned, e.g. a text value.
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(NULL_STRING);
+        } else {
+            writeVarInt(NEW_STRING);
+            writeChars(value);
+        }
+    }
+
+    private void writeChars(String value) {
+        final int length = value.length();
+        writeVarInt(length);
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                // Surrogates are written separately, which is fine as DynamicStateInput reads them back the same way
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Write a dom4j document.
+     *
+     * @param document  document to write
+     */
+    public void writeDocument(Document document) {
+        writeContent(document.content());
+    }
+
+    private void writeContent(List content) {
+        for (final Object o: content) {
+            final Node node = (Node) o;
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE: {
+                    final Element element = (Element) node;
+                    writeVarInt(ELEMENT);
+                    writeQName(element.getQName());
+                    final int attributeCount = element.attributeCount();
+                    writeVarInt(attributeCount);
+                    for (int i = 0; i < attributeCount; i++) {
+                        final Attribute attribute = element.attribute(i);
+                        writeQName(attribute.getQName());
+                        writeString(attribute.getValue());
+                    }
+                    writeContent(element.content());
+                    break;
+                }
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    writeVarInt(TEXT);
+                    writeString(node.getText());
+                    break;
+                case Node.COMMENT_NODE:
+                    writeVarInt(COMMENT);
+                    writeString(node.getText());
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE: {
+                    final ProcessingInstruction processingInstruction = (ProcessingInstruction) node;
+                    writeVarInt(PROCESSING_INSTRUCTION);
+                    writeName(processingInstruction.getTarget());
+                    writeString(processingInstruction.getText());
+                    break;
+                }
+                case Node.NAMESPACE_NODE: {
+                    final Namespace namespace = (Namespace) node;
+                    writeVarInt(NAMESPACE);
+                    writeName(namespace.getPrefix());
+                    writeName(namespace.getURI());
+                    break;
+                }
+                default:
+                    // Ignore other nodes, e.g. the document type
+                    break;
+            }
+        }
+        writeVarInt(END);
+    }
+
+    private void writeQName(QName qName) {
+        writeName(qName.getName());
+        writeName(qName.getNamespacePrefix());
+        writeName(qName.getNamespaceURI());
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            final byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + length)];
+            System.arraycopy(buffer, 0, newBuffer, 0, size);
+            buffer = newBuffer;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        final byte[] result = new byte[size];
+        System.arraycopy(buffer, 0, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.DocumentResult;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.Datasource;
+import org.orbeon.oxf.processor.xmldb.XMLDBProcessor;
+import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xml.TransformerUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.oxf.xml.dom4j.LocationDocumentResult;
+import org.orbeon.saxon.om.FastStringBuffer;
+import org.xml.sax.ContentHandler;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.XMLResource;
+
+import javax.xml.transform.sax.TransformerHandler;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State store backend storing each entry as an XML document in eXist, through the XML:DB API.
+ *
+ * The URI, username, password and collection are configurable in properties.
+ */
+public class ExistStateStoreBackend implements StateStoreBackend {
+
+    // For now the driver is not configurable, but everything else (URI, username, password, collection) is configurable in properties
+    private static final String EXIST_XMLDB_DRIVER = "org.exist.xmldb.DatabaseImpl";
+
+    // Access to the XML:DB API
+    private static final XMLDBAccessor XMLDB_ACCESSOR = new XMLDBAccessor();
+
+    private static Datasource getDatasource() {
+        return new Datasource(EXIST_XMLDB_DRIVER,
+                XFormsProperties.getStoreURI(), XFormsProperties.getStoreUsername(), XFormsProperties.getStorePassword());
+    }
+
+    public XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, String key) {
+        final Document document;
+        try {
+            document = XMLDB_ACCESSOR.getResource(pipelineContext, getDatasource(), XFormsProperties.getStoreCollection(), true, key);
+        } catch (Exception e) {
+            throw new OXFException("Unable to find entry in persistent state store for key: " + key, e);
+        }
+
+        return (document != null) ? getStoreEntryFromDocument(key, document) : null;
+    }
+
+    public void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry) {
+        // Keep the session ids of the existing entry
+        final XFormsStateStore.StoreEntry existingStoreEntry = findEntry(pipelineContext, storeEntry.key);
+        if (existingStoreEntry != null) {
+            final Map<String, String> sessionIds = new HashMap<String, String>(existingStoreEntry.sessionIds);
+            sessionIds.putAll(storeEntry.sessionIds);
+            storeEntry = new XFormsStateStore.StoreEntry(storeEntry.key, storeEntry.value, storeEntry.isPinned, sessionIds, storeEntry.previousKey);
+        }
+
+        try {
+            XMLDB_ACCESSOR.storeResource(pipelineContext, getDatasource(), XFormsProperties.getStoreCollection(),
+                    true, storeEntry.key, encodeMessageBody(storeEntry));
+        } catch (Exception e) {
+            throw new OXFException("Unable to store entry in persistent state store for key: " + storeEntry.key, e);
+        }
+    }
+
+    public int expireBySession(PipelineContext pipelineContext, String sessionId) {
+
+        // 1. Remove documents having only one session-id element left equal to this session id
+        // 2. Remove all session-id elements equal to this session id
+        final String query = "xquery version \"1.0\";" +
+            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
+            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
+            "                 <result>" +
+            "                   {" +
+            "                     (count(for $entry in /entry[session-id = '" + sessionId + "' and count(session-id) = 1]" +
+            "                           return (xmldb:remove(util:collection-name($entry), util:document-name($entry)), ''))," +
+            "                     for $session-id in /entry/session-id[. = '" + sessionId + "'] return update delete $session-id)" +
+            "                   }" +
+            "                 </result>";
+
+        final Document result = executeQuery(pipelineContext, query);
+        return Integer.parseInt(result.getDocument().getRootElement().getStringValue());
+    }
+
+    public void expireAll(PipelineContext pipelineContext) {
+
+        // NOTE: Removing an entire collection is faster than removing individual resources.
+        final String query = "xquery version \"1.0\";" +
+            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
+            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
+            "                 <result>" +
+            "                   {" +
+            "                     xmldb:remove('" + XFormsProperties.getStoreCollection() + "')" +
+            "                   }" +
+            "                 </result>";
+
+        executeQuery(pipelineContext, query);
+    }
+
+    public void destroy() {
+        // Nothing to release, as connections are only held during each operation
+    }
+
+    private Document executeQuery(PipelineContext pipelineContext, String query) {
+
+        final DocumentResult result = new DocumentResult();
+        final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
+        identity.setResult(result);
+
+        XMLDB_ACCESSOR.query(pipelineContext, getDatasource(), XFormsProperties.getStoreCollection(),
+                true, null, query, null, identity);
+
+        return result.getDocument();
+    }
+
+    private String encodeMessageBody(XFormsStateStore.StoreEntry storeEntry) {
+
+        final FastStringBuffer sb = new FastStringBuffer("<entry><key>");
+        sb.append(storeEntry.key);
+        sb.append("</key><value>");
+        sb.append(storeEntry.value);
+        sb.append("</value>");
+
+        // Store the session ids if any
+        final Map<String, String> sessionIds = storeEntry.sessionIds;
+        if (sessionIds != null && sessionIds.size() > 0) {
+            for (final String currentSessionId: sessionIds.keySet()) {
+                sb.append("<session-id>");
+                sb.append(currentSessionId);
+                sb.append("</session-id>");
+            }
+        }
+
+        // Store the previous key if any
+        if (storeEntry.previousKey != null) {
+            sb.append("<previous-key>");
+            sb.append(storeEntry.previousKey);
+            sb.append("</previous-key>");
+        }
+
+        // Store the pinned entry flag
+        sb.append("<pinned>");
+        sb.append(Boolean.toString(storeEntry.isPinned));
+        sb.append("</pinned></entry>");
+
+        return sb.toString();
+    }
+
+    private XFormsStateStore.StoreEntry getStoreEntryFromDocument(String key, Document document) {
+        final Element rootElement = document.getRootElement();
+
+        final String value = rootElement.element("value").getStringValue();
+        final boolean isPinned = Boolean.valueOf(rootElement.element("pinned").getStringValue());
+        final Map<String, String> sessionIdsMap = new HashMap<String, String>();
+        {
+            final List<Element> sessionIdsList = Dom4jUtils.elements(rootElement, "session-id");
+            for (Element currentElement: sessionIdsList) {
+                final String currentSessionId = currentElement.getStringValue();
+                sessionIdsMap.put(currentSessionId, "");
+            }
+        }
+
+        final Element previousKeyElement = rootElement.element("previous-key");
+
+        return new XFormsStateStore.StoreEntry(key, value, isPinned, sessionIdsMap, previousKeyElement == null ? null : previousKeyElement.getStringValue());
+    }
+
+    private static class XMLDBAccessor extends XMLDBProcessor {
+
+        public void query(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceId, String query, Map namespaceContext, ContentHandler contentHandler) {
+            super.query(pipelineContext, datasource, collectionName, createCollection, resourceId, query, namespaceContext, contentHandler);
+        }
+
+        protected Document getResource(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceName) {
+
+            ensureDriverRegistered(pipelineContext, datasource);
+            try {
+                Collection collection = getCollection(pipelineContext, datasource, collectionName);
+                if (collection == null) {
+                    if (!createCollection)
+                        throw new OXFException("Cannot find collection '" + collectionName + "'.");
+                    else
+                        collection = createCollection(pipelineContext, datasource, collectionName);
+                }
+                final Resource resource = collection.getResource(resourceName);
+                if (resource == null) {
+                    return null;
+                } else if (resource instanceof XMLResource) {
+
+                    final LocationDocumentResult documentResult = new LocationDocumentResult();
+                    final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
+                    identity.setResult(documentResult);
+
+                    ((XMLResource) resource).getContentAsSAX(new DatabaseReadContentHandler(identity));
+
+                    return documentResult.getDocument();
+                } else {
+                    throw new OXFException("Unsupported resource type: " + resource.getClass());
+                }
+            } catch (XMLDBException e) {
+                throw new OXFException(e);
+            }
+        }
+
+        @Override
+        protected void storeResource(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceName, String document) {
+            super.storeResource(pipelineContext, datasource, collectionName, createCollection, resourceName, document);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * State store backend storing entries in an append-only log file on the local file system.
+ *
+ * o entries are appended to the log, and an entry replaced or expired just becomes garbage in the log
+ * o the index from keys to log locations, and the session ids of each entry, are kept in memory
+ * o the log is synced to disk periodically by a background thread rather than upon each write
+ * o the same thread compacts the log, by copying live entries to a new log, once most of the log is garbage
+ *
+ * As the persistent store is cleared when it starts, the log doesn't need to be readable after a restart, and it is
+ * deleted when this backend is created.
+ */
+public class FileStateStoreBackend implements StateStoreBackend {
+
+    private static final Logger logger = LoggerFactory.createLogger(FileStateStoreBackend.class);
+
+    private static final String LOG_FILE_PREFIX = "xforms-state-";
+    private static final String LOG_FILE_SUFFIX = ".log";
+
+    // Only compact logs at least this large
+    private static final long MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final int syncInterval;
+    private final Timer timer;
+
+    // Reads only need the read lock, as they use positional reads. Writes and compaction need the write lock.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Location> index = new HashMap<String, Location>();
+    private final Map<String, Set<String>> sessionIndex = new HashMap<String, Set<String>>();
+    private int logFileNumber;
+    private File logFile;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long writePosition;
+    private long liveBytes;
+    private boolean isDestroyed;
+
+    private volatile boolean isDirty;
+
+    private static class Location {
+        public final long offset;
+        public final int length;
+        public final Set<String> sessionIds;
+
+        private Location(long offset, int length, Set<String> sessionIds) {
+            this.offset = offset;
+            this.length = length;
+            this.sessionIds = sessionIds;
+        }
+    }
+
+    /**
+     * Create a backend.
+     *
+     * @param directory     directory in which to store the log
+     * @param syncInterval  interval in ms between syncs of the log to disk, 0 to sync upon each write
+     */
+    public FileStateStoreBackend(final File directory, final int syncInterval) {
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new OXFException("Unable to create directory for persistent state store: " + directory);
+
+        // Delete logs left by a previous run
+        final File[] oldLogFiles = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(LOG_FILE_PREFIX) && name.endsWith(LOG_FILE_SUFFIX);
+            }
+        });
+        if (oldLogFiles != null)
+            for (final File oldLogFile: oldLogFiles)
+                oldLogFile.delete();
+
+        try {
+            openLogFile(0);
+        } catch (IOException e) {
+            throw new OXFException("Unable to create log for persistent state store in directory: " + directory, e);
+        }
+
+        // Also check for compaction every second when syncing upon each write
+        final int period = (syncInterval > 0) ? syncInterval : 1000;
+        timer = new Timer("XForms state store " + directory, true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                try {
+                    if (syncInterval > 0)
+                        sync();
+                    compactIfNeeded();
+                } catch (Throwable e) {
+                    logger.error("Error while maintaining persistent state store log in directory: " + directory, e);
+                }
+            }
+        }, period, period);
+    }
+
+    private void openLogFile(int number) throws IOException {
+        logFileNumber = number;
+        logFile = new File(directory, LOG_FILE_PREFIX + number + LOG_FILE_SUFFIX);
+        randomAccessFile = new RandomAccessFile(logFile, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        writePosition = 0;
+    }
+
+    public XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, String key) {
+        final byte[] bytes;
+        final Map<String, String> sessionIds = new HashMap<String, String>();
+        lock.readLock().lock();
+        try {
+            final Location location = index.get(key);
+            if (location == null)
+                return null;
+
+            bytes = read(channel, location.offset, location.length);
+            for (final String sessionId: location.sessionIds)
+                sessionIds.put(sessionId, "");
+        } catch (IOException e) {
+            throw new OXFException("Unable to find entry in persistent state store for key: " + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return decode(key, bytes, sessionIds);
+    }
+
+    public void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry) {
+        final byte[] bytes = encode(storeEntry);
+        lock.writeLock().lock();
+        try {
+            final Set<String> sessionIds = new HashSet<String>(storeEntry.sessionIds.keySet());
+
+            // Keep the session ids of the existing entry
+            final Location existingLocation = index.get(storeEntry.key);
+            if (existingLocation != null) {
+                sessionIds.addAll(existingLocation.sessionIds);
+                removeLocation(storeEntry.key, existingLocation);
+            }
+
+            write(channel, writePosition, bytes);
+
+            index.put(storeEntry.key, new Location(writePosition, bytes.length, sessionIds));
+            for (final String sessionId: sessionIds) {
+                Set<String> sessionKeys = sessionIndex.get(sessionId);
+                if (sessionKeys == null) {
+                    sessionKeys = new HashSet<String>();
+                    sessionIndex.put(sessionId, sessionKeys);
+                }
+                sessionKeys.add(storeEntry.key);
+            }
+
+            writePosition += bytes.length;
+            liveBytes += bytes.length;
+            isDirty = true;
+        } catch (IOException e) {
+            throw new OXFException("Unable to store entry in persistent state store for key: " + storeEntry.key, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (syncInterval <= 0)
+            sync();
+    }
+
+    public int expireBySession(PipelineContext pipelineContext, String sessionId) {
+        int count = 0;
+        lock.writeLock().lock();
+        try {
+            final Set<String> sessionKeys = sessionIndex.remove(sessionId);
+            if (sessionKeys != null) {
+                for (final String key: sessionKeys) {
+                    final Location location = index.get(key);
+                    if (location != null) {
+                        location.sessionIds.remove(sessionId);
+                        // Remove entry once there is no more associated session
+                        if (location.sessionIds.isEmpty()) {
+                            removeLocation(key, location);
+                            count++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    public void expireAll(PipelineContext pipelineContext) {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            sessionIndex.clear();
+            channel.truncate(0);
+            writePosition = 0;
+            liveBytes = 0;
+        } catch (IOException e) {
+            throw new OXFException("Unable to clear persistent state store log: " + logFile, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void destroy() {
+        timer.cancel();
+        lock.writeLock().lock();
+        try {
+            if (!isDestroyed) {
+                isDestroyed = true;
+                index.clear();
+                sessionIndex.clear();
+                randomAccessFile.close();
+                // The log is not readable after a restart anyway
+                logFile.delete();
+            }
+        } catch (IOException e) {
+            throw new OXFException("Unable to close persistent state store log: " + logFile, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocation(String key, Location location) {
+        index.remove(key);
+        liveBytes -= location.length;
+        for (final String sessionId: location.sessionIds) {
+            final Set<String> sessionKeys = sessionIndex.get(sessionId);
+            if (sessionKeys != null)
+                sessionKeys.remove(key);
+        }
+    }
+
+    private void sync() {
+        if (isDirty) {
+            isDirty = false;
+            lock.readLock().lock();
+            try {
+                if (!isDestroyed)
+                    channel.force(false);
+            } catch (IOException e) {
+                throw new OXFException("Unable to sync persistent state store log: " + logFile, e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Copy the live entries to a new log if most of the current log is garbage.
+     */
+    private void compactIfNeeded() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (isDestroyed || writePosition < MIN_COMPACTION_SIZE || liveBytes * 2 > writePosition)
+                return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            final long sizeBeforeCompaction = writePosition;
+            final File oldLogFile = logFile;
+            final RandomAccessFile oldRandomAccessFile = randomAccessFile;
+            final FileChannel oldChannel = channel;
+
+            openLogFile((logFileNumber + 1) % 2);
+            for (final Map.Entry<String, Location> entry: index.entrySet()) {
+                final Location oldLocation = entry.getValue();
+                long transferred = 0;
+                while (transferred < oldLocation.length)
+                    transferred += oldChannel.transferTo(oldLocation.offset + transferred, oldLocation.length - transferred, channel);
+
+                entry.setValue(new Location(writePosition, oldLocation.length, oldLocation.sessionIds));
+                writePosition += oldLocation.length;
+            }
+            channel.force(false);
+
+            oldRandomAccessFile.close();
+            oldLogFile.delete();
+
+            if (logger.isDebugEnabled())
+                logger.debug("Compacted persistent state store log from " + sizeBeforeCompaction + " to " + writePosition + " bytes.");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long offset, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        return buffer.array();
+    }
+
+    private static void write(FileChannel channel, long offset, byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+    }
+
+    private static byte[] encode(XFormsStateStore.StoreEntry storeEntry) {
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(storeEntry.value.length() + 128);
+            final DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+
+            out.writeBoolean(storeEntry.isPinned);
+            out.writeBoolean(storeEntry.previousKey != null);
+            if (storeEntry.previousKey != null)
+                out.writeUTF(storeEntry.previousKey);
+            // The value can be larger than what writeUTF() supports
+            final byte[] valueBytes = storeEntry.value.getBytes("UTF-8");
+            out.writeInt(valueBytes.length);
+            out.write(valueBytes);
+
+            out.close();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // Can't happen as we write to memory
+            throw new OXFException(e);
+        }
+    }
+
+    private static XFormsStateStore.StoreEntry decode(String key, byte[] bytes, Map<String, String> sessionIds) {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            final boolean isPinned = in.readBoolean();
+            final String previousKey = in.readBoolean() ? in.readUTF() : null;
+            final byte[] valueBytes = new byte[in.readInt()];
+            in.readFully(valueBytes);
+
+            return new XFormsStateStore.StoreEntry(key, new String(valueBytes, "UTF-8"), isPinned, sessionIds, previousKey);
+        } catch (IOException e) {
+            throw new OXFException("Corrupted entry in persistent state store for key: " + key, e);
+        }
+    }
+}
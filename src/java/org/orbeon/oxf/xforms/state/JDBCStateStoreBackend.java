@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.DatabaseContext;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State store backend storing entries in a database, through a JNDI datasource.
+ *
+ * The tables must be created beforehand, for example for a table name of orbeon_xforms_state:
+ *
+ * <pre>
+ * create table orbeon_xforms_state (
+ *     state_key      varchar(255) not null primary key,
+ *     state_value    clob         not null,
+ *     pinned         char(1)      not null,
+ *     previous_key   varchar(255)
+ * );
+ * create table orbeon_xforms_state_session (
+ *     state_key      varchar(255) not null,
+ *     session_id     varchar(255) not null,
+ *     primary key (state_key, session_id)
+ * );
+ * create index orbeon_xforms_state_session_id on orbeon_xforms_state_session (session_id);
+ * </pre>
+ *
+ * Each operation runs in its own transaction, which is committed when the operation completes, so that persisted
+ * entries don't depend on the outcome of the request during which they were persisted. storeEntries() writes all its
+ * entries in a single transaction, with JDBC batches.
+ */
+public class JDBCStateStoreBackend implements BatchStateStoreBackend {
+
+    private final String jndiName;
+
+    private final String selectEntrySQL;
+    private final String selectSessionIdsSQL;
+    private final String deleteEntrySQL;
+    private final String deleteEntrySessionIdsSQL;
+    private final String insertEntrySQL;
+    private final String insertSessionIdSQL;
+    private final String deleteSessionIdSQL;
+    private final String deleteEntriesBySessionSQL;
+    private final String deleteSessionIdsBySessionSQL;
+    private final String deleteAllEntriesSQL;
+    private final String deleteAllSessionIdsSQL;
+
+    /**
+     * Create a backend.
+     *
+     * @param jndiName      JNDI name of the datasource, e.g. "jdbc/db"
+     * @param tableName     name of the table of entries, the session ids being stored in [tableName]_session
+     */
+    public JDBCStateStoreBackend(String jndiName, String tableName) {
+        this.jndiName = jndiName;
+
+        final String sessionTableName = tableName + "_session";
+        this.selectEntrySQL = "select state_value, pinned, previous_key from " + tableName + " where state_key = ?";
+        this.selectSessionIdsSQL = "select session_id from " + sessionTableName + " where state_key = ?";
+        this.deleteEntrySQL = "delete from " + tableName + " where state_key = ?";
+        this.deleteEntrySessionIdsSQL = "delete from " + sessionTableName + " where state_key = ?";
+        this.insertEntrySQL = "insert into " + tableName + " (state_key, state_value, pinned, previous_key) values (?, ?, ?, ?)";
+        this.insertSessionIdSQL = "insert into " + sessionTableName + " (state_key, session_id) values (?, ?)";
+        this.deleteSessionIdSQL = "delete from " + sessionTableName + " where state_key = ? and session_id = ?";
+        // Remove entries which only have this session id
+        this.deleteEntriesBySessionSQL = "delete from " + tableName + " where state_key in"
+                + " (select s.state_key from " + sessionTableName + " s where s.session_id = ?)"
+                + " and not exists (select 1 from " + sessionTableName + " o where o.state_key = " + tableName + ".state_key and o.session_id <> ?)";
+        this.deleteSessionIdsBySessionSQL = "delete from " + sessionTableName + " where session_id = ?";
+        this.deleteAllEntriesSQL = "delete from " + tableName;
+        this.deleteAllSessionIdsSQL = "delete from " + sessionTableName;
+    }
+
+    private static abstract class Operation<T> {
+        public abstract T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Run an operation in its own transaction.
+     */
+    private <T> T execute(String description, Operation<T> operation) {
+        // Use a separate context, so that the connection is committed and released right away
+        final PipelineContext operationPipelineContext = new PipelineContext();
+        boolean success = false;
+        try {
+            final T result = operation.run(DatabaseContext.getConnection(operationPipelineContext, jndiName));
+            success = true;
+            return result;
+        } catch (SQLException e) {
+            throw new OXFException("Error in persistent state store while trying to " + description, e);
+        } finally {
+            operationPipelineContext.destroy(success);
+        }
+    }
+
+    public XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, final String key) {
+        return execute("find entry for key: " + key, new Operation<XFormsStateStore.StoreEntry>() {
+            public XFormsStateStore.StoreEntry run(Connection connection) throws SQLException {
+                final String value;
+                final boolean isPinned;
+                final String previousKey;
+                {
+                    final PreparedStatement statement = connection.prepareStatement(selectEntrySQL);
+                    try {
+                        statement.setString(1, key);
+                        final ResultSet resultSet = statement.executeQuery();
+                        if (!resultSet.next())
+                            return null;
+                        value = resultSet.getString(1);
+                        isPinned = "Y".equals(resultSet.getString(2));
+                        previousKey = resultSet.getString(3);
+                    } finally {
+                        statement.close();
+                    }
+                }
+
+                final Map<String, String> sessionIds = new HashMap<String, String>();
+                {
+                    final PreparedStatement statement = connection.prepareStatement(selectSessionIdsSQL);
+                    try {
+                        statement.setString(1, key);
+                        final ResultSet resultSet = statement.executeQuery();
+                        while (resultSet.next())
+                            sessionIds.put(resultSet.getString(1), "");
+                    } finally {
+                        statement.close();
+                    }
+                }
+
+                return new XFormsStateStore.StoreEntry(key, value, isPinned, sessionIds, previousKey);
+            }
+        });
+    }
+
+    public void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry) {
+        storeEntries(pipelineContext, Collections.singletonList(storeEntry));
+    }
+
+    public void storeEntries(PipelineContext pipelineContext, final List<XFormsStateStore.StoreEntry> storeEntries) {
+        execute("store " + storeEntries.size() + " entries", new Operation<Object>() {
+            public Object run(Connection connection) throws SQLException {
+                // Replace existing entries if any
+                {
+                    final PreparedStatement statement = connection.prepareStatement(deleteEntrySQL);
+                    try {
+                        for (final XFormsStateStore.StoreEntry storeEntry: storeEntries) {
+                            statement.setString(1, storeEntry.key);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    } finally {
+                        statement.close();
+                    }
+                }
+                {
+                    final PreparedStatement statement = connection.prepareStatement(insertEntrySQL);
+                    try {
+                        for (final XFormsStateStore.StoreEntry storeEntry: storeEntries) {
+                            statement.setString(1, storeEntry.key);
+                            statement.setCharacterStream(2, new StringReader(storeEntry.value), storeEntry.value.length());
+                            statement.setString(3, storeEntry.isPinned ? "Y" : "N");
+                            statement.setString(4, storeEntry.previousKey);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    } finally {
+                        statement.close();
+                    }
+                }
+                // Add session ids, keeping the existing ones
+                final List<String[]> keySessionIds = new ArrayList<String[]>();
+                for (final XFormsStateStore.StoreEntry storeEntry: storeEntries) {
+                    if (storeEntry.sessionIds != null) {
+                        for (final String sessionId: storeEntry.sessionIds.keySet())
+                            keySessionIds.add(new String[] { storeEntry.key, sessionId });
+                    }
+                }
+                if (keySessionIds.size() > 0) {
+                    executeBatch(connection, deleteSessionIdSQL, keySessionIds);
+                    executeBatch(connection, insertSessionIdSQL, keySessionIds);
+                }
+                return null;
+            }
+        });
+    }
+
+    public int expireBySession(PipelineContext pipelineContext, final String sessionId) {
+        return execute("expire entries for session: " + sessionId, new Operation<Integer>() {
+            public Integer run(Connection connection) throws SQLException {
+                final int count;
+                final PreparedStatement statement = connection.prepareStatement(deleteEntriesBySessionSQL);
+                try {
+                    statement.setString(1, sessionId);
+                    statement.setString(2, sessionId);
+                    count = statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+                executeUpdate(connection, deleteSessionIdsBySessionSQL, sessionId);
+                return count;
+            }
+        });
+    }
+
+    public void expireAll(PipelineContext pipelineContext) {
+        execute("expire all entries", new Operation<Object>() {
+            public Object run(Connection connection) throws SQLException {
+                executeUpdate(connection, deleteAllSessionIdsSQL, null);
+                executeUpdate(connection, deleteAllEntriesSQL, null);
+                return null;
+            }
+        });
+    }
+
+    public void destroy() {
+        // Nothing to release, as connections are only held during each operation
+    }
+
+    private static void executeBatch(Connection connection, String sql, List<String[]> parameters) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            for (final String[] currentParameters: parameters) {
+                for (int i = 0; i < currentParameters.length; i++)
+                    statement.setString(i + 1, currentParameters[i]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static int executeUpdate(Connection connection, String sql, String parameter) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            if (parameter != null)
+                statement.setString(1, parameter);
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+}
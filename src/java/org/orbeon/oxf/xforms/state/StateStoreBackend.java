@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+
+/**
+ * Backend used by XFormsPersistentApplicationStateStore to persist entries going out of memory.
+ *
+ * Implementations must be thread-safe. The PipelineContext passed can be null, e.g. when a session expires.
+ *
+ * A custom implementation can be configured with the oxf.xforms.store.application.backend property, by specifying the
+ * name of a class implementing this interface and having a public no-argument constructor.
+ */
+public interface StateStoreBackend {
+
+    /**
+     * Find a persisted entry.
+     *
+     * @param pipelineContext   current context, or null
+     * @param key               key of the entry
+     * @return                  entry, or null if not found
+     */
+    XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, String key);
+
+    /**
+     * Persist an entry, replacing any existing entry with the same key. The session ids of an existing entry are kept
+     * in addition to the session ids of the new entry, so that callers don't need to read the existing entry: an entry
+     * is only removed once all the sessions which persisted it have expired.
+     *
+     * @param pipelineContext   current context, or null
+     * @param storeEntry        entry to persist
+     */
+    void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry);
+
+    /**
+     * Remove the given session id from all persisted entries, and remove the entries which are left with no session id.
+     *
+     * @param pipelineContext   current context, or null
+     * @param sessionId         session id
+     * @return                  number of entries removed
+     */
+    int expireBySession(PipelineContext pipelineContext, String sessionId);
+
+    /**
+     * Remove all persisted entries.
+     *
+     * @param pipelineContext   current context, or null
+     */
+    void expireAll(PipelineContext pipelineContext);
+
+    /**
+     * Release the resources held by this backend, e.g. threads and files, when the application is shut down. The
+     * backend is not used after this is called.
+     */
+    void destroy();
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State store backend writing entries to another backend in the background.
+ *
+ * o storeEntry() only queues the entry, and a writer thread writes queued entries to the underlying backend in batches
+ * o an entry queued again before it is written replaces the queued entry, with the session ids of both
+ * o when the queue is full, storeEntry() waits for the writer to make room, but only for a limited time, after which it
+ *   writes the entry itself, and drops it if this fails too, so that a failing backend can't block request threads
+ * o findEntry() sees entries which are queued or being written
+ * o expiration applies to queued entries, and waits for entries being written before expiring in the backend
+ * o entries of a batch which fail to be written are queued again, and the writer waits before trying again
+ *
+ * The underlying backend keeps the session ids of an existing persisted entry, so request threads don't read from it
+ * upon eviction. A BatchStateStoreBackend writes a whole batch with a single call.
+ */
+public class WriteBehindStateStoreBackend implements StateStoreBackend {
+
+    private static final Logger logger = LoggerFactory.createLogger(WriteBehindStateStoreBackend.class);
+
+    // Default time in ms the writer waits after a failed batch before writing again
+    private static final long DEFAULT_RETRY_DELAY = 5000;
+    // Default time in ms storeEntry() waits for room in the queue before writing the entry itself
+    private static final long DEFAULT_MAX_QUEUE_WAIT = 1000;
+
+    private final StateStoreBackend backend;
+    private final int maxQueueSize;
+    private final int maxBatchSize;
+    private final long retryDelay;
+    private final long maxQueueWait;
+    private final Thread writerThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition writeCompleted = lock.newCondition();
+
+    // Guarded by lock
+    private final LinkedHashMap<String, XFormsStateStore.StoreEntry> queuedEntries = new LinkedHashMap<String, XFormsStateStore.StoreEntry>();
+    private final Map<String, XFormsStateStore.StoreEntry> writingEntries = new HashMap<String, XFormsStateStore.StoreEntry>();
+
+    // Statistics, guarded by lock
+    private long writtenCount;
+    private long coalescedCount;
+    private long synchronousCount;
+    private long droppedCount;
+    private long batchCount;
+    private long totalBatchTime;
+    private long maxBatchTime;
+
+    /**
+     * Create a backend.
+     *
+     * @param backend       backend to write to
+     * @param maxQueueSize  maximum number of queued entries
+     * @param maxBatchSize  maximum number of entries written in a batch
+     */
+    public WriteBehindStateStoreBackend(StateStoreBackend backend, int maxQueueSize, int maxBatchSize) {
+        this(backend, maxQueueSize, maxBatchSize, DEFAULT_RETRY_DELAY, DEFAULT_MAX_QUEUE_WAIT);
+    }
+
+    /**
+     * Create a backend.
+     *
+     * @param backend       backend to write to
+     * @param maxQueueSize  maximum number of queued entries
+     * @param maxBatchSize  maximum number of entries written in a batch
+     * @param retryDelay    time in ms to wait after a failed batch
+     * @param maxQueueWait  time in ms storeEntry() waits for room in the queue before writing the entry itself
+     */
+    public WriteBehindStateStoreBackend(StateStoreBackend backend, int maxQueueSize, int maxBatchSize, final long retryDelay, long maxQueueWait) {
+        this.backend = backend;
+        this.maxQueueSize = maxQueueSize;
+        this.maxBatchSize = maxBatchSize;
+        this.retryDelay = retryDelay;
+        this.maxQueueWait = maxQueueWait;
+
+        writerThread = new Thread("XForms state store writer") {
+            public void run() {
+                while (true) {
+                    try {
+                        if (!writeBatch())
+                            Thread.sleep(retryDelay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stop the writer thread, then destroy the underlying backend. Entries still queued are not written.
+     */
+    public void destroy() {
+        writerThread.interrupt();
+        try {
+            writerThread.join(retryDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backend.destroy();
+    }
+
+    public XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, String key) {
+        lock.lock();
+        try {
+            XFormsStateStore.StoreEntry storeEntry = queuedEntries.get(key);
+            if (storeEntry == null)
+                storeEntry = writingEntries.get(key);
+            if (storeEntry != null) {
+                // Return a copy, as the writer may still update the session ids
+                return new XFormsStateStore.StoreEntry(storeEntry.key, storeEntry.value, storeEntry.isPinned,
+                        new HashMap<String, String>(storeEntry.sessionIds), storeEntry.previousKey);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return backend.findEntry(pipelineContext, key);
+    }
+
+    public void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry) {
+        lock.lock();
+        try {
+            final XFormsStateStore.StoreEntry queuedEntry = queuedEntries.get(storeEntry.key);
+            if (queuedEntry != null) {
+                // Replace the queued entry
+                storeEntry.sessionIds.putAll(queuedEntry.sessionIds);
+                queuedEntries.remove(storeEntry.key);
+                coalescedCount++;
+            } else {
+                // Wait for room in the queue, but not forever as the queue doesn't drain while the backend fails
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWait);
+                boolean isInterrupted = false;
+                while (queuedEntries.size() >= maxQueueSize && remainingNanos > 0) {
+                    try {
+                        remainingNanos = notFull.awaitNanos(remainingNanos);
+                    } catch (InterruptedException e) {
+                        isInterrupted = true;
+                    }
+                }
+                if (isInterrupted)
+                    Thread.currentThread().interrupt();
+
+                // Still no room: write the entry from this thread, unless an older version is being written, as the
+                // writer could then overwrite the new version
+                if (queuedEntries.size() >= maxQueueSize && !writingEntries.containsKey(storeEntry.key)) {
+                    writingEntries.put(storeEntry.key, storeEntry);
+                    synchronousCount++;
+                    lock.unlock();
+                    try {
+                        storeEntrySynchronously(storeEntry);
+                    } finally {
+                        lock.lock();
+                        writingEntries.remove(storeEntry.key);
+                        writeCompleted.signalAll();
+                    }
+                    return;
+                }
+            }
+            queuedEntries.put(storeEntry.key, storeEntry);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write an entry which doesn't fit in the queue. The entry is dropped if it can't be written.
+     */
+    private void storeEntrySynchronously(XFormsStateStore.StoreEntry storeEntry) {
+        try {
+            if (backend instanceof BatchStateStoreBackend)
+                ((BatchStateStoreBackend) backend).storeEntries(null, Collections.singletonList(storeEntry));
+            else
+                backend.storeEntry(null, storeEntry);
+
+            logger.warn("Write-behind queue of persistent state store full. Wrote entry for key " + storeEntry.key + " synchronously.");
+        } catch (Throwable e) {
+            lock.lock();
+            try {
+                droppedCount++;
+            } finally {
+                lock.unlock();
+            }
+            logger.error("Write-behind queue of persistent state store full, and unable to write entry for key " + storeEntry.key + ". The entry is dropped.", e);
+        }
+    }
+
+    public int expireBySession(PipelineContext pipelineContext, String sessionId) {
+        int queuedExpiredCount = 0;
+        lock.lock();
+        try {
+            // Entries being written must reach the backend, or be queued again, before they can be expired
+            awaitWritingEntries();
+
+            for (final Iterator<XFormsStateStore.StoreEntry> i = queuedEntries.values().iterator(); i.hasNext();) {
+                final XFormsStateStore.StoreEntry queuedEntry = i.next();
+                if (queuedEntry.sessionIds.remove(sessionId) != null && queuedEntry.sessionIds.isEmpty()) {
+                    i.remove();
+                    queuedExpiredCount++;
+                }
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        return queuedExpiredCount + backend.expireBySession(pipelineContext, sessionId);
+    }
+
+    public void expireAll(PipelineContext pipelineContext) {
+        lock.lock();
+        try {
+            awaitWritingEntries();
+            queuedEntries.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        backend.expireAll(pipelineContext);
+    }
+
+    private void awaitWritingEntries() {
+        while (!writingEntries.isEmpty())
+            writeCompleted.awaitUninterruptibly();
+    }
+
+    /**
+     * Write a batch of queued entries, waiting for entries to be queued if needed.
+     *
+     * @return  false if the batch could not be written entirely, in which case entries not written are queued again
+     */
+    private boolean writeBatch() throws InterruptedException {
+        // Take a batch of entries from the queue
+        final List<XFormsStateStore.StoreEntry> batch = new ArrayList<XFormsStateStore.StoreEntry>();
+        lock.lock();
+        try {
+            while (queuedEntries.isEmpty())
+                notEmpty.await();
+
+            for (final Iterator<XFormsStateStore.StoreEntry> i = queuedEntries.values().iterator(); i.hasNext() && batch.size() < maxBatchSize;) {
+                final XFormsStateStore.StoreEntry queuedEntry = i.next();
+                i.remove();
+                batch.add(queuedEntry);
+                writingEntries.put(queuedEntry.key, queuedEntry);
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        // Write outside of the lock
+        final long startTime = System.currentTimeMillis();
+        int batchWrittenCount = 0;
+        try {
+            if (backend instanceof BatchStateStoreBackend) {
+                ((BatchStateStoreBackend) backend).storeEntries(null, batch);
+                batchWrittenCount = batch.size();
+            } else {
+                for (final XFormsStateStore.StoreEntry storeEntry: batch) {
+                    backend.storeEntry(null, storeEntry);
+                    batchWrittenCount++;
+                }
+            }
+        } catch (Throwable e) {
+            logger.error("Unable to write " + (batch.size() - batchWrittenCount) + " entries to persistent state store. Retrying in " + retryDelay + " ms.", e);
+        } finally {
+            final long batchTime = System.currentTimeMillis() - startTime;
+            lock.lock();
+            try {
+                // Queue again entries not written, ahead of entries queued since, unless a newer version has been queued
+                final LinkedHashMap<String, XFormsStateStore.StoreEntry> newQueuedEntries = new LinkedHashMap<String, XFormsStateStore.StoreEntry>();
+                for (final XFormsStateStore.StoreEntry storeEntry: batch.subList(batchWrittenCount, batch.size())) {
+                    final XFormsStateStore.StoreEntry queuedEntry = queuedEntries.get(storeEntry.key);
+                    if (queuedEntry != null)
+                        queuedEntry.sessionIds.putAll(storeEntry.sessionIds);
+                    else
+                        newQueuedEntries.put(storeEntry.key, storeEntry);
+                }
+                if (newQueuedEntries.size() > 0) {
+                    newQueuedEntries.putAll(queuedEntries);
+                    queuedEntries.clear();
+                    queuedEntries.putAll(newQueuedEntries);
+                }
+
+                for (final XFormsStateStore.StoreEntry storeEntry: batch)
+                    writingEntries.remove(storeEntry.key);
+                writeCompleted.signalAll();
+
+                writtenCount += batchWrittenCount;
+                batchCount++;
+                totalBatchTime += batchTime;
+                maxBatchTime = Math.max(maxBatchTime, batchTime);
+
+                if (logger.isDebugEnabled())
+                    logger.debug("Wrote " + batchWrittenCount + " entries to persistent state store in " + batchTime + " ms. "
+                            + "Queue depth: " + queuedEntries.size() + ", written: " + writtenCount + ", coalesced: " + coalescedCount
+                            + ", average batch time: " + (totalBatchTime / batchCount) + " ms, max batch time: " + maxBatchTime + " ms.");
+            } finally {
+                lock.unlock();
+            }
+        }
+        return batchWrittenCount == batch.size();
+    }
+
+    /**
+     * Return the number of entries queued or being written.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queuedEntries.size() + writingEntries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWrittenCount() {
+        lock.lock();
+        try {
+            return writtenCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalescedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of entries written by storeEntry() because the queue was full.
+     */
+    public long getSynchronousCount() {
+        lock.lock();
+        try {
+            return synchronousCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of entries dropped because the queue was full and they could not be written.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the average time in ms to write a batch of entries.
+     */
+    public long getAverageBatchTime() {
+        lock.lock();
+        try {
+            return (batchCount > 0) ? totalBatchTime / batchCount : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBatchTime() {
+        lock.lock();
+        try {
+            return maxBatchTime;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
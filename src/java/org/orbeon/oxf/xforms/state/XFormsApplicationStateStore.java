@@ -23,7 +23,15 @@ public class XFormsApplicationStateStore extends XFormsStateStore {
 
     private static final String APPLICATION_STATE_CACHE_APPLICATION_KEY = "oxf.xforms.state.store.application-key";
 
-    public synchronized static XFormsStateStore instance(ExternalContext externalContext) {
+    public static XFormsStateStore instance(ExternalContext externalContext) {
+        // Try to find existing store without locking, as this is called upon every request
+        final XFormsStateStore existingStateStore
+                = (XFormsStateStore) externalContext.getAttributesMap().get(APPLICATION_STATE_CACHE_APPLICATION_KEY);
+
+        return (existingStateStore != null) ? existingStateStore : createInstance(externalContext);
+    }
+
+    private synchronized static XFormsStateStore createInstance(ExternalContext externalContext) {
         {
             final XFormsStateStore existingStateStore
                     = (XFormsStateStore) externalContext.getAttributesMap().get(APPLICATION_STATE_CACHE_APPLICATION_KEY);
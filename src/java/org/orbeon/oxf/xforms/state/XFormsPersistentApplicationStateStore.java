@@ -13,32 +13,20 @@
  */
 package org.orbeon.oxf.xforms.state;
 
-import org.dom4j.Document;
-import org.dom4j.Element;
-import org.dom4j.io.DocumentResult;
 import org.orbeon.oxf.cache.CacheLinkedList;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.StaticExternalContext;
 import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
-import org.orbeon.oxf.processor.Datasource;
-import org.orbeon.oxf.processor.xmldb.XMLDBProcessor;
 import org.orbeon.oxf.xforms.XFormsProperties;
 import org.orbeon.oxf.xforms.XFormsUtils;
-import org.orbeon.oxf.xml.TransformerUtils;
-import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
-import org.orbeon.oxf.xml.dom4j.LocationDocumentResult;
-import org.orbeon.saxon.om.FastStringBuffer;
-import org.xml.sax.ContentHandler;
-import org.xmldb.api.base.Collection;
-import org.xmldb.api.base.Resource;
-import org.xmldb.api.base.XMLDBException;
-import org.xmldb.api.modules.XMLResource;
-
-import javax.xml.transform.sax.TransformerHandler;
+
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This store:
@@ -49,7 +37,10 @@ import java.util.Map;
  *
  * Here is how things work:
  *
- * o When an entry from the memory store is expiring, it is migrated to the persistent store.
+ * o When an entry from the memory store is expiring, it is migrated to the persistent store. With write-behind, the
+ *   entry is queued and written by a background thread.
+ * o The persistent store is a StateStoreBackend: eXist (the default), local files, a JDBC datasource, or a custom
+ *   implementation, as configured with the oxf.xforms.store.application.backend property.
  * o When an entry is not found in the memory store, it is searched for in the persistent store.
  * o A session id is added when available.
  * o When a session expires, both memory and persistent entries are expired.
@@ -78,9 +69,9 @@ import java.util.Map;
  *
  * When you add keys and values, they are first added to memory into a LRU list (using the base class). When an item is
  * pushed out at the end of the list (because the size of the items in the list becomes larger than the allocated size),
- * it is migrated to eXist.
+ * it is migrated to the backend.
  *
- * When items are read with find(), they are searched first in memory, then in eXist, and then they are migrated to the
+ * When items are read with find(), they are searched first in memory, then in the backend, and then they are migrated to the
  * beginning of the LRU list.
  *
  * This is all and well, but if you don't do anything more, then the store would grow forever. So we implemented a
@@ -107,14 +98,24 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
     private static final String PERSISTENT_STATE_STORE_APPLICATION_KEY = "oxf.xforms.state.store.persistent-application-key";
     private static final String XFORMS_STATE_STORE_LISTENER_STATE_KEY = "oxf.xforms.state.store.has-session-listeners-key";
 
-    // For now the driver is not configurable, but everything else (URI, username, password, collection) is configurable in properties
-    private static final String EXIST_XMLDB_DRIVER = "org.exist.xmldb.DatabaseImpl";
+    public static final String EXIST_BACKEND = "exist";
+    public static final String FILE_BACKEND = "file";
+    public static final String JDBC_BACKEND = "jdbc";
+
+    // Maximum number of entries written in a batch by the write-behind backend
+    private static final int WRITE_BEHIND_BATCH_SIZE = 20;
+
+    // Backends of the stores created, destroyed when the application is shut down
+    private static final List<StateStoreBackend> backends = new ArrayList<StateStoreBackend>();
 
-    // Access to the XML:DB API
-    private static final XMLDBAccessor XMLDB_ACCESSOR = new XMLDBAccessor();
+    private final StateStoreBackend backend;
 
     // Map session ids -> Map of keys
-    private final Map<String, Map<String, Object>> sessionToKeysMap = new HashMap<String, Map<String, Object>>();
+    // NOTE: Concurrent maps, as entries of the same session can be in different shards of the store
+    private final ConcurrentHashMap<String, Map<String, Object>> sessionToKeysMap = new ConcurrentHashMap<String, Map<String, Object>>();
+
+    // Session ids for which a session listener has been registered
+    private final ConcurrentHashMap<String, Object> sessionsWithListener = new ConcurrentHashMap<String, Object>();
 
     // Stats
     // TODO
@@ -127,8 +128,16 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
      * @param externalContext   external context
      * @return                  state store
      */
-    public synchronized static XFormsStateStore instance(ExternalContext externalContext) {
-        // Try to find existing store
+    public static XFormsStateStore instance(ExternalContext externalContext) {
+        // Try to find existing store without locking, as this is called upon every request
+        final XFormsStateStore existingStateStore
+                = (XFormsStateStore) externalContext.getAttributesMap().get(PERSISTENT_STATE_STORE_APPLICATION_KEY);
+
+        return (existingStateStore != null) ? existingStateStore : createInstance(externalContext);
+    }
+
+    private synchronized static XFormsStateStore createInstance(ExternalContext externalContext) {
+        // Try to find existing store again, as another thread may have created it
         {
             final XFormsStateStore existingStateStore
                     = (XFormsStateStore) externalContext.getAttributesMap().get(PERSISTENT_STATE_STORE_APPLICATION_KEY);
@@ -138,15 +147,19 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
         }
         // Create new store
         {
-            final XFormsPersistentApplicationStateStore newStateStore = new XFormsPersistentApplicationStateStore();
+            final StateStoreBackend backend = createBackend();
+            final XFormsPersistentApplicationStateStore newStateStore = XFormsProperties.isStoreWriteBehind()
+                    ? new XFormsPersistentApplicationStateStore(new WriteBehindStateStoreBackend(backend, XFormsProperties.getStoreWriteBehindQueueSize(), WRITE_BEHIND_BATCH_SIZE))
+                    : new XFormsPersistentApplicationStateStore(backend);
 
             // Expire persistent entries
             // NOTE: Not sure why we used to remove only those with session information. For now we remove everthing as
-            // a session is expected, but mainly this is because removing an entire collection is faster than removing
-            // individual resources.
-            newStateStore.expireAllPersistentUseCollection();
-//            newStateStore.expireAllPersistentWithSession();
-//            newStateStore.expireAllPersistent();
+            // a session is expected.
+            newStateStore.expireAllPersistent();
+
+            synchronized (backends) {
+                backends.add(newStateStore.backend);
+            }
 
             // Keep new store in application scope
             externalContext.getAttributesMap().put(PERSISTENT_STATE_STORE_APPLICATION_KEY, newStateStore);
@@ -154,6 +167,46 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
         }
     }
 
+    /**
+     * Destroy the backends of all the stores, when the application is shut down.
+     */
+    public static void shutdown() {
+        final List<StateStoreBackend> currentBackends;
+        synchronized (backends) {
+            currentBackends = new ArrayList<StateStoreBackend>(backends);
+            backends.clear();
+        }
+        for (final StateStoreBackend backend: currentBackends) {
+            try {
+                backend.destroy();
+            } catch (Exception e) {
+                XFormsStateManager.getIndentedLogger().logError("", "error while destroying persistent state store backend", e);
+            }
+        }
+    }
+
+    private static StateStoreBackend createBackend() {
+        final String backendName = XFormsProperties.getStoreBackend();
+        if (EXIST_BACKEND.equals(backendName)) {
+            return new ExistStateStoreBackend();
+        } else if (FILE_BACKEND.equals(backendName)) {
+            return new FileStateStoreBackend(new File(XFormsProperties.getStoreDirectory()), XFormsProperties.getStoreSyncInterval());
+        } else if (JDBC_BACKEND.equals(backendName)) {
+            return new JDBCStateStoreBackend(XFormsProperties.getStoreDatasource(), XFormsProperties.getStoreTable());
+        } else {
+            // Custom backend
+            try {
+                return (StateStoreBackend) Class.forName(backendName).newInstance();
+            } catch (Exception e) {
+                throw new OXFException("Unable to create persistent state store backend: " + backendName, e);
+            }
+        }
+    }
+
+    private XFormsPersistentApplicationStateStore(StateStoreBackend backend) {
+        this.backend = backend;
+    }
+
     protected int getMaxSize() {
         return XFormsProperties.getApplicationStateStoreSize();
     }
@@ -163,7 +216,7 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
     }
 
     @Override
-    public synchronized void add(String pageGenerationId, String oldRequestId, String requestId, XFormsState xformsState, final String sessionId, boolean isInitialEntry) {
+    public void add(String pageGenerationId, String oldRequestId, String requestId, XFormsState xformsState, final String sessionId, boolean isInitialEntry) {
 
         // Do the operation
         super.add(pageGenerationId, oldRequestId, requestId, xformsState, sessionId, isInitialEntry);
@@ -178,11 +231,13 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
                     throw new OXFException("Inconsistent session ids when persisting XForms state store entry (entry session id: " + sessionId + ", actual session id: " + session.getId() + ").");
 
                 // We want to register only one expiration listener per session
+                // NOTE: Use putIfAbsent() so that concurrent requests of the same session register a single listener
                 final Map<String, Object> sessionAttributes = session.getAttributesMap(ExternalContext.Session.APPLICATION_SCOPE);
-                if (sessionAttributes.get(XFORMS_STATE_STORE_LISTENER_STATE_KEY) == null) {
+                if (sessionAttributes.get(XFORMS_STATE_STORE_LISTENER_STATE_KEY) == null && sessionsWithListener.putIfAbsent(sessionId, "") == null) {
                     session.addListener(new ExternalContext.Session.SessionListener() {
                         public void sessionDestroyed() {
                             // Expire both memory and persistent entries
+                            sessionsWithListener.remove(sessionId);
                             expireMemoryBySession(sessionId);
                             expirePersistentBySession(sessionId);
                         }
@@ -208,12 +263,12 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
             // Do the operation TEMP_PERF_ITERATIONS times to test performance
             final long startTime = System.currentTimeMillis();
             for (int i = 0; i < TEMP_PERF_ITERATIONS; i ++) {
-                persistEntryExistXMLDB(pipelineContext, storeEntry);
+                persistEntryBackend(pipelineContext, storeEntry);
             }
             debug("average write persistence time: " + ((System.currentTimeMillis() - startTime) / TEMP_PERF_ITERATIONS) + " ms." );
 
         } else {
-            persistEntryExistXMLDB(pipelineContext, storeEntry);
+            persistEntryBackend(pipelineContext, storeEntry);
         }
     }
 
@@ -228,8 +283,10 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
         if (currentSessionId != null) {
             Map<String, Object> sessionMap = sessionToKeysMap.get(currentSessionId);
             if (sessionMap == null) {
-                sessionMap = new HashMap<String, Object>();
-                sessionToKeysMap.put(currentSessionId, sessionMap);
+                final Map<String, Object> newSessionMap = new ConcurrentHashMap<String, Object>();
+                sessionMap = sessionToKeysMap.putIfAbsent(currentSessionId, newSessionMap);
+                if (sessionMap == null)
+                    sessionMap = newSessionMap;
             }
             sessionMap.put(key, "");
         }
@@ -254,23 +311,15 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
         }
     }
 
-    private void persistEntryExistXMLDB(PipelineContext pipelineContext, StoreEntry storeEntry) {
-        final String messageBody = encodeMessageBody(pipelineContext, storeEntry);
-        try {
-            final StoreEntry existingStoreEntry = findPersistedEntryExistXMLDB(storeEntry.key);
-            if (existingStoreEntry != null) {
-                // Merge existing session ids
-                final int currentSessionIdCount = storeEntry.sessionIds.size();
-                storeEntry.sessionIds.putAll(existingStoreEntry.sessionIds);
-                debug("merged session ids for key: " + storeEntry.key + " (" + (storeEntry.sessionIds.size() - currentSessionIdCount) + " ids).");
-            }
+    private void persistEntryBackend(PipelineContext pipelineContext, StoreEntry storeEntry) {
+        // NOTE: The backend keeps the session ids of an existing entry, so they don't need to be merged here
 
-            XMLDB_ACCESSOR.storeResource(pipelineContext, new Datasource(EXIST_XMLDB_DRIVER,
-                    XFormsProperties.getStoreURI(), XFormsProperties.getStoreUsername(), XFormsProperties.getStorePassword()), XFormsProperties.getStoreCollection(),
-                    true, storeEntry.key, messageBody);
-        } catch (Exception e) {
-            throw new OXFException("Unable to store entry in persistent state store for key: " + storeEntry.key, e);
-        }
+        // Make sure the value is encrypted as it will be externalized
+        final DynamicStateDelta delta = DynamicStateDelta.fromValue(storeEntry.value);
+        final String encryptedValue = (delta != null)
+                ? new DynamicStateDelta(delta.step, delta.baseKey, XFormsUtils.ensureEncrypted(pipelineContext, delta.encodedDelta)).toValue()
+                : XFormsUtils.ensureEncrypted(pipelineContext, storeEntry.value);
+        backend.storeEntry(pipelineContext, new StoreEntry(storeEntry.key, encryptedValue, storeEntry.isPinned, storeEntry.sessionIds, storeEntry.previousKey));
     }
 
     /**
@@ -280,26 +329,31 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
      */
     private void expireMemoryBySession(String sessionId) {
 
-        final Map<String, Object> sessionMap = sessionToKeysMap.get(sessionId);
+        // Remove the session first, so that keys concurrently added for this session go to a new map
+        final Map<String, Object> sessionMap = sessionToKeysMap.remove(sessionId);
         if (sessionMap != null) {
             final int storeSizeBeforeExpire = getCurrentStoreSize();
             int expiredCount = 0;
             if (sessionMap.size() > 0) {
                 for (final String currentKey: sessionMap.keySet()) {
-                    final CacheLinkedList.ListEntry currentListEntry = findEntry(currentKey);
-                    final StoreEntry currentStoreEntry = (StoreEntry) currentListEntry.element;
-
-                    // Remove session id from list of session ids
-                    currentStoreEntry.sessionIds.remove(sessionId);
-
-                    // Remove entry once there is no more associated session
-                    if (currentStoreEntry.sessionIds.size() == 0) {
-                        super.removeStoreEntry(currentListEntry);
-                        expiredCount++;
+                    // Only lock the shard of the current entry
+                    synchronized (getLock(currentKey)) {
+                        final CacheLinkedList.ListEntry currentListEntry = findEntry(currentKey);
+                        if (currentListEntry == null)
+                            continue;
+                        final StoreEntry currentStoreEntry = (StoreEntry) currentListEntry.element;
+
+                        // Remove session id from list of session ids
+                        currentStoreEntry.sessionIds.remove(sessionId);
+
+                        // Remove entry once there is no more associated session
+                        if (currentStoreEntry.sessionIds.size() == 0) {
+                            super.removeStoreEntry(currentListEntry);
+                            expiredCount++;
+                        }
                     }
                 }
             }
-            sessionToKeysMap.remove(sessionId);
 
             if (expiredCount > 0 && isDebugEnabled())
                 debug("expired " + expiredCount + " entries for session " + sessionId + " (" + (storeSizeBeforeExpire - getCurrentStoreSize()) + " bytes).");
@@ -312,87 +366,15 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
      * @param sessionId     Servlet session id
      */
     private void expirePersistentBySession(String sessionId) {
-
-        // 1. Remove documents having only one session-id element left equal to this session id
-        // 2. Remove all session-id elements equal to this session id
-        final String query = "xquery version \"1.0\";" +
-            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
-            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
-            "                 <result>" +
-            "                   {" +
-            "                     (count(for $entry in /entry[session-id = '" + sessionId + "' and count(session-id) = 1]" +
-            "                           return (xmldb:remove(util:collection-name($entry), util:document-name($entry)), ''))," +
-            "                     for $session-id in /entry/session-id[. = '" + sessionId + "'] return update delete $session-id)" +
-            "                   }" +
-            "                 </result>";
-
-        final Document result = executeQuery(query);
-        final int count = Integer.parseInt(result.getDocument().getRootElement().getStringValue());
+        final int count = backend.expireBySession(getPipelineContext(), sessionId);
         debug("expired " + count + " persistent entries for session (" + sessionId + ").");
     }
 
-    private void expireAllPersistentWithSession() {
-
-        final String query = "xquery version \"1.0\";" +
-            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
-            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
-            "                 <result>" +
-            "                   {" +
-            "                     count(for $entry in /entry[session-id]" +
-            "                           return (xmldb:remove(util:collection-name($entry), util:document-name($entry)), ''))" +
-            "                   }" +
-            "                 </result>";
-
-        final Document result = executeQuery(query);
-        final int count = Integer.parseInt(result.getRootElement().getStringValue());
-        debug("expired " + count + " persistent entries with session information.");
-    }
-
-    public void expireAllPersistent() {
-
-        final String query = "xquery version \"1.0\";" +
-            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
-            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
-            "                 <result>" +
-            "                   {" +
-            "                     count(for $entry in /entry" +
-            "                           return (xmldb:remove(util:collection-name($entry), util:document-name($entry)), ''))" +
-            "                   }" +
-            "                 </result>";
-
-        final Document result = executeQuery(query);
-        final int count = Integer.parseInt(result.getRootElement().getStringValue());
-        debug("expired " + count + " persistent entries.");
-    }
-
-    public void expireAllPersistentUseCollection() {
-
-        final String query = "xquery version \"1.0\";" +
-            "                 declare namespace xmldb=\"http://exist-db.org/xquery/xmldb\";" +
-            "                 declare namespace util=\"http://exist-db.org/xquery/util\";" +
-            "                 <result>" +
-            "                   {" +
-            "                     xmldb:remove('" + XFormsProperties.getStoreCollection() + "')" +
-            "                   }" +
-            "                 </result>";
-
-        executeQuery(query);
+    private void expireAllPersistent() {
+        backend.expireAll(getPipelineContext());
         debug("expired all persistent entries.");
     }
 
-    private Document executeQuery(String query) {
-
-        final DocumentResult result = new DocumentResult();
-        final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
-        identity.setResult(result);
-
-        XMLDB_ACCESSOR.query(getPipelineContext(), new Datasource(EXIST_XMLDB_DRIVER,
-                XFormsProperties.getStoreURI(), XFormsProperties.getStoreUsername(), XFormsProperties.getStorePassword()), XFormsProperties.getStoreCollection(),
-                true, null, query, null, identity);
-
-        return result.getDocument();
-    }
-
     private PipelineContext getPipelineContext() {
         // NOTE: We may not have a StaticContext when we are called from a session listener, but that should be ok
         // (PipelineContext is used further down the line to ensure that the db drive is registered, but it should
@@ -406,54 +388,9 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
             return (staticContext != null) ? staticContext.getExternalContext() : null;
     }
 
-    private String encodeMessageBody(PipelineContext pipelineContext, StoreEntry storeEntry) {
-
-        final FastStringBuffer sb = new FastStringBuffer("<entry><key>");
-        sb.append(storeEntry.key);
-        sb.append("</key><value>");
-
-        // Store the value and make sure it is encrypted as it will be externalized
-        final String encryptedValue = XFormsUtils.ensureEncrypted(pipelineContext, storeEntry.value);
-//        if (storeEntry.value.startsWith("X3") || storeEntry.value.startsWith("X4")) {
-//            // Data is currently not encrypted, so encrypt it
-//            final byte[] decodedValue = XFormsUtils.decodeBytes(pipelineContext, storeEntry.value, XFormsProperties.getXFormsPassword());
-//            encryptedValue = XFormsUtils.encodeBytes(pipelineContext, decodedValue, XFormsProperties.getXFormsPassword());
-//        } else {
-//            // Data is already encrypted
-//            encryptedValue = storeEntry.value;
-//        }
-
-        sb.append(encryptedValue);
-        sb.append("</value>");
-
-        // Store the session ids if any
-        final Map<String, String> sessionIds = storeEntry.sessionIds;
-        if (sessionIds != null && sessionIds.size() > 0) {
-            for (final String currentSessionId: sessionIds.keySet()) {
-                sb.append("<session-id>");
-                sb.append(currentSessionId);
-                sb.append("</session-id>");
-            }
-        }
-
-        // Store the previous key if any
-        if (storeEntry.previousKey != null) {
-            sb.append("<previous-key>");
-            sb.append(storeEntry.previousKey);
-            sb.append("</previous-key>");
-        }
-
-        // Store the pinned entry flag
-        sb.append("<pinned>");
-        sb.append(Boolean.toString(storeEntry.isPinned));
-        sb.append("</pinned></entry>");
-
-        return sb.toString();
-    }
-
     // NOTE: The super() method doesn't do anything
     @Override
-    protected String findPersistedEntry(String key) {
+    protected StoreEntry findPersistedEntry(String key) {
 
         if (isDebugEnabled()) {
             debug("finding persisting entry for key: " + key + ".");
@@ -467,7 +404,7 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
             StoreEntry tempResult = null;
             final long startTime = System.currentTimeMillis();
             for (int i = 0; i < TEMP_PERF_ITERATIONS; i ++) {
-                tempResult = findPersistedEntryExistXMLDB(key);
+                tempResult = backend.findEntry(getPipelineContext(), key);
                 if (tempResult == null)
                     break;
             }
@@ -477,97 +414,12 @@ public class XFormsPersistentApplicationStateStore extends XFormsStateStore {
             persistedStoreEntry = tempResult;
 
         } else {
-            persistedStoreEntry = findPersistedEntryExistXMLDB(key);
+            persistedStoreEntry = backend.findEntry(getPipelineContext(), key);
         }
 
-        // Handle result
-        if (persistedStoreEntry != null) {
-            // Add the key to the list in memory
-            addOne(persistedStoreEntry.key, persistedStoreEntry.value, persistedStoreEntry.isPinned, persistedStoreEntry.sessionIds, persistedStoreEntry.previousKey);
-            debug("migrated persisted entry for key: " + key);
-            return persistedStoreEntry.value;
-        } else {
-            // Not found
+        if (persistedStoreEntry == null)
             debug("did not find entry in persistent store for key: " + key);
-            return null;
-        }
-    }
-
-    private StoreEntry findPersistedEntryExistXMLDB(String key) {
-
-        final PipelineContext pipelineContext = getPipelineContext();
-
-        final Document document;
-        try {
-            document = XMLDB_ACCESSOR.getResource(pipelineContext, new Datasource(EXIST_XMLDB_DRIVER,
-                    XFormsProperties.getStoreURI(), XFormsProperties.getStoreUsername(), XFormsProperties.getStorePassword()),
-                    XFormsProperties.getStoreCollection(), true, key);
-        } catch (Exception e) {
-            throw new OXFException("Unable to find entry in persistent state store for key: " + key, e);
-        }
-
-        return (document != null) ? getStoreEntryFromDocument(key, document) : null;
-    }
 
-    private StoreEntry getStoreEntryFromDocument(String key, Document document) {
-        final Element rootElement = document.getRootElement();
-
-        final String value = rootElement.element("value").getStringValue();
-        final boolean isPinned = Boolean.valueOf(rootElement.element("pinned").getStringValue());
-        final Map<String, String> sessionIdsMap = new HashMap<String, String>();
-        {
-            final List<Element> sessionIdsList = Dom4jUtils.elements(rootElement, "session-id");
-            for (Element currentElement: sessionIdsList) {
-                final String currentSessionId = currentElement.getStringValue();
-                sessionIdsMap.put(currentSessionId, "");
-            }
-        }
-
-        final Element previousKeyElement = rootElement.element("previousKey");
-
-        return new StoreEntry(key, value, isPinned, sessionIdsMap, previousKeyElement == null ? null : previousKeyElement.getStringValue());
-    }
-
-    private static class XMLDBAccessor extends XMLDBProcessor {
-
-        public void query(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceId, String query, Map namespaceContext, ContentHandler contentHandler) {
-            super.query(pipelineContext, datasource, collectionName, createCollection, resourceId, query, namespaceContext, contentHandler);
-        }
-
-        protected Document getResource(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceName) {
-
-            ensureDriverRegistered(pipelineContext, datasource);
-            try {
-                Collection collection = getCollection(pipelineContext, datasource, collectionName);
-                if (collection == null) {
-                    if (!createCollection)
-                        throw new OXFException("Cannot find collection '" + collectionName + "'.");
-                    else
-                        collection = createCollection(pipelineContext, datasource, collectionName);
-                }
-                final Resource resource = collection.getResource(resourceName);
-                if (resource == null) {
-                    return null;
-                } else if (resource instanceof XMLResource) {
-
-                    final LocationDocumentResult documentResult = new LocationDocumentResult();
-                    final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
-                    identity.setResult(documentResult);
-
-                    ((XMLResource) resource).getContentAsSAX(new DatabaseReadContentHandler(identity));
-
-                    return documentResult.getDocument();
-                } else {
-                    throw new OXFException("Unsupported resource type: " + resource.getClass());
-                }
-            } catch (XMLDBException e) {
-                throw new OXFException(e);
-            }
-        }
-
-        @Override
-        protected void storeResource(PipelineContext pipelineContext, Datasource datasource, String collectionName, boolean createCollection, String resourceName, String document) {
-            super.storeResource(pipelineContext, datasource, collectionName, createCollection, resourceName, document);
-        }
+        return persistedStoreEntry;
     }
 }
@@ -14,28 +14,100 @@
 package org.orbeon.oxf.xforms.state;
 
 import org.orbeon.oxf.cache.CacheLinkedList;
+import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.XFormsUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Base class for XFormsState stores. This store only deals with storing items in memory
+ * Base class for XFormsState stores. This store only deals with storing items in memory.
+ *
+ * The store is partitioned into shards by key hash. Each shard has its own map, LRU list and lock, so that requests
+ * for different keys don't contend on a single lock. An operation never holds more than one shard lock at a time. The
+ * maximum size applies to the whole store: when adding an entry would exceed it, the least recently used entries of
+ * the shard receiving the entry are expired, so that a large state doesn't push out the other entries of its shard
+ * while the store is not full. If this is not enough, e.g. because that shard was empty, the least recently used
+ * entries over all the shards are then expired. Entries expired from a shard are persisted once its lock is released,
+ * as persisting can block, and can be found until they are persisted.
+ *
+ * Optionally, a dynamic state can be stored as a delta against a base, which is the last dynamic state of the same
+ * page stored in full. A full dynamic state is stored again after a configurable number of deltas, or when the delta
+ * would not be much smaller than the full dynamic state. Bases are kept while they are used by the last two dynamic
+ * states. A base usually lives in another shard than its deltas, so when a base is removed from memory, the deltas
+ * against it which are still in memory are stored in full again.
  */
 public abstract class XFormsStateStore {
 
-    private int currentStoreSize = 0;
-
-    private Map<String, CacheLinkedList.ListEntry> keyToEntryMap = new HashMap<String, CacheLinkedList.ListEntry>();
-    private CacheLinkedList linkedList = new CacheLinkedList();
+    private static final int MAX_SHARDS = 16;
+    // Don't create shards for less than this, as entries are only expired from the shard receiving a new entry, which
+    // must hold enough entries for this to approximate LRU over the whole store
+    private static final int MIN_SHARD_SIZE = 256 * 1024;
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final AtomicInteger currentStoreSize = new AtomicInteger();
+    private final AtomicLong useCounter = new AtomicLong();
+    private final int deltaInterval;
+
+    // Entries expired by the current thread, which are persisted once no shard lock is held, as persisting can block
+    private final ThreadLocal<List<StoreEntry>> expiredEntries = new ThreadLocal<List<StoreEntry>>() {
+        protected List<StoreEntry> initialValue() {
+            return new ArrayList<StoreEntry>();
+        }
+    };
+    // Entries expired and not persisted yet, so that they can still be found
+    private final ConcurrentMap<String, StoreEntry> persistingEntries = new ConcurrentHashMap<String, StoreEntry>();
+
+    private static class Shard {
+        public final Map<String, CacheLinkedList.ListEntry> keyToEntryMap = new HashMap<String, CacheLinkedList.ListEntry>();
+        public final CacheLinkedList linkedList = new CacheLinkedList();
+        public int currentSize;
+    }
 
     protected XFormsStateStore() {
-        debug("created new store.");
+        int shardCount = 1;
+        final int maxSize = getMaxSize();
+        while (shardCount < MAX_SHARDS && maxSize / (shardCount * 2) >= MIN_SHARD_SIZE)
+            shardCount *= 2;
+
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard();
+        this.shardMask = shardCount - 1;
+
+        this.deltaInterval = getDeltaInterval();
+
+        debug("created new store with " + shardCount + " shards.");
     }
 
     protected abstract int getMaxSize();
 
+    /**
+     * Return the maximum number of consecutive dynamic states stored as deltas, 0 to always store full dynamic states.
+     */
+    protected int getDeltaInterval() {
+        return XFormsProperties.getStoreDeltaInterval();
+    }
+
     protected abstract String getStoreDebugName();
 
+    private Shard getShard(String key) {
+        // Spread the hash code bits, although keys are UUIDs which should have good hash codes
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return shards[h & shardMask];
+    }
+
     /**
      * Add an XForms state to the store.
      *
@@ -46,7 +118,7 @@ public abstract class XFormsStateStore {
      * @param currentSessionId  current session id
      * @param isInitialEntry    whether this is an initial dynamic state entry which has preferential treatment
      */
-    public synchronized void add(String pageGenerationId, String oldRequestId, String newRequestId, XFormsState xformsState, String currentSessionId, boolean isInitialEntry) {
+    public void add(String pageGenerationId, String oldRequestId, String newRequestId, XFormsState xformsState, String currentSessionId, boolean isInitialEntry) {
 
         // Remove old dynamic state if present as we keep only one entry per page generation
         // NOTE: We try to keep the initial dynamic state entry in the store however, because the client is still likely to request it
@@ -85,23 +157,44 @@ public abstract class XFormsStateStore {
         // browser decides to create a new history entry. You can STILL have cases where the browser picks either
         // way (case of PDF file with or w/o Adobe plugin). So this does not seem to be a real solution.
 
+        // Try to store the new dynamic state as a delta
+        String dynamicStateValue = xformsState.getDynamicState();
+        String newBaseKey = null;
+        String previousBaseKey = null;
+        if (deltaInterval > 0 && !isInitialEntry && oldRequestId != null) {
+            final String previousValue = findOne(oldRequestId);
+            if (previousValue != null) {
+                final DynamicStateDelta previousDelta = DynamicStateDelta.fromValue(previousValue);
+                if (previousDelta != null)
+                    previousBaseKey = previousDelta.baseKey;
+
+                final DynamicStateDelta newDelta = createDelta(oldRequestId, previousValue, previousDelta, dynamicStateValue);
+                if (newDelta != null) {
+                    dynamicStateValue = newDelta.toValue();
+                    newBaseKey = newDelta.baseKey;
+                }
+            }
+        }
+
         // NOTE: We don't remove old entries if they are already persisted. Is this a good strategy?
-        if (!isInitialEntry) {
-            final CacheLinkedList.ListEntry previousListEntry = keyToEntryMap.get(oldRequestId);
-            if (previousListEntry != null) {
+        if (!isInitialEntry && oldRequestId != null) {
+            final String previousPreviousKey;
+            final Shard previousShard = getShard(oldRequestId);
+            synchronized (previousShard) {
+                final CacheLinkedList.ListEntry previousListEntry = previousShard.keyToEntryMap.get(oldRequestId);
                 // Found previous entry
-                final StoreEntry previousStoredEntry = (StoreEntry) previousListEntry.element;
+                previousPreviousKey = (previousListEntry != null) ? ((StoreEntry) previousListEntry.element).previousKey : null;
+            }
 
-                if (previousStoredEntry.previousKey != null) {
-                    // Found "previous previous" entry
-                    final CacheLinkedList.ListEntry previousPreviousListEntry = keyToEntryMap.get(previousStoredEntry.previousKey);
-                    if (previousPreviousListEntry != null) {
-                        final StoreEntry previousPreviousStoredEntry = (StoreEntry) previousPreviousListEntry.element;
+            // Keep the "previous previous" entry if it is the base of the previous or new entry
+            if (previousPreviousKey != null && !previousPreviousKey.equals(newBaseKey) && !previousPreviousKey.equals(previousBaseKey)) {
+                // The "previous previous" entry is usually in another shard, so look it up after releasing the first lock
+                final StoreEntry removedStoreEntry = removeUnpinned(previousPreviousKey);
 
-                        if (!previousPreviousStoredEntry.isPinned)// remove unless pinned
-                            removeStoreEntry(previousPreviousListEntry);
-                    }
-                }
+                // If it was a delta, its base is not needed anymore unless it is the base of the previous or new entry
+                final DynamicStateDelta removedDelta = (removedStoreEntry != null) ? DynamicStateDelta.fromValue(removedStoreEntry.value) : null;
+                if (removedDelta != null && !removedDelta.baseKey.equals(newBaseKey) && !removedDelta.baseKey.equals(previousBaseKey))
+                    removeUnpinned(removedDelta.baseKey);
             }
         }
 
@@ -109,130 +202,404 @@ public abstract class XFormsStateStore {
         addOrReplaceOne(pageGenerationId, xformsState.getStaticState(), false, currentSessionId, null);
 
         // Add new dynamic state and move it to the front
-        addOrReplaceOne(newRequestId, xformsState.getDynamicState(), isInitialEntry, currentSessionId, oldRequestId);
+        addOrReplaceOne(newRequestId, dynamicStateValue, isInitialEntry, currentSessionId, oldRequestId);
+
+        // Register the delta with its base, or store it in full if the base was removed in the meanwhile
+        if (newBaseKey != null && !addDeltaKey(newBaseKey, newRequestId))
+            replaceValue(newRequestId, dynamicStateValue, xformsState.getDynamicState());
+        processExpiredEntries();
 
         if (isDebugEnabled()) {
-            debug("store size after adding: " + currentStoreSize + " bytes.");
+            debug("store size after adding: " + currentStoreSize.get() + " bytes.");
             debugDumpKeys();
         }
     }
 
-    public synchronized XFormsState find(String pageGenerationId, String requestId) {
+    public XFormsState find(String pageGenerationId, String requestId) {
         if (isDebugEnabled()) {
-            debug("store size before finding: " + currentStoreSize + " bytes.");
+            debug("store size before finding: " + currentStoreSize.get() + " bytes.");
             debugDumpKeys();
         }
 
         final String staticState = findOne(pageGenerationId);
         if (staticState == null)
             return null;
-        final String dynamicState = findOne(requestId);
+        final String dynamicStateValue = findOne(requestId);
+        if (dynamicStateValue == null)
+            return null;
+
+        final DynamicStateDelta delta = DynamicStateDelta.fromValue(dynamicStateValue);
+        final String dynamicState = (delta != null) ? applyDelta(delta) : dynamicStateValue;
         if (dynamicState == null)
             return null;
         return new XFormsState(staticState, dynamicState);
     }
 
-    protected void addOrReplaceOne(String key, String value, boolean isPinned, String currentSessionId, String previousKey) {
+    /**
+     * Create a delta for a new dynamic state, given the previous dynamic state of the same page.
+     *
+     * @return  delta, or null if the new dynamic state must be stored in full
+     */
+    private DynamicStateDelta createDelta(String previousKey, String previousValue, DynamicStateDelta previousDelta, String dynamicState) {
+
+        final int step = (previousDelta != null) ? previousDelta.step + 1 : 1;
+        if (step > deltaInterval)
+            return null;
+
+        // Deltas are always against a full dynamic state, so that only the base is needed to rebuild a dynamic state
+        final String baseKey = (previousDelta != null) ? previousDelta.baseKey : previousKey;
+        final String baseValue = (previousDelta != null) ? findOne(baseKey) : previousValue;
+        if (baseValue == null || DynamicStateDelta.fromValue(baseValue) != null)
+            return null;
+
+        final String password = XFormsProperties.getXFormsPassword();
+        final byte[] deltaBytes = DynamicStateDelta.createDelta(XFormsUtils.decodeBytes(null, baseValue, password),
+                XFormsUtils.decodeBytes(null, dynamicState, password));
+        final String encodedDelta = XFormsUtils.encodeBytes(null, deltaBytes, null);
 
-        final CacheLinkedList.ListEntry existingListEntry = keyToEntryMap.get(key);
-        if (existingListEntry != null) {
-            // Entry already exists, move to the front
-            if (linkedList.getFirst() != existingListEntry.element) {
-                linkedList.remove(existingListEntry);
-                final CacheLinkedList.ListEntry listEntry = linkedList.addFirst(existingListEntry.element);
-                keyToEntryMap.put(key, listEntry);
+        // Not worth it if the delta is not much smaller than the full dynamic state
+        if (encodedDelta.length() * 2 > dynamicState.length())
+            return null;
 
-                // Add session information
-                ((StoreEntry) existingListEntry.element).addSessionId(currentSessionId);
+        if (isDebugEnabled())
+            debug("created delta of " + encodedDelta.length() + " characters instead of " + dynamicState.length() + " against base key: " + baseKey);
+
+        return new DynamicStateDelta(step, baseKey, encodedDelta);
+    }
+
+    /**
+     * Rebuild a dynamic state from a delta.
+     *
+     * @return  encoded dynamic state, or null if the base was not found
+     */
+    private String applyDelta(DynamicStateDelta delta) {
+        final String baseValue = findOne(delta.baseKey);
+        if (baseValue == null) {
+            debug("did not find base for key: " + delta.baseKey);
+            return null;
+        }
+
+        // Don't compress, as the dynamic state is decoded right away
+        return XFormsUtils.encodeBytes(null, applyDelta(baseValue, delta), null, false);
+    }
+
+    private static byte[] applyDelta(String baseValue, DynamicStateDelta delta) {
+        final String password = XFormsProperties.getXFormsPassword();
+        return DynamicStateDelta.applyDelta(XFormsUtils.decodeBytes(null, baseValue, password),
+                XFormsUtils.decodeBytes(null, delta.encodedDelta, password));
+    }
+
+    /**
+     * Remember that the entry for the given key is stored as a delta against the given base.
+     *
+     * @return  true if the base was found in memory
+     */
+    private boolean addDeltaKey(String baseKey, String key) {
+        final Shard shard = getShard(baseKey);
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry baseListEntry = shard.keyToEntryMap.get(baseKey);
+            if (baseListEntry == null)
+                return false;
+
+            final StoreEntry baseStoreEntry = (StoreEntry) baseListEntry.element;
+            if (baseStoreEntry.deltaKeys == null)
+                baseStoreEntry.deltaKeys = new HashSet<String>();
+            baseStoreEntry.deltaKeys.add(key);
+            return true;
+        }
+    }
+
+    /**
+     * Store in full the deltas still in memory against a base which was removed from memory. This must be called
+     * without holding any shard lock, and may expire more bases.
+     */
+    private void storeDeltasInFull(StoreEntry baseStoreEntry) {
+        for (final String deltaKey: baseStoreEntry.deltaKeys) {
+            final String deltaValue;
+            synchronized (getLock(deltaKey)) {
+                final CacheLinkedList.ListEntry deltaListEntry = findEntry(deltaKey);
+                deltaValue = (deltaListEntry != null) ? ((StoreEntry) deltaListEntry.element).value : null;
             }
 
-            if (isDebugEnabled())
-                debug("added and refreshed entry for key: " + key);
-        } else {
-            // Entry doesn't exist, add it
-            final Map<String, String> sessionIds = new HashMap<String, String>();
-            if (currentSessionId != null)
-                sessionIds.put(currentSessionId, "");
-            addOne(key, value, isPinned, sessionIds, previousKey);
+            // The entry may have been removed, or its key reused, since it was stored as a delta
+            final DynamicStateDelta delta = (deltaValue != null) ? DynamicStateDelta.fromValue(deltaValue) : null;
+            if (delta != null && delta.baseKey.equals(baseStoreEntry.key))
+                replaceValue(deltaKey, deltaValue, XFormsUtils.encodeBytes(null, applyDelta(baseStoreEntry.value, delta), null));
         }
     }
 
-    protected void addOne(String key, String value, boolean isPinned, Map<String, String> sessionIds, String previousKey) {
-        // Make room if needed
-        final int size = value.length() * 2;
-        final int storeSizeBeforeExpire = currentStoreSize;
-        int expiredCount = 0;
-        while (currentStoreSize != 0 && (currentStoreSize + size) > getMaxSize()) {
-            expireOne();
-            expiredCount++;
+    /**
+     * Replace the value of the entry for the given key if it still has the given value. This must be called without
+     * holding any shard lock, and may expire more bases.
+     */
+    private void replaceValue(String key, String oldValue, String newValue) {
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry listEntry = shard.keyToEntryMap.get(key);
+            if (listEntry != null && ((StoreEntry) listEntry.element).value.equals(oldValue)) {
+                ((StoreEntry) listEntry.element).value = newValue;
+
+                // Update store size
+                final int sizeDifference = (newValue.length() - oldValue.length()) * 2;
+                shard.currentSize += sizeDifference;
+                currentStoreSize.addAndGet(sizeDifference);
+
+                if (isDebugEnabled())
+                    debug("stored delta in full (" + sizeDifference + " more bytes) for key: " + key);
+
+                // Make room if needed, which may expire this entry as well
+                makeRoom(shard, 0);
+            }
         }
+    }
 
-        if (storeSizeBeforeExpire != currentStoreSize && isDebugEnabled())
-           debug("expired " + expiredCount + " entries (" + (storeSizeBeforeExpire - currentStoreSize) + " bytes).");
+    /**
+     * Persist the entries expired by the current thread, and store in full the deltas against expired bases. This must
+     * be called without holding any shard lock.
+     */
+    private void processExpiredEntries() {
+        final List<StoreEntry> entries = expiredEntries.get();
+        // Storing deltas in full can expire more entries
+        while (true) {
+            trimStore();
+            if (entries.isEmpty())
+                break;
+
+            final StoreEntry storeEntry = entries.remove(0);
+            try {
+                persistEntry(storeEntry);
+            } finally {
+                persistingEntries.remove(storeEntry.key, storeEntry);
+            }
+            if (storeEntry.deltaKeys != null)
+                storeDeltasInFull(storeEntry);
+        }
+    }
 
-        // Add new element to store
-        final CacheLinkedList.ListEntry listEntry = linkedList.addFirst(new StoreEntry(key, value, isPinned, sessionIds, previousKey));
-        keyToEntryMap.put(key, listEntry);
+    /**
+     * Expire the least recently used entries over all the shards while the store exceeds its maximum size. This must be
+     * called without holding any shard lock.
+     */
+    private void trimStore() {
+        while (currentStoreSize.get() > getMaxSize()) {
+            Shard oldestShard = null;
+            long oldestLastUsed = Long.MAX_VALUE;
+            for (final Shard shard: shards) {
+                synchronized (shard) {
+                    if (shard.linkedList.size() > 0) {
+                        final long lastUsed = ((StoreEntry) shard.linkedList.getLast()).lastUsed;
+                        if (lastUsed < oldestLastUsed) {
+                            oldestShard = shard;
+                            oldestLastUsed = lastUsed;
+                        }
+                    }
+                }
+            }
+            if (oldestShard == null)
+                return;
 
-        // Update store size
-        currentStoreSize += size;
+            synchronized (oldestShard) {
+                if (currentStoreSize.get() > getMaxSize() && oldestShard.linkedList.size() > 0)
+                    expireOne(oldestShard);
+            }
+        }
+    }
 
-        if (isDebugEnabled())
-            debug("added new entry of " + size + " bytes for key: " + key);
+    /**
+     * Remove the entry for the given key unless it is pinned.
+     *
+     * @return  removed entry, or null if no entry was removed
+     */
+    private StoreEntry removeUnpinned(String key) {
+        final StoreEntry removedStoreEntry;
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry listEntry = shard.keyToEntryMap.get(key);
+            final StoreEntry storeEntry = (listEntry != null) ? (StoreEntry) listEntry.element : null;
+            if (storeEntry == null || storeEntry.isPinned)
+                return null;
+
+            removeStoreEntry(listEntry);
+            removedStoreEntry = storeEntry;
+        }
+
+        // Other deltas can use the base, e.g. if the client went back to an older dynamic state
+        if (removedStoreEntry.deltaKeys != null)
+            storeDeltasInFull(removedStoreEntry);
+
+        return removedStoreEntry;
+    }
+
+    protected void addOrReplaceOne(String key, String value, boolean isPinned, String currentSessionId, String previousKey) {
+
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry existingListEntry = shard.keyToEntryMap.get(key);
+            if (existingListEntry != null) {
+                // Entry already exists, move to the front
+                ((StoreEntry) existingListEntry.element).lastUsed = useCounter.incrementAndGet();
+                if (shard.linkedList.getFirst() != existingListEntry.element) {
+                    shard.linkedList.remove(existingListEntry);
+                    final CacheLinkedList.ListEntry listEntry = shard.linkedList.addFirst(existingListEntry.element);
+                    shard.keyToEntryMap.put(key, listEntry);
+
+                    // Add session information
+                    ((StoreEntry) existingListEntry.element).addSessionId(currentSessionId);
+                }
+
+                if (isDebugEnabled())
+                    debug("added and refreshed entry for key: " + key);
+            } else {
+                // Entry doesn't exist, add it
+                final Map<String, String> sessionIds = new HashMap<String, String>();
+                if (currentSessionId != null)
+                    sessionIds.put(currentSessionId, "");
+                addOne(key, value, isPinned, sessionIds, previousKey);
+            }
+        }
+        processExpiredEntries();
+    }
+
+    protected void addOne(String key, String value, boolean isPinned, Map<String, String> sessionIds, String previousKey) {
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            // Make room if needed
+            final int size = value.length() * 2;
+            makeRoom(shard, size);
+
+            // Add new element to store
+            final StoreEntry storeEntry = new StoreEntry(key, value, isPinned, sessionIds, previousKey);
+            storeEntry.lastUsed = useCounter.incrementAndGet();
+            final CacheLinkedList.ListEntry listEntry = shard.linkedList.addFirst(storeEntry);
+            shard.keyToEntryMap.put(key, listEntry);
+
+            // Update store size
+            shard.currentSize += size;
+            currentStoreSize.addAndGet(size);
+
+            if (isDebugEnabled())
+                debug("added new entry of " + size + " bytes for key: " + key);
+        }
     }
 
     protected String findOne(String key) {
-        final CacheLinkedList.ListEntry existingListEntry = keyToEntryMap.get(key);
-        if (existingListEntry != null) {
-            // Found, move to the front
-            if (linkedList.getFirst() != existingListEntry.element) {
-                linkedList.remove(existingListEntry);
-                final CacheLinkedList.ListEntry listEntry = linkedList.addFirst(existingListEntry.element);
-                keyToEntryMap.put(key, listEntry);
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry existingListEntry = shard.keyToEntryMap.get(key);
+            if (existingListEntry != null) {
+                debug("found and refreshed entry for key: " + key);
+                return refreshStoreEntry(shard, existingListEntry);
             }
-            debug("found and refreshed entry for key: " + key);
-            return ((StoreEntry) existingListEntry.element).value;
-        } else {
-            // Not found, try persistent store
-            final String persistedEntry = findPersistedEntry(key);
-            if (persistedEntry != null) {
-                return persistedEntry;
-            } else {
-                // Not found
-                debug("did not find entry for key: " + key);
-                return null;
+        }
+
+        // Not found, try entries being persisted, then persistent store
+        // NOTE: The shard is not locked while reading, as this can be slow. Concurrent requests can then read the same
+        // entry, or the entry can be added in the meanwhile, so check again before adding it to the shard.
+        final StoreEntry persistingStoreEntry = persistingEntries.get(key);
+        final StoreEntry persistedStoreEntry = (persistingStoreEntry != null)
+                ? new StoreEntry(key, persistingStoreEntry.value, persistingStoreEntry.isPinned, new HashMap<String, String>(persistingStoreEntry.sessionIds), persistingStoreEntry.previousKey)
+                : findPersistedEntry(key);
+        if (persistedStoreEntry == null) {
+            // Not found
+            debug("did not find entry for key: " + key);
+            return null;
+        }
+
+        synchronized (shard) {
+            final CacheLinkedList.ListEntry existingListEntry = shard.keyToEntryMap.get(key);
+            if (existingListEntry != null) {
+                debug("found and refreshed entry added concurrently for key: " + key);
+                return refreshStoreEntry(shard, existingListEntry);
             }
+
+            // Add the key to the list in memory
+            addOne(persistedStoreEntry.key, persistedStoreEntry.value, persistedStoreEntry.isPinned, persistedStoreEntry.sessionIds, persistedStoreEntry.previousKey);
+            debug("migrated persisted entry for key: " + key);
         }
+        processExpiredEntries();
+        return persistedStoreEntry.value;
     }
 
+    /**
+     * Move the given entry to the front of its shard. The caller must hold the shard lock.
+     *
+     * @return  value of the entry
+     */
+    private String refreshStoreEntry(Shard shard, CacheLinkedList.ListEntry existingListEntry) {
+        final StoreEntry storeEntry = (StoreEntry) existingListEntry.element;
+        storeEntry.lastUsed = useCounter.incrementAndGet();
+        if (shard.linkedList.getFirst() != storeEntry) {
+            shard.linkedList.remove(existingListEntry);
+            final CacheLinkedList.ListEntry listEntry = shard.linkedList.addFirst(storeEntry);
+            shard.keyToEntryMap.put(storeEntry.key, listEntry);
+        }
+        return storeEntry.value;
+    }
+
+    /**
+     * Find the list entry for the given key. The caller must hold the lock returned by getLock() for the key if it
+     * uses the entry.
+     */
     protected CacheLinkedList.ListEntry findEntry(String key) {
-        return keyToEntryMap.get(key);
+        final Shard shard = getShard(key);
+        synchronized (shard) {
+            return shard.keyToEntryMap.get(key);
+        }
+    }
+
+    /**
+     * Return the object to synchronize on to access the entry for the given key.
+     */
+    protected Object getLock(String key) {
+        return getShard(key);
     }
 
     protected void removeStoreEntry(CacheLinkedList.ListEntry existingListEntry) {
 
         final StoreEntry existingStoreEntry = (StoreEntry) existingListEntry.element;
+        final Shard shard = getShard(existingStoreEntry.key);
+        synchronized (shard) {
+            final int stateSize = existingStoreEntry.value.length() * 2;
 
-        final int stateSize = existingStoreEntry.value.length() * 2;
+            shard.linkedList.remove(existingListEntry);
+            shard.keyToEntryMap.remove(existingStoreEntry.key);
 
-        linkedList.remove(existingListEntry);
-        keyToEntryMap.remove(existingStoreEntry.key);
+            // Update store size
+            shard.currentSize -= stateSize;
+            currentStoreSize.addAndGet(-stateSize);
 
-        // Update store size
-        currentStoreSize -= stateSize;
+            if (isDebugEnabled())
+                debug("removed entry of " + stateSize + " bytes for key: " + existingStoreEntry.key);
+        }
+    }
 
-        if (isDebugEnabled())
-            debug("removed entry of " + stateSize + " bytes for key: " + existingStoreEntry.key);
+    /**
+     * Expire entries of the given shard until an entry of the given size fits in the store, or the shard is empty. The
+     * caller must hold the shard lock.
+     */
+    private void makeRoom(Shard shard, int size) {
+        final int maxSize = getMaxSize();
+        final int shardSizeBeforeExpire = shard.currentSize;
+        int expiredCount = 0;
+        while (shard.currentSize != 0 && (currentStoreSize.get() + size) > maxSize) {
+            expireOne(shard);
+            expiredCount++;
+        }
+
+        if (expiredCount > 0 && isDebugEnabled())
+           debug("expired " + expiredCount + " entries (" + (shardSizeBeforeExpire - shard.currentSize) + " bytes).");
     }
 
-    private void expireOne() {
-        if (linkedList.size() > 0) {
+    private void expireOne(Shard shard) {
+        if (shard.linkedList.size() > 0) {
             // Remove last entry
-            final CacheLinkedList.ListEntry lastListEntry = linkedList.getLastEntry();
+            final CacheLinkedList.ListEntry lastListEntry = shard.linkedList.getLastEntry();
             removeStoreEntry(lastListEntry);
 
-            // Try to persist state
-            persistEntry((StoreEntry) lastListEntry.element);
+            // Try to persist state once the shard lock is released, and if it is a base, store its deltas in full
+            final StoreEntry lastStoreEntry = (StoreEntry) lastListEntry.element;
+            persistingEntries.put(lastStoreEntry.key, lastStoreEntry);
+            expiredEntries.get().add(lastStoreEntry);
         }
     }
 
@@ -240,13 +607,22 @@ public abstract class XFormsStateStore {
         // NOP by default
     }
 
-    protected String findPersistedEntry(String key) {
+    /**
+     * Find an entry in the persistent store. This is called without holding any shard lock.
+     *
+     * @return  entry, or null if not found
+     */
+    protected StoreEntry findPersistedEntry(String key) {
         // NOP by default
         return null;
     }
 
+    int getShardCount() {
+        return shards.length;
+    }
+
     protected int getCurrentStoreSize() {
-        return currentStoreSize;
+        return currentStoreSize.get();
     }
 
     protected final boolean isDebugEnabled() {
@@ -265,13 +641,15 @@ public abstract class XFormsStateStore {
 //        }
     }
 
-    protected static class StoreEntry {
+    public static class StoreEntry {
         public String key;
         public String value;
         public boolean isPinned;
         public Map<String, String> sessionIds;
 
         public String previousKey; // link to the previous key (for dynamic state only)
+        public Set<String> deltaKeys; // keys of the entries stored as deltas against this entry (in memory only)
+        public long lastUsed; // order of the last use of this entry (in memory only)
 
         public StoreEntry(String key, String value, boolean isPinned, Map<String, String> sessionIds, String previousKey) {
             this.key = key;
@@ -29,6 +29,7 @@ import org.orbeon.oxf.xforms.event.*;
 import org.orbeon.oxf.xforms.event.events.XFormsModelDestructEvent;
 import org.orbeon.oxf.xforms.event.events.XFormsUIEvent;
 import org.orbeon.oxf.xforms.event.events.XXFormsValueChangeWithFocusChangeEvent;
+import org.orbeon.oxf.xforms.state.DynamicStateOutput;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.orbeon.saxon.om.Item;
@@ -613,20 +614,20 @@ public class XBLContainer implements XFormsEventTarget, XFormsEventObserver, XFo
     /**
      * Serialize all the instances of this container and children containers.
      *
-     * @param instancesElement  container element
+     * @param out     dynamic state output
      */
-    protected void serializeInstances(Element instancesElement) {
+    protected void serializeInstances(DynamicStateOutput out) {
         // Only serialize if we are relevant
         if (isRelevant()) {
             // Serialize this container's model's
             for (final XFormsModel currentModel: models) {
-                currentModel.serializeInstances(instancesElement);
+                currentModel.serializeInstances(out);
             }
 
             // Recurse into children containers
             if (childrenXBLContainers != null) {
                 for (final XBLContainer currentContainer: childrenXBLContainers.values()) {
-                    currentContainer.serializeInstances(instancesElement);
+                    currentContainer.serializeInstances(out);
                 }
             }
         }
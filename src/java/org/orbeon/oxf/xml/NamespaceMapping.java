@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable mapping of prefixes to namespace URIs, with a precomputed hash code.
+ *
+ * Static analysis creates a single instance per distinct namespace context (see intern()), so that equal mappings are
+ * most of the time the same object, and comparing them, e.g. as part of an XPath cache key, is immediate.
+ */
+public class NamespaceMapping extends AbstractMap<String, String> {
+
+    private final Map<String, String> mapping;
+    private final int hash;
+
+    public NamespaceMapping(Map<String, String> mapping) {
+        this.mapping = Collections.unmodifiableMap(new HashMap<String, String>(mapping));
+        this.hash = mapping.hashCode();
+    }
+
+    /**
+     * Return a mapping equal to the given one, reusing an existing mapping from the given set of mappings if possible.
+     *
+     * @param mappings  mappings interned so far
+     * @param mapping   mapping to intern
+     * @return          interned mapping
+     */
+    public static NamespaceMapping intern(Map<NamespaceMapping, NamespaceMapping> mappings, Map<String, String> mapping) {
+        final NamespaceMapping newMapping = (mapping instanceof NamespaceMapping) ? (NamespaceMapping) mapping : new NamespaceMapping(mapping);
+        final NamespaceMapping existingMapping = mappings.get(newMapping);
+        if (existingMapping != null) {
+            return existingMapping;
+        } else {
+            mappings.put(newMapping, newMapping);
+            return newMapping;
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        return mapping.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return mapping.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return mapping.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return mapping.entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return mapping.keySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o instanceof NamespaceMapping && ((NamespaceMapping) o).hash != hash)
+            return false;
+        return mapping.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
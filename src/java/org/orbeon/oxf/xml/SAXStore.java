@@ -14,6 +14,7 @@
 package org.orbeon.oxf.xml;
 
 import org.dom4j.Document;
+import org.orbeon.oxf.cache.Sizeable;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.processor.SAXLoggerProcessor;
 import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler;
@@ -38,7 +39,7 @@ import java.util.List;
  *
  * TODO: Handling of system IDs is not optimal in memory as system IDs are unlikely to change much within a document.
  */
-public class SAXStore extends ForwardingContentHandler implements Serializable, Externalizable {
+public class SAXStore extends ForwardingContentHandler implements Serializable, Externalizable, Sizeable {
 
     public static final byte START_DOCUMENT = 0x00;
     public static final byte END_DOCUMENT = 0x01;
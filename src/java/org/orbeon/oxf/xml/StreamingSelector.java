@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ContentHandler selecting the elements matched by a simple downward path of the form /a/b/c while receiving a
+ * document, so that only one selected element needs to be in memory at a time.
+ *
+ * Each selected element is sent as a separate document, with all the namespace mappings in scope, to the
+ * ContentHandler returned by startItem(), and endItem() is called after the end of that document.
+ */
+public abstract class StreamingSelector implements ContentHandler {
+
+    private final List<String[]> steps;
+    private final NamespaceSupport3 namespaceSupport = new NamespaceSupport3();
+    private final List<String> itemPrefixes = new ArrayList<String>();
+
+    private Locator locator;
+    // Receiver of the current selected element, if any
+    private ContentHandler item;
+    private int level;
+    private int matchedLevel;
+
+    /**
+     * @param steps steps returned by getSteps()
+     */
+    protected StreamingSelector(List<String[]> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Return the steps of a simple downward path made of element names and '*', or null if the select expression is
+     * not such a path. A null namespace URI or local name in a step matches any.
+     *
+     * @param select        select expression
+     * @param prefixesMap   namespace mappings in scope on the select expression
+     * @return              steps, or null
+     */
+    public static List<String[]> getSteps(String select, Map<String, String> prefixesMap) {
+        final String trimmedSelect = select.trim();
+        if (!trimmedSelect.startsWith("/") || trimmedSelect.endsWith("/"))
+            return null;
+
+        final List<String[]> steps = new ArrayList<String[]>();
+        for (final String step: trimmedSelect.substring(1).split("/")) {
+            if (step.equals("*")) {
+                steps.add(new String[] { null, null });
+            } else {
+                final int columnPosition = step.indexOf(':');
+                final String prefix = (columnPosition == -1) ? "" : step.substring(0, columnPosition);
+                final String localName = step.substring(columnPosition + 1);
+                if (!isNCName(localName) || (prefix.length() > 0 && !isNCName(prefix)))
+                    return null;
+                // XPath doesn't use the default namespace for names without prefix
+                final String namespaceURI = (prefix.length() == 0) ? "" : prefixesMap.get(prefix);
+                if (namespaceURI == null)
+                    return null;
+                steps.add(new String[] { namespaceURI, localName });
+            }
+        }
+        return steps;
+    }
+
+    private static boolean isNCName(String name) {
+        if (name.length() == 0 || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_'))
+            return false;
+        for (int i = 1; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String[] step, String uri, String localname) {
+        return (step[0] == null || step[0].equals(uri)) && (step[1] == null || step[1].equals(localname));
+    }
+
+    /**
+     * Called at the start of a selected element.
+     *
+     * @return  ContentHandler receiving the selected element as a document
+     */
+    protected abstract ContentHandler startItem() throws SAXException;
+
+    /**
+     * Called once the selected element was sent to the ContentHandler returned by startItem().
+     */
+    protected abstract void endItem() throws SAXException;
+
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    public void startDocument() {
+    }
+
+    public void endDocument() {
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        namespaceSupport.startPrefixMapping(prefix, uri);
+        if (item != null)
+            item.startPrefixMapping(prefix, uri);
+    }
+
+    public void endPrefixMapping(String prefix) throws SAXException {
+        // Mappings in scope on the selected element are ended along with its document
+        if (item != null)
+            item.endPrefixMapping(prefix);
+    }
+
+    public void startElement(String uri, String localname, String qName, Attributes attributes) throws SAXException {
+        namespaceSupport.startElement();
+        level++;
+
+        if (item != null) {
+            item.startElement(uri, localname, qName, attributes);
+        } else if (matchedLevel == level - 1 && level <= steps.size() && matches(steps.get(level - 1), uri, localname)) {
+            matchedLevel = level;
+            if (level == steps.size()) {
+                // Start of selected element: start a document with all the mappings in scope
+                item = startItem();
+                if (locator != null)
+                    item.setDocumentLocator(locator);
+                item.startDocument();
+                final String defaultNamespaceURI = namespaceSupport.getURI("");
+                if (defaultNamespaceURI != null && defaultNamespaceURI.length() > 0)
+                    itemPrefixes.add("");
+                for (final Enumeration e = namespaceSupport.getPrefixes(); e.hasMoreElements();) {
+                    final String prefix = (String) e.nextElement();
+                    if (!prefix.equals("xml"))
+                        itemPrefixes.add(prefix);
+                }
+                for (final String prefix: itemPrefixes)
+                    item.startPrefixMapping(prefix, namespaceSupport.getURI(prefix));
+                item.startElement(uri, localname, qName, attributes);
+            }
+        }
+    }
+
+    public void endElement(String uri, String localname, String qName) throws SAXException {
+        if (item != null) {
+            item.endElement(uri, localname, qName);
+            if (level == steps.size()) {
+                // End of selected element
+                for (final String prefix: itemPrefixes)
+                    item.endPrefixMapping(prefix);
+                itemPrefixes.clear();
+                item.endDocument();
+                item = null;
+
+                endItem();
+            }
+        }
+
+        if (matchedLevel == level)
+            matchedLevel--;
+        level--;
+        namespaceSupport.endElement();
+    }
+
+    public void characters(char[] chars, int start, int length) throws SAXException {
+        if (item != null)
+            item.characters(chars, start, length);
+    }
+
+    public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException {
+        if (item != null)
+            item.ignorableWhitespace(chars, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (item != null)
+            item.processingInstruction(target, data);
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+        if (item != null)
+            item.skippedEntity(name);
+    }
+}
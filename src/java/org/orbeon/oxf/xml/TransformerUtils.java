@@ -28,6 +28,8 @@ import org.orbeon.saxon.TransformerFactoryImpl;
 import org.orbeon.saxon.om.DocumentInfo;
 import org.orbeon.saxon.om.NodeInfo;
 import org.orbeon.saxon.tinytree.TinyBuilder;
+import org.orbeon.saxon.tinytree.TinyDocumentImpl;
+import org.orbeon.saxon.tinytree.TinyTree;
 import org.w3c.dom.Node;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -278,6 +280,26 @@ public class TransformerUtils {
         return (DocumentInfo) treeBuilder.getCurrentRoot();
     }
 
+    // Rough sizes in bytes of TinyTree structures: a node uses several parallel int arrays and an attribute value is a
+    // separate CharSequence object
+    private static final int TINY_TREE_NODE_SIZE = 24;
+    private static final int TINY_TREE_ATTRIBUTE_SIZE = 56;
+    private static final int TINY_TREE_NAMESPACE_SIZE = 8;
+
+    /**
+     * Return the approximate size in memory of a TinyTree document.
+     *
+     * @param documentInfo  TinyTree document
+     * @return              approximate size in bytes
+     */
+    public static long getApproximateSize(TinyDocumentImpl documentInfo) {
+        final TinyTree tree = documentInfo.getTree();
+        return (long) tree.getNumberOfNodes() * TINY_TREE_NODE_SIZE
+                + (long) tree.getNumberOfAttributes() * TINY_TREE_ATTRIBUTE_SIZE
+                + (long) tree.getNumberOfNamespaces() * TINY_TREE_NAMESPACE_SIZE
+                + (long) tree.getCharacterBuffer().length() * 2;
+    }
+
     /**
      * Transform a SAXStore into a DOM document
      *
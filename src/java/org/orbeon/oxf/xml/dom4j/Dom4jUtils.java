@@ -820,6 +820,39 @@ public class Dom4jUtils {
         return sb.toString();
     }
 
+    // Rough sizes in bytes of dom4j objects, including references from their parent and the content list of elements
+    private static final int ELEMENT_SIZE = 96;
+    private static final int ATTRIBUTE_SIZE = 40;
+    private static final int LEAF_NODE_SIZE = 40;
+
+    /**
+     * Return the approximate size in memory of a dom4j node and its descendants.
+     *
+     * This is rough, as it doesn't take into account sharing of QName and String objects between nodes.
+     *
+     * @param node  node to measure
+     * @return      approximate size in bytes
+     */
+    public static long getApproximateSize(Node node) {
+        if (node instanceof Branch) {
+            long size = ELEMENT_SIZE;
+            if (node instanceof Element) {
+                final Element element = (Element) node;
+                for (int i = 0; i < element.attributeCount(); i++)
+                    size += ATTRIBUTE_SIZE + element.attribute(i).getValue().length() * 2;
+            }
+            for (final Object childObject: ((Branch) node).content())
+                size += getApproximateSize((Node) childObject);
+            return size;
+        } else if (node instanceof Attribute) {
+            return ATTRIBUTE_SIZE + ((Attribute) node).getValue().length() * 2;
+        } else {
+            // Text, comments, processing instructions and namespaces
+            final String text = node.getText();
+            return LEAF_NODE_SIZE + ((text != null) ? text.length() * 2 : 0);
+        }
+    }
+
     public static interface VisitorListener {
         void startElement(Element element);
         void endElement(Element element);
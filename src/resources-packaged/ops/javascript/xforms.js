@@ -2349,6 +2349,25 @@ ORBEON.xforms.Controls = {
         }
     },
 
+    /**
+     * Remove the disabled attribute on the form fields of a repeat iteration which was output as a placeholder, as is
+     * done when copying the repeat template.
+     */
+    materializeRepeatIteration: function(repeatID, iteration) {
+        var cursor = ORBEON.util.Utils.findRepeatDelimiter(repeatID, iteration).nextSibling;
+        while (!(cursor.nodeType == ELEMENT_TYPE &&
+                 (ORBEON.util.Dom.hasClass(cursor, "xforms-repeat-delimiter")
+                         || ORBEON.util.Dom.hasClass(cursor, "xforms-repeat-begin-end")))) {
+            if (cursor.nodeType == ELEMENT_TYPE) {
+                cursor.removeAttribute("disabled");
+                var descendants = cursor.getElementsByTagName("*");
+                for (var descendantIndex = 0; descendantIndex < descendants.length; descendantIndex++)
+                    descendants[descendantIndex].removeAttribute("disabled");
+            }
+            cursor = cursor.nextSibling;
+        }
+    },
+
     setReadonly: function(control, isReadonly) {
 
         // Update class
@@ -6302,6 +6321,19 @@ ORBEON.xforms.Server = {
                                             }
                                         }
                                     }
+
+                                    var repeatIterationElements = ORBEON.util.Dom.getElementsByName(controlValuesElement, "repeat-iteration", xmlNamespace);
+                                    var repeatIterationElementsLength = repeatIterationElements.length;
+                                    for (var j = 0; j < repeatIterationElementsLength; j++) {
+                                        // Placeholder iteration now holding controls: enable its form fields before
+                                        // the values and model item properties of the controls are set
+                                        var repeatIterationElement = repeatIterationElements[j];
+                                        if (ORBEON.util.Dom.getAttribute(repeatIterationElement, "materialized") == "true") {
+                                            var repeatId = ORBEON.util.Dom.getAttribute(repeatIterationElement, "id");
+                                            var iteration = ORBEON.util.Dom.getAttribute(repeatIterationElement, "iteration");
+                                            ORBEON.xforms.Controls.materializeRepeatIteration(repeatId, iteration);
+                                        }
+                                    }
                                 }
                             }
                         }
@@ -0,0 +1,125 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.util.PropertyContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compare the throughput of MemoryCacheImpl and ConcurrentMemoryCacheImpl with many threads doing mostly lookups.
+ *
+ * This is not part of the unit tests, as timings depend on the machine. Run with:
+ *
+ *   java org.orbeon.oxf.cache.CacheBenchmark [threads] [operations per thread]
+ */
+public class CacheBenchmark {
+
+    private static final Long VALIDITY = 1L;
+    private static final int MAX_SIZE = 500;
+    private static final int KEYS = MAX_SIZE * 2;
+
+    public static void main(String[] args) throws Throwable {
+        final int threadCount = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        final int operationCount = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+
+        // Warm-up
+        runThreads(new MemoryCacheImpl("test", MAX_SIZE), threadCount, operationCount / 10);
+        runThreads(new ConcurrentMemoryCacheImpl("test", MAX_SIZE), threadCount, operationCount / 10);
+
+        final long memoryTime = runThreads(new MemoryCacheImpl("test", MAX_SIZE), threadCount, operationCount);
+        final long concurrentTime = runThreads(new ConcurrentMemoryCacheImpl("test", MAX_SIZE), threadCount, operationCount);
+
+        System.out.println("Cache throughput with " + threadCount + " threads, " + operationCount + " operations per thread:");
+        System.out.println("  MemoryCacheImpl:           " + (threadCount * (long) operationCount * 1000 / Math.max(memoryTime, 1)) + " operations/s");
+        System.out.println("  ConcurrentMemoryCacheImpl: " + (threadCount * (long) operationCount * 1000 / Math.max(concurrentTime, 1)) + " operations/s");
+    }
+
+    /**
+     * Run threads doing a mix of 90% lookups and 10% additions, with a skewed distribution of keys.
+     *
+     * @return  time in ms
+     */
+    private static long runThreads(final Cache cache, int threadCount, final int operationCount) throws Throwable {
+        final Throwable[] error = new Throwable[1];
+        final Thread threads[] = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        final PropertyContext propertyContext = new BenchmarkPropertyContext();
+                        for (int j = 0; j < operationCount; j++) {
+                            final int keyIndex = Math.min(Math.abs((int) (random.nextGaussian() * KEYS / 3)), KEYS - 1);
+                            final BenchmarkCacheKey key = new BenchmarkCacheKey(keyIndex);
+                            if (random.nextInt(10) == 0)
+                                cache.add(propertyContext, key, VALIDITY, "value" + keyIndex);
+                            else
+                                cache.findValid(propertyContext, key, VALIDITY);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+
+        final long startTime = System.currentTimeMillis();
+        for (int i = 0; i < threadCount; i++)
+            threads[i].start();
+        for (int i = 0; i < threadCount; i++)
+            threads[i].join();
+        final long time = System.currentTimeMillis() - startTime;
+
+        synchronized (error) {
+            if (error[0] != null)
+                throw error[0];
+        }
+        return time;
+    }
+
+    private static class BenchmarkCacheKey extends CacheKey {
+        private final int value;
+
+        public BenchmarkCacheKey(int value) {
+            setClazz(BenchmarkCacheKey.class);
+            this.value = value;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof BenchmarkCacheKey && ((BenchmarkCacheKey) obj).value == value;
+        }
+
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    private static class BenchmarkPropertyContext implements PropertyContext {
+        private final Map<Object, Object> attributes = new HashMap<Object, Object>();
+
+        public void setAttribute(Object key, Object o) {
+            attributes.put(key, o);
+        }
+
+        public Object getAttribute(Object key) {
+            return attributes.get(key);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import junit.framework.TestCase;
+import org.orbeon.oxf.util.PropertyContext;
+
+import java.util.*;
+
+public class ConcurrentMemoryCacheImplTest extends TestCase {
+
+    private static final Long VALIDITY = 1L;
+
+    public void testAddAndFind() {
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", 10);
+        cache.add(null, new TestCacheKey(1), VALIDITY, "value1");
+        assertEquals("value1", cache.findValid(null, new TestCacheKey(1), VALIDITY));
+        assertNull(cache.findValid(null, new TestCacheKey(2), VALIDITY));
+    }
+
+    public void testValidity() {
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", 10);
+        cache.add(null, new TestCacheKey(1), 10L, "value1");
+        assertEquals("value1", cache.findValid(null, new TestCacheKey(1), 5L));
+        assertEquals("value1", cache.findValid(null, new TestCacheKey(1), 10L));
+        assertNull("Newer validity must not match", cache.findValid(null, new TestCacheKey(1), 11L));
+
+        cache.add(null, new TestCacheKey(2), Arrays.asList(new Long[] { 1L, 2L }), "value2");
+        assertEquals("value2", cache.findValid(null, new TestCacheKey(2), Arrays.asList(new Long[] { 1L, 2L })));
+        assertNull(cache.findValid(null, new TestCacheKey(2), Arrays.asList(new Long[] { 1L, 3L })));
+    }
+
+    public void testUpdate() {
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", 10);
+        cache.add(null, new TestCacheKey(1), VALIDITY, "value1");
+        cache.add(null, new TestCacheKey(1), 2L, "value2");
+        assertEquals("value2", cache.findValid(null, new TestCacheKey(1), 2L));
+        assertEquals(1, countKeys(cache));
+    }
+
+    public void testMaxSize() {
+        final int MAX_SIZE = 100;
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", MAX_SIZE);
+        for (int i = 0; i < MAX_SIZE * 10; i++)
+            cache.add(null, new TestCacheKey(i), VALIDITY, "value" + i);
+        assertEquals(MAX_SIZE, countKeys(cache));
+
+        cache.setMaxSize(null, MAX_SIZE / 2);
+        assertEquals(MAX_SIZE / 2, countKeys(cache));
+
+        cache.setMaxSize(null, 0);
+        cache.add(null, new TestCacheKey(0), VALIDITY, "value0");
+        assertEquals(0, countKeys(cache));
+    }
+
+    public void testMaxWeight() {
+        // Both implementations must behave the same
+        checkMaxWeight(new MemoryCacheImpl("test", 100));
+        checkMaxWeight(new ConcurrentMemoryCacheImpl("test", 100));
+    }
+
+    private void checkMaxWeight(Cache cache) {
+        cache.setMaxWeight(null, 1000);
+        for (int i = 0; i < 10; i++)
+            cache.add(null, new TestCacheKey(i), VALIDITY, new TestSizeable(100));
+        assertEquals(10, countKeys(cache));
+
+        cache.add(null, new TestCacheKey(10), VALIDITY, new TestSizeable(300));
+        assertEquals(8, countKeys(cache));
+        assertNotNull(cache.findValid(null, new TestCacheKey(10), VALIDITY));
+
+        final PropertyContext propertyContext = new TestPropertyContext();
+        assertEquals(1000, cache.getStatistics(propertyContext).getCurrentWeight());
+
+        // Objects larger than the maximum weight are not kept
+        cache.add(null, new TestCacheKey(10), VALIDITY, new TestSizeable(2000));
+        assertNull(cache.findValid(null, new TestCacheKey(10), VALIDITY));
+        assertEquals(700, cache.getStatistics(propertyContext).getCurrentWeight());
+
+        cache.setMaxWeight(null, 200);
+        assertEquals(2, countKeys(cache));
+        assertEquals(200, cache.getStatistics(propertyContext).getCurrentWeight());
+    }
+
+    public void testMaxWeightSetLater() {
+        checkMaxWeightSetLater(new MemoryCacheImpl("test", 100));
+        checkMaxWeightSetLater(new ConcurrentMemoryCacheImpl("test", 100));
+    }
+
+    private void checkMaxWeightSetLater(Cache cache) {
+        // Without max weight, weights are not computed
+        for (int i = 0; i < 10; i++)
+            cache.add(null, new TestCacheKey(i), VALIDITY, new TestSizeable(100));
+        final PropertyContext propertyContext = new TestPropertyContext();
+        assertEquals(0, cache.getStatistics(propertyContext).getCurrentWeight());
+
+        // Weights of existing entries are computed when setting a max weight
+        cache.setMaxWeight(null, 500);
+        assertEquals(5, countKeys(cache));
+        assertEquals(500, cache.getStatistics(propertyContext).getCurrentWeight());
+
+        cache.add(null, new TestCacheKey(10), VALIDITY, new TestSizeable(200));
+        assertEquals(4, countKeys(cache));
+        assertEquals(500, cache.getStatistics(propertyContext).getCurrentWeight());
+    }
+
+    public void testRecentlyUsedEntryIsKept() {
+        final int MAX_SIZE = 64;
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", MAX_SIZE);
+        // Fill the cache first so that eviction is in its steady state
+        for (int i = 0; i < MAX_SIZE * 2; i++)
+            cache.add(null, new TestCacheKey(i), VALIDITY, "value" + i);
+
+        cache.add(null, new TestCacheKey(-1), VALIDITY, "hot");
+        for (int i = MAX_SIZE * 2; i < MAX_SIZE * 10; i++) {
+            assertEquals("hot", cache.findValid(null, new TestCacheKey(-1), VALIDITY));
+            cache.add(null, new TestCacheKey(i), VALIDITY, "value" + i);
+        }
+    }
+
+    public void testEvictionNotification() {
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", 1);
+        final TestCacheable cacheable1 = new TestCacheable();
+        final TestCacheable cacheable2 = new TestCacheable();
+        final TestCacheable cacheable3 = new TestCacheable();
+
+        cache.add(null, new TestCacheKey(1), VALIDITY, cacheable1);
+        cache.add(null, new TestCacheKey(2), VALIDITY, cacheable2);
+        assertTrue(cacheable1.evicted);
+
+        cache.remove(null, new TestCacheKey(2));
+        assertTrue(cacheable2.evicted);
+
+        cache.add(null, new TestCacheKey(3), VALIDITY, cacheable3);
+        assertEquals(1, cache.removeAll(null));
+        assertTrue(cacheable3.evicted);
+        assertEquals(0, countKeys(cache));
+    }
+
+    public void testStatistics() {
+        final PropertyContext propertyContext = new TestPropertyContext();
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", 2);
+        for (int i = 0; i < 3; i++)
+            cache.add(propertyContext, new TestCacheKey(i), VALIDITY, "value" + i);
+        cache.findValid(propertyContext, new TestCacheKey(2), VALIDITY);
+        cache.findValid(propertyContext, new TestCacheKey(3), VALIDITY);
+
+        final CacheStatistics statistics = cache.getStatistics(propertyContext);
+        assertEquals(3, statistics.getAddCount());
+        assertEquals(1, statistics.getExpirationCount());
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(2, statistics.getCurrentSize());
+        assertEquals(2, statistics.getMaxSize());
+    }
+
+    public void testMultiThreadedUsage() throws Throwable {
+        final int MAX_SIZE = 500;
+        final Cache cache = new ConcurrentMemoryCacheImpl("test", MAX_SIZE);
+        final List<Throwable> errors = runThreads(cache, 8, 50000, MAX_SIZE * 4);
+        if (errors.size() > 0)
+            throw errors.get(0);
+
+        // Concurrent additions may briefly exceed the maximum size, but eviction brings the size back under it
+        final int keyCount = countKeys(cache);
+        assertTrue("Too many entries: " + keyCount, keyCount <= MAX_SIZE);
+        assertTrue("Too few entries: " + keyCount, keyCount > MAX_SIZE / 2);
+        assertEquals(keyCount, cache.getStatistics(new TestPropertyContext()).getCurrentSize());
+    }
+
+    /**
+     * Run threads doing a mix of 90% lookups and 10% additions, with a skewed distribution of keys.
+     */
+    private List<Throwable> runThreads(final Cache cache, int threadCount, final int operationCount, final int keyCount) throws InterruptedException {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread threads[] = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        final PropertyContext propertyContext = new TestPropertyContext();
+                        for (int j = 0; j < operationCount; j++) {
+                            final int keyIndex = Math.min(Math.abs((int) (random.nextGaussian() * keyCount / 3)), keyCount - 1);
+                            final TestCacheKey key = new TestCacheKey(keyIndex);
+                            if (random.nextInt(10) == 0) {
+                                cache.add(propertyContext, key, VALIDITY, "value" + keyIndex);
+                            } else {
+                                final Object value = cache.findValid(propertyContext, key, VALIDITY);
+                                if (value != null && !value.equals("value" + keyIndex))
+                                    throw new IllegalStateException("Incorrect value for key " + keyIndex + ": " + value);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++)
+            threads[i].join();
+        return errors;
+    }
+
+    private int countKeys(Cache cache) {
+        int count = 0;
+        for (Iterator i = cache.iterateCacheKeys(null); i.hasNext(); i.next())
+            count++;
+        return count;
+    }
+
+    private static class TestCacheKey extends CacheKey {
+        private final int value;
+
+        public TestCacheKey(int value) {
+            setClazz(TestCacheKey.class);
+            this.value = value;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof TestCacheKey && ((TestCacheKey) obj).value == value;
+        }
+
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    private static class TestCacheable implements Cacheable {
+        public boolean evicted;
+
+        public void evict(PropertyContext propertyContext) {
+            evicted = true;
+        }
+    }
+
+    private static class TestSizeable implements Sizeable {
+        private final long size;
+
+        public TestSizeable(long size) {
+            this.size = size;
+        }
+
+        public long getApproximateSize() {
+            return size;
+        }
+    }
+
+    private static class TestPropertyContext implements PropertyContext {
+        private final Map<Object, Object> attributes = new HashMap<Object, Object>();
+
+        public void setAttribute(Object key, Object o) {
+            attributes.put(key, o);
+        }
+
+        public Object getAttribute(Object key) {
+            return attributes.get(key);
+        }
+    }
+}
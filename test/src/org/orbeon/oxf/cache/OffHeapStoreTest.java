@@ -0,0 +1,97 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class OffHeapStoreTest extends TestCase {
+
+    private static final Long VALIDITY = 1L;
+
+    public void testPutAndFind() {
+        checkPutAndFind(OffHeapStore.createDirect(1000));
+        checkPutAndFind(OffHeapStore.createMapped(new File(System.getProperty("java.io.tmpdir")), 1000));
+    }
+
+    private void checkPutAndFind(OffHeapStore store) {
+        assertTrue(store.put(new TestCacheKey(1), 10L, bytes(1, 100)));
+        assertTrue(store.put(new TestCacheKey(2), 10L, bytes(2, 200)));
+
+        final OffHeapStore.StoredObject storedObject = store.find(new TestCacheKey(1), 5L);
+        assertNotNull(storedObject);
+        assertEquals(10L, storedObject.validity);
+        assertTrue(Arrays.equals(bytes(1, 100), storedObject.bytes));
+        assertTrue(Arrays.equals(bytes(2, 200), store.find(new TestCacheKey(2), 10L).bytes));
+
+        assertNull("Newer validity must not match", store.find(new TestCacheKey(1), 11L));
+        assertNull(store.find(new TestCacheKey(3), 10L));
+
+        store.remove(new TestCacheKey(1));
+        assertNull(store.find(new TestCacheKey(1), 10L));
+        assertEquals(1, store.getCurrentSize());
+        assertEquals(200, store.getUsedBytes());
+    }
+
+    public void testWrap() {
+        final OffHeapStore store = OffHeapStore.createDirect(1000);
+        for (int i = 0; i < 4; i++)
+            assertTrue(store.put(new TestCacheKey(i), VALIDITY, bytes(i, 300)));
+
+        // Only the last 3 fit, and the oldest was overwritten
+        assertEquals(3, store.getCurrentSize());
+        assertNull(store.find(new TestCacheKey(0), VALIDITY));
+        for (int i = 1; i < 4; i++)
+            assertTrue(Arrays.equals(bytes(i, 300), store.find(new TestCacheKey(i), VALIDITY).bytes));
+
+        // Writing at the beginning again overwrites the next oldest
+        assertTrue(store.put(new TestCacheKey(4), VALIDITY, bytes(4, 300)));
+        assertNull(store.find(new TestCacheKey(1), VALIDITY));
+        for (int i = 2; i < 5; i++)
+            assertTrue(Arrays.equals(bytes(i, 300), store.find(new TestCacheKey(i), VALIDITY).bytes));
+        assertEquals(900, store.getUsedBytes());
+
+        // Objects larger than the store are rejected
+        assertFalse(store.put(new TestCacheKey(5), VALIDITY, bytes(5, 1001)));
+
+        assertEquals(3, store.removeAll());
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        final byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte) (seed * 31 + i);
+        return result;
+    }
+
+    private static class TestCacheKey extends CacheKey {
+        private final int value;
+
+        public TestCacheKey(int value) {
+            setClazz(TestCacheKey.class);
+            this.value = value;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof TestCacheKey && ((TestCacheKey) obj).value == value;
+        }
+
+        public int hashCode() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+
+    private static final Long VALIDITY = 1L;
+
+    public void testSharedResult() throws Throwable {
+        final SingleFlight singleFlight = new SingleFlight();
+        final AtomicInteger computationCount = new AtomicInteger();
+        final List<Object> results = runThreads(singleFlight, 10, new Computation() {
+            public Object compute() {
+                computationCount.incrementAndGet();
+                return "result";
+            }
+        });
+
+        assertEquals(1, computationCount.get());
+        assertEquals(Collections.nCopies(10, "result"), results);
+        assertEquals(0, singleFlight.getFlightCount());
+    }
+
+    public void testSharedException() throws Throwable {
+        final SingleFlight singleFlight = new SingleFlight();
+        final List<Object> results = runThreads(singleFlight, 10, new Computation() {
+            public Object compute() {
+                throw new IllegalArgumentException("failed");
+            }
+        });
+
+        for (final Object result: results)
+            assertTrue(result instanceof IllegalArgumentException);
+        assertEquals(0, singleFlight.getFlightCount());
+    }
+
+    public void testTimeout() {
+        final SingleFlight singleFlight = new SingleFlight();
+        final SingleFlight.Flight flight = singleFlight.join(new TestCacheKey(1), VALIDITY);
+        assertTrue(flight.isLeader());
+
+        final boolean[] completed = new boolean[1];
+        final Thread thread = new Thread() {
+            public void run() {
+                final SingleFlight.Flight otherFlight = singleFlight.join(new TestCacheKey(1), VALIDITY);
+                completed[0] = otherFlight.await(10);
+            }
+        };
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        assertFalse(completed[0]);
+    }
+
+    public void testReentrantJoin() {
+        final SingleFlight singleFlight = new SingleFlight();
+        final SingleFlight.Flight flight = singleFlight.join(new TestCacheKey(1), VALIDITY);
+        assertNull(singleFlight.join(new TestCacheKey(1), VALIDITY));
+        // Different validity means a different flight
+        assertNotNull(singleFlight.join(new TestCacheKey(1), 2L));
+
+        flight.complete("result");
+        assertNotSame(flight, singleFlight.join(new TestCacheKey(1), VALIDITY));
+    }
+
+    private interface Computation {
+        Object compute();
+    }
+
+    /**
+     * Run threads which all join the same flight at the same time, and return the result or exception of each thread.
+     */
+    private List<Object> runThreads(final SingleFlight singleFlight, int threadCount, final Computation computation) throws InterruptedException {
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch joined = new CountDownLatch(threadCount);
+        final Thread threads[] = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    final SingleFlight.Flight flight = singleFlight.join(new TestCacheKey(1), VALIDITY);
+                    joined.countDown();
+                    try {
+                        if (flight.isLeader()) {
+                            // Let all the other threads join before completing
+                            joined.await();
+                            try {
+                                final Object result = computation.compute();
+                                flight.complete(result);
+                                results.add(result);
+                            } catch (RuntimeException e) {
+                                flight.fail(e);
+                                throw e;
+                            }
+                        } else {
+                            assertTrue(flight.await(10000));
+                            results.add(flight.getResult());
+                        }
+                    } catch (Throwable e) {
+                        results.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++)
+            threads[i].join();
+        return results;
+    }
+
+    private static class TestCacheKey extends CacheKey {
+        private final int value;
+
+        public TestCacheKey(int value) {
+            setClazz(TestCacheKey.class);
+            this.value = value;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof TestCacheKey && ((TestCacheKey) obj).value == value;
+        }
+
+        public int hashCode() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import junit.framework.TestCase;
+import org.orbeon.oxf.xml.SAXStore;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class TieredCacheImplTest extends TestCase {
+
+    private static final Long VALIDITY = 1L;
+
+    public void testSpillAndRestore() throws SAXException {
+        final Cache cache = new TieredCacheImpl(new MemoryCacheImpl("test", 1), OffHeapStore.createDirect(10000));
+        cache.add(null, new TestCacheKey(1), VALIDITY, saxStore("value1"));
+        cache.add(null, new TestCacheKey(2), VALIDITY, saxStore("value2"));
+
+        // The first SAXStore was evicted from the first level and is restored from the second level
+        final Object restored = cache.findValid(null, new TestCacheKey(1), VALIDITY);
+        assertTrue(restored instanceof SAXStore);
+        assertEquals("value1", text((SAXStore) restored));
+        assertNull("Newer validity must not match", cache.findValid(null, new TestCacheKey(1), 2L));
+
+        // The restored SAXStore is back in the first level, and evicted the second one
+        assertEquals("value2", text((SAXStore) cache.findValid(null, new TestCacheKey(2), VALIDITY)));
+        assertEquals("value1", text((SAXStore) cache.findValid(null, new TestCacheKey(1), VALIDITY)));
+    }
+
+    public void testOtherObjectsNotSpilled() {
+        final Cache cache = new TieredCacheImpl(new MemoryCacheImpl("test", 1), OffHeapStore.createDirect(10000));
+        cache.add(null, new TestCacheKey(1), VALIDITY, "value1");
+        cache.add(null, new TestCacheKey(2), VALIDITY, "value2");
+        assertNull(cache.findValid(null, new TestCacheKey(1), VALIDITY));
+        assertEquals("value2", cache.findValid(null, new TestCacheKey(2), VALIDITY));
+    }
+
+    public void testRemovedEntryNotSpilled() {
+        final Cache cache = new TieredCacheImpl(new MemoryCacheImpl("test", 10), OffHeapStore.createDirect(10000));
+        cache.add(null, new TestCacheKey(1), VALIDITY, saxStore("value1"));
+        cache.remove(null, new TestCacheKey(1));
+        assertNull(cache.findValid(null, new TestCacheKey(1), VALIDITY));
+
+        cache.add(null, new TestCacheKey(2), VALIDITY, saxStore("value2"));
+        cache.removeAll(null);
+        assertNull(cache.findValid(null, new TestCacheKey(2), VALIDITY));
+    }
+
+    public void testReplacedEntryNotSpilled() throws SAXException {
+        final Cache cache = new TieredCacheImpl(new MemoryCacheImpl("test", 10), OffHeapStore.createDirect(10000));
+        final SAXStore smallSAXStore = saxStore("value1");
+        cache.setMaxWeight(null, smallSAXStore.getApproximateSize() * 2);
+        cache.add(null, new TestCacheKey(1), VALIDITY, smallSAXStore);
+
+        // A new version too large for the first level must not leave the older version in the second level
+        cache.add(null, new TestCacheKey(1), 2L, saxStore(largeText()));
+        assertNull(cache.findValid(null, new TestCacheKey(1), VALIDITY));
+
+        // A new version which fits replaces the older version
+        cache.add(null, new TestCacheKey(1), VALIDITY, saxStore("value1"));
+        cache.add(null, new TestCacheKey(1), 2L, saxStore("value2"));
+        assertEquals("value2", text((SAXStore) cache.findValid(null, new TestCacheKey(1), VALIDITY)));
+    }
+
+    public void testSizeLimit() throws SAXException {
+        final Cache cache = new TieredCacheImpl(new MemoryCacheImpl("test", 1), OffHeapStore.createDirect(1000));
+
+        // Too large for the second level: it is dropped upon eviction
+        cache.add(null, new TestCacheKey(1), VALIDITY, saxStore(largeText()));
+        cache.add(null, new TestCacheKey(2), VALIDITY, saxStore("value2"));
+        assertNull(cache.findValid(null, new TestCacheKey(1), VALIDITY));
+
+        // Evicting more objects than fit in the second level drops the oldest ones
+        for (int i = 3; i < 100; i++)
+            cache.add(null, new TestCacheKey(i), VALIDITY, saxStore("value" + i));
+        assertNull(cache.findValid(null, new TestCacheKey(2), VALIDITY));
+        assertEquals("value98", text((SAXStore) cache.findValid(null, new TestCacheKey(98), VALIDITY)));
+    }
+
+    private static String largeText() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("value");
+        return sb.toString();
+    }
+
+    private static SAXStore saxStore(String text) {
+        final SAXStore saxStore = new SAXStore();
+        try {
+            saxStore.startDocument();
+            saxStore.startElement("", "root", "root", new AttributesImpl());
+            saxStore.characters(text.toCharArray(), 0, text.length());
+            saxStore.endElement("", "root", "root");
+            saxStore.endDocument();
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+        return saxStore;
+    }
+
+    private static String text(SAXStore saxStore) throws SAXException {
+        final StringBuilder sb = new StringBuilder();
+        saxStore.replay(new DefaultHandler() {
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                assertEquals("root", localName);
+            }
+
+            public void characters(char[] ch, int start, int length) {
+                sb.append(ch, start, length);
+            }
+        });
+        return sb.toString();
+    }
+
+    private static class TestCacheKey extends CacheKey {
+        private final int value;
+
+        public TestCacheKey(int value) {
+            setClazz(TestCacheKey.class);
+            this.value = value;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof TestCacheKey && ((TestCacheKey) obj).value == value;
+        }
+
+        public int hashCode() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compare the throughput of a GZIP round trip with GZIPUtils, which reuses deflaters and inflaters through a
+ * ThreadLocalObjectPool, and with the java.util.zip streams, which create a deflater or inflater for each call.
+ *
+ * This is not part of the unit tests, as timings depend on the machine. Run with:
+ *
+ *   java org.orbeon.oxf.util.GZIPBenchmark [threads] [round trips per thread] [size in bytes]
+ */
+public class GZIPBenchmark {
+
+    private interface Compressor {
+        byte[] gzip(byte[] bytes) throws IOException;
+        byte[] gunzip(byte[] bytes) throws IOException;
+    }
+
+    private static final Compressor POOLED = new Compressor() {
+        public byte[] gzip(byte[] bytes) {
+            return GZIPUtils.gzip(bytes);
+        }
+
+        public byte[] gunzip(byte[] bytes) {
+            return GZIPUtils.gunzip(bytes);
+        }
+    };
+
+    private static final Compressor STREAMS = new Compressor() {
+        public byte[] gzip(byte[] bytes) throws IOException {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream, 1024);
+            gzipOutputStream.write(bytes);
+            gzipOutputStream.close();
+            return byteArrayOutputStream.toByteArray();
+        }
+
+        public byte[] gunzip(byte[] bytes) throws IOException {
+            final GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int count;
+            while ((count = gzipInputStream.read(buffer)) != -1)
+                byteArrayOutputStream.write(buffer, 0, count);
+            gzipInputStream.close();
+            return byteArrayOutputStream.toByteArray();
+        }
+    };
+
+    public static void main(String[] args) throws Throwable {
+        final int threadCount = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        final int roundTripCount = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        final int size = (args.length > 2) ? Integer.parseInt(args[2]) : 25 * 1024;
+
+        final byte[] bytes = createState(size);
+
+        // Warm-up
+        runThreads(POOLED, bytes, threadCount, roundTripCount / 10);
+        runThreads(STREAMS, bytes, threadCount, roundTripCount / 10);
+
+        final long pooledTime = runThreads(POOLED, bytes, threadCount, roundTripCount);
+        final long streamsTime = runThreads(STREAMS, bytes, threadCount, roundTripCount);
+
+        System.out.println("GZIP round trips of " + size + " bytes with " + threadCount + " threads, " + roundTripCount + " round trips per thread:");
+        System.out.println("  GZIPUtils:    " + (threadCount * (long) roundTripCount * 1000 / Math.max(pooledTime, 1)) + " round trips/s");
+        System.out.println("  GZIP streams: " + (threadCount * (long) roundTripCount * 1000 / Math.max(streamsTime, 1)) + " round trips/s");
+    }
+
+    /**
+     * Run threads each compressing and decompressing the given bytes, and checking the result.
+     *
+     * @return  time in ms
+     */
+    private static long runThreads(final Compressor compressor, final byte[] bytes, int threadCount, final int roundTripCount) throws Throwable {
+        final Throwable[] error = new Throwable[1];
+        final Thread threads[] = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < roundTripCount; j++) {
+                            final byte[] result = compressor.gunzip(compressor.gzip(bytes));
+                            if (!Arrays.equals(bytes, result))
+                                throw new IllegalStateException("Round trip changed the data.");
+                        }
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+
+        final long startTime = System.currentTimeMillis();
+        for (int i = 0; i < threadCount; i++)
+            threads[i].start();
+        for (int i = 0; i < threadCount; i++)
+            threads[i].join();
+        final long time = System.currentTimeMillis() - startTime;
+
+        synchronized (error) {
+            if (error[0] != null)
+                throw error[0];
+        }
+        return time;
+    }
+
+    /**
+     * Create XML similar to serialized XForms state, which compresses about as well.
+     */
+    private static byte[] createState(int size) {
+        final StringBuilder sb = new StringBuilder(size + 100);
+        sb.append("<dynamic-state><instances>");
+        for (int i = 0; sb.length() < size; i++)
+            sb.append("<item id=\"item-").append(i).append("\" status=\"").append((i % 3 == 0) ? "open" : "closed").append("\">")
+                    .append("Value ").append(i * 7919 % 10007).append("</item>");
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class GZIPUtilsTest extends TestCase {
+
+    public void testCompatibility() throws Exception {
+        final byte[][] values = { new byte[0], "hello".getBytes("utf-8"), randomBytes(100000, 1), new byte[300000] };
+        for (final byte[] bytes: values) {
+            // Read by java.util.zip
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            NetUtils.copyStream(new GZIPInputStream(new ByteArrayInputStream(GZIPUtils.gzip(bytes))), out);
+            assertTrue(Arrays.equals(bytes, out.toByteArray()));
+
+            // Written by java.util.zip
+            final ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+            final GZIPOutputStream gzipOut = new GZIPOutputStream(gzipBytes);
+            gzipOut.write(bytes);
+            gzipOut.close();
+            assertTrue(Arrays.equals(bytes, GZIPUtils.gunzip(gzipBytes.toByteArray())));
+        }
+    }
+
+    public void testCorrupt() {
+        final byte[] gzipBytes = GZIPUtils.gzip(randomBytes(1000, 2));
+        gzipBytes[gzipBytes.length - 5] ^= 1;
+        try {
+            GZIPUtils.gunzip(gzipBytes);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        // Inflater of this thread was discarded, and the next one works
+        final byte[] bytes = randomBytes(1000, 3);
+        assertTrue(Arrays.equals(bytes, GZIPUtils.gunzip(GZIPUtils.gzip(bytes))));
+    }
+
+    public void testConcurrent() throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        for (int j = 0; j < 200; j++) {
+                            final byte[] bytes = new byte[random.nextInt(20000)];
+                            // Compressible content
+                            for (int k = 0; k < bytes.length; k++)
+                                bytes[k] = (byte) ('a' + random.nextInt(4));
+                            final String encrypted = SecureUtils.encrypt(null, "password", GZIPUtils.gzip(bytes));
+                            final byte[] decrypted = GZIPUtils.gunzip(SecureUtils.decrypt(null, "password", encrypted));
+                            if (!Arrays.equals(bytes, decrypted))
+                                throw new IllegalStateException("Different result");
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread: threads)
+            thread.join();
+        if (failure[0] != null)
+            throw new Exception(failure[0]);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import junit.framework.TestCase;
+import org.orbeon.saxon.functions.FunctionLibraryList;
+
+import java.io.File;
+import java.util.*;
+
+public class XPathWarmUpTest extends TestCase {
+
+    public void testManifestKeepsMostRecentlyUsed() {
+        final XPathWarmUp.Manifest manifest = new XPathWarmUp.Manifest(3);
+        for (int i = 0; i < 3; i++)
+            manifest.use(entry("/a" + i, ""));
+
+        // Using an expression again makes it the most recently used
+        manifest.use(entry("/a0", ""));
+        assertEquals(Arrays.asList(entry("/a1", ""), entry("/a2", ""), entry("/a0", "")), manifest.getEntries());
+
+        // Adding an expression evicts the least recently used one
+        manifest.use(entry("/a3", ""));
+        assertEquals(Arrays.asList(entry("/a2", ""), entry("/a0", ""), entry("/a3", "")), manifest.getEntries());
+
+        // Same expression with another library is another entry
+        manifest.use(entry("/a3", "xforms"));
+        assertEquals(3, manifest.getEntries().size());
+        assertFalse(manifest.getEntries().contains(entry("/a2", "")));
+    }
+
+    public void testEmptyManifest() {
+        final XPathWarmUp.Manifest manifest = new XPathWarmUp.Manifest(0);
+        manifest.use(entry("/a", ""));
+        assertTrue(manifest.getEntries().isEmpty());
+    }
+
+    public void testWriteAndReadManifest() throws Exception {
+        final File file = File.createTempFile("xpath-warm-up", ".xml");
+        try {
+            final Map<String, String> prefixToURIMap = new HashMap<String, String>();
+            prefixToURIMap.put("xf", "http://www.w3.org/2002/xforms");
+            final List<XPathWarmUp.ManifestEntry> entries = Arrays.asList(
+                    entry("/a", ""),
+                    new XPathWarmUp.ManifestEntry("xf:b[$c = 1] < 2", prefixToURIMap, Collections.singleton("c"), "xforms", false),
+                    new XPathWarmUp.ManifestEntry("{/d}", null, null, "", true));
+
+            XPathWarmUp.writeManifest(file, entries);
+            assertEquals(entries, XPathWarmUp.readManifest(file));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testLibraryRegisteredBeforeManifestLoaded() throws Exception {
+        final File file = File.createTempFile("xpath-warm-up", ".xml");
+        XPathWarmUp.reset();
+        try {
+            XPathWarmUp.writeManifest(file, Arrays.asList(entry("/a", ""), entry("/b", "xforms"), entry("/c", "other")));
+
+            // Libraries are registered from static initializers, before properties are available to load the manifest
+            XPathWarmUp.registerFunctionLibrary("xforms", new FunctionLibraryList());
+            XPathWarmUp.initialize(file, 1, 10);
+
+            // Only expressions using a library not registered yet wait
+            assertEquals(0, XPathWarmUp.getPendingCount(""));
+            assertEquals(0, XPathWarmUp.getPendingCount("xforms"));
+            assertEquals(1, XPathWarmUp.getPendingCount("other"));
+
+            XPathWarmUp.registerFunctionLibrary("other", new FunctionLibraryList());
+            assertEquals(0, XPathWarmUp.getPendingCount("other"));
+        } finally {
+            XPathWarmUp.reset();
+            file.delete();
+        }
+    }
+
+    private static XPathWarmUp.ManifestEntry entry(String xpathString, String libraryName) {
+        return new XPathWarmUp.ManifestEntry(xpathString, null, null, libraryName, false);
+    }
+}
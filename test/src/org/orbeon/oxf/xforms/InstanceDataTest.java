@@ -0,0 +1,242 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms;
+
+import junit.framework.TestCase;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.util.XPathCache;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.orbeon.saxon.dom4j.DocumentWrapper;
+import org.orbeon.saxon.om.NodeInfo;
+
+public class InstanceDataTest extends TestCase {
+
+    private static final String TYPE_DATE = "{http://www.w3.org/2001/XMLSchema}date";
+    private static final String TYPE_INTEGER = "{http://www.w3.org/2001/XMLSchema}integer";
+
+    private Document document;
+    private DocumentWrapper documentWrapper;
+
+    protected void setUp() throws Exception {
+        document = Dom4jUtils.readDom4j("<instance><a/><b/><c/></instance>", false, false);
+        documentWrapper = new DocumentWrapper(document, null, XPathCache.getGlobalConfiguration());
+    }
+
+    public void testDefaults() {
+        final NodeInfo a = wrap("a");
+
+        assertTrue(InstanceData.getInheritedRelevant(a));
+        assertFalse(InstanceData.getInheritedReadonly(a));
+        assertFalse(InstanceData.getRequired(a));
+        assertTrue(InstanceData.getValid(a));
+        assertNull(InstanceData.getType(a));
+
+        // No annotation is created for default values
+        assertNull(element("a").getData());
+    }
+
+    public void testFlagsRoundTrip() {
+        final NodeInfo a = wrap("a");
+
+        InstanceData.setRelevant(a, false);
+        assertFalse(InstanceData.getInheritedRelevant(a));
+        InstanceData.setRelevant(a, true);
+        assertTrue(InstanceData.getInheritedRelevant(a));
+
+        InstanceData.setReadonly(a, true);
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        InstanceData.setReadonly(a, false);
+        assertFalse(InstanceData.getInheritedReadonly(a));
+
+        InstanceData.setRequired(a, true);
+        assertTrue(InstanceData.getRequired(a));
+        InstanceData.setRequired(a, false);
+        assertFalse(InstanceData.getRequired(a));
+
+        InstanceData.updateValueValid(a, false, null);
+        assertFalse(InstanceData.getValid(a));
+        InstanceData.clearValidationState(a);
+        assertTrue(InstanceData.getValid(a));
+
+        // Back to the default, so the annotation is removed
+        assertNull(element("a").getData());
+    }
+
+    public void testFlagsAreIndependent() {
+        final NodeInfo a = wrap("a");
+
+        InstanceData.setReadonly(a, true);
+        InstanceData.setRequired(a, true);
+        InstanceData.setRelevant(a, false);
+        InstanceData.updateValueValid(a, false, null);
+
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        assertTrue(InstanceData.getRequired(a));
+        assertFalse(InstanceData.getInheritedRelevant(a));
+        assertFalse(InstanceData.getValid(a));
+
+        InstanceData.setRequired(a, false);
+
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        assertFalse(InstanceData.getRequired(a));
+        assertFalse(InstanceData.getInheritedRelevant(a));
+        assertFalse(InstanceData.getValid(a));
+    }
+
+    public void testSharedInstanceNotModified() {
+        final NodeInfo a = wrap("a");
+        final NodeInfo b = wrap("b");
+        final NodeInfo c = wrap("c");
+
+        InstanceData.setReadonly(a, true);
+        InstanceData.setReadonly(b, true);
+        InstanceData.setReadonly(c, true);
+
+        // Nodes with the same state point to the same instance
+        final Object shared = element("a").getData();
+        assertNotNull(shared);
+        assertSame(shared, element("b").getData());
+        assertSame(shared, element("c").getData());
+
+        // Changing one node's flags and type doesn't change the other nodes
+        InstanceData.setRequired(a, true);
+        InstanceData.setReadonly(b, false);
+        InstanceData.setType(c, TYPE_DATE);
+
+        assertTrue(InstanceData.getRequired(a));
+        assertFalse(InstanceData.getInheritedReadonly(b));
+        assertEquals(TYPE_DATE, InstanceData.getType(c));
+
+        assertNotSame(shared, element("a").getData());
+        assertNotSame(shared, element("c").getData());
+
+        // Another node with the original state still gets the original, unchanged instance
+        final Element d = element("b").getParent().addElement("d");
+        final NodeInfo dNodeInfo = documentWrapper.wrap(d);
+        InstanceData.setReadonly(dNodeInfo, true);
+        assertSame(shared, d.getData());
+        assertTrue(InstanceData.getInheritedReadonly(dNodeInfo));
+        assertFalse(InstanceData.getRequired(dNodeInfo));
+        assertNull(InstanceData.getType(dNodeInfo));
+    }
+
+    public void testSharedInstanceNotModifiedByErrorsAndCustomMips() {
+        final NodeInfo a = wrap("a");
+        final NodeInfo b = wrap("b");
+
+        InstanceData.setRequired(a, true);
+        InstanceData.setRequired(b, true);
+        final Object shared = element("a").getData();
+        assertSame(shared, element("b").getData());
+
+        // Errors, bind ids and custom MIPs require a private instance
+        InstanceData.updateValueValid(a, false, "bind1");
+        InstanceData.setCustom(a, "foo", "bar");
+        assertNotSame(shared, element("a").getData());
+        assertSame(shared, element("b").getData());
+
+        assertEquals("bind1", InstanceData.getInvalidBindIds(a));
+        assertEquals("bar", InstanceData.getCustom(a, "foo"));
+        assertTrue(InstanceData.getRequired(a));
+
+        assertNull(InstanceData.getInvalidBindIds(b));
+        assertNull(InstanceData.getCustom(b, "foo"));
+        assertTrue(InstanceData.getValid(b));
+    }
+
+    public void testLocationDataKept() {
+        final Element aElement = element("a");
+        final LocationData locationData = new LocationData("test.xml", 1, 1);
+        aElement.setData(locationData);
+
+        final NodeInfo a = wrap("a");
+        InstanceData.setReadonly(a, true);
+        InstanceData.setType(a, TYPE_DATE);
+
+        // The node gets its own instance which keeps the location data
+        final InstanceData instanceData = (InstanceData) aElement.getData();
+        assertSame(locationData, instanceData.getLocationData());
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        assertEquals(TYPE_DATE, InstanceData.getType(a));
+
+        // Other nodes with the same state are not affected
+        final NodeInfo b = wrap("b");
+        InstanceData.setReadonly(b, true);
+        assertNotSame(instanceData, element("b").getData());
+        assertNull(((InstanceData) element("b").getData()).getLocationData());
+        assertNull(InstanceData.getType(b));
+    }
+
+    public void testTypeAndFlagsTogether() {
+        final NodeInfo a = wrap("a");
+
+        // Type first, then flags
+        InstanceData.setType(a, TYPE_DATE);
+        InstanceData.setReadonly(a, true);
+        InstanceData.setRequired(a, true);
+        assertEquals(TYPE_DATE, InstanceData.getType(a));
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        assertTrue(InstanceData.getRequired(a));
+
+        // Changing the type keeps the flags
+        InstanceData.setType(a, TYPE_INTEGER);
+        assertEquals(TYPE_INTEGER, InstanceData.getType(a));
+        assertTrue(InstanceData.getInheritedReadonly(a));
+        assertTrue(InstanceData.getRequired(a));
+
+        // Changing a flag keeps the type
+        InstanceData.setReadonly(a, false);
+        assertEquals(TYPE_INTEGER, InstanceData.getType(a));
+        assertFalse(InstanceData.getInheritedReadonly(a));
+        assertTrue(InstanceData.getRequired(a));
+
+        // Clearing other state keeps the type
+        InstanceData.clearOtherState(a);
+        assertEquals(TYPE_INTEGER, InstanceData.getType(a));
+        assertFalse(InstanceData.getRequired(a));
+
+        // Clearing validation state removes the type but keeps required
+        InstanceData.setRequired(a, true);
+        InstanceData.clearValidationState(a);
+        assertNull(InstanceData.getType(a));
+        assertTrue(InstanceData.getRequired(a));
+    }
+
+    public void testSameTypeOnOtherNode() {
+        final NodeInfo a = wrap("a");
+        final NodeInfo b = wrap("b");
+
+        InstanceData.setType(a, TYPE_DATE);
+        InstanceData.setType(b, new String(TYPE_DATE));
+        assertSame(element("a").getData(), element("b").getData());
+
+        // Same type with different flags is a different instance
+        InstanceData.setReadonly(b, true);
+        assertNotSame(element("a").getData(), element("b").getData());
+        assertEquals(TYPE_DATE, InstanceData.getType(a));
+        assertEquals(TYPE_DATE, InstanceData.getType(b));
+        assertFalse(InstanceData.getInheritedReadonly(a));
+        assertTrue(InstanceData.getInheritedReadonly(b));
+    }
+
+    private Element element(String name) {
+        return document.getRootElement().element(name);
+    }
+
+    private NodeInfo wrap(String name) {
+        return documentWrapper.wrap(element(name));
+    }
+}
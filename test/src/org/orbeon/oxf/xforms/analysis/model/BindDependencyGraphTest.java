@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class BindDependencyGraphTest extends TestCase {
+
+    private static final String I = "instance('instance')";
+
+    public void testCalculateOrder() {
+        final BindDependencyGraph graph = new BindDependencyGraph();
+        // total depends on subtotal, which depends on price and quantity
+        graph.addBind("total", paths(I + "/3"), paths(I + "/2", I + "/4"), true, false);
+        graph.addBind("subtotal", paths(I + "/2"), paths(I + "/1/5", I + "/1/6"), true, false);
+        graph.addBind("price-relevant", paths(I + "/1/5"), paths(I + "/3"), false, false);
+        assertTrue(graph.build());
+
+        assertEquals(Arrays.asList("subtotal", "total"), graph.getCalculateOrder());
+    }
+
+    public void testAffectedBinds() {
+        final BindDependencyGraph graph = new BindDependencyGraph();
+        graph.addBind("total", paths(I + "/3"), paths(I + "/2"), true, false);
+        graph.addBind("subtotal", paths(I + "/2"), paths(I + "/1/5", I + "/1/6"), true, false);
+        graph.addBind("total-readonly", paths(I + "/3"), paths(I + "/7"), false, false);
+        graph.addBind("other", paths(I + "/8"), paths(I + "/9"), false, false);
+        graph.addBind("parent", paths(I + "/10"), paths(I + "/10"), false, false);
+        graph.addBind("constant", paths(I + "/11"), Collections.<String>emptySet(), false, false);
+        assertTrue(graph.build());
+
+        // Transitive through calculate, and overlapping bind
+        assertEquals(set("subtotal", "total", "total-readonly", "constant"), graph.getAffectedBinds(paths(I + "/1/5")));
+        // Change to a descendant
+        assertEquals(set("parent", "constant"), graph.getAffectedBinds(paths(I + "/10/12/@13")));
+        // No change
+        assertEquals(set("constant"), graph.getAffectedBinds(Collections.<String>emptySet()));
+    }
+
+    public void testCircularDependency() {
+        final BindDependencyGraph graph = new BindDependencyGraph();
+        graph.addBind("a", paths(I + "/1"), paths(I + "/2"), true, false);
+        graph.addBind("b", paths(I + "/2"), paths(I + "/1"), true, false);
+        assertFalse(graph.build());
+    }
+
+    public void testAlwaysEvaluatedBinds() {
+        final BindDependencyGraph graph = new BindDependencyGraph();
+        graph.addBind("today", paths(I + "/1"), paths(I + "/2"), true, true);
+        graph.addBind("age", paths(I + "/3"), paths(I + "/1"), true, false);
+        graph.addBind("age-readonly", paths(I + "/3"), paths(I + "/4"), false, false);
+        graph.addBind("other", paths(I + "/5"), paths(I + "/6"), false, false);
+        assertTrue(graph.build());
+
+        assertEquals(Arrays.asList("today", "age"), graph.getCalculateOrder());
+
+        // Evaluated even if nothing changed, with the binds depending on it and the binds on the same nodes
+        assertEquals(set("today", "age", "age-readonly"), graph.getAffectedBinds(Collections.<String>emptySet()));
+        assertEquals(set("today", "age", "age-readonly", "other"), graph.getAffectedBinds(paths(I + "/6")));
+    }
+
+    public void testNonAnalyzableFunctions() {
+        // Repeat index, time, context and size of the bind nodeset
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("index('lines') = 1"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:index() = 1"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xs:dateTime(.) < now()"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("current-date() > xs:date(.)"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("position() = last ()"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("context()/@type = 'a'"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("random() > 0.5"));
+        // Other models, request and session
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:instance('other')/value = ."));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxf:instance('other')/value = ."));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:get-request-parameter('a') = ."));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:get-request-header('a') = ."));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:get-session-attribute('a') = ."));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:get-remote-user() = 'admin'"));
+        assertTrue(BindDependencyGraph.callsNonAnalyzableFunctions("xxforms:is-user-in-role('admin')"));
+
+        // Functions only depending on nodes, and names containing function names
+        assertFalse(BindDependencyGraph.callsNonAnalyzableFunctions("instance('instance')/value = ."));
+        assertFalse(BindDependencyGraph.callsNonAnalyzableFunctions("count(../item) > 1"));
+        assertFalse(BindDependencyGraph.callsNonAnalyzableFunctions("../index = 1 and ../last-name != ''"));
+        assertFalse(BindDependencyGraph.callsNonAnalyzableFunctions("my:index-of(../a, 'b') > 0"));
+        assertFalse(BindDependencyGraph.callsNonAnalyzableFunctions("../context/now = ''"));
+    }
+
+    private static Set<String> paths(String... paths) {
+        return new HashSet<String>(Arrays.asList(paths));
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.control.controls;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.xforms.XFormsUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.Configuration;
+import org.orbeon.saxon.dom4j.DocumentWrapper;
+import org.orbeon.saxon.om.Item;
+import org.orbeon.saxon.om.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compare the time taken by XFormsRepeatControl to match the old and new nodes of a repeat, when a node is inserted at
+ * the top, with node indexes and with the linear searches used before.
+ *
+ * This is not part of the unit tests, as timings depend on the machine. Run with:
+ *
+ *   java org.orbeon.oxf.xforms.control.controls.RepeatNodeIndexBenchmark [node counts...]
+ */
+public class RepeatNodeIndexBenchmark {
+
+    private static final int[] DEFAULT_NODE_COUNTS = { 1000, 5000, 20000, 50000 };
+
+    public static void main(String[] args) {
+        final int[] nodeCounts;
+        if (args.length > 0) {
+            nodeCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                nodeCounts[i] = Integer.parseInt(args[i]);
+        } else {
+            nodeCounts = DEFAULT_NODE_COUNTS;
+        }
+
+        // Warm-up
+        for (int i = 0; i < 10; i++) {
+            final List<Item> oldNodeset = createNodeset(1000);
+            final List<Item> newNodeset = insertNode(oldNodeset);
+            matchWithIndexes(oldNodeset, newNodeset);
+            matchLinear(oldNodeset, newNodeset);
+        }
+
+        System.out.println("Matching old and new repeat nodes after an insertion at the top:");
+        System.out.println("  nodes    indexes    linear");
+        for (final int nodeCount: nodeCounts) {
+            final List<Item> oldNodeset = createNodeset(nodeCount);
+            final List<Item> newNodeset = insertNode(oldNodeset);
+
+            final long indexesStartTime = System.currentTimeMillis();
+            final int[][] indexesResult = matchWithIndexes(oldNodeset, newNodeset);
+            final long indexesTime = System.currentTimeMillis() - indexesStartTime;
+
+            final long linearStartTime = System.currentTimeMillis();
+            final int[][] linearResult = matchLinear(oldNodeset, newNodeset);
+            final long linearTime = System.currentTimeMillis() - linearStartTime;
+
+            if (!Arrays.deepEquals(indexesResult, linearResult))
+                throw new IllegalStateException("Different node indexes for " + nodeCount + " nodes.");
+
+            System.out.println("  " + pad(nodeCount, 7) + "  " + pad(indexesTime, 6) + " ms  " + pad(linearTime, 6) + " ms");
+        }
+    }
+
+    /**
+     * Find old and new indexes like XFormsRepeatControl.updateIterations() does.
+     */
+    private static int[][] matchWithIndexes(List<Item> oldNodeset, List<Item> newNodeset) {
+        return new int[][] {
+                XFormsRepeatControl.findNodeIndexes(newNodeset, oldNodeset, XFormsRepeatControl.indexNodes(oldNodeset)),
+                XFormsRepeatControl.findNodeIndexes(oldNodeset, newNodeset, XFormsRepeatControl.indexNodes(newNodeset))
+        };
+    }
+
+    /**
+     * Find old and new indexes with a linear search for each node, as XFormsRepeatControl used to do.
+     */
+    private static int[][] matchLinear(List<Item> oldNodeset, List<Item> newNodeset) {
+        return new int[][] {
+                findNodeIndexesLinear(newNodeset, oldNodeset),
+                findNodeIndexesLinear(oldNodeset, newNodeset)
+        };
+    }
+
+    private static int[] findNodeIndexesLinear(List<Item> nodeset1, List<Item> nodeset2) {
+        final int[] result = new int[nodeset1.size()];
+        int index = 0;
+        for (final Item currentItem: nodeset1) {
+            result[index] = -1;
+            int otherIndex = 0;
+            for (final Item otherItem: nodeset2) {
+                if (XFormsUtils.compareItems(currentItem, otherItem)) {
+                    result[index] = otherIndex;
+                    break;
+                }
+                otherIndex++;
+            }
+            index++;
+        }
+        return result;
+    }
+
+    private static List<Item> createNodeset(int nodeCount) {
+        final Document document = Dom4jUtils.createDocument();
+        final Element rootElement = document.addElement("items");
+        for (int i = 0; i < nodeCount; i++)
+            rootElement.addElement("item").setText(Integer.toString(i));
+
+        final DocumentWrapper documentWrapper = new DocumentWrapper(document, null, new Configuration());
+        final List<Item> result = new ArrayList<Item>(nodeCount);
+        for (final Object element: rootElement.elements())
+            result.add(documentWrapper.wrap(element));
+        return result;
+    }
+
+    private static List<Item> insertNode(List<Item> oldNodeset) {
+        final DocumentWrapper documentWrapper = (DocumentWrapper) ((NodeInfo) oldNodeset.get(0)).getDocumentRoot();
+        final Element rootElement = ((Document) documentWrapper.getUnderlyingNode()).getRootElement();
+        final Element newElement = rootElement.addElement("item");
+
+        final List<Item> result = new ArrayList<Item>(oldNodeset.size() + 1);
+        result.add(documentWrapper.wrap(newElement));
+        result.addAll(oldNodeset);
+        return result;
+    }
+
+    private static String pad(long value, int length) {
+        final StringBuilder sb = new StringBuilder(Long.toString(value));
+        while (sb.length() < length)
+            sb.insert(0, ' ');
+        return sb.toString();
+    }
+}
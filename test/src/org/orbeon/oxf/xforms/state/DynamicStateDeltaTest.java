@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class DynamicStateDeltaTest extends TestCase {
+
+    public void testSmallChange() {
+        final byte[] base = randomBytes(100000, 1);
+        final byte[] target = base.clone();
+        target[500] ^= 1;
+        target[70000] ^= 1;
+
+        final byte[] delta = DynamicStateDelta.createDelta(base, target);
+        assertTrue(delta.length < 100);
+        assertTrue(Arrays.equals(target, DynamicStateDelta.applyDelta(base, delta)));
+    }
+
+    public void testInsertAndDelete() {
+        final byte[] base = randomBytes(10000, 2);
+        final byte[] inserted = randomBytes(300, 3);
+
+        // Insert bytes at 1000, remove bytes between 5000 and 6000
+        final byte[] target = new byte[base.length + inserted.length - 1000];
+        System.arraycopy(base, 0, target, 0, 1000);
+        System.arraycopy(inserted, 0, target, 1000, inserted.length);
+        System.arraycopy(base, 1000, target, 1000 + inserted.length, 4000);
+        System.arraycopy(base, 6000, target, 5000 + inserted.length, 4000);
+
+        final byte[] delta = DynamicStateDelta.createDelta(base, target);
+        assertTrue(delta.length < inserted.length + 100);
+        assertTrue(Arrays.equals(target, DynamicStateDelta.applyDelta(base, delta)));
+    }
+
+    public void testEdgeCases() {
+        final byte[][] values = { new byte[0], new byte[] { 1, 2, 3 }, randomBytes(1000, 4), new byte[5000] };
+        for (final byte[] base: values) {
+            for (final byte[] target: values) {
+                assertTrue(Arrays.equals(target, DynamicStateDelta.applyDelta(base, DynamicStateDelta.createDelta(base, target))));
+            }
+        }
+    }
+
+    public void testValue() {
+        final DynamicStateDelta delta = DynamicStateDelta.fromValue(new DynamicStateDelta(3, "1234-abcd", "X4H4sIAAAAAAAAAA").toValue());
+        assertEquals(3, delta.step);
+        assertEquals("1234-abcd", delta.baseKey);
+        assertEquals("X4H4sIAAAAAAAAAA", delta.encodedDelta);
+
+        assertNull(DynamicStateDelta.fromValue("X4H4sIAAAAAAAAAA"));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import junit.framework.TestCase;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+
+public class DynamicStateTest extends TestCase {
+
+    public void testValues() {
+        final DynamicStateOutput out = new DynamicStateOutput(4);
+        out.writeBoolean(true);
+        out.writeVarInt(0);
+        out.writeVarInt(300);
+        out.writeVarInt(Integer.MAX_VALUE);
+        out.writeVarLong(-1L + 1);
+        out.writeVarLong(Long.MAX_VALUE);
+        out.writeName("repeat");
+        out.writeName(null);
+        out.writeName("repeat");
+        out.writeString("café € 𝄞");
+        out.writeString(null);
+
+        final byte[] bytes = out.toByteArray();
+        assertTrue(DynamicStateOutput.isDynamicState(bytes));
+
+        final DynamicStateInput in = new DynamicStateInput(bytes);
+        assertTrue(in.readBoolean());
+        assertEquals(0, in.readVarInt());
+        assertEquals(300, in.readVarInt());
+        assertEquals(Integer.MAX_VALUE, in.readVarInt());
+        assertEquals(0L, in.readVarLong());
+        assertEquals(Long.MAX_VALUE, in.readVarLong());
+        assertEquals("repeat", in.readName());
+        assertNull(in.readName());
+        assertEquals("repeat", in.readName());
+        assertEquals("café € 𝄞", in.readString());
+        assertNull(in.readString());
+    }
+
+    public void testDocument() throws Exception {
+        final Document document = DocumentHelper.parseText(
+                "<?xml-stylesheet href=\"a.xsl\"?><!-- first -->" +
+                "<form xmlns=\"http://example.org/form\" xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">" +
+                    "<name xs:type=\"xs:string\" lang=\"en\">John &amp; Jane</name>" +
+                    "<other:item xmlns:other=\"http://example.org/other\" other:id=\"1\"><!-- comment --></other:item>" +
+                    "<item xmlns=\"\">été</item>" +
+                "</form>");
+
+        final DynamicStateOutput out = new DynamicStateOutput();
+        out.writeDocument(document);
+        out.writeDocument(document);
+
+        // Names of the second copy are only references
+        final DynamicStateInput in = new DynamicStateInput(out.toByteArray());
+        assertEquals(document.asXML(), in.readDocument().asXML());
+        assertEquals(document.asXML(), in.readDocument().asXML());
+    }
+
+    public void testInvalid() {
+        try {
+            new DynamicStateInput(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 });
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        final DynamicStateOutput out = new DynamicStateOutput();
+        out.writeString("truncated");
+        final byte[] bytes = out.toByteArray();
+        final byte[] truncatedBytes = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncatedBytes, 0, truncatedBytes.length);
+        try {
+            new DynamicStateInput(truncatedBytes).readString();
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FileStateStoreBackendTest extends TestCase {
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("xforms-state-test", "");
+        directory.delete();
+    }
+
+    public void testStoreAndFind() {
+        final StateStoreBackend backend = new FileStateStoreBackend(directory, 0);
+
+        // Values can be larger than what DataOutput.writeUTF() supports
+        final StringBuilder largeValue = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            largeValue.append((char) ('a' + i % 26));
+
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key1", largeValue.toString(), true, sessionIds("s1", "s2"), "key0"));
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key2", "value2", false, sessionIds(), null));
+
+        final XFormsStateStore.StoreEntry entry1 = backend.findEntry(null, "key1");
+        assertEquals("key1", entry1.key);
+        assertEquals(largeValue.toString(), entry1.value);
+        assertTrue(entry1.isPinned);
+        assertEquals("key0", entry1.previousKey);
+        assertEquals(sessionIds("s1", "s2"), entry1.sessionIds);
+
+        final XFormsStateStore.StoreEntry entry2 = backend.findEntry(null, "key2");
+        assertEquals("value2", entry2.value);
+        assertFalse(entry2.isPinned);
+        assertNull(entry2.previousKey);
+
+        assertNull(backend.findEntry(null, "key3"));
+
+        // Replace entry
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key2", "value2b", false, sessionIds("s2"), null));
+        assertEquals("value2b", backend.findEntry(null, "key2").value);
+
+        backend.expireAll(null);
+        assertNull(backend.findEntry(null, "key1"));
+        assertNull(backend.findEntry(null, "key2"));
+    }
+
+    public void testExpireBySession() {
+        final StateStoreBackend backend = new FileStateStoreBackend(directory, 1000);
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key1", "value1", false, sessionIds("s1"), null));
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key2", "value2", false, sessionIds("s1", "s2"), null));
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key3", "value3", false, sessionIds("s2"), null));
+
+        // Only the entry which doesn't have other sessions is removed
+        assertEquals(1, backend.expireBySession(null, "s1"));
+        assertNull(backend.findEntry(null, "key1"));
+        assertEquals(sessionIds("s2"), backend.findEntry(null, "key2").sessionIds);
+        assertNotNull(backend.findEntry(null, "key3"));
+
+        assertEquals(2, backend.expireBySession(null, "s2"));
+        assertNull(backend.findEntry(null, "key2"));
+        assertNull(backend.findEntry(null, "key3"));
+    }
+
+    public void testSessionIdsAreKept() {
+        final StateStoreBackend backend = new FileStateStoreBackend(directory, 1000);
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key1", "value1", false, sessionIds("s1"), null));
+
+        // Storing the entry again from another session keeps the first session
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key1", "value1b", false, sessionIds("s2"), null));
+        assertEquals("value1b", backend.findEntry(null, "key1").value);
+        assertEquals(sessionIds("s1", "s2"), backend.findEntry(null, "key1").sessionIds);
+
+        // So the entry is only removed once both sessions have expired
+        assertEquals(0, backend.expireBySession(null, "s1"));
+        assertEquals("value1b", backend.findEntry(null, "key1").value);
+        assertEquals(1, backend.expireBySession(null, "s2"));
+        assertNull(backend.findEntry(null, "key1"));
+    }
+
+    public void testDestroy() {
+        final StateStoreBackend backend = new FileStateStoreBackend(directory, 1000);
+        backend.storeEntry(null, new XFormsStateStore.StoreEntry("key1", "value1", false, sessionIds("s1"), null));
+        assertEquals(1, directory.listFiles().length);
+
+        // The log is closed and deleted
+        backend.destroy();
+        assertEquals(0, directory.listFiles().length);
+
+        // Destroying again has no effect
+        backend.destroy();
+    }
+
+    private static Map<String, String> sessionIds(String... sessionIds) {
+        final Map<String, String> result = new HashMap<String, String>();
+        for (final String sessionId: sessionIds)
+            result.put(sessionId, "");
+        return result;
+    }
+}
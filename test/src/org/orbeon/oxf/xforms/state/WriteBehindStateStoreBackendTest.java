@@ -0,0 +1,284 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import junit.framework.TestCase;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+public class WriteBehindStateStoreBackendTest extends TestCase {
+
+    public void testQueuedEntriesAreFound() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5);
+
+        backend.storeEntry(null, entry("key1", "value1", "s1"));
+        backend.storeEntry(null, entry("key2", "value2", "s1"));
+
+        // Found while queued or being written
+        assertEquals("value1", backend.findEntry(null, "key1").value);
+        assertEquals("value2", backend.findEntry(null, "key2").value);
+
+        testBackend.allowWrites(2);
+        waitForQueue(backend);
+
+        assertEquals("value1", testBackend.entries.get("key1").value);
+        assertEquals("value2", testBackend.entries.get("key2").value);
+        assertEquals(2, backend.getWrittenCount());
+    }
+
+    public void testCoalescing() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5);
+
+        // The writer takes the first entry and blocks writing it
+        backend.storeEntry(null, entry("key0", "value0", "s1"));
+        while (backend.findEntry(null, "key0") != null && testBackend.waitingWrites() == 0)
+            Thread.sleep(1);
+
+        backend.storeEntry(null, entry("key1", "value1a", "s1"));
+        backend.storeEntry(null, entry("key1", "value1b", "s2"));
+        assertEquals(1, backend.getCoalescedCount());
+
+        testBackend.allowWrites(2);
+        waitForQueue(backend);
+
+        assertEquals("value1b", testBackend.entries.get("key1").value);
+        assertEquals(sessionIds("s1", "s2"), testBackend.entries.get("key1").sessionIds);
+        assertEquals(2, testBackend.writeCount);
+    }
+
+    public void testBackPressure() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 2, 1);
+
+        final Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 10; i++)
+                    backend.storeEntry(null, entry("key" + i, "value" + i, "s1"));
+            }
+        };
+        producer.start();
+        Thread.sleep(100);
+
+        // One entry being written and two queued
+        assertTrue(producer.isAlive());
+        assertEquals(3, backend.getQueueDepth());
+
+        testBackend.allowWrites(10);
+        producer.join();
+        waitForQueue(backend);
+        assertEquals(10, testBackend.entries.size());
+    }
+
+    public void testExpireBySession() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5);
+        testBackend.allowWrites(100);
+
+        backend.storeEntry(null, entry("key1", "value1", "s1"));
+        backend.storeEntry(null, entry("key2", "value2", "s1", "s2"));
+        backend.expireBySession(null, "s1");
+        waitForQueue(backend);
+
+        assertNull(backend.findEntry(null, "key1"));
+        assertEquals(sessionIds("s2"), backend.findEntry(null, "key2").sessionIds);
+    }
+
+    public void testFailedWritesAreRetried() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5, 100, 1000);
+        testBackend.failWrites(1);
+        testBackend.allowWrites(100);
+
+        backend.storeEntry(null, entry("key1", "value1", "s1"));
+        backend.storeEntry(null, entry("key2", "value2", "s1"));
+
+        // Entries not written remain visible
+        while (testBackend.failedCount == 0)
+            Thread.sleep(1);
+        assertEquals("value1", backend.findEntry(null, "key1").value);
+        assertEquals("value2", backend.findEntry(null, "key2").value);
+
+        waitForQueue(backend);
+        assertEquals("value1", testBackend.entries.get("key1").value);
+        assertEquals("value2", testBackend.entries.get("key2").value);
+        backend.destroy();
+    }
+
+    public void testFailingBackendDoesNotBlock() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 2, 1, 10000, 50);
+        testBackend.failWrites(Integer.MAX_VALUE);
+        testBackend.allowWrites(Integer.MAX_VALUE);
+
+        // The queue never drains, but storing entries must still return
+        final Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 10; i++)
+                    backend.storeEntry(null, entry("key" + i, "value" + i, "s1"));
+            }
+        };
+        producer.start();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+
+        // The entries which didn't fit in the queue were dropped, the others are still visible
+        assertTrue(backend.getSynchronousCount() > 0);
+        assertEquals(backend.getSynchronousCount(), backend.getDroppedCount());
+        assertEquals(10, backend.getQueueDepth() + backend.getDroppedCount());
+        assertEquals("value0", backend.findEntry(null, "key0").value);
+        assertEquals(0, testBackend.entries.size());
+        backend.destroy();
+    }
+
+    public void testDestroy() throws InterruptedException {
+        final TestBackend testBackend = new TestBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5);
+
+        backend.storeEntry(null, entry("key1", "value1", "s1"));
+        testBackend.allowWrites(1);
+        waitForQueue(backend);
+
+        // The underlying backend is destroyed too
+        backend.destroy();
+        assertTrue(testBackend.isDestroyed);
+    }
+
+    public void testBatchBackend() throws InterruptedException {
+        final TestBatchBackend testBackend = new TestBatchBackend();
+        final WriteBehindStateStoreBackend backend = new WriteBehindStateStoreBackend(testBackend, 10, 5);
+
+        // The writer takes the first entry and blocks writing it
+        backend.storeEntry(null, entry("key0", "value0", "s1"));
+        while (testBackend.waitingWrites() == 0)
+            Thread.sleep(1);
+        for (int i = 1; i <= 5; i++)
+            backend.storeEntry(null, entry("key" + i, "value" + i, "s1"));
+
+        testBackend.allowWrites(2);
+        waitForQueue(backend);
+
+        // One call for the first entry, then one for the other five
+        assertEquals(6, testBackend.entries.size());
+        assertEquals(2, testBackend.batchCount);
+        backend.destroy();
+    }
+
+    private static void waitForQueue(WriteBehindStateStoreBackend backend) throws InterruptedException {
+        while (backend.getQueueDepth() > 0)
+            Thread.sleep(1);
+    }
+
+    private static XFormsStateStore.StoreEntry entry(String key, String value, String... sessionIds) {
+        return new XFormsStateStore.StoreEntry(key, value, false, sessionIds(sessionIds), null);
+    }
+
+    private static Map<String, String> sessionIds(String... sessionIds) {
+        final Map<String, String> result = new HashMap<String, String>();
+        for (final String sessionId: sessionIds)
+            result.put(sessionId, "");
+        return result;
+    }
+
+    /**
+     * Backend keeping entries in memory, where each write must be allowed by the test.
+     */
+    private static class TestBackend implements StateStoreBackend {
+
+        public final Map<String, XFormsStateStore.StoreEntry> entries = new HashMap<String, XFormsStateStore.StoreEntry>();
+        public volatile int writeCount;
+        public volatile int failedCount;
+        public volatile boolean isDestroyed;
+        protected final Semaphore writePermits = new Semaphore(0);
+        private int failures;
+
+        public void allowWrites(int count) {
+            writePermits.release(count);
+        }
+
+        public synchronized void failWrites(int count) {
+            failures = count;
+        }
+
+        public int waitingWrites() {
+            return writePermits.getQueueLength();
+        }
+
+        public synchronized XFormsStateStore.StoreEntry findEntry(PipelineContext pipelineContext, String key) {
+            return entries.get(key);
+        }
+
+        public void storeEntry(PipelineContext pipelineContext, XFormsStateStore.StoreEntry storeEntry) {
+            writePermits.acquireUninterruptibly();
+            synchronized (this) {
+                if (failures > 0) {
+                    failures--;
+                    failedCount++;
+                    throw new IllegalStateException("Write failed.");
+                }
+                put(storeEntry);
+                writeCount++;
+            }
+        }
+
+        // Keep the session ids of the existing entry, as backends do
+        protected void put(XFormsStateStore.StoreEntry storeEntry) {
+            final Map<String, String> sessionIds = new HashMap<String, String>(storeEntry.sessionIds);
+            final XFormsStateStore.StoreEntry existingStoreEntry = entries.get(storeEntry.key);
+            if (existingStoreEntry != null)
+                sessionIds.putAll(existingStoreEntry.sessionIds);
+            entries.put(storeEntry.key, new XFormsStateStore.StoreEntry(storeEntry.key, storeEntry.value,
+                    storeEntry.isPinned, sessionIds, storeEntry.previousKey));
+        }
+
+        public synchronized int expireBySession(PipelineContext pipelineContext, String sessionId) {
+            int count = 0;
+            for (final java.util.Iterator<XFormsStateStore.StoreEntry> i = entries.values().iterator(); i.hasNext();) {
+                final XFormsStateStore.StoreEntry storeEntry = i.next();
+                if (storeEntry.sessionIds.remove(sessionId) != null && storeEntry.sessionIds.isEmpty()) {
+                    i.remove();
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public synchronized void expireAll(PipelineContext pipelineContext) {
+            entries.clear();
+        }
+
+        public void destroy() {
+            isDestroyed = true;
+        }
+    }
+
+    private static class TestBatchBackend extends TestBackend implements BatchStateStoreBackend {
+
+        public volatile int batchCount;
+
+        public void storeEntries(PipelineContext pipelineContext, List<XFormsStateStore.StoreEntry> storeEntries) {
+            writePermits.acquireUninterruptibly();
+            synchronized (this) {
+                for (final XFormsStateStore.StoreEntry storeEntry: storeEntries)
+                    put(storeEntry);
+                batchCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *  Copyright (C) 2010 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import junit.framework.TestCase;
+
+public class XFormsStateStoreTest extends TestCase {
+
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    public void testStateLargerThanShard() {
+        final XFormsStateStore store = new TestStateStore();
+        assertTrue(store.getShardCount() > 1);
+
+        for (int i = 0; i < 100; i++)
+            store.addOrReplaceOne("key" + i, "value" + i, false, null, null);
+
+        // Twice the share of one shard, but the store is not full: no other entry is expired
+        final String largeValue = value(MAX_SIZE / store.getShardCount());
+        store.addOrReplaceOne("large", largeValue, false, null, null);
+
+        assertEquals(largeValue, store.findOne("large"));
+        for (int i = 0; i < 100; i++)
+            assertEquals("value" + i, store.findOne("key" + i));
+    }
+
+    public void testMaxSize() {
+        final XFormsStateStore store = new TestStateStore();
+
+        // Each value takes a quarter of the store
+        for (int i = 0; i < 20; i++) {
+            final String value = value(MAX_SIZE / 8);
+            store.addOrReplaceOne("key" + i, value, false, null, null);
+
+            assertTrue(store.getCurrentStoreSize() <= MAX_SIZE);
+            assertEquals(value, store.findOne("key" + i));
+        }
+
+        // The store is full with four entries
+        int foundCount = 0;
+        for (int i = 0; i < 20; i++)
+            if (store.findEntry("key" + i) != null)
+                foundCount++;
+        assertEquals(4, foundCount);
+    }
+
+    private static String value(int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            sb.append((char) ('a' + i % 26));
+        return sb.toString();
+    }
+
+    private static class TestStateStore extends XFormsStateStore {
+
+        protected int getMaxSize() {
+            return MAX_SIZE;
+        }
+
+        protected int getDeltaInterval() {
+            return 0;
+        }
+
+        protected String getStoreDebugName() {
+            return "test";
+        }
+    }
+}